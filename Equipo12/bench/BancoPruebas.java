@@ -0,0 +1,383 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Pruebas de rendimiento de las rutas críticas: escritura y lectura del
+ * DAO, cálculo de la nómina, lectura de los enumerados y los informes
+ * completos sobre ficheros generados.
+ *
+ * Uso: {@code java BancoPruebas [-json fichero] [-filtro texto]
+ * [-registros n1,n2,...] [-dir directorio] [-calentamiento n]
+ * [-iteraciones n] [-duracion ms]}, o {@code ant bench} desde el proyecto.
+ *
+ * Cada prueba se calienta y se mide como hace JMH: iteraciones de duración
+ * fija (o de una ejecución, en los informes completos) cuyo resultado se
+ * resume con la media y el intervalo de confianza del 99,9 %. Con
+ * {@code -json} los resultados se guardan en el mismo formato JSON que
+ * JMH, para comparar ejecuciones con las mismas herramientas. No se usa
+ * JMH porque sus pruebas tienen que estar en un paquete con nombre y las
+ * clases del proyecto están en el paquete por defecto.
+ *
+ * Los ficheros de cada tamaño se generan la primera vez en el directorio
+ * indicado y se reutilizan en las siguientes ejecuciones.
+ */
+public class BancoPruebas {
+
+    /**
+     * Cuantiles 0,9995 de la t de Student para 1 a 30 grados de libertad.
+     */
+    private static final double[] T_999 = {
+        636.62, 31.60, 12.92, 8.61, 6.87, 5.96, 5.41, 5.04, 4.78, 4.59,
+        4.44, 4.32, 4.22, 4.14, 4.07, 4.01, 3.97, 3.92, 3.88, 3.85,
+        3.82, 3.79, 3.77, 3.75, 3.73, 3.71, 3.69, 3.67, 3.66, 3.65};
+
+    private int calentamiento = 3;
+    private int iteraciones = 5;
+    private long duracion = 1000;
+    /**
+     * Resultados de las pruebas, que se suman aquí para que el compilador
+     * no pueda eliminar el trabajo medido.
+     */
+    static long sumidero;
+
+    public static void main(String[] args) {
+        BancoPruebas banco = new BancoPruebas();
+        String json = null;
+        String filtro = null;
+        long[] registros = {10_000, 1_000_000, 10_000_000};
+        String dir = System.getProperty("java.io.tmpdir") + File.separator + "equipo12-bench";
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-json":
+                        json = valor(args, ++i);
+                        break;
+                    case "-filtro":
+                        filtro = valor(args, ++i);
+                        break;
+                    case "-registros":
+                        registros = Arrays.stream(valor(args, ++i).split(","))
+                                .mapToLong(s -> Long.parseLong(s.trim())).toArray();
+                        break;
+                    case "-dir":
+                        dir = valor(args, ++i);
+                        break;
+                    case "-calentamiento":
+                        banco.calentamiento = Integer.parseInt(valor(args, ++i));
+                        break;
+                    case "-iteraciones":
+                        banco.iteraciones = Integer.parseInt(valor(args, ++i));
+                        break;
+                    case "-duracion":
+                        banco.duracion = Long.parseLong(valor(args, ++i));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Opción desconocida: " + args[i]);
+                }
+            }
+            if (banco.iteraciones < 1 || banco.calentamiento < 0 || banco.duracion < 1) {
+                throw new IllegalArgumentException("Iteraciones o duración inválidas.");
+            }
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Uso: java BancoPruebas [-json fichero] [-filtro texto]"
+                    + " [-registros n1,n2,...] [-dir directorio] [-calentamiento n]"
+                    + " [-iteraciones n] [-duracion ms]");
+            return;
+        }
+
+        try {
+            Files.createDirectories(Paths.get(dir));
+            List<Prueba> pruebas = PruebasEmpleados.todas(dir, registros);
+            List<Resultado> resultados = new ArrayList<>();
+            for (Prueba p : pruebas) {
+                if (filtro == null || p.getNombreCompleto().contains(filtro)) {
+                    resultados.add(banco.mide(p));
+                }
+            }
+            imprime(resultados);
+            if (json != null) {
+                escribeJson(resultados, json, banco);
+                System.out.println("Resultados en " + json);
+            }
+        } catch (Exception ex) {
+            System.err.println("Error en las pruebas de rendimiento: " + ex);
+            ex.printStackTrace(System.err);
+        }
+    }
+
+    private static String valor(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Falta el valor de " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    /**
+     * Calienta y mide una prueba.
+     */
+    Resultado mide(Prueba p) throws Exception {
+        System.out.println("# " + p.getNombreCompleto());
+        p.prepara();
+        try {
+            for (int i = 0; i < calentamiento; i++) {
+                System.out.printf(Locale.ROOT, "Calentamiento %d: %.3f %s%n", i + 1, iteracion(p),
+                        p.getUnidad());
+            }
+            double[] medidas = new double[iteraciones];
+            for (int i = 0; i < iteraciones; i++) {
+                medidas[i] = iteracion(p);
+                System.out.printf(Locale.ROOT, "Iteración %d: %.3f %s%n", i + 1, medidas[i],
+                        p.getUnidad());
+            }
+            return new Resultado(p, medidas);
+        } finally {
+            p.termina();
+        }
+    }
+
+    /**
+     * Una iteración: en modo {@code thrpt}, operaciones por segundo durante
+     * la duración fijada; en modo {@code avgt}, milisegundos de una
+     * ejecución. La preparación de la iteración no se mide.
+     */
+    private double iteracion(Prueba p) throws Exception {
+        p.preparaIteracion();
+        if (p.esTiempoMedio()) {
+            long inicio = System.nanoTime();
+            sumidero += p.ejecuta();
+            return (System.nanoTime() - inicio) / 1e6;
+        }
+        long operaciones = 0;
+        long inicio = System.nanoTime();
+        long fin = inicio + duracion * 1_000_000;
+        long ahora;
+        do {
+            sumidero += p.ejecuta();
+            operaciones += p.getOperacionesPorLlamada();
+            ahora = System.nanoTime();
+        } while (ahora < fin);
+        return operaciones * 1e9 / (ahora - inicio);
+    }
+
+    private static void imprime(List<Resultado> resultados) {
+        System.out.println();
+        System.out.printf(Locale.ROOT, "%-40s %-22s %5s %4s %16s %14s  %s%n",
+                "Benchmark", "(parámetros)", "Mode", "Cnt", "Score", "Error", "Units");
+        for (Resultado r : resultados) {
+            System.out.printf(Locale.ROOT, "%-40s %-22s %5s %4d %16.3f ± %12.3f  %s%n",
+                    r.prueba.getNombre(), r.prueba.getParametros().isEmpty() ? ""
+                    : r.prueba.getParametros().toString(), r.prueba.getModo(), r.medidas.length,
+                    r.media, r.error, r.prueba.getUnidad());
+        }
+    }
+
+    /**
+     * Guarda los resultados con el esquema de {@code -rf json} de JMH.
+     */
+    private static void escribeJson(List<Resultado> resultados, String fichero, BancoPruebas b)
+            throws IOException {
+        Path ruta = Paths.get(fichero).toAbsolutePath();
+        Files.createDirectories(ruta.getParent());
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(ruta,
+                StandardCharsets.UTF_8))) {
+            out.println("[");
+            for (int i = 0; i < resultados.size(); i++) {
+                Resultado r = resultados.get(i);
+                Prueba p = r.prueba;
+                out.println("    {");
+                out.println("        \"benchmark\" : " + cadena(p.getNombre()) + ",");
+                out.println("        \"mode\" : " + cadena(p.getModo()) + ",");
+                out.println("        \"threads\" : 1,");
+                out.println("        \"forks\" : 1,");
+                out.println("        \"jvm\" : " + cadena(System.getProperty("java.home")
+                        + File.separator + "bin" + File.separator + "java") + ",");
+                out.println("        \"jdkVersion\" : " + cadena(System.getProperty("java.version")) + ",");
+                out.println("        \"vmName\" : " + cadena(System.getProperty("java.vm.name")) + ",");
+                out.println("        \"warmupIterations\" : " + b.calentamiento + ",");
+                out.println("        \"warmupTime\" : " + cadena(p.esTiempoMedio() ? "1 ejecución"
+                        : b.duracion + " ms") + ",");
+                out.println("        \"measurementIterations\" : " + r.medidas.length + ",");
+                out.println("        \"measurementTime\" : " + cadena(p.esTiempoMedio() ? "1 ejecución"
+                        : b.duracion + " ms") + ",");
+                if (!p.getParametros().isEmpty()) {
+                    out.println("        \"params\" : {");
+                    int k = 0;
+                    for (Map.Entry<String, String> e : p.getParametros().entrySet()) {
+                        out.println("            " + cadena(e.getKey()) + " : " + cadena(e.getValue())
+                                + (++k < p.getParametros().size() ? "," : ""));
+                    }
+                    out.println("        },");
+                }
+                out.println("        \"primaryMetric\" : {");
+                out.println("            \"score\" : " + numero(r.media) + ",");
+                out.println("            \"scoreError\" : " + numero(r.error) + ",");
+                out.println("            \"scoreConfidence\" : [");
+                out.println("                " + numero(r.media - r.error) + ",");
+                out.println("                " + numero(r.media + r.error));
+                out.println("            ],");
+                out.println("            \"scoreUnit\" : " + cadena(p.getUnidad()) + ",");
+                StringBuilder crudos = new StringBuilder();
+                for (int j = 0; j < r.medidas.length; j++) {
+                    crudos.append(j == 0 ? "" : ", ").append(numero(r.medidas[j]));
+                }
+                out.println("            \"rawData\" : [");
+                out.println("                [" + crudos + "]");
+                out.println("            ]");
+                out.println("        },");
+                out.println("        \"secondaryMetrics\" : {");
+                out.println("        }");
+                out.println("    }" + (i + 1 < resultados.size() ? "," : ""));
+            }
+            out.println("]");
+        }
+    }
+
+    private static String cadena(String s) {
+        StringBuilder b = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                b.append('\\').append(c);
+            } else if (c < 0x20) {
+                b.append(String.format("\\u%04x", (int) c));
+            } else {
+                b.append(c);
+            }
+        }
+        return b.append('"').toString();
+    }
+
+    private static String numero(double d) {
+        return Double.isNaN(d) || Double.isInfinite(d) ? "\"NaN\"" : Double.toString(d);
+    }
+
+    /**
+     * Una prueba de rendimiento.
+     */
+    abstract static class Prueba {
+
+        private final String nombre;
+        private final String modo;
+        private final int operacionesPorLlamada;
+        private final Map<String, String> parametros = new LinkedHashMap<>();
+
+        /**
+         * @param nombre nombre de la prueba, como {@code Clase.metodo}
+         * @param modo {@code thrpt} (operaciones por segundo) o
+         * {@code avgt} (milisegundos por ejecución)
+         * @param operacionesPorLlamada operaciones que hace cada llamada a
+         * {@link #ejecuta()} en modo {@code thrpt}
+         */
+        Prueba(String nombre, String modo, int operacionesPorLlamada) {
+            this.nombre = nombre;
+            this.modo = modo;
+            this.operacionesPorLlamada = operacionesPorLlamada;
+        }
+
+        Prueba parametro(String clave, Object valor) {
+            parametros.put(clave, String.valueOf(valor));
+            return this;
+        }
+
+        String getNombre() {
+            return nombre;
+        }
+
+        String getNombreCompleto() {
+            return parametros.isEmpty() ? nombre : nombre + " " + parametros;
+        }
+
+        String getModo() {
+            return modo;
+        }
+
+        boolean esTiempoMedio() {
+            return modo.equals("avgt");
+        }
+
+        String getUnidad() {
+            return esTiempoMedio() ? "ms/op" : "ops/s";
+        }
+
+        int getOperacionesPorLlamada() {
+            return operacionesPorLlamada;
+        }
+
+        Map<String, String> getParametros() {
+            return parametros;
+        }
+
+        /**
+         * Prepara la prueba antes del calentamiento.
+         */
+        void prepara() throws Exception {
+        }
+
+        /**
+         * Prepara cada iteración, de calentamiento o de medida, fuera del
+         * tiempo medido.
+         */
+        void preparaIteracion() throws Exception {
+        }
+
+        /**
+         * Hace el trabajo medido.
+         *
+         * @return un valor que depende del trabajo hecho
+         */
+        abstract long ejecuta() throws Exception;
+
+        /**
+         * Libera lo preparado, tras la última iteración.
+         */
+        void termina() throws Exception {
+        }
+    }
+
+    /**
+     * Medidas de una prueba con su media e intervalo de confianza.
+     */
+    static final class Resultado {
+
+        final Prueba prueba;
+        final double[] medidas;
+        final double media;
+        final double error;
+
+        Resultado(Prueba prueba, double[] medidas) {
+            this.prueba = prueba;
+            this.medidas = medidas;
+            int n = medidas.length;
+            double suma = 0;
+            for (double m : medidas) {
+                suma += m;
+            }
+            this.media = suma / n;
+            if (n < 2) {
+                this.error = Double.NaN;
+            } else {
+                double cuadrados = 0;
+                for (double m : medidas) {
+                    cuadrados += (m - media) * (m - media);
+                }
+                double t = n - 1 <= T_999.length ? T_999[n - 2] : 3.29;
+                this.error = t * Math.sqrt(cuadrados / (n - 1)) / Math.sqrt(n);
+            }
+        }
+    }
+}
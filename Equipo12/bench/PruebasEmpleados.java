@@ -0,0 +1,435 @@
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Pruebas que ejecuta {@link BancoPruebas}.
+ */
+final class PruebasEmpleados {
+
+    /**
+     * Empleados distintos que recorren las pruebas de la nómina.
+     */
+    private static final int NUM_EMPLEADOS = 1024;
+    private static final long SEMILLA = 12;
+
+    private static final String[] SEXOS = {"H", "m", "Mujer", " hombre ", "FEMENINO", "masc"};
+    private static final String[] TIPOS = {"F", "c", "Fijo", "a comisión", "DOMICILIO", "com"};
+    private static final String[] PROVINCIAS = {"Sevilla", "al", "Málaga", " CADIZ ", "Jaén",
+        "hu", "Granada", "CORDOBA"};
+
+    private PruebasEmpleados() {
+    }
+
+    /**
+     * Crea todas las pruebas.
+     *
+     * @param dir directorio de los ficheros generados
+     * @param registros tamaños de fichero de los informes completos
+     * @return las pruebas en el orden en que se ejecutan
+     */
+    static List<BancoPruebas.Prueba> todas(String dir, long[] registros) {
+        List<BancoPruebas.Prueba> pruebas = new ArrayList<>();
+        EmpleadoDAO dao = new EmpleadoDAO();
+        Empleado[] empleados = empleados(NUM_EMPLEADOS);
+        long menor = registros.length == 0 ? 10_000 : registros[0];
+        for (long n : registros) {
+            menor = Math.min(menor, n);
+        }
+
+        String escritura = Paths.get(dir, "escritura", "FICHE.DAT").toString();
+        pruebas.add(new BancoPruebas.Prueba("EmpleadoDAO.escribeEmpleado", "thrpt", 1) {
+            private int i;
+
+            @Override
+            void prepara() throws IOException {
+                Files.createDirectories(Paths.get(escritura).getParent());
+                borra(escritura);
+            }
+
+            @Override
+            long ejecuta() throws IOException {
+                dao.escribeEmpleado(escritura, empleados[i++ & (NUM_EMPLEADOS - 1)]);
+                return i;
+            }
+
+            @Override
+            void termina() throws IOException {
+                borra(escritura);
+            }
+        });
+
+        // Cada llamada abre el fichero y lo cierra, como hace el DAO
+        long registrosLectura = menor;
+        pruebas.add(new BancoPruebas.Prueba("EmpleadoDAO.leeEmpleado", "thrpt", 1) {
+            private String fichero;
+            private final SplittableRandom r = new SplittableRandom(SEMILLA);
+
+            @Override
+            void prepara() throws IOException {
+                fichero = fichero(dir, registrosLectura);
+            }
+
+            @Override
+            long ejecuta() throws IOException {
+                return dao.leeEmpleado(fichero, r.nextLong(registrosLectura)).getNombre().length();
+            }
+        }.parametro("registros", registrosLectura).parametro("apertura", "por llamada"));
+
+        // Lectura secuencial con un único lector abierto
+        pruebas.add(new BancoPruebas.Prueba("LectorEmpleados.lee", "thrpt", 1) {
+            private String fichero;
+            private LectorEmpleados lector;
+
+            @Override
+            void prepara() throws IOException {
+                fichero = fichero(dir, registrosLectura);
+                lector = dao.abreLector(fichero);
+            }
+
+            @Override
+            long ejecuta() throws IOException {
+                Empleado e = lector.lee();
+                if (e == null) {
+                    // Al llegar al final se vuelve a empezar
+                    lector.close();
+                    lector = dao.abreLector(fichero);
+                    e = lector.lee();
+                }
+                return e.getNombre().length();
+            }
+
+            @Override
+            void termina() throws IOException {
+                lector.close();
+            }
+        }.parametro("registros", registrosLectura));
+
+        // Con un solo día se usa el cálculo memorizado; con 365 se repite
+        for (int dias : new int[]{1, 365}) {
+            pruebas.add(new Nomina("Empleado.getSueldo", empleados, dias) {
+                @Override
+                long calcula(Empleado e, LocalDate fecha) {
+                    return e.getSueldo(fecha).scale();
+                }
+            });
+            pruebas.add(new Nomina("Empleado.getComplementos", empleados, dias) {
+                @Override
+                long calcula(Empleado e, LocalDate fecha) {
+                    return e.getComplementos(fecha).scale();
+                }
+            });
+            pruebas.add(new Nomina("Empleado.getAntiguedad", empleados, dias) {
+                @Override
+                long calcula(Empleado e, LocalDate fecha) {
+                    return e.getAntiguedad(fecha);
+                }
+            });
+        }
+
+        pruebas.add(new BancoPruebas.Prueba("Sexo.fromInput", "thrpt", SEXOS.length) {
+            @Override
+            long ejecuta() {
+                long s = 0;
+                for (String x : SEXOS) {
+                    s += Sexo.fromInput(x).ordinal();
+                }
+                return s;
+            }
+        });
+        pruebas.add(new BancoPruebas.Prueba("TipoEmpleado.fromInput", "thrpt", TIPOS.length) {
+            @Override
+            long ejecuta() {
+                long s = 0;
+                for (String x : TIPOS) {
+                    s += TipoEmpleado.fromInput(x).ordinal();
+                }
+                return s;
+            }
+        });
+        pruebas.add(new BancoPruebas.Prueba("Provincia.fromInput", "thrpt", PROVINCIAS.length) {
+            @Override
+            long ejecuta() {
+                long s = 0;
+                for (String x : PROVINCIAS) {
+                    s += Provincia.fromInput(x).ordinal();
+                }
+                return s;
+            }
+        });
+
+        pruebas.add(new BancoPruebas.Prueba("JVM.arranque", "avgt", 1) {
+            @Override
+            long ejecuta() throws IOException, InterruptedException {
+                return ejecutaJvm(Vacio.class.getName(), new File(dir),
+                        new File(dir, "arranque.txt"));
+            }
+        });
+        for (String informe : new String[]{"MainC", "MainD", "MainE"}) {
+            for (long n : registros) {
+                pruebas.add(new Informe(informe, dir, n, false));
+                if (!informe.equals("MainC")) {
+                    pruebas.add(new Informe(informe, dir, n, true));
+                }
+            }
+        }
+        return pruebas;
+    }
+
+    /**
+     * Recorre los empleados calculando un dato de la nómina a una fecha,
+     * que cambia en cada llamada entre {@code dias} días distintos.
+     */
+    private abstract static class Nomina extends BancoPruebas.Prueba {
+
+        private final Empleado[] empleados;
+        private final LocalDate[] fechas;
+        private int llamada;
+
+        Nomina(String nombre, Empleado[] empleados, int dias) {
+            super(nombre, "thrpt", empleados.length);
+            this.empleados = empleados;
+            this.fechas = new LocalDate[dias];
+            LocalDate hoy = LocalDate.now();
+            for (int i = 0; i < dias; i++) {
+                fechas[i] = hoy.plusDays(i);
+            }
+            parametro("dias", dias);
+        }
+
+        @Override
+        long ejecuta() {
+            LocalDate fecha = fechas[llamada++ % fechas.length];
+            long s = 0;
+            for (Empleado e : empleados) {
+                s += calcula(e, fecha);
+            }
+            return s;
+        }
+
+        abstract long calcula(Empleado e, LocalDate fecha);
+    }
+
+    /**
+     * Ejecuta un informe completo en otra JVM, sobre un FICHE.DAT generado,
+     * como lo haría el usuario, y comprueba su salida con el manifiesto del
+     * fichero. Incluye el arranque de la JVM, que se mide aparte en
+     * {@code JVM.arranque}.
+     *
+     * Antes de cada iteración se borran las estadísticas y los puntos de
+     * control que deja la anterior, para medir la pasada completa; la
+     * variante que los conserva mide la ejecución repetida, que solo los
+     * lee.
+     */
+    private static final class Informe extends BancoPruebas.Prueba {
+
+        private final String clase;
+        private final String dir;
+        private final long registros;
+        private final boolean conservaPuntos;
+        private String fichero;
+        private File directorio;
+        private GeneradorEmpleados.Manifiesto manifiesto;
+
+        Informe(String clase, String dir, long registros, boolean conservaPuntos) {
+            super(clase + ".main", "avgt", 1);
+            this.clase = clase;
+            this.dir = dir;
+            this.registros = registros;
+            this.conservaPuntos = conservaPuntos;
+            parametro("registros", registros);
+            if (!clase.equals("MainC")) {
+                parametro("puntosControl", conservaPuntos ? "conservados" : "borrados");
+            }
+        }
+
+        @Override
+        void prepara() throws IOException {
+            fichero = fichero(dir, registros);
+            directorio = new File(fichero).getParentFile();
+            manifiesto = GeneradorEmpleados.Manifiesto.lee(
+                    GeneradorEmpleados.Manifiesto.ficheroDe(fichero));
+        }
+
+        @Override
+        void preparaIteracion() throws IOException {
+            if (!conservaPuntos) {
+                borraPuntosControl(fichero);
+            }
+        }
+
+        @Override
+        long ejecuta() throws IOException, InterruptedException {
+            return ejecutaJvm(clase, directorio, new File(directorio, clase + ".txt"));
+        }
+
+        @Override
+        void termina() throws IOException {
+            // Solo interesan las cifras, que son ASCII en cualquier codificación
+            List<String> lineas = Files.readAllLines(new File(directorio, clase + ".txt").toPath(),
+                    StandardCharsets.ISO_8859_1);
+            String esperado;
+            boolean correcto;
+            switch (clase) {
+                case "MainC":
+                    esperado = (manifiesto.getRegistros() + 1) + " líneas";
+                    correcto = lineas.size() == manifiesto.getRegistros() + 1;
+                    break;
+                case "MainD":
+                    String sueldo = String.format("%.2f", manifiesto.getSueldoMaximo().doubleValue());
+                    esperado = "sueldo máximo " + sueldo + " de "
+                            + manifiesto.getEmpleadosSueldoMaximo() + " empleado(s)";
+                    correcto = lineas.size() == manifiesto.getEmpleadosSueldoMaximo() + 2
+                            && lineas.get(0).contains(sueldo);
+                    break;
+                case "MainE":
+                    long max = 0;
+                    for (Provincia pr : Provincia.values()) {
+                        max = Math.max(max, manifiesto.getConteo(pr));
+                    }
+                    esperado = "máximo de " + max + " empleados por provincia";
+                    correcto = lineas.size() > 1 && lineas.get(1).endsWith("(" + max + ")");
+                    break;
+                default:
+                    return;
+            }
+            if (!correcto) {
+                throw new IOException(clase + " no da lo que dice el manifiesto (" + esperado
+                        + "), ver " + new File(directorio, clase + ".txt"));
+            }
+        }
+    }
+
+    /**
+     * Programa vacío con el que se mide el arranque de la JVM.
+     */
+    static final class Vacio {
+
+        public static void main(String[] args) {
+        }
+    }
+
+    /**
+     * Ejecuta el {@code main} de una clase en otra JVM con el mismo
+     * classpath y espera a que termine.
+     *
+     * @return bytes de la salida
+     */
+    private static long ejecutaJvm(String clase, File directorio, File salida)
+            throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java";
+        Process p = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), clase)
+                .directory(directorio)
+                .redirectErrorStream(true)
+                .redirectOutput(salida)
+                .start();
+        p.getOutputStream().close();
+        int codigo = p.waitFor();
+        if (codigo != 0) {
+            throw new IOException(clase + " terminó con código " + codigo + ", ver " + salida);
+        }
+        return salida.length();
+    }
+
+    /**
+     * Devuelve la ruta de un FICHE.DAT de {@code n} empleados, generándolo
+     * con {@link GeneradorEmpleados} si no existe o si su manifiesto no es
+     * de hoy.
+     */
+    static String fichero(String dir, long n) throws IOException {
+        Path ruta = Paths.get(dir, "n" + n, "FICHE.DAT");
+        Path manifiesto = GeneradorEmpleados.Manifiesto.ficheroDe(ruta.toString());
+        if (Files.exists(ruta) && Files.exists(manifiesto)
+                && GeneradorEmpleados.Manifiesto.lee(manifiesto).getFecha().equals(LocalDate.now())) {
+            return ruta.toString();
+        }
+        Files.createDirectories(ruta.getParent());
+        System.out.println("Generando " + n + " empleados en " + ruta + "...");
+        new GeneradorEmpleados().setSemilla(SEMILLA).genera(ruta.toString(), n);
+        return ruta.toString();
+    }
+
+    private static Empleado[] empleados(int n) {
+        SplittableRandom r = new SplittableRandom(SEMILLA);
+        Empleado[] e = new Empleado[n];
+        for (int i = 0; i < n; i++) {
+            e[i] = empleado(r, i);
+        }
+        return e;
+    }
+
+    private static Empleado empleado(SplittableRandom r, long i) {
+        int hoy = Fechas.hoy();
+        return new Empleado(
+                "Empleado " + i,
+                r.nextBoolean() ? Sexo.HOMBRE : Sexo.MUJER,
+                BigDecimal.valueOf(r.nextLong(1_000_000), 2),
+                Fechas.deDiaEpoch(r.nextInt(hoy)),
+                TipoEmpleado.values()[r.nextInt(TipoEmpleado.values().length)],
+                Provincia.values()[r.nextInt(Provincia.values().length)]);
+    }
+
+    /**
+     * Borra un fichero de empleados con los que lo acompañan
+     * ({@code <fichero>.*}: estadísticas, cerrojo, columnas...).
+     */
+    private static void borra(String fichero) throws IOException {
+        Path ruta = Paths.get(fichero).toAbsolutePath();
+        if (!Files.isDirectory(ruta.getParent())) {
+            return;
+        }
+        String nombre = ruta.getFileName().toString();
+        try (Stream<Path> s = Files.list(ruta.getParent())) {
+            for (Path p : (Iterable<Path>) s::iterator) {
+                String n = p.getFileName().toString();
+                if (n.equals(nombre) || n.startsWith(nombre + ".")) {
+                    borraTodo(p);
+                }
+            }
+        }
+    }
+
+    /**
+     * Borra lo que los informes guardan junto a un fichero para la
+     * siguiente ejecución: las estadísticas, el final comprobado de v1 y los
+     * puntos de control de las consultas.
+     */
+    private static void borraPuntosControl(String fichero) throws IOException {
+        Path ruta = Paths.get(fichero).toAbsolutePath();
+        String nombre = ruta.getFileName().toString();
+        Pattern consultas = Pattern.compile(Pattern.quote(nombre) + "\\.q[0-9a-f]{8}");
+        try (Stream<Path> s = Files.list(ruta.getParent())) {
+            for (Path p : (Iterable<Path>) s::iterator) {
+                String n = p.getFileName().toString();
+                if (n.equals(nombre + ".est") || n.equals(nombre + ".fin")
+                        || consultas.matcher(n).matches()) {
+                    Files.delete(p);
+                }
+            }
+        }
+    }
+
+    private static void borraTodo(Path p) throws IOException {
+        if (Files.isDirectory(p)) {
+            try (Stream<Path> s = Files.list(p)) {
+                for (Path hijo : (Iterable<Path>) s::iterator) {
+                    borraTodo(hijo);
+                }
+            }
+        }
+        Files.delete(p);
+    }
+}
@@ -0,0 +1,78 @@
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Exclusión entre quienes escriben en un fichero de empleados: las sesiones
+ * de {@link EscritorEmpleados} y la compactación. Los lectores no lo usan.
+ *
+ * Se bloquea el fichero {@code <fichero>.lock} y no el de empleados, porque
+ * la compactación sustituye este último por otro. Como un proceso no puede
+ * bloquear dos veces la misma región, dentro de la misma JVM la exclusión se
+ * hace además con un semáforo por fichero.
+ */
+final class BloqueoEscritura implements Closeable {
+
+    private static final ConcurrentMap<Path, Semaphore> SEMAFOROS = new ConcurrentHashMap<>();
+
+    private final Semaphore semaforo;
+    private final FileChannel canal;
+    private final FileLock bloqueo;
+
+    private BloqueoEscritura(Semaphore semaforo, FileChannel canal, FileLock bloqueo) {
+        this.semaforo = semaforo;
+        this.canal = canal;
+        this.bloqueo = bloqueo;
+    }
+
+    /**
+     * Espera hasta obtener el bloqueo de escritura de un fichero.
+     *
+     * @param fichero ruta del fichero de empleados
+     * @return el bloqueo, que se libera al cerrarlo
+     * @throws IOException si no se puede crear el fichero de bloqueo o se
+     * interrumpe la espera
+     */
+    static BloqueoEscritura adquiere(String fichero) throws IOException {
+        Path ruta = Paths.get(fichero + ".lock").toAbsolutePath().normalize();
+        Semaphore semaforo = SEMAFOROS.computeIfAbsent(ruta, r -> new Semaphore(1));
+        try {
+            semaforo.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrumpido esperando el bloqueo de " + fichero);
+        }
+
+        FileChannel canal = null;
+        try {
+            canal = FileChannel.open(ruta, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            return new BloqueoEscritura(semaforo, canal, canal.lock());
+        } catch (IOException | RuntimeException ex) {
+            if (canal != null) {
+                canal.close();
+            }
+            semaforo.release();
+            throw ex;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            bloqueo.release();
+            canal.close();
+        } finally {
+            semaforo.release();
+        }
+    }
+}
@@ -0,0 +1,337 @@
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Índice de los bloques de un fichero comprimido, el que tiene la bandera
+ * {@link FormatoFichero#COMPRIMIDO} (ver {@link EmpleadoDAO#comprime}).
+ *
+ * Los registros, en el formato de la cabecera, se agrupan en bloques de
+ * un número fijo de registros (el último puede tener menos) que se
+ * comprimen cada uno por separado con un {@link CodecBloques}:
+ *
+ * <pre>
+ *  0  cabecera sin comprimir, con la bandera COMPRIMIDO
+ * 16  bloques comprimidos, uno tras otro
+ *  I  índice: por cada bloque, long primer registro y long posición
+ *     cola de {@link #TAM_COLA} bytes:
+ *       long     posición del índice (I)
+ *       long     número de registros
+ *       int      número de bloques
+ *       int      registros por bloque
+ *       byte     código del codec
+ *       byte[3]  reservado
+ *       int      MAGIA ("BLOQ")
+ * </pre>
+ *
+ * Las posiciones de los registros que usan {@link FicheroMapeado} y sus
+ * cursores son las que tendrían sin comprimir, así que cualquier registro
+ * se alcanza descomprimiendo solo su bloque. Cada hilo lee con su propio
+ * {@link Lector}, que guarda el último bloque descomprimido; los
+ * recorridos secuenciales descomprimen además el siguiente bloque en otro
+ * hilo mientras se recorre el actual.
+ */
+final class BloquesComprimidos {
+
+    /**
+     * Número mágico de la cola: los bytes ASCII "BLOQ".
+     */
+    static final int MAGIA = 0x424C4F51;
+    static final int TAM_COLA = 32;
+    /**
+     * Bytes sin comprimir por bloque de {@link EmpleadoDAO#comprime(String, String)}.
+     */
+    static final int TAM_BLOQUE = 64 * 1024;
+    /**
+     * Máximo de bytes sin comprimir por bloque.
+     */
+    static final int MAX_BLOQUE = 1 << 24;
+
+    private static final Map<Byte, CodecBloques> CODECS = new ConcurrentHashMap<>();
+
+    /**
+     * Hilos que descomprimen por adelantado y comprimen al escribir.
+     */
+    static final ExecutorService HILOS = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "Bloques comprimidos");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static {
+        registra(CodecBloques.SIN_COMPRIMIR);
+        registra(CodecBloques.DEFLATE);
+    }
+
+    private final String fichero;
+    private final FileChannel canal;
+    private final CodecBloques codec;
+    private final int tamRegistro;
+    private final long registros;
+    private final int porBloque;
+    /**
+     * Posición de cada bloque seguida de la del índice, que marca el fin
+     * del último.
+     */
+    private final long[] posiciones;
+
+    private BloquesComprimidos(String fichero, FileChannel canal, CodecBloques codec,
+            int tamRegistro, long registros, int porBloque, long[] posiciones) {
+        this.fichero = fichero;
+        this.canal = canal;
+        this.codec = codec;
+        this.tamRegistro = tamRegistro;
+        this.registros = registros;
+        this.porBloque = porBloque;
+        this.posiciones = posiciones;
+    }
+
+    /**
+     * Da a conocer un codec para poder leer los ficheros que lo usan.
+     *
+     * @param codec codec con un código que no tenga ningún otro
+     * @throws IllegalArgumentException si ya hay otro codec con su código
+     */
+    public static void registra(CodecBloques codec) {
+        CodecBloques anterior = CODECS.putIfAbsent(codec.getCodigo(), codec);
+        if (anterior != null && anterior != codec) {
+            throw new IllegalArgumentException("El código " + codec.getCodigo()
+                    + " ya es del codec " + anterior.getNombre());
+        }
+    }
+
+    /**
+     * Lee el índice de un fichero comprimido.
+     *
+     * @param fichero ruta del fichero, para los mensajes
+     * @param canal canal abierto para lectura, que se usa después para
+     * leer los bloques
+     * @param f formato de la cabecera
+     * @return el índice
+     * @throws IOException si la cola o el índice están dañados
+     */
+    static BloquesComprimidos lee(String fichero, FileChannel canal, FormatoFichero f)
+            throws IOException {
+        long tamano = canal.size();
+        if (tamano < f.getTamCabecera() + TAM_COLA) {
+            throw new IOException("Fichero comprimido incompleto: " + fichero);
+        }
+        ByteBuffer cola = lee(canal, tamano - TAM_COLA, TAM_COLA);
+        long posIndice = cola.getLong(0);
+        long registros = cola.getLong(8);
+        int bloques = cola.getInt(16);
+        int porBloque = cola.getInt(20);
+        byte codigo = cola.get(24);
+        if (cola.getInt(28) != MAGIA || porBloque < 1
+                || (long) porBloque * f.getTamRegistro() > MAX_BLOQUE || registros < 0
+                || bloques != (registros + porBloque - 1) / porBloque
+                || posIndice < f.getTamCabecera()
+                || posIndice + 16L * bloques + TAM_COLA != tamano) {
+            throw new IOException("Índice de bloques dañado en " + fichero);
+        }
+        CodecBloques codec = CODECS.get(codigo);
+        if (codec == null) {
+            throw new IOException("Codec de bloques desconocido en " + fichero + ": " + codigo);
+        }
+
+        ByteBuffer indice = lee(canal, posIndice, 16 * bloques);
+        long[] posiciones = new long[bloques + 1];
+        for (int i = 0; i < bloques; i++) {
+            posiciones[i] = indice.getLong(16 * i + 8);
+            if (indice.getLong(16 * i) != (long) i * porBloque
+                    || posiciones[i] < (i == 0 ? f.getTamCabecera() : posiciones[i - 1])) {
+                throw new IOException("Índice de bloques dañado en " + fichero);
+            }
+        }
+        posiciones[bloques] = posIndice;
+        if (bloques > 0 && posiciones[bloques - 1] > posIndice) {
+            throw new IOException("Índice de bloques dañado en " + fichero);
+        }
+        return new BloquesComprimidos(fichero, canal, codec, f.getTamRegistro(), registros,
+                porBloque, posiciones);
+    }
+
+    /**
+     * Tamaño que tendría sin comprimir un fichero comprimido, el de las
+     * posiciones de sus registros.
+     *
+     * @param ch canal abierto para lectura
+     * @param f formato de la cabecera
+     * @return cabecera más registros
+     * @throws IOException si no se puede leer la cola
+     */
+    static long tamanoDatos(FileChannel ch, FormatoFichero f) throws IOException {
+        if (ch.size() < f.getTamCabecera() + TAM_COLA) {
+            throw new IOException("Fichero comprimido incompleto.");
+        }
+        return f.posicion(lee(ch, ch.size() - TAM_COLA, TAM_COLA).getLong(8));
+    }
+
+    public long getRegistros() {
+        return registros;
+    }
+
+    public int getRegistrosPorBloque() {
+        return porBloque;
+    }
+
+    public int getNumBloques() {
+        return posiciones.length - 1;
+    }
+
+    public CodecBloques getCodec() {
+        return codec;
+    }
+
+    /**
+     * Crea un lector para usarlo desde un solo hilo.
+     *
+     * @param anticipa si se descomprime cada bloque siguiente por
+     * adelantado, para los recorridos secuenciales
+     * @return lector sin ningún bloque descomprimido
+     */
+    Lector lector(boolean anticipa) {
+        return new Lector(anticipa);
+    }
+
+    private static ByteBuffer lee(FileChannel ch, long posicion, int longitud) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(longitud);
+        while (b.hasRemaining()) {
+            if (ch.read(b, posicion + b.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        return b;
+    }
+
+    /**
+     * Bloque descomprimido y el array donde se leyó comprimido.
+     */
+    private final class Hueco {
+
+        final byte[] datos = new byte[(int) Math.min(porBloque, registros) * tamRegistro];
+        final ByteBuffer vista = ByteBuffer.wrap(datos);
+        byte[] comprimido = new byte[0];
+
+        void infla(int bloque) throws IOException {
+            long posicion = posiciones[bloque];
+            long longitud = posiciones[bloque + 1] - posicion;
+            if (longitud > Integer.MAX_VALUE - 8) {
+                throw new IOException("Bloque " + bloque + " dañado en " + fichero);
+            }
+            if (comprimido.length < longitud) {
+                comprimido = Arrays.copyOf(comprimido, (int) longitud);
+            }
+            ByteBuffer b = ByteBuffer.wrap(comprimido, 0, (int) longitud);
+            while (b.hasRemaining()) {
+                if (canal.read(b, posicion + b.position()) < 0) {
+                    throw new EOFException("Bloque " + bloque + " incompleto en " + fichero);
+                }
+            }
+            long primero = (long) bloque * porBloque;
+            int bytes = (int) Math.min(porBloque, registros - primero) * tamRegistro;
+            try {
+                codec.descomprime(comprimido, (int) longitud, datos, bytes);
+            } catch (IOException ex) {
+                throw new IOException("Bloque " + bloque + " dañado en " + fichero + ": "
+                        + ex.getMessage(), ex);
+            }
+        }
+    }
+
+    /**
+     * Acceso a los bloques desde un solo hilo. Mientras se usa un bloque,
+     * el siguiente se puede estar descomprimiendo en el otro hueco.
+     */
+    final class Lector {
+
+        private final boolean anticipa;
+        private Hueco actual;
+        private Hueco libre;
+        private int bloque = -1;
+        private Future<?> anticipado;
+        private int bloqueAnticipado = -1;
+
+        private Lector(boolean anticipa) {
+            this.anticipa = anticipa;
+        }
+
+        /**
+         * Devuelve un bloque descomprimido. Deja de ser válido al pedir otro.
+         *
+         * @param n número de bloque
+         * @return buffer con los registros del bloque desde la posición 0
+         * @throws IOException si no se puede leer o está dañado
+         */
+        ByteBuffer bloque(int n) throws IOException {
+            if (n == bloque) {
+                return actual.vista;
+            }
+            if (actual == null) {
+                actual = new Hueco();
+            }
+            bloque = -1;
+            if (anticipado != null && bloqueAnticipado == n) {
+                Future<?> f = anticipado;
+                anticipado = null;
+                espera(f);
+                Hueco h = actual;
+                actual = libre;
+                libre = h;
+            } else {
+                if (anticipado != null) {
+                    // Escribe en el hueco libre: hay que esperar a que acabe
+                    try {
+                        espera(anticipado);
+                    } catch (IOException ex) {
+                        // Era de un bloque que ya no hace falta
+                    }
+                    anticipado = null;
+                }
+                actual.infla(n);
+            }
+            bloque = n;
+            if (anticipa && n + 1 < getNumBloques()) {
+                if (libre == null) {
+                    libre = new Hueco();
+                }
+                Hueco h = libre;
+                bloqueAnticipado = n + 1;
+                anticipado = HILOS.submit(() -> {
+                    h.infla(n + 1);
+                    return null;
+                });
+            }
+            return actual.vista;
+        }
+
+        private void espera(Future<?> f) throws IOException {
+            try {
+                f.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrumpido descomprimiendo " + fichero);
+            } catch (ExecutionException ex) {
+                Throwable causa = ex.getCause();
+                if (causa instanceof IOException) {
+                    throw (IOException) causa;
+                }
+                if (causa instanceof RuntimeException) {
+                    throw (RuntimeException) causa;
+                }
+                throw new IOException(causa);
+            }
+        }
+    }
+}
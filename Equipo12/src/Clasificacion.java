@@ -0,0 +1,514 @@
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Los {@code n} empleados con mayor (o menor) valor de una {@link Clave},
+ * en total o por cada provincia, tipo de empleado o sexo. Es el resultado de
+ * {@link Reductores#clasificacion}, que generaliza el sueldo máximo de
+ * {@link MainD} a cualquier número de empleados y de claves.
+ *
+ * Cada grupo guarda un montículo de como mucho {@code n} pares de clave y
+ * posición en arrays de {@code long}, así que la memoria no depende del
+ * tamaño del fichero y no se crea ningún objeto por registro. Los empates
+ * se resuelven por orden del fichero, primero el que aparece antes, y el
+ * resultado no depende del reparto en tramos del recorrido en paralelo.
+ *
+ * Uso: {@code java Clasificacion [-menores] [-n numero] [-clave
+ * sueldo|salario|complementos|antiguedad] [-por provincia|tipo|sexo] [-fecha
+ * aaaa-mm-dd] [fichero]}. Por defecto muestra los 10 empleados de
+ * FICHE.DAT con mayor sueldo a día de hoy.
+ */
+public final class Clasificacion {
+
+    /**
+     * Valor por el que se ordenan los empleados.
+     */
+    public enum Clave {
+        /**
+         * Salario base más complementos, en milésimas de euro.
+         */
+        SUELDO("sueldo"),
+        /**
+         * Salario base en milésimas de euro.
+         */
+        SALARIO_BASE("salario"),
+        /**
+         * Complementos en milésimas de euro.
+         */
+        COMPLEMENTOS("complementos"),
+        /**
+         * Días desde el ingreso, que ordenan igual que los años cumplidos
+         * pero desempatan dentro del mismo año.
+         */
+        ANTIGUEDAD("antiguedad");
+
+        private final String nombre;
+
+        Clave(String nombre) {
+            this.nombre = nombre;
+        }
+
+        public String getNombre() {
+            return nombre;
+        }
+
+        /**
+         * Devuelve la clave con ese nombre.
+         *
+         * @param nombre nombre de la clave, sin distinguir mayúsculas
+         * @return la clave
+         * @throws IllegalArgumentException si no hay ninguna con ese nombre
+         */
+        public static Clave fromNombre(String nombre) {
+            for (Clave c : values()) {
+                if (c.nombre.equalsIgnoreCase(nombre.trim())) {
+                    return c;
+                }
+            }
+            throw new IllegalArgumentException("Clave desconocida: " + nombre);
+        }
+    }
+
+    /**
+     * Grupos en los que se reparte la clasificación o una {@link Consulta}.
+     */
+    public enum Agrupacion {
+        NINGUNA("ninguna", null),
+        PROVINCIA("provincia", Provincia.class),
+        TIPO_EMPLEADO("tipo", TipoEmpleado.class),
+        SEXO("sexo", Sexo.class);
+
+        private final String nombre;
+        private final Class<? extends Enum<?>> grupos;
+
+        Agrupacion(String nombre, Class<? extends Enum<?>> grupos) {
+            this.nombre = nombre;
+            this.grupos = grupos;
+        }
+
+        public String getNombre() {
+            return nombre;
+        }
+
+        /**
+         * Valores del enum de los grupos, en orden de ordinal.
+         *
+         * @return los grupos; un único null sin agrupación
+         */
+        Enum<?>[] grupos() {
+            return grupos == null ? new Enum<?>[]{null} : grupos.getEnumConstants();
+        }
+
+        /**
+         * Grupo del empleado del cursor.
+         *
+         * @param c cursor situado en un registro
+         * @return ordinal de su provincia, tipo o sexo; 0 sin agrupación
+         */
+        int indice(CursorEmpleado c) {
+            switch (this) {
+                case PROVINCIA:
+                    return c.getProvincia().ordinal();
+                case TIPO_EMPLEADO:
+                    return c.getTipoEmpleado().ordinal();
+                case SEXO:
+                    return c.getSexo().ordinal();
+                default:
+                    return 0;
+            }
+        }
+
+        /**
+         * Agrupación cuyos grupos son los valores de un enum.
+         *
+         * @param tipo clase del enum
+         * @return la agrupación
+         * @throws IllegalArgumentException si no hay ninguna de ese enum
+         */
+        static Agrupacion de(Class<?> tipo) {
+            for (Agrupacion a : values()) {
+                if (a.grupos != null && a.grupos == tipo) {
+                    return a;
+                }
+            }
+            throw new IllegalArgumentException("No se puede agrupar por " + tipo.getSimpleName());
+        }
+
+        /**
+         * Devuelve la agrupación con ese nombre.
+         *
+         * @param nombre nombre de la agrupación, sin distinguir mayúsculas
+         * @return la agrupación
+         * @throws IllegalArgumentException si no hay ninguna con ese nombre
+         */
+        public static Agrupacion fromNombre(String nombre) {
+            for (Agrupacion a : values()) {
+                if (a.nombre.equalsIgnoreCase(nombre.trim())) {
+                    return a;
+                }
+            }
+            throw new IllegalArgumentException("Agrupación desconocida: " + nombre);
+        }
+    }
+
+    private final Clave clave;
+    private final Agrupacion agrupacion;
+    private final int n;
+    private final boolean mayores;
+    private final LocalDate fecha;
+    private final int hoy;
+    /**
+     * Montículo de cada grupo por ordinal, null mientras no tiene empleados.
+     */
+    private final Monticulo[] grupos;
+
+    Clasificacion(Clave clave, Agrupacion agrupacion, int n, boolean mayores, LocalDate fecha) {
+        if (clave == null || agrupacion == null || fecha == null) {
+            throw new IllegalArgumentException("Clave, agrupación y fecha no pueden ser nulas.");
+        }
+        if (n < 1) {
+            throw new IllegalArgumentException("Número de empleados inválido: " + n);
+        }
+        this.clave = clave;
+        this.agrupacion = agrupacion;
+        this.n = n;
+        this.mayores = mayores;
+        this.fecha = fecha;
+        this.hoy = (int) fecha.toEpochDay();
+        this.grupos = new Monticulo[agrupacion.grupos().length];
+    }
+
+    public Clave getClave() {
+        return clave;
+    }
+
+    public Agrupacion getAgrupacion() {
+        return agrupacion;
+    }
+
+    public int getN() {
+        return n;
+    }
+
+    /**
+     * Indica si se guardan los de mayor valor o los de menor.
+     *
+     * @return true si son los de mayor valor
+     */
+    public boolean isMayores() {
+        return mayores;
+    }
+
+    /**
+     * Grupos con algún empleado, en orden de ordinal.
+     *
+     * @return provincias, tipos o sexos; sin agrupación, un único null si hay
+     * empleados
+     */
+    public List<Enum<?>> getGrupos() {
+        Enum<?>[] todos = agrupacion.grupos();
+        List<Enum<?>> conEmpleados = new ArrayList<>();
+        for (int i = 0; i < grupos.length; i++) {
+            if (grupos[i] != null) {
+                conEmpleados.add(todos[i]);
+            }
+        }
+        return conEmpleados;
+    }
+
+    /**
+     * Posiciones en el fichero de los empleados de un grupo, del primero
+     * de la clasificación al último.
+     *
+     * @param grupo provincia, tipo o sexo según la agrupación; null sin ella
+     * @return hasta {@code n} posiciones de registro
+     * @throws IllegalArgumentException si el grupo no es de la agrupación
+     */
+    public long[] getPosiciones(Enum<?> grupo) {
+        Monticulo m = grupos[indice(grupo)];
+        return m == null ? new long[0] : m.ordenado().posiciones();
+    }
+
+    /**
+     * Valores de la clave de los empleados de {@link #getPosiciones}, en el
+     * mismo orden y en las unidades de la {@link Clave}.
+     *
+     * @param grupo provincia, tipo o sexo según la agrupación; null sin ella
+     * @return hasta {@code n} valores
+     * @throws IllegalArgumentException si el grupo no es de la agrupación
+     */
+    public long[] getValores(Enum<?> grupo) {
+        Monticulo m = grupos[indice(grupo)];
+        if (m == null) {
+            return new long[0];
+        }
+        long[] valores = m.ordenado().claves();
+        if (!mayores) {
+            for (int i = 0; i < valores.length; i++) {
+                valores[i] = ~valores[i];
+            }
+        }
+        return valores;
+    }
+
+    /**
+     * Añade el empleado del cursor a su grupo.
+     */
+    void acumula(CursorEmpleado c) throws IOException {
+        long valor = valor(c);
+        int g = agrupacion.indice(c);
+        Monticulo m = grupos[g];
+        if (m == null) {
+            m = grupos[g] = new Monticulo(n);
+        }
+        // Con el complemento a uno los menores pasan a ser los mayores
+        m.ofrece(mayores ? valor : ~valor, c.getPosicion());
+    }
+
+    /**
+     * Añade los empleados de otra clasificación con los mismos parámetros.
+     */
+    void combina(Clasificacion otra) {
+        for (int g = 0; g < grupos.length; g++) {
+            Monticulo m = otra.grupos[g];
+            if (m == null) {
+                continue;
+            }
+            if (grupos[g] == null) {
+                grupos[g] = m;
+            } else {
+                for (int i = 0; i < m.tam; i++) {
+                    grupos[g].ofrece(m.claves[i], m.posiciones[i]);
+                }
+            }
+        }
+    }
+
+    private long valor(CursorEmpleado c) throws IOException {
+        if (clave == Clave.ANTIGUEDAD) {
+            return hoy - (long) c.getFechaIngresoDiaEpoch();
+        }
+        long salario;
+        try {
+            salario = c.getSalarioCentimos();
+        } catch (ArithmeticException ex) {
+            // Salario v1 con más de dos decimales: se trunca a milésimas
+            Empleado e = c.materializa();
+            BigDecimal v = clave == Clave.SUELDO ? e.getSueldo(fecha)
+                    : clave == Clave.COMPLEMENTOS ? e.getComplementos(fecha)
+                    : e.getSalarioBase();
+            return v.movePointRight(3).setScale(0, RoundingMode.FLOOR).longValueExact();
+        }
+        if (clave == Clave.SALARIO_BASE) {
+            return salario * 10;
+        }
+        int trienios = Fechas.anios(c.getFechaIngresoDiaEpoch(), hoy) / 3;
+        long complementos = Nomina.complementos(trienios, salario, c.getCodigoProvincia(),
+                c.getCodigoSexo() == Sexo.HOMBRE.getCodigo());
+        return clave == Clave.COMPLEMENTOS ? complementos : salario * 10 + complementos;
+    }
+
+    private int indice(Enum<?> grupo) {
+        Enum<?>[] todos = agrupacion.grupos();
+        int i = grupo == null ? 0 : grupo.ordinal();
+        if (i >= todos.length || todos[i] != grupo) {
+            throw new IllegalArgumentException("Grupo " + grupo + " ajeno a la agrupación "
+                    + agrupacion.getNombre());
+        }
+        return i;
+    }
+
+    public static void main(String[] args) {
+        Clave clave = Clave.SUELDO;
+        Agrupacion agrupacion = Agrupacion.NINGUNA;
+        int n = 10;
+        boolean mayores = true;
+        LocalDate fecha = LocalDate.now();
+        String fichero = "FICHE.DAT";
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-menores":
+                        mayores = false;
+                        break;
+                    case "-n":
+                        n = Integer.parseInt(valor(args, ++i));
+                        break;
+                    case "-clave":
+                        clave = Clave.fromNombre(valor(args, ++i));
+                        break;
+                    case "-por":
+                        agrupacion = Agrupacion.fromNombre(valor(args, ++i));
+                        break;
+                    case "-fecha":
+                        fecha = LocalDate.parse(valor(args, ++i));
+                        break;
+                    default:
+                        if (args[i].startsWith("-")) {
+                            throw new IllegalArgumentException("Opción desconocida: " + args[i]);
+                        }
+                        fichero = args[i];
+                }
+            }
+            if (n < 1) {
+                throw new IllegalArgumentException("Número de empleados inválido: " + n);
+            }
+        } catch (IllegalArgumentException | DateTimeParseException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Uso: java Clasificacion [-menores] [-n numero]"
+                    + " [-clave sueldo|salario|complementos|antiguedad] [-por provincia|tipo|sexo]"
+                    + " [-fecha aaaa-mm-dd] [fichero]");
+            return;
+        }
+
+        EmpleadoDAO dao = new EmpleadoDAO();
+        try (FicheroMapeado f = dao.abreMapeado(fichero)) {
+            Clasificacion c = EscanerParalelo.escanea(f,
+                    Reductores.clasificacion(clave, agrupacion, n, mayores, fecha));
+            System.out.println("Empleados con " + (mayores ? "mayor " : "menor ") + clave.getNombre()
+                    + " (" + n + (agrupacion == Agrupacion.NINGUNA ? "" : " por " + agrupacion.getNombre())
+                    + "):");
+            LineaEmpleado linea = new LineaEmpleado(fecha);
+            for (Enum<?> grupo : c.getGrupos()) {
+                if (grupo != null) {
+                    linea.flush();
+                    System.out.println(grupo + ":");
+                }
+                for (long posicion : c.getPosiciones(grupo)) {
+                    CursorEmpleado cursor = f.cursor(posicion, f.getTamano());
+                    cursor.siguiente();
+                    linea.escribe(cursor);
+                }
+            }
+            linea.flush();
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println("Error clasificando empleados: " + ex.getMessage());
+        } catch (UncheckedIOException ex) {
+            System.err.println("Error clasificando empleados: " + ex.getCause().getMessage());
+        }
+    }
+
+    private static String valor(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Falta el valor de " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    /**
+     * Montículo de como mucho {@code capacidad} pares de clave y posición
+     * con el peor en la raíz: va antes la clave mayor y, si empatan, la
+     * posición menor.
+     */
+    static final class Monticulo {
+
+        private final int capacidad;
+        private long[] claves;
+        private long[] posiciones;
+        private int tam;
+
+        Monticulo(int capacidad) {
+            this.capacidad = capacidad;
+            int inicial = Math.min(capacidad, 16);
+            this.claves = new long[inicial];
+            this.posiciones = new long[inicial];
+        }
+
+        private Monticulo(long[] claves, long[] posiciones, int tam) {
+            this.capacidad = tam;
+            this.claves = claves;
+            this.posiciones = posiciones;
+            this.tam = tam;
+        }
+
+        /**
+         * Añade el par si cabe o si va antes que el peor, que sale.
+         */
+        void ofrece(long clave, long posicion) {
+            if (tam < capacidad) {
+                if (tam == claves.length) {
+                    int nueva = (int) Math.min(capacidad, 2L * tam);
+                    claves = Arrays.copyOf(claves, nueva);
+                    posiciones = Arrays.copyOf(posiciones, nueva);
+                }
+                sube(tam++, clave, posicion);
+            } else if (antes(clave, posicion, claves[0], posiciones[0])) {
+                baja(0, clave, posicion, tam);
+            }
+        }
+
+        /**
+         * Copia ordenada del primero al último.
+         */
+        Monticulo ordenado() {
+            Monticulo m = new Monticulo(Arrays.copyOf(claves, tam),
+                    Arrays.copyOf(posiciones, tam), tam);
+            // Cada peor sale de la raíz al final de lo que queda
+            for (int fin = tam - 1; fin > 0; fin--) {
+                long c = m.claves[fin];
+                long p = m.posiciones[fin];
+                m.claves[fin] = m.claves[0];
+                m.posiciones[fin] = m.posiciones[0];
+                m.baja(0, c, p, fin);
+            }
+            return m;
+        }
+
+        long[] claves() {
+            return Arrays.copyOf(claves, tam);
+        }
+
+        long[] posiciones() {
+            return Arrays.copyOf(posiciones, tam);
+        }
+
+        private static boolean antes(long c1, long p1, long c2, long p2) {
+            return c1 > c2 || (c1 == c2 && p1 < p2);
+        }
+
+        private void sube(int i, long clave, long posicion) {
+            while (i > 0) {
+                int padre = (i - 1) >>> 1;
+                if (!antes(claves[padre], posiciones[padre], clave, posicion)) {
+                    break;
+                }
+                claves[i] = claves[padre];
+                posiciones[i] = posiciones[padre];
+                i = padre;
+            }
+            claves[i] = clave;
+            posiciones[i] = posicion;
+        }
+
+        private void baja(int i, long clave, long posicion, int fin) {
+            while (true) {
+                int hijo = 2 * i + 1;
+                if (hijo >= fin) {
+                    break;
+                }
+                if (hijo + 1 < fin && antes(claves[hijo], posiciones[hijo],
+                        claves[hijo + 1], posiciones[hijo + 1])) {
+                    hijo++;
+                }
+                if (!antes(clave, posicion, claves[hijo], posiciones[hijo])) {
+                    break;
+                }
+                claves[i] = claves[hijo];
+                posiciones[i] = posiciones[hijo];
+                i = hijo;
+            }
+            claves[i] = clave;
+            posiciones[i] = posicion;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Compresión de los bloques de un fichero comprimido (ver
+ * {@link BloquesComprimidos}).
+ *
+ * Cada bloque se comprime por separado, así que se puede descomprimir sin
+ * los anteriores y desde varios hilos a la vez: las implementaciones no
+ * deben guardar estado entre llamadas. El código se guarda en el fichero y
+ * con él se elige el codec al leerlo; los que no son de esta interfaz se
+ * dan a conocer con {@link BloquesComprimidos#registra}.
+ */
+public interface CodecBloques {
+
+    /**
+     * Bloques guardados tal cual, para ficheros que no se comprimen bien.
+     */
+    CodecBloques SIN_COMPRIMIR = new SinComprimir();
+    /**
+     * Bloques comprimidos con {@link Deflater} en formato zlib, que lleva su
+     * propia suma de control.
+     */
+    CodecBloques DEFLATE = new Deflate(Deflater.DEFAULT_COMPRESSION);
+
+    /**
+     * Código que identifica al codec en el fichero.
+     *
+     * @return código distinto para cada codec
+     */
+    byte getCodigo();
+
+    String getNombre();
+
+    /**
+     * Comprime un bloque.
+     *
+     * @param datos bloque sin comprimir
+     * @param longitud bytes del bloque
+     * @return el bloque comprimido
+     */
+    byte[] comprime(byte[] datos, int longitud);
+
+    /**
+     * Descomprime un bloque.
+     *
+     * @param comprimido bloque comprimido
+     * @param longComprimido bytes del bloque comprimido
+     * @param destino array para el bloque sin comprimir
+     * @param longitud bytes que debe tener el bloque sin comprimir
+     * @throws IOException si el bloque está dañado o no tiene esa longitud
+     */
+    void descomprime(byte[] comprimido, int longComprimido, byte[] destino, int longitud)
+            throws IOException;
+
+    /**
+     * Ver {@link CodecBloques#SIN_COMPRIMIR}.
+     */
+    final class SinComprimir implements CodecBloques {
+
+        private SinComprimir() {
+        }
+
+        @Override
+        public byte getCodigo() {
+            return 0;
+        }
+
+        @Override
+        public String getNombre() {
+            return "sin comprimir";
+        }
+
+        @Override
+        public byte[] comprime(byte[] datos, int longitud) {
+            return Arrays.copyOf(datos, longitud);
+        }
+
+        @Override
+        public void descomprime(byte[] comprimido, int longComprimido, byte[] destino, int longitud)
+                throws IOException {
+            if (longComprimido != longitud) {
+                throw new IOException("Bloque de " + longComprimido + " bytes en lugar de " + longitud);
+            }
+            System.arraycopy(comprimido, 0, destino, 0, longitud);
+        }
+    }
+
+    /**
+     * Ver {@link CodecBloques#DEFLATE}.
+     */
+    final class Deflate implements CodecBloques {
+
+        private final int nivel;
+
+        /**
+         * @param nivel nivel de compresión de {@link Deflater}, de 0 a 9 o
+         * {@link Deflater#DEFAULT_COMPRESSION}; no hace falta para leer
+         */
+        public Deflate(int nivel) {
+            if ((nivel < 0 || nivel > 9) && nivel != Deflater.DEFAULT_COMPRESSION) {
+                throw new IllegalArgumentException("Nivel de compresión inválido: " + nivel);
+            }
+            this.nivel = nivel;
+        }
+
+        @Override
+        public byte getCodigo() {
+            return 1;
+        }
+
+        @Override
+        public String getNombre() {
+            return "deflate";
+        }
+
+        @Override
+        public byte[] comprime(byte[] datos, int longitud) {
+            Deflater d = new Deflater(nivel);
+            try {
+                d.setInput(datos, 0, longitud);
+                d.finish();
+                byte[] salida = new byte[longitud / 2 + 64];
+                int n = 0;
+                while (!d.finished()) {
+                    if (n == salida.length) {
+                        salida = Arrays.copyOf(salida, salida.length * 2);
+                    }
+                    n += d.deflate(salida, n, salida.length - n);
+                }
+                return Arrays.copyOf(salida, n);
+            } finally {
+                d.end();
+            }
+        }
+
+        @Override
+        public void descomprime(byte[] comprimido, int longComprimido, byte[] destino, int longitud)
+                throws IOException {
+            Inflater i = new Inflater();
+            try {
+                i.setInput(comprimido, 0, longComprimido);
+                // La suma del final puede quedar por leer tras el último byte
+                byte[] sobra = new byte[1];
+                int n = 0;
+                while (!i.finished() && n <= longitud) {
+                    int leidos = n < longitud
+                            ? i.inflate(destino, n, longitud - n)
+                            : i.inflate(sobra);
+                    if (leidos == 0 && (i.needsInput() || i.needsDictionary())) {
+                        break;
+                    }
+                    n += leidos;
+                }
+                if (n != longitud || !i.finished()) {
+                    throw new IOException("Bloque de " + n + " bytes sin comprimir en lugar de "
+                            + longitud);
+                }
+            } catch (DataFormatException ex) {
+                throw new IOException("Bloque mal comprimido: " + ex.getMessage(), ex);
+            } finally {
+                i.end();
+            }
+        }
+    }
+}
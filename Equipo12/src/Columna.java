@@ -0,0 +1,74 @@
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Columnas del almacenamiento columnar (ver {@link EscritorColumnar}).
+ *
+ * Cada columna es un fichero del directorio de columnas con un valor por
+ * empleado, en el mismo orden que FICHE.DAT.
+ */
+public enum Columna {
+
+    /**
+     * Código de provincia, un byte por empleado.
+     */
+    PROVINCIA("provincia.col"),
+    /**
+     * Sexo como mapa de bits: el bit {@code i} es el ordinal del sexo del
+     * empleado {@code i} (1 = {@link Sexo#MUJER}).
+     */
+    SEXO("sexo.col"),
+    /**
+     * Código de tipo de empleado, un byte por empleado.
+     */
+    TIPO("tipo.col"),
+    /**
+     * Salario base en céntimos, un long por empleado.
+     */
+    SALARIO("salario.col"),
+    /**
+     * Fecha de ingreso en días desde 1970-01-01, un int por empleado.
+     */
+    FECHA("fecha.col"),
+    /**
+     * Nombres: montón de bytes UTF-8 ({@code nombre.dat}) y un long por
+     * empleado con la posición en la que termina su nombre
+     * ({@code nombre.idx}).
+     */
+    NOMBRE("nombre.idx");
+
+    private final String fichero;
+
+    Columna(String fichero) {
+        this.fichero = fichero;
+    }
+
+    /**
+     * Devuelve el nombre del fichero de la columna dentro del directorio.
+     *
+     * @return nombre del fichero
+     */
+    public String getFichero() {
+        return fichero;
+    }
+
+    /**
+     * Devuelve la longitud en bytes del fichero de la columna para
+     * {@code registros} empleados (en {@link #NOMBRE}, la del índice).
+     *
+     * @param registros número de empleados
+     * @return bytes del fichero
+     */
+    public long longitud(long registros) {
+        switch (this) {
+            case SEXO:
+                return (registros + 7) / 8;
+            case SALARIO:
+            case NOMBRE:
+                return registros * 8;
+            case FECHA:
+                return registros * 4;
+            default:
+                return registros;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Compacta un fichero de empleados v3 (ver {@link EmpleadoDAO#compacta}).
+ *
+ * Uso: {@code java Compactador [fichero [porcentaje]]}. Con porcentaje solo
+ * se compacta si al menos ese porcentaje de los registros del fichero (por
+ * defecto FICHE.DAT) son versiones sustituidas o bajas, de modo que se
+ * puede lanzar periódicamente para acotar lo que crece el fichero. Los
+ * informes pueden seguir ejecutándose mientras tanto.
+ */
+public class Compactador {
+
+    public static void main(String[] args) {
+        String fichero = args.length > 0 ? args[0] : "FICHE.DAT";
+        EmpleadoDAO dao = new EmpleadoDAO();
+
+        try {
+            double minimo = args.length > 1 ? Double.parseDouble(args[1]) : 0;
+            long registros;
+            long obsoletos;
+            try (FicheroMapeado f = dao.abreMapeado(fichero)) {
+                if (!f.getFormato().esVersionado()) {
+                    System.out.println(fichero + " está en formato v" + f.getFormato().getVersion()
+                            + " y no admite modificaciones.");
+                    return;
+                }
+                registros = f.getNumRegistros();
+                obsoletos = f.getNumObsoletos();
+            }
+            if (obsoletos == 0 || 100.0 * obsoletos / registros < minimo) {
+                System.out.println(fichero + ": " + obsoletos + " de " + registros
+                        + " registros obsoletos, no se compacta.");
+                return;
+            }
+
+            long antes = Files.size(Paths.get(fichero));
+            long n = dao.compacta(fichero);
+            System.out.println("Compactado " + fichero + ": " + n + " empleados, de "
+                    + antes + " a " + Files.size(Paths.get(fichero)) + " bytes.");
+
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println("Error compactando empleados: " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,384 @@
+
+import java.util.Arrays;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Definición declarativa de un informe: qué empleados entran (filtros), en
+ * qué grupos se reparten (por provincia, tipo de empleado o sexo) y qué se
+ * calcula de cada grupo (conteo, suma, mínimo, máximo y media de un campo,
+ * la lista de registros o los empleados con el máximo de un campo).
+ *
+ * Las consultas se evalúan con {@link MotorConsultas}, que recorre el
+ * fichero una sola vez para todas las que se le pasen. Los métodos de
+ * definición devuelven la propia consulta para encadenarlos, por ejemplo
+ * {@code new Consulta("veteranos").filtra(Campo.ANTIGUEDAD,
+ * Comparacion.MAYOR_O_IGUAL, 10).listaRegistros()}.
+ *
+ * Los importes van en milésimas de euro, como en {@link Nomina}, para que
+ * sumas y comparaciones sean exactas. Si algún salario v1 tiene más
+ * decimales, los resultados se calculan con los que hagan falta (ver
+ * {@link ResultadoConsulta#getEscala}); las referencias de los filtros van
+ * siempre en milésimas. Una consulta no se debe modificar después de
+ * evaluarla, porque sus resultados la siguen usando.
+ */
+public final class Consulta {
+
+    /**
+     * Valor numérico de un empleado sobre el que se filtra o se agrega.
+     */
+    public enum Campo {
+        /**
+         * Salario base en milésimas de euro.
+         */
+        SALARIO_BASE("salario", false, true),
+        /**
+         * Complementos en milésimas de euro.
+         */
+        COMPLEMENTOS("complementos", true, true),
+        /**
+         * Salario base más complementos, en milésimas de euro.
+         */
+        SUELDO("sueldo", true, true),
+        /**
+         * Años completos desde el ingreso.
+         */
+        ANTIGUEDAD("antiguedad", true, false),
+        /**
+         * Trienios completos desde el ingreso.
+         */
+        TRIENIOS("trienios", true, false),
+        /**
+         * Fecha de ingreso en días desde el 1-1-1970.
+         */
+        FECHA_INGRESO("ingreso", false, false);
+
+        private final String nombre;
+        private final boolean dependeDeFecha;
+        private final boolean importe;
+
+        Campo(String nombre, boolean dependeDeFecha, boolean importe) {
+            this.nombre = nombre;
+            this.dependeDeFecha = dependeDeFecha;
+            this.importe = importe;
+        }
+
+        public String getNombre() {
+            return nombre;
+        }
+
+        /**
+         * Indica si el valor cambia con la fecha de la consulta.
+         *
+         * @return true si depende de la antigüedad
+         */
+        public boolean dependeDeFecha() {
+            return dependeDeFecha;
+        }
+
+        /**
+         * Indica si el campo es un importe en euros.
+         *
+         * @return true si sus valores dependen del salario
+         */
+        public boolean esImporte() {
+            return importe;
+        }
+    }
+
+    /**
+     * Comparación de un filtro entre el campo y el valor de referencia.
+     */
+    public enum Comparacion {
+        IGUAL("=="),
+        DISTINTO("!="),
+        MENOR("<"),
+        MENOR_O_IGUAL("<="),
+        MAYOR(">"),
+        MAYOR_O_IGUAL(">=");
+
+        private final String simbolo;
+
+        Comparacion(String simbolo) {
+            this.simbolo = simbolo;
+        }
+
+        public String getSimbolo() {
+            return simbolo;
+        }
+
+        /**
+         * Aplica la comparación.
+         *
+         * @param valor valor del campo
+         * @param referencia valor del filtro
+         * @return true si el valor la cumple
+         */
+        boolean cumple(long valor, long referencia) {
+            return cumple(Long.compare(valor, referencia));
+        }
+
+        /**
+         * Aplica la comparación a un resultado de {@code compareTo}.
+         *
+         * @param orden negativo, cero o positivo si el valor es menor, igual
+         * o mayor que la referencia
+         * @return true si el valor la cumple
+         */
+        boolean cumple(int orden) {
+            switch (this) {
+                case IGUAL:
+                    return orden == 0;
+                case DISTINTO:
+                    return orden != 0;
+                case MENOR:
+                    return orden < 0;
+                case MENOR_O_IGUAL:
+                    return orden <= 0;
+                case MAYOR:
+                    return orden > 0;
+                default:
+                    return orden >= 0;
+            }
+        }
+    }
+
+    /**
+     * Agregado que se calcula de un campo en cada grupo.
+     */
+    public enum Funcion {
+        /**
+         * Número de empleados; no lleva campo.
+         */
+        CONTEO,
+        SUMA,
+        MINIMO,
+        MAXIMO,
+        /**
+         * Suma entre conteo, redondeada con la mitad hacia arriba.
+         */
+        MEDIA
+    }
+
+    private final String nombre;
+    private Clasificacion.Agrupacion agrupacion = Clasificacion.Agrupacion.NINGUNA;
+
+    /*
+     * Filtros por campo, en arrays paralelos para recorrerlos sin crear
+     * objetos por registro.
+     */
+    Campo[] camposFiltro = new Campo[0];
+    Comparacion[] comparaciones = new Comparacion[0];
+    long[] referencias = new long[0];
+
+    /*
+     * Filtros de pertenencia: el ordinal del grupo del empleado debe estar
+     * en la máscara de bits.
+     */
+    Clasificacion.Agrupacion[] agrupacionesFiltro = new Clasificacion.Agrupacion[0];
+    long[] mascaras = new long[0];
+
+    Funcion[] funciones = new Funcion[0];
+    Campo[] camposAgregado = new Campo[0];
+
+    private boolean registros;
+    private Campo campoMaximo;
+
+    /**
+     * @param nombre nombre de la consulta, que la identifica en su punto de
+     * control junto con el resto de la definición
+     */
+    public Consulta(String nombre) {
+        if (nombre == null || nombre.trim().isEmpty()) {
+            throw new IllegalArgumentException("La consulta necesita un nombre.");
+        }
+        this.nombre = nombre.trim();
+    }
+
+    /**
+     * Añade un filtro sobre un campo. Todos los filtros deben cumplirse.
+     *
+     * @param campo campo comparado
+     * @param comparacion comparación
+     * @param referencia valor con el que se compara, en las unidades del
+     * campo
+     * @return esta consulta
+     */
+    public Consulta filtra(Campo campo, Comparacion comparacion, long referencia) {
+        if (campo == null || comparacion == null) {
+            throw new IllegalArgumentException("Campo y comparación no pueden ser nulos.");
+        }
+        int n = camposFiltro.length;
+        camposFiltro = Arrays.copyOf(camposFiltro, n + 1);
+        comparaciones = Arrays.copyOf(comparaciones, n + 1);
+        referencias = Arrays.copyOf(referencias, n + 1);
+        camposFiltro[n] = campo;
+        comparaciones[n] = comparacion;
+        referencias[n] = referencia;
+        return this;
+    }
+
+    /**
+     * Añade un filtro de pertenencia: el empleado debe ser de alguna de las
+     * provincias, tipos o sexos indicados.
+     *
+     * @param valores valores admitidos, todos del mismo enum
+     * @return esta consulta
+     */
+    public Consulta filtra(Enum<?>... valores) {
+        if (valores == null || valores.length == 0 || valores[0] == null) {
+            throw new IllegalArgumentException("El filtro necesita algún valor.");
+        }
+        Clasificacion.Agrupacion a = Clasificacion.Agrupacion.de(valores[0].getDeclaringClass());
+        long mascara = 0;
+        for (Enum<?> v : valores) {
+            if (v == null || v.getDeclaringClass() != valores[0].getDeclaringClass()) {
+                throw new IllegalArgumentException("Valores de enums distintos en el filtro.");
+            }
+            mascara |= 1L << v.ordinal();
+        }
+        int n = agrupacionesFiltro.length;
+        agrupacionesFiltro = Arrays.copyOf(agrupacionesFiltro, n + 1);
+        mascaras = Arrays.copyOf(mascaras, n + 1);
+        agrupacionesFiltro[n] = a;
+        mascaras[n] = mascara;
+        return this;
+    }
+
+    /**
+     * Reparte los empleados que pasan los filtros en grupos.
+     *
+     * @param agrupacion agrupación
+     * @return esta consulta
+     */
+    public Consulta agrupa(Clasificacion.Agrupacion agrupacion) {
+        if (agrupacion == null) {
+            throw new IllegalArgumentException("Agrupación nula.");
+        }
+        this.agrupacion = agrupacion;
+        return this;
+    }
+
+    /**
+     * Añade un agregado, que se consulta con
+     * {@link ResultadoConsulta#getValor} por su número de orden.
+     *
+     * @param funcion función de agregado
+     * @param campo campo agregado; null solo con {@link Funcion#CONTEO}
+     * @return esta consulta
+     */
+    public Consulta agrega(Funcion funcion, Campo campo) {
+        if (funcion == null || (campo == null) != (funcion == Funcion.CONTEO)) {
+            throw new IllegalArgumentException("El conteo no lleva campo y el resto sí.");
+        }
+        int n = funciones.length;
+        funciones = Arrays.copyOf(funciones, n + 1);
+        camposAgregado = Arrays.copyOf(camposAgregado, n + 1);
+        funciones[n] = funcion;
+        camposAgregado[n] = campo;
+        return this;
+    }
+
+    /**
+     * Guarda las posiciones de los empleados que pasan los filtros, en
+     * orden del fichero.
+     *
+     * @return esta consulta
+     */
+    public Consulta listaRegistros() {
+        registros = true;
+        return this;
+    }
+
+    /**
+     * Guarda en cada grupo el máximo de un campo y las posiciones de todos
+     * los empleados que lo alcanzan, en orden del fichero.
+     *
+     * @param campo campo cuyo máximo se busca
+     * @return esta consulta
+     */
+    public Consulta listaMaximos(Campo campo) {
+        if (campo == null) {
+            throw new IllegalArgumentException("Campo nulo.");
+        }
+        campoMaximo = campo;
+        return this;
+    }
+
+    public String getNombre() {
+        return nombre;
+    }
+
+    public Clasificacion.Agrupacion getAgrupacion() {
+        return agrupacion;
+    }
+
+    public int getNumAgregados() {
+        return funciones.length;
+    }
+
+    public boolean isListaRegistros() {
+        return registros;
+    }
+
+    /**
+     * Campo de {@link #listaMaximos}.
+     *
+     * @return el campo, o null si no se buscan máximos
+     */
+    public Campo getCampoMaximo() {
+        return campoMaximo;
+    }
+
+    /**
+     * Indica si el resultado cambia con la fecha de la consulta.
+     *
+     * @return true si algún filtro o agregado depende de la antigüedad
+     */
+    public boolean dependeDeFecha() {
+        for (Campo c : camposFiltro) {
+            if (c.dependeDeFecha()) {
+                return true;
+            }
+        }
+        for (Campo c : camposAgregado) {
+            if (c != null && c.dependeDeFecha()) {
+                return true;
+            }
+        }
+        return campoMaximo != null && campoMaximo.dependeDeFecha();
+    }
+
+    /**
+     * Texto canónico de la definición: dos consultas con el mismo texto dan
+     * el mismo resultado.
+     *
+     * @return la definición completa
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(nombre);
+        sb.append(" por ").append(agrupacion.getNombre());
+        for (int i = 0; i < camposFiltro.length; i++) {
+            sb.append(" donde ").append(camposFiltro[i].getNombre())
+                    .append(' ').append(comparaciones[i].getSimbolo())
+                    .append(' ').append(referencias[i]);
+        }
+        for (int i = 0; i < agrupacionesFiltro.length; i++) {
+            sb.append(" donde ").append(agrupacionesFiltro[i].getNombre())
+                    .append(" en ").append(Long.toHexString(mascaras[i]));
+        }
+        for (int i = 0; i < funciones.length; i++) {
+            sb.append(' ').append(funciones[i].name().toLowerCase());
+            if (camposAgregado[i] != null) {
+                sb.append('(').append(camposAgregado[i].getNombre()).append(')');
+            }
+        }
+        if (registros) {
+            sb.append(" registros");
+        }
+        if (campoMaximo != null) {
+            sb.append(" maximos(").append(campoMaximo.getNombre()).append(')');
+        }
+        return sb.toString();
+    }
+}
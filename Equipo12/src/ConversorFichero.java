@@ -0,0 +1,115 @@
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Convierte un fichero de empleados al formato {@link FormatoFichero#ACTUAL}.
+ *
+ * Uso: {@code java ConversorFichero [origen [destino]]}. Sin destino el
+ * origen (por defecto FICHE.DAT) se sustituye de forma atómica por la
+ * versión convertida.
+ *
+ * Con {@code java ConversorFichero -nombres [origen [destino]]} se
+ * convierte a v5, con los nombres en un {@link DiccionarioNombres}. Al
+ * sustituir el origen, el diccionario se escribe con un nombre temporal y
+ * se coloca antes que el fichero, que se sustituye el último; como la
+ * cabecera indica su diccionario, el origen no usa el nuevo si el proceso
+ * se interrumpe entre los dos pasos. Al volver de v5 a v4 se borra después.
+ *
+ * Con {@code java ConversorFichero -comprime [origen [destino]]} se
+ * comprime por bloques (ver {@link EmpleadoDAO#comprime(String, String)}),
+ * conservando el formato si es v4 o v5. Un fichero comprimido se
+ * descomprime convirtiéndolo sin {@code -comprime}, o con {@code -nombres}
+ * para que siga en v5.
+ *
+ * Con {@code java ConversorFichero -columnas [fichero]} se generan o
+ * actualizan las columnas que acompañan al fichero (ver
+ * {@link EmpleadoDAO#sincronizaColumnas}).
+ */
+public class ConversorFichero {
+
+    public static void main(String[] args) {
+        EmpleadoDAO dao = new EmpleadoDAO();
+        if (args.length > 0 && args[0].equals("-columnas")) {
+            String fichero = args.length > 1 ? args[1] : "FICHE.DAT";
+            try {
+                long n = dao.sincronizaColumnas(fichero);
+                System.out.println("Columnas de " + fichero + ": " + n + " empleados.");
+            } catch (IOException | IllegalArgumentException ex) {
+                System.err.println("Error generando columnas: " + ex.getMessage());
+            }
+            return;
+        }
+        FormatoFichero formato = FormatoFichero.ACTUAL;
+        boolean comprime = false;
+        int primero = 0;
+        if (args.length > 0 && args[0].equals("-nombres")) {
+            formato = FormatoFichero.V5;
+            primero = 1;
+        } else if (args.length > 0 && args[0].equals("-comprime")) {
+            comprime = true;
+            primero = 1;
+        }
+        String origen = args.length > primero ? args[primero] : "FICHE.DAT";
+        String destino = args.length > primero + 1 ? args[primero + 1] : null;
+
+        try {
+            Path o = Paths.get(origen);
+            FormatoFichero f = FormatoFichero.detecta(o);
+            boolean comprimido = FormatoFichero.comprimido(o);
+            if (comprime) {
+                formato = f != null && f.esFijo() && f.getVersion() >= 4 ? f : FormatoFichero.ACTUAL;
+            }
+            if (comprimido == comprime && f == formato && destino == null) {
+                System.out.println(origen + " ya está " + (comprime ? "comprimido en " : "en ")
+                        + "formato v" + f.getVersion() + ".");
+                return;
+            }
+
+            long n;
+            if (destino != null) {
+                n = comprime ? dao.comprime(origen, destino) : dao.convierte(origen, destino, formato);
+            } else {
+                Path absoluto = o.toAbsolutePath();
+                Path tmp = absoluto.resolveSibling(absoluto.getFileName() + ".tmp");
+                Path nombresTmp = DiccionarioNombres.ficheroDe(tmp.toString());
+                Path nombres = DiccionarioNombres.ficheroDe(absoluto.toString());
+                Files.deleteIfExists(tmp);
+                try {
+                    n = comprime ? dao.comprime(origen, tmp.toString())
+                            : dao.convierte(origen, tmp.toString(), formato);
+                    // El fichero se sustituye el último. Un diccionario nuevo
+                    // tiene que estar antes en su sitio, y el origen no lo usa
+                    // porque su cabecera no lo indica; si el origen es v5 se
+                    // conserva el suyo, que el temporal usa con el mismo
+                    // identificador
+                    if (formato.nombresEnDiccionario() && (f == null || !f.nombresEnDiccionario())) {
+                        Files.move(nombresTmp, nombres, StandardCopyOption.REPLACE_EXISTING,
+                                StandardCopyOption.ATOMIC_MOVE);
+                    }
+                    Files.move(tmp, absoluto, StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                    if (f != null && f.nombresEnDiccionario() && !formato.nombresEnDiccionario()) {
+                        Files.deleteIfExists(nombres);
+                    }
+                } finally {
+                    Files.deleteIfExists(tmp);
+                    Files.deleteIfExists(nombresTmp);
+                    // Lo que deja junto al temporal la sesión de escritura
+                    Files.deleteIfExists(Estadisticas.ficheroDe(tmp.toString()));
+                    Files.deleteIfExists(Paths.get(tmp + ".lock"));
+                }
+            }
+            System.out.println((comprime ? "Comprimidos " : "Convertidos ") + n + " empleados de v"
+                    + (f == null ? FormatoFichero.ACTUAL : f).getVersion()
+                    + " a v" + formato.getVersion() + ".");
+
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println("Error convirtiendo empleados: " + ex.getMessage());
+        }
+    }
+}
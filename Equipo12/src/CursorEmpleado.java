@@ -0,0 +1,441 @@
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.zip.CRC32;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Vista reutilizable sobre el registro actual de un {@link FicheroMapeado}.
+ *
+ * Los accesores leen directamente de la proyección del fichero sin crear
+ * objetos; solo {@link #getNombre()} y {@link #materializa()} construyen
+ * objetos nuevos. En v5 el nombre solo se busca en el diccionario al
+ * pedirlo, y en los ficheros comprimidos se lee del bloque descomprimido
+ * por el propio cursor. Los valores dejan de ser válidos al llamar a
+ * {@link #siguiente()}. No es seguro para uso concurrente: cada hilo debe
+ * usar su propio cursor.
+ */
+public final class CursorEmpleado {
+
+    private static final long MILIS_DIA = 24L * 60 * 60 * 1000;
+
+    private final FicheroMapeado fichero;
+    private final FormatoFichero formato;
+    private final long tamano;
+    private final long hasta;
+    private final TimeZone zona;
+    /**
+     * Acceso a los registros de longitud fija, null en v1.
+     */
+    private final FicheroMapeado.Acceso acceso;
+
+    /**
+     * Posición del siguiente registro.
+     */
+    private long siguiente;
+    /**
+     * Posición del registro actual, -1 antes de la primera llamada a
+     * {@link #siguiente()}.
+     */
+    private long posicion = -1;
+    private ByteBuffer seg;
+    private int base;
+    /**
+     * Suma de control de los registros v4, null en otros formatos.
+     */
+    private final CRC32 crc;
+    /**
+     * Copia de {@link #seg} para calcular la suma sin mover su posición.
+     */
+    private ByteBuffer vista;
+
+    // Desplazamientos desde base de los campos del registro v1 actual
+    private int longNombre;
+    private int offSexo;
+    private int offSalario;
+    private int longSalario;
+    private int offFecha;
+
+    /**
+     * Registros y bytes recorridos que aún no se han sumado a
+     * {@link Metricas}. Se publican al llegar a {@link #umbral}, que empieza
+     * en 1 y se dobla hasta {@link Metricas#PUBLICACION_CURSOR}, para que
+     * cuenten también los cursores que se abandonan tras pocos registros.
+     */
+    private int leidos;
+    private long bytesLeidos;
+    private int umbral = 1;
+    private long recorridos;
+
+    CursorEmpleado(FicheroMapeado fichero, long desde, long hasta, boolean anticipa) {
+        this.fichero = fichero;
+        this.formato = fichero.getFormato();
+        this.acceso = formato.esFijo() ? fichero.acceso(anticipa) : null;
+        this.tamano = fichero.getTamano();
+        this.siguiente = desde;
+        this.hasta = hasta;
+        this.zona = TimeZone.getDefault();
+        this.crc = formato.tieneSumaControl() ? new CRC32() : null;
+    }
+
+    /**
+     * Avanza al siguiente registro. En los ficheros con modificaciones salta
+     * las versiones sustituidas y las bajas.
+     *
+     * @return true si hay registro actual, false al final del rango o ante
+     * un último registro v1 incompleto
+     * @throws IOException si el registro, en v4 o v5, no coincide con su
+     * suma de control o no se puede descomprimir su bloque
+     */
+    public boolean siguiente() throws IOException {
+        if (formato.esFijo()) {
+            do {
+                if (siguiente >= hasta) {
+                    posicion = -1;
+                    publica();
+                    return false;
+                }
+                posicion = siguiente;
+                siguiente = posicion + formato.getTamRegistro();
+                if (siguiente > tamano) {
+                    throw truncado();
+                }
+            } while (!fichero.esVigente(posicion));
+            ByteBuffer anterior = seg;
+            seg = acceso.buffer(posicion);
+            base = acceso.base();
+            if (crc != null) {
+                if (vista == null || seg != anterior) {
+                    vista = seg.duplicate();
+                }
+                if (!RegistroFijo.verifica(formato, vista, base, crc)) {
+                    throw new IOException("Registro dañado en la posición " + posicion
+                            + " de " + fichero.getFichero());
+                }
+            }
+            leido(formato.getTamRegistro());
+            return true;
+        }
+
+        if (siguiente >= hasta) {
+            posicion = -1;
+            publica();
+            return false;
+        }
+        posicion = siguiente;
+        seg = fichero.segmento(posicion);
+        base = (int) (posicion % FicheroMapeado.TAM_SEGMENTO);
+        // Un registro que no cabe solo puede ser el último, a medio escribir
+        // por una caída: el recorrido acaba en el anterior
+        if (posicion + 2 > tamano) {
+            return incompleto();
+        }
+        longNombre = corto(0);
+        offSexo = 2 + longNombre;
+        if (posicion + offSexo + 4 > tamano) {
+            return incompleto();
+        }
+        longSalario = corto(offSexo + 2);
+        offSalario = offSexo + 4;
+        offFecha = offSalario + longSalario;
+        int longitud = offFecha + 11;
+        if (posicion + longitud > tamano) {
+            return incompleto();
+        }
+        siguiente = posicion + longitud;
+        leido(longitud);
+        return true;
+    }
+
+    /**
+     * Número de registros que ha devuelto {@link #siguiente()}.
+     *
+     * @return registros recorridos
+     */
+    long getRegistrosRecorridos() {
+        return recorridos;
+    }
+
+    private void leido(int bytes) {
+        recorridos++;
+        bytesLeidos += bytes;
+        if (++leidos == umbral) {
+            publica();
+            umbral = Math.min(umbral * 2, Metricas.PUBLICACION_CURSOR);
+        }
+    }
+
+    private void publica() {
+        if (leidos > 0) {
+            Metricas.leidos(leidos, bytesLeidos);
+            leidos = 0;
+            bytesLeidos = 0;
+        }
+    }
+
+    /**
+     * Posición en bytes del registro actual en el fichero.
+     *
+     * @return desplazamiento desde el inicio del fichero
+     */
+    public long getPosicion() {
+        return posicion;
+    }
+
+    /**
+     * Devuelve el identificador del empleado. En v2, que no lo guarda, es el
+     * número de registro, el mismo que recibe al convertir el fichero a v3.
+     *
+     * @return identificador del empleado
+     * @throws IllegalStateException en v1, donde el número de registro no
+     * se conoce sin recorrer los anteriores
+     */
+    public long getId() {
+        if (formato.esVersionado()) {
+            return seg.getLong(base + formato.getOffId());
+        }
+        if (!formato.esFijo()) {
+            throw new IllegalStateException("Los registros v1 no tienen identificador.");
+        }
+        return (posicion - fichero.getInicioDatos()) / formato.getTamRegistro();
+    }
+
+    public byte getCodigoProvincia() {
+        return formato.esFijo()
+                ? seg.get(base + RegistroFijo.OFF_PROVINCIA)
+                : seg.get(base + offFecha + 10);
+    }
+
+    public Provincia getProvincia() {
+        return Provincia.fromCodigo(getCodigoProvincia());
+    }
+
+    public char getCodigoSexo() {
+        return formato.esFijo()
+                ? (char) seg.get(base + RegistroFijo.OFF_SEXO)
+                : seg.getChar(base + offSexo);
+    }
+
+    public Sexo getSexo() {
+        return Sexo.fromCodigo(getCodigoSexo());
+    }
+
+    public char getCodigoTipo() {
+        return formato.esFijo()
+                ? (char) seg.get(base + RegistroFijo.OFF_TIPO)
+                : seg.getChar(base + offFecha + 8);
+    }
+
+    public TipoEmpleado getTipoEmpleado() {
+        return TipoEmpleado.fromCodigo(getCodigoTipo());
+    }
+
+    /**
+     * Devuelve el salario base en céntimos.
+     *
+     * @return salario en céntimos
+     * @throws ArithmeticException si el salario de un registro v1 tiene
+     * decimales más allá de los céntimos
+     */
+    public long getSalarioCentimos() {
+        if (formato.esFijo()) {
+            return seg.getLong(base + RegistroFijo.OFF_SALARIO);
+        }
+
+        long valor = 0;
+        int decimales = -1;
+        boolean negativo = false;
+        for (int i = 0; i < longSalario; i++) {
+            byte c = seg.get(base + offSalario + i);
+            if (c == '-') {
+                negativo = true;
+            } else if (c == '.') {
+                decimales = 0;
+            } else if (decimales >= 2) {
+                if (c != '0') {
+                    throw new ArithmeticException("Salario no representable en céntimos.");
+                }
+            } else {
+                valor = valor * 10 + (c - '0');
+                if (decimales >= 0) {
+                    decimales++;
+                }
+            }
+        }
+        for (int d = Math.max(decimales, 0); d < 2; d++) {
+            valor *= 10;
+        }
+        return negativo ? -valor : valor;
+    }
+
+    /**
+     * Devuelve el salario base en unidades de 10<sup>-escala</sup> euros,
+     * para los salarios v1 con más decimales que los céntimos.
+     *
+     * @param escala decimales de la unidad, al menos 2
+     * @return salario en esa unidad
+     * @throws ArithmeticException si el salario tiene más decimales que la
+     * escala o no cabe en un {@code long}
+     */
+    public long getSalario(int escala) {
+        if (formato.esFijo()) {
+            return Math.multiplyExact(seg.getLong(base + RegistroFijo.OFF_SALARIO),
+                    Nomina.unidad(escala - 2));
+        }
+
+        long valor = 0;
+        int decimales = -1;
+        boolean negativo = false;
+        for (int i = 0; i < longSalario; i++) {
+            byte c = seg.get(base + offSalario + i);
+            if (c == '-') {
+                negativo = true;
+            } else if (c == '.') {
+                decimales = 0;
+            } else if (decimales >= escala) {
+                if (c != '0') {
+                    throw new ArithmeticException("Salario con más de " + escala + " decimales.");
+                }
+            } else {
+                valor = Math.addExact(Math.multiplyExact(valor, 10), c - '0');
+                if (decimales >= 0) {
+                    decimales++;
+                }
+            }
+        }
+        valor = Math.multiplyExact(valor, Nomina.unidad(escala - Math.max(decimales, 0)));
+        return negativo ? -valor : valor;
+    }
+
+    /**
+     * Devuelve el número de decimales del salario base sin contar los ceros
+     * finales: los que hacen falta para representarlo exactamente.
+     *
+     * @return decimales del salario; en los formatos de longitud fija, 2
+     */
+    public int getDecimalesSalario() {
+        if (formato.esFijo()) {
+            return 2;
+        }
+        int decimales = -1;
+        int significativos = 0;
+        for (int i = 0; i < longSalario; i++) {
+            byte c = seg.get(base + offSalario + i);
+            if (c == '.') {
+                decimales = 0;
+            } else if (decimales >= 0 && c != '-') {
+                decimales++;
+                if (c != '0') {
+                    significativos = decimales;
+                }
+            }
+        }
+        return significativos;
+    }
+
+    /**
+     * Devuelve la fecha de ingreso como días desde 1970-01-01 en la zona
+     * horaria del sistema.
+     *
+     * @return día de ingreso
+     */
+    public int getFechaIngresoDiaEpoch() {
+        if (formato.esFijo()) {
+            return seg.getInt(base + RegistroFijo.OFF_FECHA);
+        }
+        long milis = seg.getLong(base + offFecha);
+        return (int) Math.floorDiv(milis + zona.getOffset(milis), MILIS_DIA);
+    }
+
+    /**
+     * Devuelve el nombre del registro actual. Crea un {@link String}.
+     *
+     * @return nombre del empleado
+     * @throws IOException si el nombre de un registro v1 está mal codificado
+     */
+    public String getNombre() throws IOException {
+        if (formato.esFijo()) {
+            return RegistroFijo.nombre(formato, seg, base,
+                    formato.nombresEnDiccionario() ? fichero.nombres() : null);
+        }
+        try {
+            return EmpleadoDAO.utfModificado(seg, base + 2, longNombre);
+        } catch (UTFDataFormatException ex) {
+            throw new UTFDataFormatException("Nombre mal codificado en la posición " + posicion);
+        }
+    }
+
+    /**
+     * Copia el nombre del registro actual en un array. En los formatos de
+     * longitud fija no crea objetos, salvo en v5 la primera vez que aparece
+     * cada nombre.
+     *
+     * @param destino array con sitio para el nombre (30 caracteres)
+     * @return número de caracteres copiados
+     * @throws IOException si el nombre de un registro v1 está mal codificado
+     */
+    public int copiaNombre(char[] destino) throws IOException {
+        if (formato.esFijo() && !formato.nombresEnDiccionario()) {
+            int longitud = seg.get(base + RegistroFijo.OFF_LONG_NOMBRE);
+            for (int i = 0; i < longitud; i++) {
+                destino[i] = seg.getChar(base + RegistroFijo.OFF_NOMBRE + 2 * i);
+            }
+            return longitud;
+        }
+        String nombre = getNombre();
+        nombre.getChars(0, nombre.length(), destino, 0);
+        return nombre.length();
+    }
+
+    /**
+     * Construye el {@link Empleado} del registro actual.
+     *
+     * @return un empleado nuevo
+     * @throws IOException si el registro está mal codificado
+     */
+    public Empleado materializa() throws IOException {
+        if (formato.esFijo()) {
+            return RegistroFijo.decodifica(formato, seg, base,
+                    formato.nombresEnDiccionario() ? fichero.nombres() : null);
+        }
+
+        long inicio = System.nanoTime();
+        char[] salario = new char[longSalario];
+        for (int i = 0; i < longSalario; i++) {
+            salario[i] = (char) seg.get(base + offSalario + i);
+        }
+        Empleado e = new Empleado(
+                getNombre(),
+                getSexo(),
+                new BigDecimal(salario),
+                new Date(seg.getLong(base + offFecha)),
+                getTipoEmpleado(),
+                getProvincia());
+        Metricas.decodificacion(System.nanoTime() - inicio);
+        return e;
+    }
+
+    private int corto(int off) throws EOFException {
+        if (posicion + off + 2 > tamano) {
+            throw truncado();
+        }
+        return seg.getShort(base + off) & 0xFFFF;
+    }
+
+    private boolean incompleto() {
+        siguiente = hasta;
+        posicion = -1;
+        publica();
+        return false;
+    }
+
+    private EOFException truncado() {
+        return new EOFException("Registro incompleto en la posición " + posicion
+                + " de " + fichero.getFichero());
+    }
+}
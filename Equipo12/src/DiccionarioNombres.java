@@ -0,0 +1,389 @@
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Diccionario de nombres de un fichero v5 ({@code <fichero>.nom}): cada
+ * nombre distinto se guarda una vez y los registros llevan su número.
+ *
+ * <pre>
+ *  0  int    MAGIA ("NOMB")
+ *  4  short  versión
+ *  6  short  entradas por bloque ({@link #POR_BLOQUE})
+ *  8  short  identificador
+ * 10  entradas
+ * </pre>
+ *
+ * La cabecera del fichero de empleados lleva el identificador de su
+ * diccionario ({@link FormatoFichero#OFF_DICCIONARIO}), y un diccionario con
+ * otro identificador no se usa: así no se toma por suyo el de otra
+ * conversión, por ejemplo uno que quedó en su sitio sin que llegara a
+ * sustituirse el fichero. Los diccionarios de la versión 1 no tienen
+ * identificador (su cabecera acaba en el byte 8) y valen como el 0.
+ *
+ * Las entradas van en bloques de {@link #POR_BLOQUE} con codificación
+ * frontal: cada una es un byte con los caracteres que comparte con la
+ * anterior del bloque (0 en la primera) y el resto del nombre como
+ * {@link DataOutputStream#writeUTF}. Al convertir un fichero el diccionario
+ * se escribe ordenado, y los prefijos comunes hacen que ocupe mucho menos;
+ * los nombres nuevos se añaden al final en el orden en que llegan.
+ *
+ * Solo se añaden entradas, y cada una se escribe en el fichero antes que
+ * los registros que la usan. Una entrada a medio escribir al final se
+ * ignora al leer y se descarta al abrir para escribir.
+ *
+ * Al leerlo se localizan solo los bloques; cada nombre se decodifica la
+ * primera vez que se pide y se guarda. Se puede consultar desde varios
+ * hilos: en el peor caso dos decodifican el mismo nombre.
+ */
+public final class DiccionarioNombres implements Closeable {
+
+    /**
+     * Número mágico: los bytes ASCII "NOMB".
+     */
+    public static final int MAGIA = 0x4E4F4D42;
+    public static final short VERSION = 2;
+    public static final int POR_BLOQUE = 16;
+    private static final int TAM_CABECERA = 10;
+    private static final int TAM_CABECERA_V1 = 8;
+
+    private final Path ruta;
+    private final byte[] datos;
+    private final short identificador;
+    /**
+     * Posición en {@link #datos} de la primera entrada de cada bloque.
+     */
+    private int[] bloques;
+    private int entradas;
+    /**
+     * Fin de la última entrada completa.
+     */
+    private final int fin;
+    private String[] nombres;
+
+    // Solo al escribir
+    private FileChannel salida;
+    private Map<String, Integer> numeros;
+    private String ultimo;
+
+    private DiccionarioNombres(Path ruta, byte[] datos) throws IOException {
+        this.ruta = ruta;
+        this.datos = datos;
+        ByteBuffer b = ByteBuffer.wrap(datos);
+        if (datos.length < TAM_CABECERA_V1 || b.getInt(0) != MAGIA) {
+            throw new IOException("Diccionario de nombres dañado: " + ruta);
+        }
+        short version = b.getShort(4);
+        if ((version != VERSION && version != 1) || b.getShort(6) != POR_BLOQUE) {
+            throw new IOException("Versión de diccionario de nombres desconocida: " + ruta);
+        }
+        int pos = TAM_CABECERA_V1;
+        if (version == VERSION) {
+            if (datos.length < TAM_CABECERA) {
+                throw new IOException("Diccionario de nombres dañado: " + ruta);
+            }
+            pos = TAM_CABECERA;
+        }
+        this.identificador = version == VERSION ? b.getShort(8) : 0;
+        bloques = new int[16];
+        while (pos + 3 <= datos.length) {
+            int siguiente = pos + 3 + (b.getShort(pos + 1) & 0xFFFF);
+            if (siguiente > datos.length) {
+                break;
+            }
+            if (entradas % POR_BLOQUE == 0) {
+                if (entradas / POR_BLOQUE == bloques.length) {
+                    bloques = Arrays.copyOf(bloques, bloques.length * 2);
+                }
+                bloques[entradas / POR_BLOQUE] = pos;
+            }
+            entradas++;
+            pos = siguiente;
+        }
+        this.fin = pos;
+        this.nombres = new String[Math.max(entradas, 16)];
+    }
+
+    /**
+     * Fichero del diccionario de un fichero de empleados.
+     *
+     * @param fichero ruta del fichero de empleados
+     * @return la ruta {@code <fichero>.nom}
+     */
+    public static Path ficheroDe(String fichero) {
+        return Paths.get(fichero + ".nom");
+    }
+
+    /**
+     * Lee un diccionario para consultarlo.
+     *
+     * @param ruta fichero del diccionario
+     * @param identificador el de la cabecera del fichero de empleados
+     * @return el diccionario
+     * @throws IOException si no existe, es de otro fichero, está dañado o no
+     * se puede leer
+     */
+    public static DiccionarioNombres lee(Path ruta, short identificador) throws IOException {
+        if (!Files.exists(ruta)) {
+            throw new IOException("Falta el diccionario de nombres " + ruta);
+        }
+        DiccionarioNombres d = new DiccionarioNombres(ruta, Files.readAllBytes(ruta));
+        if (d.identificador != identificador) {
+            throw new IOException("El diccionario de nombres " + ruta
+                    + " no es el que indica la cabecera del fichero.");
+        }
+        return d;
+    }
+
+    /**
+     * Abre el diccionario de un fichero v5 para añadir nombres, creándolo
+     * con el identificador dado si no existe. Hay que tener el
+     * {@link BloqueoEscritura} de su fichero de empleados.
+     *
+     * @param ruta fichero del diccionario
+     * @param identificador el de la cabecera del fichero de empleados
+     * @return el diccionario abierto
+     * @throws IOException si es de otro fichero, está dañado o no se puede
+     * abrir
+     */
+    static DiccionarioNombres abre(Path ruta, short identificador) throws IOException {
+        if (!Files.exists(ruta) || Files.size(ruta) < TAM_CABECERA_V1) {
+            escribe(ruta, identificador, new String[0]);
+        }
+        DiccionarioNombres d = lee(ruta, identificador);
+        d.numeros = new HashMap<>(Math.max(16, d.entradas * 2));
+        for (int i = 0; i < d.entradas; i++) {
+            d.numeros.put(d.nombre(i), i);
+        }
+        d.ultimo = d.entradas == 0 ? "" : d.nombre(d.entradas - 1);
+        d.salida = FileChannel.open(ruta, StandardOpenOption.WRITE);
+        if (d.salida.size() > d.fin) {
+            d.salida.truncate(d.fin);
+        }
+        d.salida.position(d.fin);
+        return d;
+    }
+
+    /**
+     * Abre para añadir nombres el diccionario de un fichero v5 que aún no
+     * tiene cabecera: el que haya preparado la conversión o, si no existe,
+     * uno vacío con un identificador nuevo. La cabecera se escribe después
+     * con su identificador.
+     *
+     * @param ruta fichero del diccionario
+     * @return el diccionario abierto
+     * @throws IOException si está dañado o no se puede abrir
+     */
+    static DiccionarioNombres abre(Path ruta) throws IOException {
+        if (!Files.exists(ruta) || Files.size(ruta) < TAM_CABECERA_V1) {
+            escribe(ruta, nuevoIdentificador(), new String[0]);
+        }
+        return abre(ruta, new DiccionarioNombres(ruta, Files.readAllBytes(ruta)).identificador);
+    }
+
+    /**
+     * Escribe un diccionario nuevo con los nombres en el orden dado, que
+     * deben ser distintos, y lo fuerza a disco.
+     *
+     * @param ruta fichero del diccionario, que se sustituye
+     * @param identificador identificador que llevará la cabecera del
+     * fichero de empleados; ver {@link #nuevoIdentificador}
+     * @param ordenados nombres, ordenados para aprovechar los prefijos
+     * @throws IOException si falla la escritura
+     */
+    static void escribe(Path ruta, short identificador, String[] ordenados) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(ruta.toFile());
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(fos, 64 * 1024))) {
+            out.writeInt(MAGIA);
+            out.writeShort(VERSION);
+            out.writeShort(POR_BLOQUE);
+            out.writeShort(identificador);
+            String anterior = "";
+            for (int i = 0; i < ordenados.length; i++) {
+                escribeEntrada(out, i % POR_BLOQUE == 0 ? "" : anterior, ordenados[i]);
+                anterior = ordenados[i];
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+    }
+
+    /**
+     * Identificador para un diccionario nuevo, distinto de 0 para no
+     * confundirlo con uno de la versión 1.
+     *
+     * @return identificador al azar
+     */
+    static short nuevoIdentificador() {
+        return (short) ThreadLocalRandom.current().nextInt(1, 1 << 16);
+    }
+
+    /**
+     * Identificador que debe llevar la cabecera del fichero de empleados.
+     *
+     * @return el identificador, 0 en la versión 1
+     */
+    public short getIdentificador() {
+        return identificador;
+    }
+
+    /**
+     * Número de nombres del diccionario.
+     *
+     * @return entradas completas
+     */
+    public int getEntradas() {
+        return entradas;
+    }
+
+    /**
+     * Devuelve un nombre por su número.
+     *
+     * @param numero número del nombre
+     * @return el nombre
+     * @throws IOException si el diccionario no tiene ese número
+     */
+    public String nombre(int numero) throws IOException {
+        if (numero < 0 || numero >= entradas) {
+            throw new IOException("Nombre " + numero + " inexistente en " + ruta);
+        }
+        String[] cache = nombres;
+        String n = cache[numero];
+        if (n == null) {
+            n = decodifica(numero, cache);
+        }
+        return n;
+    }
+
+    /**
+     * Número de un nombre, que se añade al diccionario si no está. Solo en
+     * los diccionarios abiertos con {@link #abre}.
+     *
+     * @param nombre nombre del empleado
+     * @return su número
+     * @throws IOException si falla la escritura
+     */
+    int numero(String nombre) throws IOException {
+        Integer n = numeros.get(nombre);
+        if (n != null) {
+            return n;
+        }
+        int numero = entradas;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(2 * nombre.length() + 3);
+        DataOutputStream out = new DataOutputStream(bytes);
+        escribeEntrada(out, numero % POR_BLOQUE == 0 ? "" : ultimo, nombre);
+        ByteBuffer b = ByteBuffer.wrap(bytes.toByteArray());
+        while (b.hasRemaining()) {
+            salida.write(b);
+        }
+        if (numero == nombres.length) {
+            nombres = Arrays.copyOf(nombres, nombres.length * 2);
+        }
+        nombres[numero] = nombre;
+        numeros.put(nombre, numero);
+        ultimo = nombre;
+        entradas++;
+        return numero;
+    }
+
+    /**
+     * Fuerza a disco los nombres añadidos.
+     *
+     * @throws IOException si falla la escritura
+     */
+    void fuerza() throws IOException {
+        salida.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (salida != null) {
+            salida.close();
+        }
+    }
+
+    private static void escribeEntrada(DataOutputStream out, String anterior, String nombre)
+            throws IOException {
+        int comun = 0;
+        int max = Math.min(Math.min(anterior.length(), nombre.length()), 255);
+        while (comun < max && anterior.charAt(comun) == nombre.charAt(comun)) {
+            comun++;
+        }
+        out.writeByte(comun);
+        out.writeUTF(nombre.substring(comun));
+    }
+
+    /**
+     * Decodifica el bloque del nombre hasta él, guardando los que
+     * encuentra por el camino.
+     */
+    private String decodifica(int numero, String[] cache) throws IOException {
+        int primero = numero - numero % POR_BLOQUE;
+        int pos = bloques[primero / POR_BLOQUE];
+        char[] c = new char[64];
+        int longitud = 0;
+        String n = null;
+        for (int i = primero; i <= numero; i++) {
+            int comun = datos[pos] & 0xFF;
+            int bytes = ((datos[pos + 1] & 0xFF) << 8) | (datos[pos + 2] & 0xFF);
+            if (comun > longitud) {
+                throw new IOException("Diccionario de nombres dañado: " + ruta);
+            }
+            if (comun + bytes > c.length) {
+                c = Arrays.copyOf(c, comun + bytes);
+            }
+            longitud = comun + utf(pos + 3, bytes, c, comun);
+            pos += 3 + bytes;
+            if (cache[i] == null) {
+                cache[i] = new String(c, 0, longitud);
+            }
+            n = cache[i];
+        }
+        return n;
+    }
+
+    /**
+     * Decodifica UTF-8 modificado de {@link #datos} en {@code destino} a
+     * partir de {@code desde}, como {@link EmpleadoDAO#utfModificado}.
+     *
+     * @return caracteres escritos
+     */
+    private int utf(int pos, int bytes, char[] destino, int desde) throws IOException {
+        int n = desde;
+        int i = pos;
+        int fin = pos + bytes;
+        while (i < fin) {
+            int x = datos[i] & 0xFF;
+            if (x < 0x80) {
+                destino[n++] = (char) x;
+                i++;
+            } else if ((x & 0xE0) == 0xC0 && i + 1 < fin) {
+                destino[n++] = (char) (((x & 0x1F) << 6) | (datos[i + 1] & 0x3F));
+                i += 2;
+            } else if ((x & 0xF0) == 0xE0 && i + 2 < fin) {
+                destino[n++] = (char) (((x & 0x0F) << 12) | ((datos[i + 1] & 0x3F) << 6)
+                        | (datos[i + 2] & 0x3F));
+                i += 3;
+            } else {
+                throw new IOException("Nombre mal codificado en " + ruta);
+            }
+        }
+        return n - desde;
+    }
+}
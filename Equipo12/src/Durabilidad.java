@@ -0,0 +1,26 @@
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Cuándo se fuerza a disco lo que escribe un {@link EscritorEmpleados}. Lo
+ * que no se ha forzado puede perderse si se cae el sistema, aunque el
+ * programa lo haya dado por escrito; al abrir el fichero de nuevo se
+ * descarta el registro que hubiera quedado a medias.
+ */
+public enum Durabilidad {
+
+    /**
+     * Se vuelca al sistema operativo con cada lote y él decide cuándo lo
+     * escribe en disco. Es lo más rápido.
+     */
+    NUNCA,
+    /**
+     * Se fuerza a disco con cada lote, o cuando el primer registro
+     * pendiente lleva esperando la latencia máxima, lo que ocurra antes.
+     * Una sola escritura a disco confirma todo el lote.
+     */
+    LOTE,
+    /**
+     * Se fuerza a disco tras cada registro.
+     */
+    REGISTRO
+}
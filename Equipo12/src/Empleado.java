@@ -1,6 +1,6 @@
 
 import java.math.BigDecimal;
-import java.util.GregorianCalendar;
+import java.time.LocalDate;
 import java.util.Date;
 
 /* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
@@ -9,6 +9,20 @@ public class Empleado {
     private final String nombre;
     private final Sexo sexo;
     private final BigDecimal salarioBase;
+    /**
+     * Salario base en céntimos para {@link Nomina}, o -1 si tiene más de dos
+     * decimales.
+     */
+    private final long salarioCentimos;
+    /**
+     * Fecha de ingreso en días desde 1970-01-01, calculada la primera vez
+     * que hace falta.
+     */
+    private int diaIngreso = Integer.MIN_VALUE;
+    /**
+     * Último cálculo de antigüedad y sueldo, con el día para el que vale.
+     */
+    private volatile Calculo calculo;
     private final Date fechaIngreso;
     private final TipoEmpleado tipoEmpleado;
     private final Provincia provincia;
@@ -21,44 +35,55 @@ public class Empleado {
             Provincia provincia) {
 
         if (nombre == null || nombre.trim().isEmpty()) {
-            throw new IllegalArgumentException("El nombre no puede estar vacío.");
+            throw invalido("El nombre no puede estar vacío.");
         }
         if (nombre.trim().length() > 30) {
-            throw new IllegalArgumentException("El nombre excede los 30 caracteres.");
+            throw invalido("El nombre excede los 30 caracteres.");
         }
         this.nombre = nombre.trim();
 
         if (sexo == null) {
-            throw new IllegalArgumentException("Sexo no puede ser nulo.");
+            throw invalido("Sexo no puede ser nulo.");
         }
         this.sexo = sexo;
 
         if (salarioBase == null) {
-            throw new IllegalArgumentException("Salario base no puede ser nulo.");
+            throw invalido("Salario base no puede ser nulo.");
         }
         if (salarioBase.compareTo(BigDecimal.ZERO) < 0
                 || salarioBase.compareTo(new BigDecimal("9999.99")) > 0) {
-            throw new IllegalArgumentException("Salario fuera de rango (0–9999.99).");
+            throw invalido("Salario fuera de rango (0–9999.99).");
         }
         this.salarioBase = salarioBase;
+        this.salarioCentimos = salarioBase.stripTrailingZeros().scale() <= 2
+                ? salarioBase.movePointRight(2).longValueExact() : -1;
 
         if (fechaIngreso == null) {
-            throw new IllegalArgumentException("Fecha de ingreso no puede ser nula.");
+            throw invalido("Fecha de ingreso no puede ser nula.");
         }
         // Defensive copy
         this.fechaIngreso = new Date(fechaIngreso.getTime());
 
         if (tipoEmpleado == null) {
-            throw new IllegalArgumentException("Tipo de empleado no puede ser nulo.");
+            throw invalido("Tipo de empleado no puede ser nulo.");
         }
         this.tipoEmpleado = tipoEmpleado;
 
         if (provincia == null) {
-            throw new IllegalArgumentException("Provincia no puede ser nula.");
+            throw invalido("Provincia no puede ser nula.");
         }
         this.provincia = provincia;
     }
 
+    /**
+     * Excepción de validación del constructor, que se cuenta en
+     * {@link Metricas}.
+     */
+    private static IllegalArgumentException invalido(String mensaje) {
+        Metricas.rechazo();
+        return new IllegalArgumentException(mensaje);
+    }
+
     // Getters
     public String getNombre() {
         return nombre;
@@ -85,37 +110,91 @@ public class Empleado {
         return provincia;
     }
 
+    /**
+     * Devuelve la antigüedad en años a día de hoy.
+     *
+     * @return años cumplidos desde el ingreso
+     */
     public int getAntiguedad() {
-        GregorianCalendar ingreso = new GregorianCalendar();
-        ingreso.setTime(fechaIngreso);
-
-        GregorianCalendar hoy = new GregorianCalendar();
-
-        int antiguedad = hoy.get(GregorianCalendar.YEAR)
-                - ingreso.get(GregorianCalendar.YEAR);
-
-        if (hoy.get(GregorianCalendar.MONTH) < ingreso.get(GregorianCalendar.MONTH)
-                || (hoy.get(GregorianCalendar.MONTH) == ingreso.get(GregorianCalendar.MONTH)
-                && hoy.get(GregorianCalendar.DAY_OF_MONTH) < ingreso.get(GregorianCalendar.DAY_OF_MONTH))) {
-            antiguedad--;
-        }
+        return calculo(Fechas.hoy()).antiguedad;
+    }
 
-        return antiguedad;
+    /**
+     * Devuelve la antigüedad en años cumplidos en la fecha indicada. Los
+     * informes deben fijar la fecha una vez y pasarla en todas las llamadas
+     * para que el resultado no cambie si la ejecución cruza la medianoche.
+     *
+     * @param fecha fecha de referencia
+     * @return años cumplidos desde el ingreso
+     */
+    public int getAntiguedad(LocalDate fecha) {
+        return calculo(aDia(fecha)).antiguedad;
     }
 
     public int getTrienios() {
         return getAntiguedad() / 3;
     }
 
+    public int getTrienios(LocalDate fecha) {
+        return getAntiguedad(fecha) / 3;
+    }
+
     /**
      * Calcula los complementos del empleado según reglas de negocio.
      */
     public BigDecimal getComplementos() {
+        return calculo(Fechas.hoy()).complementos;
+    }
+
+    /**
+     * Calcula los complementos del empleado en la fecha indicada.
+     *
+     * @param fecha fecha de referencia de la antigüedad
+     * @return complementos en euros
+     */
+    public BigDecimal getComplementos(LocalDate fecha) {
+        return calculo(aDia(fecha)).complementos;
+    }
+
+    public BigDecimal getSueldo() {
+        return calculo(Fechas.hoy()).sueldo;
+    }
+
+    /**
+     * Calcula el sueldo del empleado en la fecha indicada.
+     *
+     * @param fecha fecha de referencia de la antigüedad
+     * @return salario base más complementos
+     */
+    public BigDecimal getSueldo(LocalDate fecha) {
+        return calculo(aDia(fecha)).sueldo;
+    }
+
+    /**
+     * Devuelve el sueldo en milésimas de euro (ver {@link Nomina}).
+     *
+     * @param fecha fecha de referencia de la antigüedad
+     * @return sueldo en milésimas
+     * @throws ArithmeticException si el salario tiene más de dos decimales
+     */
+    public long getSueldoMilesimas(LocalDate fecha) {
+        if (salarioCentimos < 0) {
+            throw new ArithmeticException("Salario no representable en céntimos.");
+        }
+        return salarioCentimos * 10 + Nomina.complementos(getTrienios(fecha), salarioCentimos,
+                provincia.getCodigo(), sexo == Sexo.HOMBRE);
+    }
+
+    /**
+     * Cálculo original de los complementos con {@link BigDecimal}. Se usa
+     * cuando el salario no cabe en céntimos y para verificar {@link Nomina}.
+     */
+    BigDecimal getComplementosExactos(int trienios) {
         BigDecimal complementos = BigDecimal.ZERO;
 
         // Trienios
         complementos = complementos.add(
-                BigDecimal.valueOf(getTrienios()).multiply(BigDecimal.valueOf(24)));
+                BigDecimal.valueOf(trienios).multiply(BigDecimal.valueOf(24)));
 
         // Destino especial
         if (provincia == Provincia.JAEN
@@ -134,7 +213,60 @@ public class Empleado {
         return complementos;
     }
 
-    public BigDecimal getSueldo() {
-        return salarioBase.add(getComplementos());
+    private static int aDia(LocalDate fecha) {
+        if (fecha == null) {
+            throw new IllegalArgumentException("Fecha de referencia no puede ser nula.");
+        }
+        return (int) fecha.toEpochDay();
+    }
+
+    /**
+     * Devuelve los valores derivados para un día, calculándolos solo si el
+     * último cálculo guardado es de otro día.
+     */
+    private Calculo calculo(int dia) {
+        Calculo c = calculo;
+        if (c == null || c.dia != dia) {
+            c = new Calculo(this, dia);
+            calculo = c;
+        }
+        return c;
+    }
+
+    /**
+     * Antigüedad, complementos y sueldo de un empleado en un día. Es
+     * inmutable, así que se puede compartir entre hilos sin sincronizar.
+     */
+    private static final class Calculo {
+
+        private final int dia;
+        private final int antiguedad;
+        private final BigDecimal complementos;
+        private final BigDecimal sueldo;
+
+        Calculo(Empleado e, int dia) {
+            EventosJfr.CalculoNomina evento = EventosJfr.muestraNomina();
+            this.dia = dia;
+            if (e.diaIngreso == Integer.MIN_VALUE) {
+                e.diaIngreso = Fechas.aDiaEpoch(e.fechaIngreso);
+            }
+            this.antiguedad = Fechas.anios(e.diaIngreso, dia);
+            int trienios = antiguedad / 3;
+            if (e.salarioCentimos < 0) {
+                this.complementos = e.getComplementosExactos(trienios);
+                this.sueldo = e.salarioBase.add(complementos);
+            } else {
+                long c = Nomina.complementos(trienios, e.salarioCentimos,
+                        e.provincia.getCodigo(), e.sexo == Sexo.HOMBRE);
+                // Con la escala de getComplementosExactos: el 10 % del
+                // destino suma dos decimales a los del salario
+                int escala = Nomina.destinoEspecial(e.provincia.getCodigo())
+                        ? Math.max(0, e.salarioBase.scale() + 2) : 0;
+                this.complementos = Nomina.aEuros(c, escala);
+                this.sueldo = Nomina.aEuros(e.salarioCentimos * 10 + c,
+                        Math.max(e.salarioBase.scale(), escala));
+            }
+            EventosJfr.terminaNomina(evento, e.salarioCentimos < 0, trienios);
+        }
     }
 }
@@ -1,16 +1,66 @@
 
-import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UTFDataFormatException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
 
 /* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
 public class EmpleadoDAO {
 
+    /**
+     * Tamaño de lote por defecto de {@link #abreEscritor(String)}.
+     */
+    public static final int TAM_LOTE_POR_DEFECTO = 1024;
+
+    /**
+     * Capacidad de la cola de {@link #abreIngesta(String)}.
+     */
+    public static final int CAPACIDAD_COLA_POR_DEFECTO = 4096;
+
+    private Durabilidad durabilidad = Durabilidad.NUNCA;
+
+    /**
+     * Durabilidad de las operaciones de un solo empleado
+     * ({@link #escribeEmpleado}, {@link #modificaEmpleado} y
+     * {@link #bajaEmpleado}). Por defecto es {@link Durabilidad#NUNCA}, como
+     * siempre: el registro queda en la caché del sistema y una caída puede
+     * perderlo. Con {@link Durabilidad#REGISTRO} cada llamada espera a que
+     * llegue al disco, lo que cuesta una sincronización por empleado.
+     *
+     * @param durabilidad cuándo se fuerza la escritura a disco
+     */
+    public void setDurabilidad(Durabilidad durabilidad) {
+        if (durabilidad == null) {
+            throw new IllegalArgumentException("Durabilidad nula.");
+        }
+        this.durabilidad = durabilidad;
+    }
+
+    public Durabilidad getDurabilidad() {
+        return durabilidad;
+    }
+
     public void escribeEmpleado(String fichero, Empleado e) throws IOException {
         if (fichero == null || fichero.trim().isEmpty()) {
             throw new IllegalArgumentException("Ruta de fichero inválida.");
@@ -19,38 +69,900 @@ public class EmpleadoDAO {
             throw new IllegalArgumentException("Empleado no puede ser nulo.");
         }
 
-        try (DataOutputStream out = new DataOutputStream(
-                new BufferedOutputStream(
-                new FileOutputStream(fichero.trim(), true)))) {
+        try (EscritorEmpleados out = abreEscritor(fichero, 1, durabilidad, 0)) {
+            out.escribe(e);
+        }
+    }
+
+    /**
+     * Sustituye los datos de un empleado de un fichero v3.
+     *
+     * @param fichero ruta del fichero de empleados
+     * @param id identificador del empleado
+     * @param e nuevos datos
+     * @throws IOException si falla la escritura
+     * @throws IllegalStateException si el fichero no es v3
+     */
+    public void modificaEmpleado(String fichero, long id, Empleado e) throws IOException {
+        if (e == null) {
+            throw new IllegalArgumentException("Empleado no puede ser nulo.");
+        }
+        try (EscritorEmpleados out = abreEscritor(fichero, 1, durabilidad, 0)) {
+            out.modifica(id, e);
+        }
+    }
 
-            out.writeUTF(e.getNombre());
-            out.writeChar(e.getSexo().getCodigo());
-            out.writeUTF(e.getSalarioBase().toPlainString());
-            out.writeLong(e.getFechaIngreso().getTime());
-            out.writeChar(e.getTipoEmpleado().getCodigo());
-            out.writeByte(e.getProvincia().getCodigo());
+    /**
+     * Da de baja un empleado de un fichero v3.
+     *
+     * @param fichero ruta del fichero de empleados
+     * @param id identificador del empleado
+     * @throws IOException si falla la escritura
+     * @throws IllegalStateException si el fichero no es v3
+     */
+    public void bajaEmpleado(String fichero, long id) throws IOException {
+        try (EscritorEmpleados out = abreEscritor(fichero, 1, durabilidad, 0)) {
+            out.baja(id);
         }
     }
 
-    public Empleado leeEmpleado(DataInputStream in) throws IOException {
+    /**
+     * Reescribe un fichero v3 con solo la versión vigente de cada empleado,
+     * como un alta con el mismo identificador en el lugar de su alta
+     * original, y lo sustituye de forma atómica. Así los identificadores
+     * vuelven a quedar en orden creciente. Si el mayor identificador asignado está de
+     * baja se conserva su baja para que no se vuelva a asignar.
+     *
+     * Mientras dura se tiene el {@link BloqueoEscritura} del fichero, así
+     * que las sesiones de escritura esperan, pero los lectores no: quien
+     * tenga el fichero abierto sigue leyendo el anterior, que el sistema
+     * conserva hasta que lo cierra, y quien lo abra después lee el nuevo. La
+     * generación de la cabecera aumenta, con lo que los puntos de control
+     * del fichero anterior dejan de valer.
+     *
+     * @param fichero ruta del fichero de empleados
+     * @return número de empleados vigentes
+     * @throws IOException si falla la lectura o la escritura
+     * @throws IllegalStateException si el fichero no es v3
+     */
+    public long compacta(String fichero) throws IOException {
+        if (fichero == null || fichero.trim().isEmpty()) {
+            throw new IllegalArgumentException("Ruta de fichero inválida.");
+        }
+        String ruta = fichero.trim();
+        BloqueoEscritura bloqueo = BloqueoEscritura.adquiere(ruta);
+        try (FicheroMapeado f = abreMapeado(ruta)) {
+            FormatoFichero formato = f.getFormato();
+            if (!formato.esVersionado()) {
+                throw new IllegalStateException("El formato v" + formato.getVersion()
+                        + " no tiene modificaciones que compactar.");
+            }
+            if (f.getNumObsoletos() == 0) {
+                return f.getNumEmpleados();
+            }
+
+            Path destino = Paths.get(ruta).toAbsolutePath();
+            Path tmp = destino.resolveSibling(destino.getFileName() + ".compactando");
+            try {
+                long vigentes = reescribe(f, tmp, formato, null, null, 0);
+                Files.move(tmp, destino, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                return vigentes;
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } finally {
+            bloqueo.close();
+        }
+    }
+
+    /**
+     * Escribe en {@code destino} la versión vigente de cada empleado de un
+     * fichero v3 o posterior como un alta en el formato indicado, en el
+     * lugar de su alta original y conservando su identificador, y lo fuerza
+     * a disco. La cabecera lleva la generación siguiente a la del origen.
+     * Los nombres se llevan a {@code nombres} si se da; si no, se copian tal
+     * cual si el origen los guarda igual (así la compactación de un v5
+     * conserva su diccionario) o se escriben en el registro. Con un codec,
+     * el destino se comprime en bloques de {@code porBloque} registros.
+     */
+    private static long reescribe(FicheroMapeado f, Path destino, FormatoFichero formato,
+            DiccionarioNombres nombres, CodecBloques codec, int porBloque) throws IOException {
+        FormatoFichero origen = f.getFormato();
+        int tamOrigen = origen.getTamRegistro();
+        boolean copiaNombre = nombres == null
+                && origen.nombresEnDiccionario() == formato.nombresEnDiccionario();
+        int generacion = f.getTamano() == 0 ? 0 : f.segmento(0).getInt(FormatoFichero.OFF_GENERACION);
+        // El diccionario nuevo, o el del origen si se copian sus números
+        short diccionario = nombres != null ? nombres.getIdentificador()
+                : f.getTamano() == 0 ? 0 : f.segmento(0).getShort(FormatoFichero.OFF_DICCIONARIO);
+        byte[] registro = new byte[Math.max(formato.getTamRegistro(), FormatoFichero.TAM_CABECERA)];
+        ByteBuffer b = ByteBuffer.wrap(registro);
+        CRC32 crc = formato.tieneSumaControl() ? new CRC32() : null;
+        long vigentes = 0;
+        long maxId = -1;
+        long maxVigente = -1;
+
+        short banderas = codec == null ? 0 : FormatoFichero.COMPRIMIDO;
+        FicheroMapeado.Acceso registros = f.acceso(true);
+        FicheroMapeado.Acceso versiones = f.acceso(false);
+
+        try (FileOutputStream fos = new FileOutputStream(destino.toFile());
+                BufferedOutputStream buffer = new BufferedOutputStream(fos, 64 * 1024);
+                SalidaBloques bloques = codec == null ? null
+                        : new SalidaBloques(buffer, formato, codec, porBloque)) {
+            OutputStream out = bloques == null ? buffer : bloques;
+            formato.escribeCabecera(b, banderas, generacion + 1, diccionario);
+            out.write(registro, 0, FormatoFichero.TAM_CABECERA);
+            Arrays.fill(registro, (byte) 0);
+            for (long pos = f.getInicioDatos(); pos + tamOrigen <= f.getTamano(); pos += tamOrigen) {
+                ByteBuffer seg = registros.buffer(pos);
+                int base = registros.base();
+                long id = seg.getLong(base + origen.getOffId());
+                maxId = Math.max(maxId, id);
+                if (seg.get(base + origen.getOffOperacion()) != RegistroFijo.ALTA) {
+                    continue;
+                }
+                // Cada empleado en el lugar de su alta, con su última versión
+                long vigente = f.ultimaVersion(id);
+                if (vigente < 0) {
+                    vigente = pos;
+                } else if (!f.esVigente(vigente)) {
+                    continue;
+                }
+                ByteBuffer version = vigente == pos ? seg : versiones.buffer(vigente);
+                int baseVersion = vigente == pos ? base : versiones.base();
+                if (copiaNombre) {
+                    for (int i = 0; i < formato.getOffId(); i++) {
+                        registro[i] = version.get(baseVersion + i);
+                    }
+                } else {
+                    for (int i = 0; i < RegistroFijo.OFF_NOMBRE; i++) {
+                        registro[i] = version.get(baseVersion + i);
+                    }
+                    String nombre = RegistroFijo.nombre(origen, version, baseVersion,
+                            origen.nombresEnDiccionario() ? f.nombres() : null);
+                    if (formato.nombresEnDiccionario()) {
+                        registro[RegistroFijo.OFF_LONG_NOMBRE] = 0;
+                        b.putInt(RegistroFijo.OFF_NUM_NOMBRE, nombres.numero(nombre));
+                    } else {
+                        registro[RegistroFijo.OFF_LONG_NOMBRE] = (byte) nombre.length();
+                        for (int i = 0; i < RegistroFijo.MAX_NOMBRE; i++) {
+                            b.putChar(RegistroFijo.OFF_NOMBRE + 2 * i,
+                                    i < nombre.length() ? nombre.charAt(i) : '\0');
+                        }
+                    }
+                }
+                b.putLong(formato.getOffId(), id);
+                registro[formato.getOffOperacion()] = RegistroFijo.ALTA;
+                if (crc != null) {
+                    RegistroFijo.sella(formato, b, 0, crc);
+                }
+                out.write(registro, 0, formato.getTamRegistro());
+                maxVigente = Math.max(maxVigente, id);
+                vigentes++;
+            }
+            if (maxId > maxVigente) {
+                b.clear();
+                if (formato.nombresEnDiccionario()) {
+                    RegistroFijo.codificaCompacto(null, 0, maxId, RegistroFijo.BAJA, b);
+                } else {
+                    RegistroFijo.codifica(null, maxId, RegistroFijo.BAJA, b);
+                }
+                if (crc != null) {
+                    RegistroFijo.sella(formato, b, 0, crc);
+                }
+                out.write(registro, 0, formato.getTamRegistro());
+            }
+            if (bloques != null) {
+                bloques.termina();
+            }
+            out.flush();
+            if (nombres != null) {
+                nombres.fuerza();
+            }
+            if (maxId > maxVigente) {
+                // La baja conservada hay que saltarla al leer
+                ByteBuffer b2 = ByteBuffer.allocate(2);
+                b2.putShort(0, (short) (banderas | FormatoFichero.MODIFICADO));
+                fos.getChannel().write(b2, FormatoFichero.OFF_BANDERAS);
+            }
+            fos.getFD().sync();
+        }
+        return vigentes;
+    }
+
+    /**
+     * Abre una sesión de escritura que mantiene el fichero abierto y vuelca
+     * cada {@link #TAM_LOTE_POR_DEFECTO} registros.
+     *
+     * @param fichero ruta del fichero de empleados
+     * @return escritor abierto en modo añadir
+     * @throws IOException si no se puede abrir el fichero
+     */
+    public EscritorEmpleados abreEscritor(String fichero) throws IOException {
+        return abreEscritor(fichero, TAM_LOTE_POR_DEFECTO);
+    }
+
+    /**
+     * Abre una sesión de escritura que mantiene el fichero abierto y vuelca
+     * cada {@code tamanoLote} registros.
+     *
+     * @param fichero ruta del fichero de empleados
+     * @param tamanoLote número de registros entre volcados (1 o más)
+     * @return escritor abierto en modo añadir
+     * @throws IOException si no se puede abrir el fichero
+     */
+    public EscritorEmpleados abreEscritor(String fichero, int tamanoLote) throws IOException {
+        return abreEscritor(fichero, tamanoLote, false);
+    }
+
+    /**
+     * Abre una sesión de escritura que vuelca cada {@code tamanoLote}
+     * registros y, si se pide, mantiene también las columnas del fichero
+     * (ver {@link #sincronizaColumnas}).
+     *
+     * @param fichero ruta del fichero de empleados
+     * @param tamanoLote número de registros entre volcados (1 o más)
+     * @param conColumnas si se escriben también las columnas
+     * @return escritor abierto en modo añadir
+     * @throws IOException si no se puede abrir el fichero o las columnas
+     */
+    public EscritorEmpleados abreEscritor(String fichero, int tamanoLote, boolean conColumnas)
+            throws IOException {
+        return abreEscritor(fichero, tamanoLote, conColumnas, Durabilidad.NUNCA, 0);
+    }
+
+    /**
+     * Abre una sesión de escritura que vuelca cada {@code tamanoLote}
+     * registros y los fuerza a disco según {@code durabilidad}. Con
+     * {@link Durabilidad#LOTE} se confirma cada lote con una sola escritura
+     * a disco, y un lote incompleto se vuelca como mucho
+     * {@code latenciaMaxima} milisegundos después de su primer registro.
+     *
+     * @param fichero ruta del fichero de empleados
+     * @param tamanoLote número de registros entre volcados (1 o más)
+     * @param durabilidad cuándo se fuerzan los volcados a disco
+     * @param latenciaMaxima milisegundos que puede esperar un lote
+     * incompleto, 0 para no limitarlo
+     * @return escritor abierto en modo añadir
+     * @throws IOException si no se puede abrir el fichero
+     */
+    public EscritorEmpleados abreEscritor(String fichero, int tamanoLote, Durabilidad durabilidad,
+            long latenciaMaxima) throws IOException {
+        return abreEscritor(fichero, tamanoLote, false, durabilidad, latenciaMaxima);
+    }
+
+    /**
+     * Abre un servicio de ingesta con una cola de
+     * {@link #CAPACIDAD_COLA_POR_DEFECTO} envíos que escribe lotes de hasta
+     * {@link #TAM_LOTE_POR_DEFECTO} registros forzados a disco.
+     *
+     * @param fichero ruta del fichero de empleados
+     * @return servicio ya arrancado
+     * @throws IOException si no se puede abrir el fichero
+     */
+    public ServicioIngesta abreIngesta(String fichero) throws IOException {
+        return abreIngesta(fichero, CAPACIDAD_COLA_POR_DEFECTO, TAM_LOTE_POR_DEFECTO, Durabilidad.LOTE);
+    }
+
+    /**
+     * Abre un servicio de ingesta para que varios hilos escriban empleados
+     * en el mismo fichero (ver {@link ServicioIngesta}). Cada lote se vuelca
+     * una vez y según {@code durabilidad}; con {@link Durabilidad#REGISTRO}
+     * se fuerza además cada registro.
+     *
+     * @param fichero ruta del fichero de empleados
+     * @param capacidad envíos que caben en la cola antes de que los hilos
+     * que envían tengan que esperar
+     * @param tamanoMaxLote número máximo de registros por volcado
+     * @param durabilidad cuándo se fuerzan los volcados a disco
+     * @return servicio ya arrancado
+     * @throws IOException si no se puede abrir el fichero
+     */
+    public ServicioIngesta abreIngesta(String fichero, int capacidad, int tamanoMaxLote,
+            Durabilidad durabilidad) throws IOException {
+        if (capacidad < 1) {
+            throw new IllegalArgumentException("Capacidad de cola inválida: " + capacidad);
+        }
+        if (tamanoMaxLote < 1 || tamanoMaxLote == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Tamaño de lote inválido: " + tamanoMaxLote);
+        }
+        // El servicio vuelca al final de cada lote: el escritor no debe
+        // hacerlo antes por su cuenta
+        EscritorEmpleados escritor = abreEscritor(fichero, tamanoMaxLote + 1, durabilidad, 0);
+        try {
+            return new ServicioIngesta(escritor, capacidad, tamanoMaxLote);
+        } catch (RuntimeException ex) {
+            escritor.close();
+            throw ex;
+        }
+    }
+
+    private EscritorEmpleados abreEscritor(String fichero, int tamanoLote, boolean conColumnas,
+            Durabilidad durabilidad, long latenciaMaxima) throws IOException {
+        if (fichero == null || fichero.trim().isEmpty()) {
+            throw new IllegalArgumentException("Ruta de fichero inválida.");
+        }
+        return new EscritorEmpleados(fichero.trim(), tamanoLote, durabilidad, latenciaMaxima,
+                conColumnas, FormatoFichero.ACTUAL);
+    }
+
+    /**
+     * Descarta el registro que hubiera quedado a medio escribir al final
+     * del fichero por una caída. Las sesiones de escritura lo hacen al
+     * abrirse.
+     *
+     * @param fichero ruta del fichero de empleados
+     * @return bytes descartados, 0 si el fichero estaba completo o no existe
+     * @throws IOException si falla la lectura o la escritura
+     */
+    public long recupera(String fichero) throws IOException {
+        if (fichero == null || fichero.trim().isEmpty()) {
+            throw new IllegalArgumentException("Ruta de fichero inválida.");
+        }
+        Path ruta = Paths.get(fichero.trim());
+        if (!Files.exists(ruta)) {
+            return 0;
+        }
+        BloqueoEscritura bloqueo = BloqueoEscritura.adquiere(fichero.trim());
+        try (FileChannel ch = FileChannel.open(ruta, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return EscritorEmpleados.recupera(ch, fichero.trim(), null);
+        } finally {
+            bloqueo.close();
+        }
+    }
+
+    /**
+     * Devuelve las estadísticas del fichero (ver {@link Estadisticas}). Si
+     * el fichero creció desde que se guardaron solo se recorre lo añadido;
+     * si cambió o el sueldo máximo no vale para {@code fecha}, se recalculan
+     * enteras. En ambos casos se guardan para la próxima vez.
+     *
+     * @param f fichero proyectado
+     * @param fecha fecha en la que se quiere el sueldo máximo, o null si
+     * solo hacen falta los conteos
+     * @return estadísticas al día
+     * @throws IOException si falla la lectura del fichero
+     */
+    public Estadisticas estadisticas(FicheroMapeado f, LocalDate fecha) throws IOException {
+        if (f == null) {
+            throw new IllegalArgumentException("Fichero no puede ser nulo.");
+        }
+        return PuntoControl.procesa(f, Estadisticas.reductor(fecha));
+    }
+
+    /**
+     * Abre un almacenamiento columnar independiente, sin FICHE.DAT.
+     *
+     * @param directorio directorio de las columnas
+     * @return escritor abierto en modo añadir
+     * @throws IOException si no se puede abrir
+     */
+    public EscritorColumnar abreEscritorColumnar(String directorio) throws IOException {
+        if (directorio == null || directorio.trim().isEmpty()) {
+            throw new IllegalArgumentException("Ruta de directorio inválida.");
+        }
+        return new EscritorColumnar(Paths.get(directorio.trim()));
+    }
+
+    /**
+     * Carga en memoria solo las columnas indicadas de un almacenamiento
+     * columnar.
+     *
+     * @param directorio directorio de las columnas
+     * @param columnas columnas a cargar
+     * @return la tabla con esas columnas
+     * @throws IOException si falta alguna columna o no se puede leer
+     */
+    public TablaColumnar cargaColumnas(Path directorio, Set<Columna> columnas) throws IOException {
+        if (directorio == null) {
+            throw new IllegalArgumentException("Ruta de directorio inválida.");
+        }
+        if (columnas == null) {
+            throw new IllegalArgumentException("Las columnas no pueden ser nulas.");
+        }
+        return TablaColumnar.carga(directorio, columnas);
+    }
+
+    /**
+     * Indica si las columnas que acompañan al fichero tienen los mismos
+     * empleados que él. Solo se comprueba en los formatos de longitud fija,
+     * donde contar es inmediato; con v1 siempre es false.
+     *
+     * @param fichero ruta del fichero de empleados
+     * @return true si las columnas se pueden usar en lugar del fichero
+     * @throws IOException si falla la lectura
+     */
+    public boolean columnasSincronizadas(String fichero) throws IOException {
+        if (fichero == null || fichero.trim().isEmpty()) {
+            throw new IllegalArgumentException("Ruta de fichero inválida.");
+        }
+        Path dir = EscritorColumnar.directorioDe(fichero.trim());
+        FormatoFichero f = FormatoFichero.detecta(Paths.get(fichero.trim()));
+        if (f == null || !f.esFijo() || !Files.isDirectory(dir)) {
+            return false;
+        }
+        return EscritorColumnar.leeRegistros(dir) == cuentaEmpleados(fichero);
+    }
+
+    /**
+     * Reconstruye las columnas de {@code <fichero>.col} a partir del fichero
+     * si no tienen los mismos empleados. Espera al {@link BloqueoEscritura}
+     * del fichero para que ninguna sesión añada empleados mientras tanto.
+     *
+     * @param fichero ruta del fichero de empleados
+     * @return número de empleados de las columnas
+     * @throws IOException si falla la lectura o la escritura
+     */
+    public long sincronizaColumnas(String fichero) throws IOException {
+        if (fichero == null || fichero.trim().isEmpty()) {
+            throw new IllegalArgumentException("Ruta de fichero inválida.");
+        }
+        BloqueoEscritura bloqueo = BloqueoEscritura.adquiere(fichero.trim());
         try {
-            String nombre = in.readUTF();
-            Sexo sexo = Sexo.fromCodigo(in.readChar());
-            BigDecimal salarioBase = new BigDecimal(in.readUTF());
-            Date fechaIngreso = new Date(in.readLong());
-            TipoEmpleado tipoEmpleado = TipoEmpleado.fromCodigo(in.readChar());
-            Provincia provincia = Provincia.fromCodigo(in.readByte());
-
-            return new Empleado(
-                    nombre,
-                    sexo,
-                    salarioBase,
-                    fechaIngreso,
-                    tipoEmpleado,
-                    provincia);
-
-        } catch (EOFException eof) {
+            return sincronizaColumnasBloqueado(fichero.trim());
+        } finally {
+            bloqueo.close();
+        }
+    }
+
+    /**
+     * {@link #sincronizaColumnas} con el {@link BloqueoEscritura} del
+     * fichero ya adquirido, como al abrir una sesión de escritura.
+     */
+    long sincronizaColumnasBloqueado(String fichero) throws IOException {
+        Path dir = EscritorColumnar.directorioDe(fichero);
+        long registros = Files.exists(Paths.get(fichero)) ? cuentaEmpleados(fichero) : 0;
+        if (Files.isDirectory(dir) && EscritorColumnar.leeRegistros(dir) == registros) {
+            return registros;
+        }
+        EscritorColumnar.borra(dir);
+        if (registros == 0) {
+            return 0;
+        }
+        try (LectorEmpleados in = abreLector(fichero);
+                EscritorColumnar out = new EscritorColumnar(dir)) {
+            Empleado e;
+            while ((e = in.lee()) != null) {
+                out.escribe(e);
+            }
+            return out.getRegistros();
+        }
+    }
+
+    static void escribeRegistro(DataOutputStream out, Empleado e) throws IOException {
+        out.writeUTF(e.getNombre());
+        out.writeChar(e.getSexo().getCodigo());
+        out.writeUTF(e.getSalarioBase().toPlainString());
+        out.writeLong(e.getFechaIngreso().getTime());
+        out.writeChar(e.getTipoEmpleado().getCodigo());
+        out.writeByte(e.getProvincia().getCodigo());
+    }
+
+    /**
+     * Abre un fichero de empleados para lectura secuencial detectando su
+     * formato.
+     *
+     * @param fichero ruta del fichero
+     * @return lector posicionado en el primer registro
+     * @throws IOException si no se puede abrir o la cabecera está dañada
+     */
+    public LectorEmpleados abreLector(String fichero) throws IOException {
+        if (fichero == null || fichero.trim().isEmpty()) {
+            throw new IllegalArgumentException("Ruta de fichero inválida.");
+        }
+        return new LectorEmpleados(this, fichero.trim());
+    }
+
+    /**
+     * Proyecta un fichero de empleados en memoria para recorrerlo con un
+     * {@link CursorEmpleado} sin construir un {@link Empleado} por registro.
+     *
+     * @param fichero ruta del fichero
+     * @return el fichero proyectado
+     * @throws IOException si no se puede abrir o la cabecera está dañada
+     */
+    public FicheroMapeado abreMapeado(String fichero) throws IOException {
+        if (fichero == null || fichero.trim().isEmpty()) {
+            throw new IllegalArgumentException("Ruta de fichero inválida.");
+        }
+        return new FicheroMapeado(fichero.trim());
+    }
+
+    /**
+     * Devuelve los empleados del fichero como un {@link Stream} perezoso.
+     * Se puede recorrer en paralelo; en los formatos de longitud fija el
+     * tamaño es exacto y se divide por posición. El fichero se cierra al
+     * cerrar el stream, por lo que debe usarse en un try-with-resources.
+     *
+     * Los errores de lectura durante el recorrido se lanzan como
+     * {@link java.io.UncheckedIOException}.
+     *
+     * @param fichero ruta del fichero
+     * @return stream ordenado de empleados
+     * @throws IOException si no se puede abrir o la cabecera está dañada
+     */
+    public Stream<Empleado> stream(Path fichero) throws IOException {
+        if (fichero == null) {
+            throw new IllegalArgumentException("Ruta de fichero inválida.");
+        }
+        FicheroMapeado f = abreMapeado(fichero.toString());
+        try {
+            return StreamSupport.stream(new SpliteratorEmpleados(f), false)
+                    .onClose(() -> {
+                        try {
+                            f.close();
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    });
+        } catch (RuntimeException ex) {
+            f.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Devuelve el número de empleados del fichero. En los formatos de
+     * longitud fija se calcula a partir del tamaño, salvo si hay
+     * modificaciones o bajas; en v1 hay que recorrerlo.
+     *
+     * @param fichero ruta del fichero
+     * @return número de registros completos
+     * @throws IOException si falla la lectura
+     */
+    public long cuentaEmpleados(String fichero) throws IOException {
+        if (fichero == null || fichero.trim().isEmpty()) {
+            throw new IllegalArgumentException("Ruta de fichero inválida.");
+        }
+        try (FileChannel ch = FileChannel.open(Paths.get(fichero.trim()), StandardOpenOption.READ)) {
+            FormatoFichero f = FormatoFichero.detecta(ch);
+            if (f == null) {
+                return 0;
+            }
+            if (modificado(ch, f) || comprimido(ch, f)) {
+                try (FicheroMapeado m = abreMapeado(fichero)) {
+                    return m.getNumEmpleados();
+                }
+            }
+            if (f.esFijo()) {
+                return (ch.size() - f.getTamCabecera()) / f.getTamRegistro();
+            }
+        }
+        long n = 0;
+        try (LectorEmpleados in = abreLector(fichero)) {
+            while (in.lee() != null) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Lee el empleado que ocupa la posición {@code indice} del fichero. En
+     * los formatos de longitud fija es una única lectura en la posición
+     * calculada, y en los comprimidos se descomprime solo su bloque; en v1,
+     * o si hay modificaciones o bajas, hay que recorrer los registros
+     * anteriores.
+     *
+     * @param fichero ruta del fichero
+     * @param indice número de registro (desde 0)
+     * @return el empleado
+     * @throws IOException si falla la lectura
+     * @throws IndexOutOfBoundsException si no existe ese registro
+     */
+    public Empleado leeEmpleado(String fichero, long indice) throws IOException {
+        if (fichero == null || fichero.trim().isEmpty()) {
+            throw new IllegalArgumentException("Ruta de fichero inválida.");
+        }
+        if (indice < 0) {
+            throw new IndexOutOfBoundsException("Registro inexistente: " + indice);
+        }
+        try (FileChannel ch = FileChannel.open(Paths.get(fichero.trim()), StandardOpenOption.READ)) {
+            Metricas.apertura(false);
+            FormatoFichero f = FormatoFichero.detecta(ch);
+            if (f != null && comprimido(ch, f) && !modificado(ch, f)) {
+                // Solo se descomprime el bloque del registro
+                try (FicheroMapeado m = abreMapeado(fichero)) {
+                    long pos = f.posicion(indice);
+                    if (pos + f.getTamRegistro() > m.getTamano()) {
+                        throw new IndexOutOfBoundsException("Registro inexistente: " + indice);
+                    }
+                    CursorEmpleado c = m.cursor(pos, pos + f.getTamRegistro(), false);
+                    if (!c.siguiente()) {
+                        throw new IndexOutOfBoundsException("Registro inexistente: " + indice);
+                    }
+                    return c.materializa();
+                }
+            }
+            if (f != null && f.esFijo() && !modificado(ch, f)) {
+                long pos = f.posicion(indice);
+                if (pos + f.getTamRegistro() > ch.size()) {
+                    throw new IndexOutOfBoundsException("Registro inexistente: " + indice);
+                }
+                ByteBuffer b = ByteBuffer.allocate(f.getTamRegistro());
+                while (b.hasRemaining()) {
+                    if (ch.read(b, pos + b.position()) < 0) {
+                        throw new EOFException();
+                    }
+                }
+                if (f.tieneSumaControl() && !RegistroFijo.verifica(f, b, 0, new CRC32())) {
+                    throw new IOException("Registro dañado en la posición " + pos + " de " + fichero);
+                }
+                Metricas.leidos(1, b.capacity());
+                return RegistroFijo.decodifica(f, b, 0, f.nombresEnDiccionario()
+                        ? DiccionarioNombres.lee(DiccionarioNombres.ficheroDe(fichero.trim()),
+                                FormatoFichero.diccionario(ch))
+                        : null);
+            }
+        }
+        try (LectorEmpleados in = abreLector(fichero)) {
+            Empleado e = null;
+            for (long i = 0; i <= indice; i++) {
+                e = in.lee();
+                if (e == null) {
+                    throw new IndexOutOfBoundsException("Registro inexistente: " + indice);
+                }
+            }
+            return e;
+        }
+    }
+
+    private static boolean modificado(FileChannel ch, FormatoFichero f) throws IOException {
+        return f.esVersionado() && (FormatoFichero.banderas(ch) & FormatoFichero.MODIFICADO) != 0;
+    }
+
+    private static boolean comprimido(FileChannel ch, FormatoFichero f) throws IOException {
+        return f.esVersionado() && (FormatoFichero.banderas(ch) & FormatoFichero.COMPRIMIDO) != 0;
+    }
+
+    /**
+     * Copia todos los empleados de {@code origen} a {@code destino} en el
+     * formato {@link FormatoFichero#ACTUAL} y lo fuerza a disco. Si el
+     * origen es v3 o posterior solo se copia la versión vigente de cada
+     * empleado, con su identificador. El destino no debe existir o debe
+     * estar vacío.
+     *
+     * @param origen fichero en cualquier formato
+     * @param destino fichero nuevo
+     * @return número de empleados copiados
+     * @throws IOException si falla la lectura o la escritura
+     */
+    public long convierte(String origen, String destino) throws IOException {
+        return convierte(origen, destino, FormatoFichero.ACTUAL);
+    }
+
+    /**
+     * Copia todos los empleados de {@code origen} a {@code destino} en el
+     * formato indicado, como {@link #convierte(String, String)}. En v5 se
+     * escribe antes el diccionario del destino con los nombres ordenados,
+     * que así comparten más prefijos, o una copia del del origen si este
+     * también es v5; un diccionario anterior del destino se sustituye. Si
+     * el origen está comprimido, el destino queda sin comprimir.
+     *
+     * @param origen fichero en cualquier formato
+     * @param destino fichero nuevo
+     * @param formato formato del destino, v3 o posterior
+     * @return número de empleados copiados
+     * @throws IOException si falla la lectura o la escritura
+     */
+    public long convierte(String origen, String destino, FormatoFichero formato)
+            throws IOException {
+        if (origen == null || origen.trim().isEmpty()
+                || destino == null || destino.trim().isEmpty()) {
+            throw new IllegalArgumentException("Ruta de fichero inválida.");
+        }
+        if (formato == null || !formato.esVersionado()) {
+            throw new IllegalArgumentException("Formato de destino inválido: "
+                    + (formato == null ? null : "v" + formato.getVersion()));
+        }
+        Path d = Paths.get(destino.trim());
+        if (Files.exists(d) && Files.size(d) > 0) {
+            throw new IOException("El fichero destino no está vacío: " + destino);
+        }
+        FormatoFichero deOrigen = FormatoFichero.detecta(Paths.get(origen.trim()));
+        boolean mismosNombres = formato.nombresEnDiccionario()
+                && deOrigen != null && deOrigen.nombresEnDiccionario();
+        if (mismosNombres) {
+            // Los números de los registros se copian tal cual
+            Files.copy(DiccionarioNombres.ficheroDe(origen.trim()),
+                    DiccionarioNombres.ficheroDe(destino.trim()),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } else if (formato.nombresEnDiccionario()) {
+            Set<String> nombres = new TreeSet<>();
+            try (LectorEmpleados in = abreLector(origen)) {
+                Empleado e;
+                while ((e = in.lee()) != null) {
+                    nombres.add(e.getNombre());
+                }
+            }
+            DiccionarioNombres.escribe(DiccionarioNombres.ficheroDe(destino.trim()),
+                    DiccionarioNombres.nuevoIdentificador(), nombres.toArray(new String[0]));
+        }
+        try (FicheroMapeado f = abreMapeado(origen)) {
+            if (f.getFormato().esVersionado()) {
+                // Se copian los registros para conservar los identificadores
+                if (!formato.nombresEnDiccionario() || mismosNombres) {
+                    return reescribe(f, d, formato, null, null, 0);
+                }
+                try (DiccionarioNombres nombres = DiccionarioNombres.abre(
+                        DiccionarioNombres.ficheroDe(destino.trim()))) {
+                    return reescribe(f, d, formato, nombres, null, 0);
+                }
+            }
+        }
+        long n;
+        try (LectorEmpleados in = abreLector(origen);
+                EscritorEmpleados out = new EscritorEmpleados(destino.trim(),
+                        TAM_LOTE_POR_DEFECTO, Durabilidad.NUNCA, 0, false, formato)) {
+            Empleado e;
+            while ((e = in.lee()) != null) {
+                out.escribe(e);
+            }
+            n = out.getRegistrosEscritos();
+        }
+        try (FileChannel ch = FileChannel.open(d, StandardOpenOption.WRITE)) {
+            ch.force(true);
+        }
+        return n;
+    }
+
+    /**
+     * Copia todos los empleados de {@code origen} a un fichero comprimido
+     * {@code destino} con {@link CodecBloques#DEFLATE} en bloques de unos
+     * {@link BloquesComprimidos#TAM_BLOQUE} bytes. Ver
+     * {@link #comprime(String, String, CodecBloques, int)}.
+     *
+     * @param origen fichero en cualquier formato
+     * @param destino fichero nuevo
+     * @return número de empleados copiados
+     * @throws IOException si falla la lectura o la escritura
+     */
+    public long comprime(String origen, String destino) throws IOException {
+        return comprime(origen, destino, CodecBloques.DEFLATE, BloquesComprimidos.TAM_BLOQUE);
+    }
+
+    /**
+     * Copia todos los empleados de {@code origen} a un fichero comprimido
+     * {@code destino} (ver {@link BloquesComprimidos}) y lo fuerza a disco.
+     * Se conserva el formato del origen si es v4 o posterior, con su
+     * diccionario de nombres; si no, se usa {@link FormatoFichero#ACTUAL}.
+     * Como en {@link #convierte(String, String)}, solo se copia la versión
+     * vigente de cada empleado. El destino no debe existir o debe estar
+     * vacío.
+     *
+     * El fichero comprimido se puede leer como cualquier otro, también por
+     * posición y en paralelo, pero no se le pueden añadir empleados: para
+     * eso hay que convertirlo antes a uno sin comprimir.
+     *
+     * @param origen fichero en cualquier formato, comprimido o no
+     * @param destino fichero nuevo
+     * @param codec codec de los bloques
+     * @param tamBloque bytes sin comprimir de cada bloque, que se
+     * redondean a registros completos
+     * @return número de empleados copiados
+     * @throws IOException si falla la lectura o la escritura
+     */
+    public long comprime(String origen, String destino, CodecBloques codec, int tamBloque)
+            throws IOException {
+        if (origen == null || origen.trim().isEmpty()
+                || destino == null || destino.trim().isEmpty()) {
+            throw new IllegalArgumentException("Ruta de fichero inválida.");
+        }
+        if (codec == null) {
+            throw new IllegalArgumentException("Codec de bloques inválido.");
+        }
+        if (tamBloque < 1 || tamBloque > BloquesComprimidos.MAX_BLOQUE) {
+            throw new IllegalArgumentException("Tamaño de bloque inválido: " + tamBloque);
+        }
+        Path d = Paths.get(destino.trim());
+        if (Files.exists(d) && Files.size(d) > 0) {
+            throw new IOException("El fichero destino no está vacío: " + destino);
+        }
+        FormatoFichero formato = FormatoFichero.detecta(Paths.get(origen.trim()));
+        if (formato == null || !formato.esFijo() || formato.getVersion() < 4) {
+            // Se convierte antes, sin comprimir, para tener los registros fijos
+            Path intermedio = Paths.get(destino.trim() + ".sincomprimir");
+            Files.deleteIfExists(intermedio);
+            try {
+                convierte(origen, intermedio.toString());
+                return comprime(intermedio.toString(), destino, codec, tamBloque);
+            } finally {
+                Files.deleteIfExists(intermedio);
+                Files.deleteIfExists(Paths.get(intermedio + ".est"));
+                Files.deleteIfExists(Paths.get(intermedio + ".lock"));
+            }
+        }
+        if (formato.nombresEnDiccionario()) {
+            // Los números de los registros se copian tal cual
+            Files.copy(DiccionarioNombres.ficheroDe(origen.trim()),
+                    DiccionarioNombres.ficheroDe(destino.trim()),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+        int porBloque = Math.max(1, tamBloque / formato.getTamRegistro());
+        try (FicheroMapeado f = abreMapeado(origen)) {
+            return reescribe(f, d, formato, null, codec, porBloque);
+        }
+    }
+
+    /**
+     * Lee un registro en formato v1 de la posición actual del flujo.
+     *
+     * El final del flujo solo es válido entre registros: se comprueba
+     * leyendo el primer byte del registro, y si el flujo se acaba después
+     * el registro está incompleto y se lanza {@link EOFException}.
+     *
+     * @param in flujo posicionado al comienzo de un registro v1
+     * @return el empleado, o null al llegar al final del flujo
+     * @throws IOException si falla la lectura o el registro está incompleto
+     */
+    public Empleado leeEmpleado(DataInputStream in) throws IOException {
+        int primero = in.read();
+        if (primero < 0) {
             return null;
         }
+        int segundo = in.read();
+        if (segundo < 0) {
+            throw new EOFException("Registro incompleto al final del fichero.");
+        }
+        byte[] utf = new byte[(primero << 8) | segundo];
+        in.readFully(utf);
+
+        long inicio = System.nanoTime();
+        String nombre = utfModificado(ByteBuffer.wrap(utf), 0, utf.length);
+        Sexo sexo = Sexo.fromCodigo(in.readChar());
+        String salario = in.readUTF();
+        BigDecimal salarioBase = new BigDecimal(salario);
+        Date fechaIngreso = new Date(in.readLong());
+        TipoEmpleado tipoEmpleado = TipoEmpleado.fromCodigo(in.readChar());
+        Provincia provincia = Provincia.fromCodigo(in.readByte());
+
+        Empleado e = new Empleado(
+                nombre,
+                sexo,
+                salarioBase,
+                fechaIngreso,
+                tipoEmpleado,
+                provincia);
+        Metricas.decodificacion(System.nanoTime() - inicio);
+        // Nombre, sexo, salario (ASCII), fecha, tipo y provincia
+        Metricas.leidos(1, 2 + utf.length + 2 + 2 + salario.length() + 8 + 2 + 1);
+        return e;
+    }
+
+    /**
+     * Decodifica UTF-8 modificado, el de {@link java.io.DataInput#readUTF},
+     * a partir de una posición absoluta del buffer.
+     *
+     * @param b buffer origen
+     * @param desde posición del primer byte
+     * @param longitud número de bytes
+     * @return la cadena decodificada
+     * @throws UTFDataFormatException si los bytes no son UTF-8 modificado
+     */
+    static String utfModificado(ByteBuffer b, int desde, int longitud) throws UTFDataFormatException {
+        char[] c = new char[longitud];
+        int n = 0;
+        int i = desde;
+        int fin = desde + longitud;
+        while (i < fin) {
+            int x = b.get(i) & 0xFF;
+            if (x < 0x80) {
+                c[n++] = (char) x;
+                i++;
+            } else if ((x & 0xE0) == 0xC0 && i + 1 < fin) {
+                c[n++] = (char) (((x & 0x1F) << 6) | (b.get(i + 1) & 0x3F));
+                i += 2;
+            } else if ((x & 0xF0) == 0xE0 && i + 2 < fin) {
+                c[n++] = (char) (((x & 0x0F) << 12) | ((b.get(i + 1) & 0x3F) << 6)
+                        | (b.get(i + 2) & 0x3F));
+                i += 3;
+            } else {
+                throw new UTFDataFormatException("Cadena mal codificada.");
+            }
+        }
+        return new String(c, 0, n);
     }
 }
@@ -0,0 +1,220 @@
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Recorre un {@link FicheroMapeado} en paralelo aplicando un
+ * {@link Reductor}.
+ *
+ * El fichero se reparte en tramos de bytes que empiezan en un límite de
+ * registro. En los formatos de longitud fija los límites se calculan, y en
+ * los ficheros comprimidos caen además al comienzo de un bloque para que
+ * ninguno se descomprima dos veces; en v1 se localizan con una pasada que
+ * solo lee las longitudes de los campos.
+ * Cada tramo se acumula en una tarea del pool fork-join con su propio
+ * cursor y los parciales se combinan de izquierda a derecha, así que el
+ * resultado es el mismo que el de {@link #escaneaSecuencial}.
+ */
+public final class EscanerParalelo {
+
+    /**
+     * Tramos por hilo del pool, para repartir mejor la carga.
+     */
+    private static final int TRAMOS_POR_HILO = 4;
+    /**
+     * Tamaño mínimo de un tramo en bytes.
+     */
+    private static final long TAM_MIN_TRAMO = 1 << 20;
+
+    private EscanerParalelo() {
+    }
+
+    /**
+     * Aplica el reductor a todo el fichero en el pool común.
+     *
+     * @param <A> tipo del resultado
+     * @param f fichero proyectado
+     * @param r reductor
+     * @return el resultado combinado
+     * @throws IOException si algún registro no se puede leer
+     */
+    public static <A> A escanea(FicheroMapeado f, Reductor<A> r) throws IOException {
+        return escanea(f, r, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Aplica el reductor a todo el fichero en el pool indicado.
+     *
+     * @param <A> tipo del resultado
+     * @param f fichero proyectado
+     * @param r reductor
+     * @param pool pool donde se ejecutan las tareas
+     * @return el resultado combinado
+     * @throws IOException si algún registro no se puede leer
+     */
+    public static <A> A escanea(FicheroMapeado f, Reductor<A> r, ForkJoinPool pool) throws IOException {
+        return escanea(f, r, f.getInicioDatos(), pool);
+    }
+
+    /**
+     * Aplica el reductor en el pool común a los registros que empiezan en
+     * {@code desde} o después, para procesar solo lo añadido desde una
+     * pasada anterior (ver {@link PuntoControl}).
+     *
+     * @param <A> tipo del resultado
+     * @param f fichero proyectado
+     * @param r reductor
+     * @param desde comienzo de un registro, o el final del fichero
+     * @return el resultado combinado de esos registros
+     * @throws IOException si algún registro no se puede leer
+     */
+    public static <A> A escanea(FicheroMapeado f, Reductor<A> r, long desde) throws IOException {
+        return escanea(f, r, desde, ForkJoinPool.commonPool());
+    }
+
+    private static <A> A escanea(FicheroMapeado f, Reductor<A> r, long desde, ForkJoinPool pool)
+            throws IOException {
+        long inicio = System.nanoTime();
+        EventosJfr.Escaneo evento = EventosJfr.iniciaEscaneo();
+        long[] limites = limites(f, desde, pool.getParallelism() * TRAMOS_POR_HILO);
+        LongAdder registros = new LongAdder();
+        try {
+            return pool.invoke(new Tarea<>(f, r, limites, 0, limites.length - 1, registros));
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        } finally {
+            Metricas.escaneo(System.nanoTime() - inicio);
+            EventosJfr.terminaEscaneo(evento, f.getFichero(), registros.sum(),
+                    f.getTamano() - desde, limites.length - 1);
+        }
+    }
+
+    /**
+     * Aplica el reductor a todo el fichero en el hilo actual.
+     *
+     * @param <A> tipo del resultado
+     * @param f fichero proyectado
+     * @param r reductor
+     * @return el resultado
+     * @throws IOException si algún registro no se puede leer
+     */
+    public static <A> A escaneaSecuencial(FicheroMapeado f, Reductor<A> r) throws IOException {
+        long inicio = System.nanoTime();
+        EventosJfr.Escaneo evento = EventosJfr.iniciaEscaneo();
+        LongAdder registros = new LongAdder();
+        try {
+            return acumula(f, r, f.getInicioDatos(), f.getTamano(), true, registros);
+        } finally {
+            Metricas.escaneo(System.nanoTime() - inicio);
+            EventosJfr.terminaEscaneo(evento, f.getFichero(), registros.sum(),
+                    f.getTamano() - f.getInicioDatos(), 1);
+        }
+    }
+
+    /**
+     * Calcula los límites de hasta {@code partes} tramos. Cada límite es el
+     * comienzo de un registro o el final del fichero.
+     *
+     * @param f fichero proyectado
+     * @param inicio comienzo del primer registro del primer tramo
+     * @param partes número de tramos deseado
+     * @return posiciones de inicio de cada tramo seguidas del final
+     * @throws IOException si falla la lectura
+     */
+    static long[] limites(FicheroMapeado f, long inicio, int partes) throws IOException {
+        long fin = f.getTamano();
+        long datos = fin - inicio;
+        int n = (int) Math.max(1, Math.min(partes, datos / TAM_MIN_TRAMO));
+        long[] limites = new long[n + 1];
+        limites[0] = inicio;
+        limites[n] = fin;
+
+        FormatoFichero formato = f.getFormato();
+        if (formato.esFijo()) {
+            int tam = formato.getTamRegistro();
+            long primero = (inicio - f.getInicioDatos()) / tam;
+            long registros = datos / tam;
+            int porBloque = f.getRegistrosPorBloque();
+            for (int i = 1; i < n; i++) {
+                long registro = primero + registros * i / n;
+                registro = Math.max(registro - registro % porBloque, primero);
+                limites[i] = f.getInicioDatos() + registro * tam;
+            }
+            return limites;
+        }
+
+        // v1: se avanza registro a registro hasta pasar cada objetivo
+        CursorEmpleado c = f.cursor(inicio, fin);
+        int i = 1;
+        while (i < n && c.siguiente()) {
+            long objetivo = inicio + datos * i / n;
+            if (c.getPosicion() >= objetivo) {
+                limites[i++] = c.getPosicion();
+            }
+        }
+        while (i < n) {
+            limites[i++] = fin;
+        }
+        return limites;
+    }
+
+    private static <A> A acumula(FicheroMapeado f, Reductor<A> r, long desde, long hasta,
+            boolean anticipa, LongAdder registros) throws IOException {
+        A parcial = r.crea();
+        CursorEmpleado c = f.cursor(desde, hasta, anticipa);
+        try {
+            while (c.siguiente()) {
+                r.acumula(parcial, c);
+            }
+        } finally {
+            registros.add(c.getRegistrosRecorridos());
+        }
+        return parcial;
+    }
+
+    /**
+     * Acumula los tramos {@code [primero, ultimo)} dividiéndolos por la
+     * mitad.
+     */
+    private static final class Tarea<A> extends RecursiveTask<A> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final FicheroMapeado f;
+        private final Reductor<A> r;
+        private final long[] limites;
+        private final int primero;
+        private final int ultimo;
+        private final LongAdder registros;
+
+        Tarea(FicheroMapeado f, Reductor<A> r, long[] limites, int primero, int ultimo,
+                LongAdder registros) {
+            this.f = f;
+            this.r = r;
+            this.limites = limites;
+            this.primero = primero;
+            this.ultimo = ultimo;
+            this.registros = registros;
+        }
+
+        @Override
+        protected A compute() {
+            if (ultimo - primero == 1) {
+                try {
+                    return acumula(f, r, limites[primero], limites[ultimo], false, registros);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+            int medio = (primero + ultimo) >>> 1;
+            Tarea<A> izquierda = new Tarea<>(f, r, limites, primero, medio, registros);
+            izquierda.fork();
+            A derecha = new Tarea<>(f, r, limites, medio, ultimo, registros).compute();
+            return r.combina(izquierda.join(), derecha);
+        }
+    }
+}
@@ -0,0 +1,277 @@
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Escritura del almacenamiento columnar de empleados.
+ *
+ * Cada {@link Columna} es un fichero independiente del directorio, de modo
+ * que un informe solo lee las columnas que usa (ver {@link TablaColumnar}).
+ * El fichero {@code registros} guarda el número de empleados confirmados y
+ * se reescribe de forma atómica en cada volcado, después de las columnas:
+ * al abrir, lo que haya en las columnas más allá de ese número es un
+ * volcado interrumpido y se descarta.
+ *
+ * No es seguro para uso concurrente.
+ */
+public class EscritorColumnar implements Closeable {
+
+    /**
+     * Fichero con el número de empleados confirmados.
+     */
+    static final String FICHERO_REGISTROS = "registros";
+    /**
+     * Montón con los nombres en UTF-8.
+     */
+    static final String FICHERO_NOMBRES = "nombre.dat";
+
+    private static final int TAM_BUFFER = 64 * 1024;
+
+    private final Path directorio;
+    private final DataOutputStream provincia;
+    private final DataOutputStream tipo;
+    private final DataOutputStream salario;
+    private final DataOutputStream fecha;
+    private final DataOutputStream finNombre;
+    private final DataOutputStream nombres;
+    private final FileChannel sexo;
+    private final ByteBuffer bufSexo = ByteBuffer.allocate(TAM_BUFFER);
+
+    private long registros;
+    private long finNombres;
+    /**
+     * Byte del mapa de bits de sexo que se está completando.
+     */
+    private int byteSexo;
+    /**
+     * Posición en el fichero de sexo del siguiente byte completo.
+     */
+    private long posSexo;
+    private boolean cerrado;
+
+    /**
+     * Abre o crea el directorio de columnas. Usar
+     * {@link EmpleadoDAO#abreEscritorColumnar}.
+     *
+     * @param directorio directorio de las columnas
+     * @throws IOException si no se puede abrir
+     */
+    EscritorColumnar(Path directorio) throws IOException {
+        Files.createDirectories(directorio);
+        this.directorio = directorio;
+        this.registros = leeRegistros(directorio);
+
+        // Se descarta lo escrito tras el último volcado confirmado
+        for (Columna c : Columna.values()) {
+            recorta(directorio.resolve(c.getFichero()), c.longitud(registros));
+        }
+        Path idx = directorio.resolve(Columna.NOMBRE.getFichero());
+        if (registros > 0) {
+            try (FileChannel ch = FileChannel.open(idx, StandardOpenOption.READ)) {
+                ByteBuffer b = ByteBuffer.allocate(8);
+                leeCompleto(ch, b, (registros - 1) * 8);
+                finNombres = b.getLong(0);
+            }
+        }
+        recorta(directorio.resolve(FICHERO_NOMBRES), finNombres);
+
+        this.sexo = FileChannel.open(directorio.resolve(Columna.SEXO.getFichero()),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.posSexo = registros / 8;
+        if (registros % 8 != 0) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            leeCompleto(sexo, b, posSexo);
+            byteSexo = b.get(0) & 0xFF;
+        }
+
+        this.provincia = abre(Columna.PROVINCIA.getFichero());
+        this.tipo = abre(Columna.TIPO.getFichero());
+        this.salario = abre(Columna.SALARIO.getFichero());
+        this.fecha = abre(Columna.FECHA.getFichero());
+        this.finNombre = abre(Columna.NOMBRE.getFichero());
+        this.nombres = abre(FICHERO_NOMBRES);
+    }
+
+    /**
+     * Directorio de columnas que acompaña a un fichero de empleados.
+     *
+     * @param fichero ruta del fichero de empleados
+     * @return el directorio {@code <fichero>.col}
+     */
+    public static Path directorioDe(String fichero) {
+        return Paths.get(fichero + ".col");
+    }
+
+    /**
+     * Devuelve el número de empleados escritos, confirmados o no.
+     *
+     * @return número de empleados
+     */
+    public long getRegistros() {
+        return registros;
+    }
+
+    /**
+     * Añade un empleado al final de todas las columnas.
+     *
+     * @param e empleado a escribir
+     * @throws IOException si falla la escritura
+     */
+    public void escribe(Empleado e) throws IOException {
+        if (e == null) {
+            throw new IllegalArgumentException("Empleado no puede ser nulo.");
+        }
+        if (cerrado) {
+            throw new IOException("El escritor de " + directorio + " está cerrado.");
+        }
+        long centimos = RegistroFijo.centimos(e.getSalarioBase());
+        byte[] nombre = e.getNombre().getBytes(StandardCharsets.UTF_8);
+
+        provincia.writeByte(e.getProvincia().getCodigo());
+        tipo.writeByte(e.getTipoEmpleado().getCodigo());
+        salario.writeLong(centimos);
+        fecha.writeInt(Fechas.aDiaEpoch(e.getFechaIngreso()));
+        nombres.write(nombre);
+        finNombres += nombre.length;
+        finNombre.writeLong(finNombres);
+
+        byteSexo |= e.getSexo().ordinal() << (int) (registros % 8);
+        registros++;
+        if (registros % 8 == 0) {
+            if (!bufSexo.hasRemaining()) {
+                escribeSexo();
+            }
+            bufSexo.put((byte) byteSexo);
+            byteSexo = 0;
+        }
+    }
+
+    /**
+     * Vuelca las columnas y confirma el número de empleados.
+     *
+     * @throws IOException si falla la escritura
+     */
+    public void vuelca() throws IOException {
+        provincia.flush();
+        tipo.flush();
+        salario.flush();
+        fecha.flush();
+        nombres.flush();
+        finNombre.flush();
+        escribeSexo();
+        if (registros % 8 != 0) {
+            // El byte incompleto se reescribirá cuando se complete
+            ByteBuffer b = ByteBuffer.allocate(1).put(0, (byte) byteSexo);
+            while (b.hasRemaining()) {
+                sexo.write(b, posSexo + b.position());
+            }
+        }
+
+        Path tmp = directorio.resolve(FICHERO_REGISTROS + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tmp.toFile()))) {
+            out.writeLong(registros);
+        }
+        Files.move(tmp, directorio.resolve(FICHERO_REGISTROS),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (cerrado) {
+            return;
+        }
+        try {
+            vuelca();
+        } finally {
+            cerrado = true;
+            provincia.close();
+            tipo.close();
+            salario.close();
+            fecha.close();
+            nombres.close();
+            finNombre.close();
+            sexo.close();
+        }
+    }
+
+    /**
+     * Lee el número de empleados confirmados de un directorio de columnas.
+     *
+     * @param directorio directorio de columnas
+     * @return número de empleados, 0 si no existe
+     * @throws IOException si no se puede leer
+     */
+    static long leeRegistros(Path directorio) throws IOException {
+        Path p = directorio.resolve(FICHERO_REGISTROS);
+        if (!Files.exists(p)) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(p))) {
+            return in.readLong();
+        }
+    }
+
+    /**
+     * Borra los ficheros de un directorio de columnas, empezando por el
+     * número de empleados para que un borrado a medias quede vacío.
+     *
+     * @param directorio directorio de columnas
+     * @throws IOException si no se puede borrar
+     */
+    static void borra(Path directorio) throws IOException {
+        Files.deleteIfExists(directorio.resolve(FICHERO_REGISTROS));
+        for (Columna c : Columna.values()) {
+            Files.deleteIfExists(directorio.resolve(c.getFichero()));
+        }
+        Files.deleteIfExists(directorio.resolve(FICHERO_NOMBRES));
+    }
+
+    static void leeCompleto(FileChannel ch, ByteBuffer b, long pos) throws IOException {
+        while (b.hasRemaining()) {
+            if (ch.read(b, pos + b.position()) < 0) {
+                throw new IOException("Columna más corta de lo esperado.");
+            }
+        }
+    }
+
+    private void escribeSexo() throws IOException {
+        bufSexo.flip();
+        while (bufSexo.hasRemaining()) {
+            posSexo += sexo.write(bufSexo, posSexo);
+        }
+        bufSexo.clear();
+    }
+
+    private DataOutputStream abre(String fichero) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(directorio.resolve(fichero).toFile(), true), TAM_BUFFER));
+    }
+
+    private static void recorta(Path p, long longitud) throws IOException {
+        if (!Files.exists(p)) {
+            if (longitud > 0) {
+                throw new IOException("Falta la columna " + p);
+            }
+            return;
+        }
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.WRITE)) {
+            if (ch.size() < longitud) {
+                throw new IOException("Columna incompleta: " + p);
+            }
+            ch.truncate(longitud);
+        }
+    }
+}
@@ -0,0 +1,878 @@
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Sesión de escritura sobre un fichero de empleados.
+ *
+ * Mantiene un único flujo abierto en modo añadir durante toda la sesión y
+ * vuelca el buffer cada {@code tamanoLote} registros, en lugar de abrir y
+ * cerrar el fichero por cada empleado. Los registros se añaden en el formato
+ * del fichero existente; si el fichero no existe o está vacío se crea con la
+ * cabecera del formato pedido, normalmente {@link FormatoFichero#ACTUAL}.
+ * En v5 los nombres nuevos se añaden al {@link DiccionarioNombres} del
+ * fichero antes de escribir los registros que los usan. Opcionalmente escribe también
+ * cada empleado en las columnas del fichero ({@link EscritorColumnar}), que
+ * se confirman después de volcar el fichero. Las altas se suman a unas
+ * {@link Estadisticas} de la sesión, que se unen a las guardadas del fichero
+ * y se guardan cada {@value #VOLCADOS_POR_ESTADISTICAS} volcados y al cerrar
+ * las sesiones de al menos {@value #REGISTROS_POR_ESTADISTICAS} registros.
+ * Las sesiones más cortas no leen ni reescriben las estadísticas, y la
+ * siguiente lectura continúa desde las últimas guardadas, igual que si la
+ * sesión no llega a cerrarse.
+ *
+ * En los ficheros v3 cada alta recibe un identificador nuevo, y
+ * {@link #modifica} y {@link #baja} añaden una nueva versión o una marca de
+ * borrado de un empleado existente. La primera modificación marca el fichero
+ * con {@link FormatoFichero#MODIFICADO} y descarta las columnas y las
+ * estadísticas, que ya no se pueden mantener solo añadiendo.
+ *
+ * Al abrirlo se descarta el registro que hubiera quedado a medio escribir
+ * al final del fichero por una caída (ver {@link #recupera}), y cada
+ * volcado se fuerza a disco según la {@link Durabilidad} elegida. Con
+ * {@link Durabilidad#LOTE} y una latencia máxima, un temporizador vuelca el
+ * lote aunque no esté completo; por eso los métodos están sincronizados.
+ *
+ * La sesión tiene el {@link BloqueoEscritura} del fichero hasta que se
+ * cierra, así que otra sesión o una compactación esperan a que termine.
+ */
+public class EscritorEmpleados implements Closeable {
+
+    /**
+     * Tamaño del buffer de escritura en bytes.
+     */
+    private static final int TAM_BUFFER = 64 * 1024;
+
+    /**
+     * "FINV" en ASCII, al comienzo de {@code <fichero>.fin}.
+     */
+    private static final int MAGIA_FIN = 0x46494E56;
+    /**
+     * Bytes de cada extremo que entran en la huella del fin comprobado.
+     */
+    private static final int HUELLA_FIN = 4096;
+    /**
+     * Volcados entre dos escrituras de las estadísticas, que se reescriben
+     * enteras.
+     */
+    private static final int VOLCADOS_POR_ESTADISTICAS = 64;
+    /**
+     * Registros a partir de los que una sesión guarda las estadísticas al
+     * cerrarse. Por debajo cuesta menos que la siguiente lectura recorra lo
+     * añadido que leerlas y reescribirlas en cada alta suelta.
+     */
+    private static final int REGISTROS_POR_ESTADISTICAS = 1024;
+
+    /**
+     * Hilo compartido que vuelca los lotes que alcanzan la latencia máxima.
+     */
+    private static final ScheduledThreadPoolExecutor TEMPORIZADOR;
+
+    static {
+        TEMPORIZADOR = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "Volcado de empleados");
+            t.setDaemon(true);
+            return t;
+        });
+        TEMPORIZADOR.setRemoveOnCancelPolicy(true);
+    }
+
+    private final String fichero;
+    private final FileOutputStream salida;
+    private final ContadorBytes contador;
+    private final DataOutputStream out;
+    private final int tamanoLote;
+    private final FormatoFichero formato;
+    private final ByteBuffer registro;
+    private final BloqueoEscritura bloqueo;
+    private final Durabilidad durabilidad;
+    /**
+     * Milisegundos que puede esperar un registro a que se fuerce su lote, 0
+     * si solo se fuerza al completarlo.
+     */
+    private final long latenciaMaxima;
+    /**
+     * Suma de control de los registros v4 y v5, null en otros formatos.
+     */
+    private final CRC32 crc;
+    /**
+     * Diccionario de nombres en v5, null en otros formatos.
+     */
+    private final DiccionarioNombres diccionario;
+    /**
+     * Bytes del final descartados al abrir.
+     */
+    private final long bytesDescartados;
+    private EscritorColumnar columnas;
+    /**
+     * Longitud del fichero al abrirlo.
+     */
+    private final long longitudInicial;
+    /**
+     * Estadísticas de las altas de la sesión, o de todo el fichero si ya se
+     * han unido a las guardadas; null si dejan de mantenerse.
+     */
+    private Estadisticas estadisticas;
+    /**
+     * Si {@link #estadisticas} ya incluyen las guardadas del fichero.
+     */
+    private boolean estadisticasUnidas;
+    /**
+     * Identificador de la próxima alta, -1 en v1.
+     */
+    private long siguienteId;
+    /**
+     * Si la cabecera ya tiene la bandera {@link FormatoFichero#MODIFICADO}.
+     */
+    private boolean modificado;
+    private boolean derivadosDescartados;
+
+    private long registrosEscritos;
+    /**
+     * Registros y bytes ya sumados a {@link Metricas}.
+     */
+    private long registrosPublicados;
+    private long bytesPublicados;
+    private int pendientes;
+    private int volcadosSinEstadisticas;
+    private boolean cerrado;
+    private ScheduledFuture<?> volcadoProgramado;
+    /**
+     * Error de un volcado del temporizador, que se lanza en la siguiente
+     * llamada.
+     */
+    private IOException errorDiferido;
+
+    /**
+     * Abre el fichero en modo añadir. Usar {@link EmpleadoDAO#abreEscritor}.
+     *
+     * @param fichero ruta del fichero de empleados
+     * @param tamanoLote número de registros entre volcados
+     * @param durabilidad cuándo se fuerzan los volcados a disco
+     * @param latenciaMaxima con {@link Durabilidad#LOTE}, milisegundos tras
+     * los que se vuelca un lote incompleto; 0 para no volcarlo hasta
+     * completarlo
+     * @param conColumnas si se mantienen también las columnas del fichero,
+     * que se ponen al día al abrirlo (ver
+     * {@link EmpleadoDAO#sincronizaColumnas})
+     * @param nuevo formato si el fichero no existe o está vacío
+     * @throws IOException si no se puede abrir el fichero
+     * @throws IllegalStateException si el fichero está comprimido
+     */
+    EscritorEmpleados(String fichero, int tamanoLote, Durabilidad durabilidad, long latenciaMaxima,
+            boolean conColumnas, FormatoFichero nuevo) throws IOException {
+        if (tamanoLote < 1) {
+            throw new IllegalArgumentException("Tamaño de lote inválido: " + tamanoLote);
+        }
+        if (durabilidad == null) {
+            throw new IllegalArgumentException("Durabilidad no puede ser nula.");
+        }
+        if (latenciaMaxima < 0) {
+            throw new IllegalArgumentException("Latencia máxima inválida: " + latenciaMaxima);
+        }
+        this.fichero = fichero;
+        this.tamanoLote = tamanoLote;
+        this.durabilidad = durabilidad;
+        this.latenciaMaxima = latenciaMaxima;
+        this.bloqueo = BloqueoEscritura.adquiere(fichero);
+        Metricas.apertura(true);
+        DiccionarioNombres d = null;
+        try {
+            Path ruta = Paths.get(fichero);
+            FormatoFichero existente;
+            try (FileChannel ch = FileChannel.open(ruta, StandardOpenOption.READ,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                if (FormatoFichero.comprimido(ch)) {
+                    throw new IllegalStateException("El fichero " + fichero + " está comprimido:"
+                            + " hay que descomprimirlo con ConversorFichero para añadir empleados.");
+                }
+                // El diccionario hace falta para escribir: se abre antes y
+                // la recuperación usa el mismo
+                if (ch.size() >= FormatoFichero.TAM_CABECERA) {
+                    FormatoFichero previo = FormatoFichero.detecta(ch);
+                    if (previo != null && previo.nombresEnDiccionario()) {
+                        d = DiccionarioNombres.abre(DiccionarioNombres.ficheroDe(fichero),
+                                FormatoFichero.diccionario(ch));
+                    }
+                }
+                this.bytesDescartados = recupera(ch, fichero, d);
+                existente = FormatoFichero.detecta(ch);
+                this.siguienteId = siguienteId(ch, existente);
+                this.modificado = existente != null && existente.esVersionado()
+                        && (FormatoFichero.banderas(ch) & FormatoFichero.MODIFICADO) != 0;
+            }
+            if (conColumnas) {
+                // Con el bloqueo, y con el fichero ya sin el final a medias
+                new EmpleadoDAO().sincronizaColumnasBloqueado(fichero);
+                this.columnas = new EscritorColumnar(EscritorColumnar.directorioDe(fichero));
+            }
+
+            this.longitudInicial = existente == null ? 0 : Files.size(ruta);
+            this.estadisticas = Estadisticas.vacias(Fechas.hoy());
+            this.estadisticasUnidas = existente == null;
+            this.formato = existente == null ? nuevo : existente;
+            this.registro = formato.esFijo()
+                    ? ByteBuffer.allocate(Math.max(formato.getTamRegistro(), FormatoFichero.TAM_CABECERA))
+                    : null;
+            this.crc = formato.tieneSumaControl() ? new CRC32() : null;
+            if (formato.nombresEnDiccionario() && d == null) {
+                d = DiccionarioNombres.abre(DiccionarioNombres.ficheroDe(fichero));
+            }
+            this.diccionario = d;
+            this.salida = new FileOutputStream(fichero, true);
+            this.contador = new ContadorBytes(new BufferedOutputStream(salida, TAM_BUFFER));
+        } catch (IOException | RuntimeException ex) {
+            if (d != null) {
+                d.close();
+            }
+            if (columnas != null) {
+                columnas.close();
+            }
+            bloqueo.close();
+            throw ex;
+        }
+        this.out = new DataOutputStream(contador);
+
+        if (longitudInicial == 0 && formato.getTamCabecera() > 0) {
+            registro.clear();
+            formato.escribeCabecera(registro, (short) 0, 0,
+                    diccionario == null ? 0 : diccionario.getIdentificador());
+            out.write(registro.array(), 0, registro.position());
+        }
+    }
+
+    /**
+     * Devuelve el formato en que se escriben los registros.
+     *
+     * @return formato del fichero
+     */
+    public FormatoFichero getFormato() {
+        return formato;
+    }
+
+    public Durabilidad getDurabilidad() {
+        return durabilidad;
+    }
+
+    /**
+     * Escribe un empleado al final del fichero.
+     *
+     * @param e empleado a escribir
+     * @return identificador del empleado (en v2 su número de registro), o -1
+     * en v1
+     * @throws IOException si falla la escritura
+     */
+    public synchronized long escribe(Empleado e) throws IOException {
+        if (e == null) {
+            throw new IllegalArgumentException("Empleado no puede ser nulo.");
+        }
+        compruebaAbierto();
+
+        if (columnas != null) {
+            // Las columnas guardan céntimos: se valida antes de escribir nada
+            RegistroFijo.centimos(e.getSalarioBase());
+        }
+        long posicion = longitudInicial + contador.bytes;
+        long id = siguienteId;
+        if (diccionario != null) {
+            registro.clear();
+            RegistroFijo.codificaCompacto(e, diccionario.numero(e.getNombre()), id,
+                    RegistroFijo.ALTA, registro);
+            escribeRegistro();
+        } else if (formato.esVersionado()) {
+            registro.clear();
+            RegistroFijo.codifica(e, id, RegistroFijo.ALTA, registro);
+            escribeRegistro();
+        } else if (formato.esFijo()) {
+            registro.clear();
+            RegistroFijo.codifica(e, registro);
+            escribeRegistro();
+        } else {
+            EmpleadoDAO.escribeRegistro(out, e);
+        }
+        if (columnas != null) {
+            columnas.escribe(e);
+        }
+        if (estadisticas != null) {
+            estadisticas.acumula(e, posicion, Fechas.hoy());
+        }
+        if (id >= 0) {
+            siguienteId++;
+        }
+        registrosEscritos++;
+        registrado();
+        return id;
+    }
+
+    /**
+     * Sustituye los datos de un empleado añadiendo una nueva versión. Solo
+     * en ficheros v3.
+     *
+     * @param id identificador del empleado
+     * @param e nuevos datos
+     * @throws IOException si falla la escritura
+     * @throws IllegalStateException si el formato no admite modificaciones
+     */
+    public synchronized void modifica(long id, Empleado e) throws IOException {
+        if (e == null) {
+            throw new IllegalArgumentException("Empleado no puede ser nulo.");
+        }
+        version(id, e, RegistroFijo.MODIFICACION);
+    }
+
+    /**
+     * Da de baja un empleado añadiendo una marca de borrado. Solo en
+     * ficheros v3.
+     *
+     * @param id identificador del empleado
+     * @throws IOException si falla la escritura
+     * @throws IllegalStateException si el formato no admite bajas
+     */
+    public synchronized void baja(long id) throws IOException {
+        version(id, null, RegistroFijo.BAJA);
+    }
+
+    /**
+     * Escribe todos los empleados en el orden en que los devuelve el
+     * iterable.
+     *
+     * @param empleados empleados a escribir
+     * @throws IOException si falla la escritura
+     */
+    public synchronized void escribeTodos(Iterable<Empleado> empleados) throws IOException {
+        if (empleados == null) {
+            throw new IllegalArgumentException("La colección de empleados no puede ser nula.");
+        }
+        for (Empleado e : empleados) {
+            escribe(e);
+        }
+    }
+
+    /**
+     * Vuelca al fichero los registros pendientes del lote actual y, salvo
+     * con {@link Durabilidad#NUNCA}, los fuerza a disco.
+     *
+     * @throws IOException si falla la escritura
+     */
+    public synchronized void vuelca() throws IOException {
+        compruebaAbierto();
+        cancelaVolcado();
+        long inicio = System.nanoTime();
+        EventosJfr.LoteEscrito evento = EventosJfr.iniciaLote();
+        out.flush();
+        fuerza();
+        publicaLote(inicio, evento);
+        if (columnas != null) {
+            columnas.vuelca();
+        }
+        if (++volcadosSinEstadisticas >= VOLCADOS_POR_ESTADISTICAS) {
+            guardaEstadisticas();
+        }
+        pendientes = 0;
+    }
+
+    /**
+     * Devuelve el número de registros escritos en esta sesión.
+     *
+     * @return registros escritos
+     */
+    public synchronized long getRegistrosEscritos() {
+        return registrosEscritos;
+    }
+
+    /**
+     * Devuelve el número de bytes escritos en esta sesión.
+     *
+     * @return bytes escritos
+     */
+    public synchronized long getBytesEscritos() {
+        return contador.bytes;
+    }
+
+    /**
+     * Devuelve los bytes del final del fichero que se descartaron al abrirlo
+     * por pertenecer a un registro a medio escribir.
+     *
+     * @return bytes descartados, 0 si el fichero estaba completo
+     */
+    public long getBytesDescartados() {
+        return bytesDescartados;
+    }
+
+    /**
+     * Vuelca los registros pendientes y cierra el fichero. Los contadores
+     * siguen disponibles tras el cierre.
+     *
+     * @throws IOException si falla el volcado o el cierre
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!cerrado) {
+            cerrado = true;
+            cancelaVolcado();
+            try {
+                long inicio = System.nanoTime();
+                EventosJfr.LoteEscrito evento = EventosJfr.iniciaLote();
+                out.flush();
+                fuerza();
+                publicaLote(inicio, evento);
+                out.close();
+                if (estadisticasUnidas || registrosEscritos >= REGISTROS_POR_ESTADISTICAS) {
+                    guardaEstadisticas();
+                }
+                if (!formato.esFijo()) {
+                    guardaFinComprobado(fichero, longitudInicial + contador.bytes);
+                }
+            } finally {
+                try {
+                    if (columnas != null) {
+                        columnas.close();
+                    }
+                    if (diccionario != null) {
+                        diccionario.close();
+                    }
+                } finally {
+                    bloqueo.close();
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return fichero + ": " + registrosEscritos + " registros, "
+                + contador.bytes + " bytes";
+    }
+
+    /**
+     * Descarta el final del fichero si no es un registro completo: una
+     * cabecera a medias, el resto que no llega a un registro de longitud
+     * fija, los registros v4 finales que no coinciden con su suma de
+     * control, los v5 finales cuyo nombre no llegó al diccionario o un
+     * registro v1 cortado. Los ficheros comprimidos no se tocan: se
+     * escriben enteros antes de usarlos. Hay que tener el
+     * {@link BloqueoEscritura} del fichero.
+     *
+     * Solo se mira el final: en los formatos de longitud fija, el resto que
+     * no llega a un registro y los últimos registros hasta el primero
+     * válido (ver {@link RegistroFijo#finValido}); en v1, lo escrito desde
+     * el último fin comprobado, que se guarda en {@code <fichero>.fin} (ver
+     * {@link #guardaFinComprobado}).
+     *
+     * @param ch canal abierto para lectura y escritura
+     * @param fichero ruta del fichero, para encontrar su diccionario
+     * @param nombres diccionario ya abierto de un fichero v5, o null para
+     * leerlo si hace falta
+     * @return bytes descartados
+     * @throws IOException si falla la lectura, la cabecera está dañada o
+     * falta el diccionario de un fichero v5
+     */
+    static long recupera(FileChannel ch, String fichero, DiccionarioNombres nombres)
+            throws IOException {
+        long tamano = ch.size();
+        long valido;
+        if (tamano < FormatoFichero.TAM_CABECERA) {
+            // No cabe entera ni una cabecera ni un registro v1
+            valido = 0;
+        } else {
+            if (FormatoFichero.comprimido(ch)) {
+                return 0;
+            }
+            FormatoFichero f = FormatoFichero.detecta(ch);
+            if (f.esFijo()) {
+                valido = RegistroFijo.finValido(ch, f, tamano, entradas(f, ch, fichero, nombres));
+            } else {
+                valido = finRegistrosV1(ch, tamano, finComprobado(ch, fichero, tamano));
+            }
+        }
+        if (valido < tamano) {
+            ch.truncate(valido);
+            ch.force(true);
+        }
+        if (valido > 0 && tamano >= FormatoFichero.TAM_CABECERA
+                && !FormatoFichero.detecta(ch).esFijo()) {
+            guardaFinComprobado(fichero, valido);
+        }
+        return tamano - valido;
+    }
+
+    /**
+     * Entradas del diccionario para comprobar los nombres de los registros
+     * finales de un v5, o -1 en otros formatos.
+     */
+    private static int entradas(FormatoFichero f, FileChannel ch, String fichero,
+            DiccionarioNombres nombres) throws IOException {
+        if (!f.nombresEnDiccionario()) {
+            return -1;
+        }
+        if (nombres != null) {
+            return nombres.getEntradas();
+        }
+        // Se comprueba aunque no haya registros, para no aceptar un fichero
+        // v5 sin diccionario
+        return DiccionarioNombres.lee(DiccionarioNombres.ficheroDe(fichero),
+                FormatoFichero.diccionario(ch)).getEntradas();
+    }
+
+    /**
+     * Fin del último registro v1 completo, recorriendo solo las longitudes
+     * de los campos a partir de {@code desde}, que es el comienzo de un
+     * registro o el final del fichero.
+     */
+    private static long finRegistrosV1(FileChannel ch, long tamano, long desde) throws IOException {
+        ch.position(desde);
+        // No se cierra: cerraría el canal
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(ch), TAM_BUFFER));
+        long pos = desde;
+        while (pos + 2 <= tamano) {
+            int nombre = in.readUnsignedShort();
+            if (pos + 2 + nombre + 4 > tamano) {
+                break;
+            }
+            in.skipBytes(nombre + 2);
+            int salario = in.readUnsignedShort();
+            long fin = pos + 17 + nombre + salario;
+            if (fin > tamano) {
+                break;
+            }
+            in.skipBytes(salario + 11);
+            pos = fin;
+        }
+        return pos;
+    }
+
+    /**
+     * Fichero con el fin comprobado de un fichero v1.
+     *
+     * @param fichero ruta del fichero de empleados
+     * @return la ruta {@code <fichero>.fin}
+     */
+    static Path ficheroFin(String fichero) {
+        return Paths.get(fichero + ".fin");
+    }
+
+    /**
+     * Fin comprobado guardado de un fichero v1, si sigue valiendo: no pasa
+     * del tamaño actual y la huella de los bytes que lo rodean coincide.
+     *
+     * @return posición desde la que comprobar; 0 si no hay o no vale
+     */
+    private static long finComprobado(FileChannel ch, String fichero, long tamano)
+            throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(ficheroFin(fichero))))) {
+            if (in.readInt() != MAGIA_FIN) {
+                return 0;
+            }
+            long fin = in.readLong();
+            long huella = in.readLong();
+            return fin > 0 && fin <= tamano && huella(ch, fin) == huella ? fin : 0;
+        } catch (NoSuchFileException | EOFException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * Guarda hasta dónde se sabe que un fichero v1 tiene registros
+     * completos, con una huella del principio del fichero y de los bytes
+     * anteriores a esa posición, para que la siguiente recuperación solo
+     * compruebe lo escrito después. Es solo una caché: si no se puede
+     * guardar, la siguiente recuperación recorre el fichero entero.
+     *
+     * @param fichero ruta del fichero de empleados
+     * @param fin comienzo de un registro o final del fichero
+     */
+    static void guardaFinComprobado(String fichero, long fin) {
+        Path destino = ficheroFin(fichero).toAbsolutePath();
+        Path tmp = null;
+        try (FileChannel ch = FileChannel.open(Paths.get(fichero), StandardOpenOption.READ)) {
+            long huella = huella(ch, fin);
+            tmp = Files.createTempFile(destino.getParent(), destino.getFileName().toString(), ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIA_FIN);
+                out.writeLong(fin);
+                out.writeLong(huella);
+            }
+            Files.move(tmp, destino, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            // Se comprobará todo el fichero la próxima vez
+        } finally {
+            if (tmp != null) {
+                try {
+                    Files.deleteIfExists(tmp);
+                } catch (IOException ex) {
+                    // Queda un temporal huérfano, sin efecto
+                }
+            }
+        }
+    }
+
+    /**
+     * Suma de control de los primeros y los últimos {@link #HUELLA_FIN}
+     * bytes anteriores a {@code fin}.
+     */
+    private static long huella(FileChannel ch, long fin) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer b = ByteBuffer.allocate((int) Math.min(fin, HUELLA_FIN));
+        for (long desde : new long[]{0, fin - b.capacity()}) {
+            b.clear();
+            while (b.hasRemaining()) {
+                if (ch.read(b, desde + b.position()) < 0) {
+                    throw new EOFException();
+                }
+            }
+            b.flip();
+            crc.update(b);
+        }
+        return crc.getValue();
+    }
+
+    private void version(long id, Empleado e, byte operacion) throws IOException {
+        compruebaAbierto();
+        if (!formato.esVersionado()) {
+            throw new IllegalStateException("El formato v" + formato.getVersion()
+                    + " no admite modificaciones ni bajas; convierta el fichero a v"
+                    + FormatoFichero.ACTUAL.getVersion() + ".");
+        }
+        if (id < 0 || id >= siguienteId) {
+            throw new IllegalArgumentException("Empleado inexistente: " + id);
+        }
+        registro.clear();
+        if (diccionario != null) {
+            RegistroFijo.codificaCompacto(e, e == null ? 0 : diccionario.numero(e.getNombre()), id,
+                    operacion, registro);
+        } else {
+            RegistroFijo.codifica(e, id, operacion, registro);
+        }
+
+        if (!modificado) {
+            marcaModificado();
+        }
+        if (!derivadosDescartados) {
+            descartaDerivados();
+        }
+        escribeRegistro();
+        registrosEscritos++;
+        registrado();
+    }
+
+    /**
+     * Escribe el registro de longitud fija codificado en {@link #registro},
+     * con su suma de control en v4 y v5.
+     */
+    private void escribeRegistro() throws IOException {
+        if (crc != null) {
+            RegistroFijo.sella(formato, registro, 0, crc);
+        }
+        out.write(registro.array(), 0, formato.getTamRegistro());
+    }
+
+    /**
+     * Fuerza a disco lo volcado salvo con {@link Durabilidad#NUNCA}, con
+     * los nombres nuevos antes que los registros que los usan.
+     */
+    private void fuerza() throws IOException {
+        if (durabilidad != Durabilidad.NUNCA) {
+            if (diccionario != null) {
+                diccionario.fuerza();
+            }
+            salida.getChannel().force(false);
+        }
+    }
+
+    /**
+     * Suma a {@link Metricas} y graba en JFR lo escrito desde el lote
+     * anterior, si hay algo.
+     */
+    private void publicaLote(long inicio, EventosJfr.LoteEscrito evento) {
+        if (contador.bytes > bytesPublicados) {
+            long registros = registrosEscritos - registrosPublicados;
+            long bytes = contador.bytes - bytesPublicados;
+            Metricas.lote(registros, bytes, System.nanoTime() - inicio);
+            EventosJfr.terminaLote(evento, fichero, registros, bytes, durabilidad.name());
+            registrosPublicados = registrosEscritos;
+            bytesPublicados = contador.bytes;
+        }
+    }
+
+    private void registrado() throws IOException {
+        pendientes++;
+        if (pendientes >= tamanoLote || durabilidad == Durabilidad.REGISTRO) {
+            vuelca();
+        } else if (pendientes == 1 && durabilidad == Durabilidad.LOTE && latenciaMaxima > 0) {
+            volcadoProgramado = TEMPORIZADOR.schedule(this::vuelcaPorLatencia,
+                    latenciaMaxima, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void vuelcaPorLatencia() {
+        if (!cerrado && pendientes > 0 && errorDiferido == null) {
+            try {
+                vuelca();
+            } catch (IOException ex) {
+                errorDiferido = ex;
+            }
+        }
+    }
+
+    private void cancelaVolcado() {
+        if (volcadoProgramado != null) {
+            volcadoProgramado.cancel(false);
+            volcadoProgramado = null;
+        }
+    }
+
+    /**
+     * Pone la bandera {@link FormatoFichero#MODIFICADO} antes de escribir la
+     * primera modificación, para que ningún lector la tome por un alta.
+     */
+    private void marcaModificado() throws IOException {
+        out.flush();
+        ByteBuffer b = ByteBuffer.allocate(2);
+        b.putShort(0, FormatoFichero.MODIFICADO);
+        try (FileChannel ch = FileChannel.open(Paths.get(fichero), StandardOpenOption.WRITE)) {
+            while (b.hasRemaining()) {
+                ch.write(b, FormatoFichero.OFF_BANDERAS + b.position());
+            }
+        }
+        modificado = true;
+    }
+
+    /**
+     * Descarta lo que depende de que el fichero solo crezca: las columnas
+     * se borran y las estadísticas dejan de guardarse, así que la próxima
+     * lectura las recalcula porque la modificación queda detrás de su
+     * posición.
+     */
+    private void descartaDerivados() throws IOException {
+        estadisticas = null;
+        if (columnas != null) {
+            EscritorColumnar c = columnas;
+            columnas = null;
+            c.close();
+        }
+        EscritorColumnar.borra(EscritorColumnar.directorioDe(fichero));
+        derivadosDescartados = true;
+    }
+
+    /**
+     * Identificador de la próxima alta. En v3 las altas llevan
+     * identificadores crecientes, así que basta leer hacia atrás hasta la
+     * última; la compactación deja al final la baja del mayor identificador
+     * si no hay un alta posterior.
+     */
+    private static long siguienteId(FileChannel ch, FormatoFichero f) throws IOException {
+        if (f == null) {
+            return 0;
+        }
+        if (!f.esFijo()) {
+            return -1;
+        }
+        long registros = (ch.size() - f.getTamCabecera()) / f.getTamRegistro();
+        if (!f.esVersionado()) {
+            return registros;
+        }
+        long max = -1;
+        ByteBuffer b = ByteBuffer.allocate(9);
+        for (long i = registros - 1; i >= 0; i--) {
+            b.clear();
+            while (b.hasRemaining()) {
+                if (ch.read(b, f.posicion(i) + f.getOffId() + b.position()) < 0) {
+                    throw new EOFException("Registro incompleto en la posición " + f.posicion(i));
+                }
+            }
+            max = Math.max(max, b.getLong(0));
+            if (b.get(8) == RegistroFijo.ALTA) {
+                break;
+            }
+        }
+        return max + 1;
+    }
+
+    /**
+     * Guarda las estadísticas después de volcar el fichero, para que nunca
+     * describan registros que aún no se han volcado. La primera vez une las
+     * de la sesión a las guardadas; si estas no llegaban justo hasta el
+     * principio de la sesión, deja de mantenerlas.
+     */
+    private void guardaEstadisticas() throws IOException {
+        volcadosSinEstadisticas = 0;
+        if (estadisticas != null && !estadisticasUnidas) {
+            Estadisticas guardadas = estadisticasAlDia(fichero, longitudInicial);
+            estadisticas = guardadas == null ? null
+                    : Estadisticas.reductor(null).combina(guardadas, estadisticas);
+            estadisticasUnidas = true;
+        }
+        if (estadisticas != null) {
+            PuntoControl.guarda(fichero, Estadisticas.reductor(null),
+                    longitudInicial + contador.bytes, estadisticas);
+        }
+    }
+
+    /**
+     * Estadísticas guardadas si llegan justo hasta el final del fichero.
+     */
+    private static Estadisticas estadisticasAlDia(String fichero, long longitud) throws IOException {
+        PuntoControl<Estadisticas> pc = PuntoControl.lee(fichero, Estadisticas.reductor(null));
+        return pc != null && pc.getPosicion() == longitud ? pc.getResultado() : null;
+    }
+
+    private void compruebaAbierto() throws IOException {
+        if (cerrado) {
+            throw new IOException("El escritor de " + fichero + " está cerrado.");
+        }
+        if (errorDiferido != null) {
+            throw new IOException("Falló el volcado por latencia de " + fichero + ".", errorDiferido);
+        }
+    }
+
+    /**
+     * Cuenta los bytes que atraviesan el flujo. A diferencia de
+     * {@link DataOutputStream#size()} no se satura en 2 GB.
+     */
+    private static final class ContadorBytes extends FilterOutputStream {
+
+        private long bytes;
+
+        ContadorBytes(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            bytes += len;
+        }
+    }
+}
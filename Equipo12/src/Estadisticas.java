@@ -0,0 +1,424 @@
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Estadísticas de un fichero de empleados guardadas junto a él en
+ * {@code <fichero>.est}: número de empleados, conteos por provincia, tipo
+ * y sexo, y sueldo máximo con las posiciones de los primeros
+ * {@value #MAX_POSICIONES} empleados que lo cobran.
+ *
+ * Se guardan como {@link PuntoControl}: {@link EscritorEmpleados} las
+ * actualiza al añadir empleados y {@link EmpleadoDAO#estadisticas} continúa
+ * desde la posición guardada si el fichero creció sin actualizarlas, o las
+ * recalcula enteras si el fichero cambió.
+ *
+ * El sueldo máximo depende de la fecha, porque los trienios crecen con el
+ * tiempo. Se guarda el día en que se calculó y el primer día en el que
+ * algún empleado cumple un trienio nuevo; fuera de ese intervalo el máximo
+ * no vale y hay que recalcularlo.
+ */
+public final class Estadisticas {
+
+    /**
+     * Extensión del fichero de estadísticas.
+     */
+    static final String EXTENSION = "est";
+    private static final int CODIGOS = 256;
+    /**
+     * Posiciones de empleados con el sueldo máximo que se guardan. Se
+     * reescriben en cada guardado, así que con muchos empates el resto se
+     * busca al leerlas (ver {@link #mejorPagados}).
+     */
+    static final int MAX_POSICIONES = 16;
+
+    private long registros;
+    private final int[] provincias = new int[CODIGOS];
+    private final int[] tipos = new int[CODIGOS];
+    private final int[] sexos = new int[CODIGOS];
+
+    /**
+     * Si el sueldo máximo se pudo calcular en milésimas (ver {@link Nomina}).
+     * Es false si algún salario tiene más de dos decimales, y entonces no
+     * sirve recalcularlo.
+     */
+    private boolean maxValido = true;
+    private int diaCalculo;
+    /**
+     * Primer día, excluido, en que el máximo puede haber cambiado.
+     */
+    private int validoHasta = Integer.MAX_VALUE;
+    private long maxMilesimas;
+    private long[] posicionesMax = new long[4];
+    private int numMax;
+    /**
+     * Si hay más empleados con el sueldo máximo detrás de los guardados.
+     */
+    private boolean masEmpates;
+
+    private Estadisticas(int diaCalculo) {
+        this.diaCalculo = diaCalculo;
+    }
+
+    /**
+     * Estadísticas de un fichero sin empleados.
+     *
+     * @param dia día de cálculo
+     * @return estadísticas vacías
+     */
+    static Estadisticas vacias(int dia) {
+        return new Estadisticas(dia);
+    }
+
+    /**
+     * Fichero de estadísticas de un fichero de empleados.
+     *
+     * @param fichero ruta del fichero de empleados
+     * @return la ruta {@code <fichero>.est}
+     */
+    public static Path ficheroDe(String fichero) {
+        return PuntoControl.ficheroDe(fichero, EXTENSION);
+    }
+
+    /**
+     * Reductor que calcula las estadísticas y las guarda en su punto de
+     * control.
+     *
+     * @param fecha fecha en la que se quiere el sueldo máximo, o null si
+     * solo importan los conteos (el máximo se calcula entonces para hoy)
+     * @return reductor para {@link PuntoControl#procesa}
+     */
+    static ReductorPersistente<Estadisticas> reductor(LocalDate fecha) {
+        int dia = fecha == null ? Fechas.hoy() : (int) fecha.toEpochDay();
+        return new ReductorPersistente<Estadisticas>() {
+            @Override
+            public Estadisticas crea() {
+                return new Estadisticas(dia);
+            }
+
+            @Override
+            public void acumula(Estadisticas parcial, CursorEmpleado c) {
+                long sueldo;
+                try {
+                    sueldo = Nomina.sueldo(c, dia);
+                } catch (ArithmeticException ex) {
+                    parcial.maxValido = false;
+                    sueldo = 0;
+                }
+                parcial.acumula(c.getCodigoProvincia(), c.getCodigoTipo(), c.getCodigoSexo(),
+                        sueldo, c.getFechaIngresoDiaEpoch(), c.getPosicion());
+            }
+
+            @Override
+            public Estadisticas combina(Estadisticas izquierda, Estadisticas derecha) {
+                izquierda.combina(derecha);
+                return izquierda;
+            }
+
+            @Override
+            public String getExtension() {
+                return EXTENSION;
+            }
+
+            @Override
+            public void guarda(Estadisticas e, DataOutput out) throws IOException {
+                e.guarda(out);
+            }
+
+            @Override
+            public Estadisticas carga(DataInput in) throws IOException {
+                return Estadisticas.carga(in);
+            }
+
+            @Override
+            public boolean vigente(Estadisticas e) {
+                return fecha == null || !e.maxValido || e.maxVigente(dia);
+            }
+        };
+    }
+
+    private static Estadisticas carga(DataInput in) throws IOException {
+        Estadisticas e = new Estadisticas(0);
+        e.registros = in.readLong();
+        leeConteos(in, e.provincias);
+        leeConteos(in, e.tipos);
+        leeConteos(in, e.sexos);
+        e.maxValido = in.readBoolean();
+        e.diaCalculo = in.readInt();
+        e.validoHasta = in.readInt();
+        e.maxMilesimas = in.readLong();
+        int numMax = in.readInt();
+        if (numMax < 0) {
+            numMax = -1 - numMax;
+            e.masEmpates = true;
+        }
+        // Las guardadas antes del límite pueden traer más posiciones
+        e.numMax = Math.min(numMax, MAX_POSICIONES);
+        e.masEmpates |= numMax > MAX_POSICIONES;
+        e.posicionesMax = new long[Math.max(4, e.numMax)];
+        for (int i = 0; i < numMax; i++) {
+            long posicion = in.readLong();
+            if (i < e.numMax) {
+                e.posicionesMax[i] = posicion;
+            }
+        }
+        return e;
+    }
+
+    private void guarda(DataOutput out) throws IOException {
+        out.writeLong(registros);
+        escribeConteos(out, provincias);
+        escribeConteos(out, tipos);
+        escribeConteos(out, sexos);
+        out.writeBoolean(maxValido);
+        out.writeInt(diaCalculo);
+        out.writeInt(validoHasta);
+        out.writeLong(maxMilesimas);
+        // Negativo si hay más empates de los guardados
+        out.writeInt(masEmpates ? -1 - numMax : numMax);
+        for (int i = 0; i < numMax; i++) {
+            out.writeLong(posicionesMax[i]);
+        }
+    }
+
+    /**
+     * Añade un empleado escrito en la posición indicada del fichero.
+     *
+     * @param e empleado
+     * @param posicion posición del registro en el fichero
+     * @param dia día en que se escribe
+     */
+    void acumula(Empleado e, long posicion, int dia) {
+        long sueldo = 0;
+        if (!maxVigente(dia)) {
+            // Caducado: se deja sin vigencia para que se recalcule al leerlo
+            validoHasta = Integer.MIN_VALUE;
+        } else {
+            try {
+                sueldo = e.getSueldoMilesimas(LocalDate.ofEpochDay(dia));
+            } catch (ArithmeticException ex) {
+                maxValido = false;
+            }
+        }
+        acumula(e.getProvincia().getCodigo(), e.getTipoEmpleado().getCodigo(),
+                e.getSexo().getCodigo(), sueldo, Fechas.aDiaEpoch(e.getFechaIngreso()), posicion);
+    }
+
+    private void acumula(byte provincia, char tipo, char sexo, long sueldo, int diaIngreso,
+            long posicion) {
+        registros++;
+        provincias[provincia & 0xFF]++;
+        tipos[tipo & 0xFF]++;
+        sexos[sexo & 0xFF]++;
+        if (!maxValido) {
+            return;
+        }
+        validoHasta = Math.min(validoHasta, siguienteTrienio(diaIngreso, diaCalculo));
+        if (sueldo > maxMilesimas) {
+            maxMilesimas = sueldo;
+            numMax = 0;
+            masEmpates = false;
+        }
+        if (sueldo == maxMilesimas) {
+            if (numMax == MAX_POSICIONES) {
+                masEmpates = true;
+            } else {
+                if (numMax == posicionesMax.length) {
+                    posicionesMax = Arrays.copyOf(posicionesMax, numMax * 2);
+                }
+                posicionesMax[numMax++] = posicion;
+            }
+        }
+    }
+
+    private void combina(Estadisticas otro) {
+        registros += otro.registros;
+        for (int i = 0; i < CODIGOS; i++) {
+            provincias[i] += otro.provincias[i];
+            tipos[i] += otro.tipos[i];
+            sexos[i] += otro.sexos[i];
+        }
+        maxValido &= otro.maxValido;
+        // Al continuar un punto de control el otro se calculó otro día
+        boolean vigente = maxVigente(otro.diaCalculo);
+        diaCalculo = Math.max(diaCalculo, otro.diaCalculo);
+        validoHasta = vigente ? Math.min(validoHasta, otro.validoHasta) : Integer.MIN_VALUE;
+        if (otro.maxMilesimas > maxMilesimas) {
+            maxMilesimas = otro.maxMilesimas;
+            numMax = 0;
+            masEmpates = false;
+        }
+        if (otro.maxMilesimas == maxMilesimas) {
+            // Las del otro van detrás en el fichero
+            int copiadas = masEmpates ? 0 : Math.min(otro.numMax, MAX_POSICIONES - numMax);
+            if (numMax + copiadas > posicionesMax.length) {
+                posicionesMax = Arrays.copyOf(posicionesMax, numMax + copiadas);
+            }
+            System.arraycopy(otro.posicionesMax, 0, posicionesMax, numMax, copiadas);
+            numMax += copiadas;
+            masEmpates |= otro.masEmpates || copiadas < otro.numMax;
+        }
+    }
+
+    /**
+     * Primer día después de {@code dia} en el que el empleado puede cumplir
+     * un trienio nuevo. Para ingresos en el futuro se toma el día siguiente,
+     * que invalida el máximo enseguida.
+     */
+    private static int siguienteTrienio(int diaIngreso, int dia) {
+        int anios = Fechas.anios(diaIngreso, dia);
+        if (anios < 0) {
+            return dia + 1;
+        }
+        // plusYears lleva el 29 de febrero al 28: se adelanta, nunca se retrasa
+        return Math.max(dia + 1, (int) LocalDate.ofEpochDay(diaIngreso)
+                .plusYears(3L * (anios / 3 + 1)).toEpochDay());
+    }
+
+    public long getRegistros() {
+        return registros;
+    }
+
+    /**
+     * Indica si el sueldo máximo guardado vale para el día indicado.
+     *
+     * @param dia días desde 1970-01-01
+     * @return true si se puede usar {@link #getMaxSueldo()}
+     */
+    public boolean maxVigente(int dia) {
+        return maxValido && dia >= diaCalculo && dia < validoHasta;
+    }
+
+    /**
+     * Indica si el sueldo máximo se puede calcular en milésimas, es decir,
+     * si ningún salario tiene más de dos decimales.
+     *
+     * @return false si el máximo hay que calcularlo con {@link BigDecimal}
+     */
+    public boolean isMaxCalculable() {
+        return maxValido;
+    }
+
+    public BigDecimal getMaxSueldo() {
+        return Nomina.aEuros(maxMilesimas);
+    }
+
+    /**
+     * Posiciones en el fichero de los primeros empleados con el sueldo
+     * máximo, como mucho {@value #MAX_POSICIONES}, en orden del fichero.
+     *
+     * @return posiciones de registro
+     * @see #hayMasEmpates()
+     */
+    public long[] getPosicionesMax() {
+        return Arrays.copyOf(posicionesMax, numMax);
+    }
+
+    /**
+     * Indica si hay más empleados con el sueldo máximo detrás de los de
+     * {@link #getPosicionesMax()}.
+     *
+     * @return true si las posiciones guardadas no son todas
+     */
+    public boolean hayMasEmpates() {
+        return masEmpates;
+    }
+
+    /**
+     * Construye el resultado del informe de mejor pagados leyendo solo los
+     * empleados con el sueldo máximo. Si hay más empates de los guardados,
+     * los demás se buscan recorriendo el fichero desde el último guardado.
+     *
+     * @param f fichero proyectado del que se calcularon las estadísticas
+     * @return sueldo máximo y empleados que lo cobran
+     * @throws IOException si algún registro no se puede leer
+     * @throws IllegalStateException si el máximo no es válido
+     */
+    public Reductores.MejorPagados mejorPagados(FicheroMapeado f) throws IOException {
+        if (!maxValido) {
+            throw new IllegalStateException("Sueldo máximo no disponible.");
+        }
+        Reductores.MejorPagados r = new Reductores.MejorPagados();
+        CursorEmpleado c = null;
+        for (int i = 0; i < numMax; i++) {
+            c = f.cursor(posicionesMax[i], f.getTamano());
+            c.siguiente();
+            r.acumula(maxMilesimas, c.materializa());
+        }
+        if (masEmpates && c != null) {
+            while (c.siguiente()) {
+                if (Nomina.sueldo(c, diaCalculo) == maxMilesimas) {
+                    r.acumula(maxMilesimas, c.materializa());
+                }
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Número de empleados por provincia.
+     *
+     * @return mapa ordenado por provincia con las provincias con empleados
+     * @throws IllegalArgumentException si algún registro tiene un código de
+     * provincia inválido
+     */
+    public Map<Provincia, Integer> getConteoProvincias() {
+        Map<Provincia, Integer> conteo = new EnumMap<>(Provincia.class);
+        for (int codigo = 0; codigo < CODIGOS; codigo++) {
+            if (provincias[codigo] > 0) {
+                conteo.put(Provincia.fromCodigo((byte) codigo), provincias[codigo]);
+            }
+        }
+        return conteo;
+    }
+
+    /**
+     * Número de empleados por tipo.
+     *
+     * @return mapa con los tipos con empleados
+     */
+    public Map<TipoEmpleado, Integer> getConteoTipos() {
+        Map<TipoEmpleado, Integer> conteo = new EnumMap<>(TipoEmpleado.class);
+        for (int codigo = 0; codigo < CODIGOS; codigo++) {
+            if (tipos[codigo] > 0) {
+                conteo.put(TipoEmpleado.fromCodigo((char) codigo), tipos[codigo]);
+            }
+        }
+        return conteo;
+    }
+
+    /**
+     * Número de empleados por sexo.
+     *
+     * @return mapa con los sexos con empleados
+     */
+    public Map<Sexo, Integer> getConteoSexos() {
+        Map<Sexo, Integer> conteo = new EnumMap<>(Sexo.class);
+        for (int codigo = 0; codigo < CODIGOS; codigo++) {
+            if (sexos[codigo] > 0) {
+                conteo.put(Sexo.fromCodigo((char) codigo), sexos[codigo]);
+            }
+        }
+        return conteo;
+    }
+
+    private static void leeConteos(DataInput in, int[] conteos) throws IOException {
+        for (int i = 0; i < conteos.length; i++) {
+            conteos[i] = in.readInt();
+        }
+    }
+
+    private static void escribeConteos(DataOutput out, int[] conteos) throws IOException {
+        for (int c : conteos) {
+            out.writeInt(c);
+        }
+    }
+}
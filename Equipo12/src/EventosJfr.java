@@ -0,0 +1,458 @@
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Eventos de Java Flight Recorder de la aplicación, en la categoría
+ * "Equipo12": escaneos de ficheros, lotes escritos, fases de los informes
+ * y, por muestreo, cálculos de nómina.
+ *
+ * Se graban con cualquier grabación de JFR, por ejemplo
+ * {@code java -XX:StartFlightRecording=filename=informe.jfr MainD}, salvo
+ * {@code equipo12.CalculoNomina}, que hay que activar en la configuración
+ * de la grabación ({@code equipo12.CalculoNomina#enabled=true}).
+ *
+ * El proyecto compila contra la API de Java 8, que no incluye
+ * {@code jdk.jfr}, así que los eventos se definen al vuelo con
+ * {@code jdk.jfr.EventFactory} a través de {@link MethodHandle}s buscados
+ * al cargar esta clase. Si la JVM no tiene JFR no se graba nada.
+ *
+ * Definir un evento arranca la infraestructura de JFR, que cuesta cientos
+ * de milisegundos, así que cada tipo se define la primera vez que hace
+ * falta y los métodos estáticos de esta clase no crean ningún evento
+ * mientras JFR no esté iniciado en la JVM (al arrancarla con una grabación
+ * o al empezar una con {@code jcmd}).
+ */
+public final class EventosJfr {
+
+    /**
+     * Uno de cada tantos cálculos de nómina genera un evento cuando
+     * {@code equipo12.CalculoNomina} está activo. Se cambia con
+     * {@code -Dequipo12.jfr.muestreo=n}.
+     */
+    static final int MUESTREO = Math.max(1, Integer.getInteger("equipo12.jfr.muestreo", 1024));
+
+    /*
+     * Operaciones de jdk.jfr, o null si la JVM no tiene JFR.
+     */
+    private static final MethodHandle INICIADO;
+    private static final MethodHandle BEGIN;
+    private static final MethodHandle END;
+    private static final MethodHandle COMMIT;
+    private static final MethodHandle SHOULD_COMMIT;
+    private static final MethodHandle IS_ENABLED;
+    private static final MethodHandle SET;
+
+    static {
+        MethodHandle[] h = null;
+        try {
+            MethodHandles.Lookup l = MethodHandles.publicLookup();
+            Class<?> evento = Class.forName("jdk.jfr.Event");
+            MethodType vacio = MethodType.methodType(void.class);
+            MethodType logico = MethodType.methodType(boolean.class);
+            h = new MethodHandle[]{
+                l.findStatic(Class.forName("jdk.jfr.FlightRecorder"), "isInitialized", logico),
+                l.findVirtual(evento, "begin", vacio),
+                l.findVirtual(evento, "end", vacio),
+                l.findVirtual(evento, "commit", vacio),
+                l.findVirtual(evento, "shouldCommit", logico),
+                l.findVirtual(evento, "isEnabled", logico),
+                l.findVirtual(evento, "set",
+                        MethodType.methodType(void.class, int.class, Object.class))
+            };
+            for (int i = 1; i < h.length; i++) {
+                h[i] = h[i].asType(h[i].type().changeParameterType(0, Object.class));
+            }
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            // Sin JFR: los eventos no se crean nunca
+            h = null;
+        }
+        INICIADO = h == null ? null : h[0];
+        BEGIN = h == null ? null : h[1];
+        END = h == null ? null : h[2];
+        COMMIT = h == null ? null : h[3];
+        SHOULD_COMMIT = h == null ? null : h[4];
+        IS_ENABLED = h == null ? null : h[5];
+        SET = h == null ? null : h[6];
+    }
+
+    private static final Tipo TIPO_ESCANEO = new Tipo("equipo12.Escaneo", "Escaneo de fichero",
+            "Recorrido completo o incremental de un fichero con EscanerParalelo", true, true,
+            campo(String.class, "fichero", "Fichero", false),
+            campo(long.class, "registros", "Registros", false),
+            campo(long.class, "bytes", "Bytes", true),
+            campo(int.class, "tramos", "Tramos", false));
+    private static final Tipo TIPO_LOTE = new Tipo("equipo12.LoteEscrito", "Lote escrito",
+            "Volcado de un lote de EscritorEmpleados, con su forzado a disco si la durabilidad"
+            + " lo pide", true, true,
+            campo(String.class, "fichero", "Fichero", false),
+            campo(long.class, "registros", "Registros", false),
+            campo(long.class, "bytes", "Bytes", true),
+            campo(String.class, "durabilidad", "Durabilidad", false));
+    private static final Tipo TIPO_FASE = new Tipo("equipo12.FaseInforme", "Fase de informe",
+            "Fase de uno de los informes MainB a MainE", true, true,
+            campo(String.class, "informe", "Informe", false),
+            campo(String.class, "fase", "Fase", false));
+    private static final Tipo TIPO_NOMINA = new Tipo("equipo12.CalculoNomina", "Cálculo de nómina",
+            "Muestra de los cálculos de complementos y sueldo", false, false,
+            campo(boolean.class, "exacto", "Con BigDecimal", false),
+            campo(int.class, "trienios", "Trienios", false));
+
+    /**
+     * Evento de {@code equipo12.CalculoNomina} que solo sirve para consultar
+     * si el tipo está activo, sin crear un evento por cálculo. Lo que dice
+     * {@code isEnabled} es del tipo, así que vale para todos los hilos.
+     */
+    private static volatile CalculoNomina sondaNomina;
+
+    private EventosJfr() {
+    }
+
+    /**
+     * @return si JFR está iniciado en esta JVM
+     */
+    static boolean activo() {
+        if (INICIADO == null) {
+            return false;
+        }
+        try {
+            return (boolean) INICIADO.invokeExact();
+        } catch (Throwable ex) {
+            throw propaga(ex);
+        }
+    }
+
+    /**
+     * @return un escaneo en curso, o null si JFR no está iniciado
+     */
+    static Escaneo iniciaEscaneo() {
+        if (!activo()) {
+            return null;
+        }
+        Escaneo e = new Escaneo(TIPO_ESCANEO.nuevo());
+        e.begin();
+        return e;
+    }
+
+    static void terminaEscaneo(Escaneo e, String fichero, long registros, long bytes, int tramos) {
+        if (e == null) {
+            return;
+        }
+        e.end();
+        if (e.shouldCommit()) {
+            e.set(0, fichero);
+            e.set(1, registros);
+            e.set(2, bytes);
+            e.set(3, tramos);
+            e.commit();
+        }
+    }
+
+    /**
+     * @return un lote en curso, o null si JFR no está iniciado
+     */
+    static LoteEscrito iniciaLote() {
+        if (!activo()) {
+            return null;
+        }
+        LoteEscrito e = new LoteEscrito(TIPO_LOTE.nuevo());
+        e.begin();
+        return e;
+    }
+
+    static void terminaLote(LoteEscrito e, String fichero, long registros, long bytes,
+            String durabilidad) {
+        if (e == null) {
+            return;
+        }
+        e.end();
+        if (e.shouldCommit()) {
+            e.set(0, fichero);
+            e.set(1, registros);
+            e.set(2, bytes);
+            e.set(3, durabilidad);
+            e.commit();
+        }
+    }
+
+    /**
+     * Empieza a medir una fase de un informe.
+     *
+     * @param informe nombre del informe
+     * @param fase nombre de la fase
+     * @return la fase en curso, o null si JFR no está iniciado
+     */
+    static FaseInforme iniciaFase(String informe, String fase) {
+        if (!activo()) {
+            return null;
+        }
+        FaseInforme e = new FaseInforme(TIPO_FASE.nuevo());
+        e.set(0, informe);
+        e.set(1, fase);
+        e.begin();
+        return e;
+    }
+
+    static void terminaFase(FaseInforme e) {
+        if (e != null) {
+            e.commit();
+        }
+    }
+
+    /**
+     * Empieza a medir un cálculo de nómina si le toca por muestreo y
+     * {@code equipo12.CalculoNomina} está activo. Se llama por cada
+     * empleado, así que el muestreo va primero y los cálculos que no tocan
+     * no consultan JFR ni crean nada.
+     *
+     * @return el cálculo en curso, o null si no hay que grabarlo
+     */
+    static CalculoNomina muestraNomina() {
+        if (ThreadLocalRandom.current().nextInt(MUESTREO) != 0 || !activo()) {
+            return null;
+        }
+        CalculoNomina sonda = sondaNomina;
+        if (sonda == null) {
+            sonda = new CalculoNomina(TIPO_NOMINA.nuevo());
+            sondaNomina = sonda;
+        }
+        if (!sonda.isEnabled()) {
+            return null;
+        }
+        CalculoNomina e = new CalculoNomina(TIPO_NOMINA.nuevo());
+        e.begin();
+        return e;
+    }
+
+    static void terminaNomina(CalculoNomina e, boolean exacto, int trienios) {
+        if (e != null) {
+            e.set(0, exacto);
+            e.set(1, trienios);
+            e.commit();
+        }
+    }
+
+    /**
+     * Evento de JFR en curso, creado con la fábrica de su {@link Tipo}.
+     */
+    abstract static class Evento {
+
+        private final Object evento;
+
+        Evento(Object evento) {
+            this.evento = evento;
+        }
+
+        final void begin() {
+            llama(BEGIN, evento);
+        }
+
+        final void end() {
+            llama(END, evento);
+        }
+
+        final void commit() {
+            llama(COMMIT, evento);
+        }
+
+        final boolean shouldCommit() {
+            try {
+                return (boolean) SHOULD_COMMIT.invokeExact(evento);
+            } catch (Throwable ex) {
+                throw propaga(ex);
+            }
+        }
+
+        final boolean isEnabled() {
+            try {
+                return (boolean) IS_ENABLED.invokeExact(evento);
+            } catch (Throwable ex) {
+                throw propaga(ex);
+            }
+        }
+
+        final void set(int campo, Object valor) {
+            try {
+                SET.invokeExact(evento, campo, valor);
+            } catch (Throwable ex) {
+                throw propaga(ex);
+            }
+        }
+
+        private static void llama(MethodHandle h, Object evento) {
+            try {
+                h.invokeExact(evento);
+            } catch (Throwable ex) {
+                throw propaga(ex);
+            }
+        }
+    }
+
+    /**
+     * Recorrido completo o incremental de un fichero con
+     * {@link EscanerParalelo}.
+     */
+    static final class Escaneo extends Evento {
+
+        private Escaneo(Object evento) {
+            super(evento);
+        }
+    }
+
+    /**
+     * Volcado de un lote de {@link EscritorEmpleados} al fichero.
+     */
+    static final class LoteEscrito extends Evento {
+
+        private LoteEscrito(Object evento) {
+            super(evento);
+        }
+    }
+
+    /**
+     * Fase de uno de los informes MainB a MainE.
+     */
+    static final class FaseInforme extends Evento {
+
+        private FaseInforme(Object evento) {
+            super(evento);
+        }
+    }
+
+    /**
+     * Cálculo de los complementos y el sueldo de un empleado. Solo se graba
+     * uno de cada {@link EventosJfr#MUESTREO}.
+     */
+    static final class CalculoNomina extends Evento {
+
+        private CalculoNomina(Object evento) {
+            super(evento);
+        }
+    }
+
+    /**
+     * Definición de un tipo de evento, que se registra en JFR con
+     * {@code EventFactory} la primera vez que se crea un evento suyo.
+     */
+    private static final class Tipo {
+
+        private final String nombre;
+        private final String etiqueta;
+        private final String descripcion;
+        private final boolean activo;
+        private final boolean pila;
+        private final Campo[] campos;
+        /**
+         * {@code EventFactory.newEvent} ligado a la fábrica del tipo.
+         */
+        private volatile MethodHandle nuevo;
+
+        Tipo(String nombre, String etiqueta, String descripcion, boolean activo, boolean pila,
+                Campo... campos) {
+            this.nombre = nombre;
+            this.etiqueta = etiqueta;
+            this.descripcion = descripcion;
+            this.activo = activo;
+            this.pila = pila;
+            this.campos = campos;
+        }
+
+        Object nuevo() {
+            MethodHandle h = nuevo;
+            if (h == null) {
+                h = define();
+            }
+            try {
+                return h.invoke();
+            } catch (Throwable ex) {
+                throw propaga(ex);
+            }
+        }
+
+        private synchronized MethodHandle define() {
+            if (nuevo != null) {
+                return nuevo;
+            }
+            try {
+                List<Object> anotaciones = new ArrayList<>();
+                anotaciones.add(anotacion("Name", nombre));
+                anotaciones.add(anotacion("Label", etiqueta));
+                anotaciones.add(anotacion("Description", descripcion));
+                Object categoria = Array.newInstance(String.class, 1);
+                Array.set(categoria, 0, "Equipo12");
+                anotaciones.add(anotacion("Category", categoria));
+                anotaciones.add(anotacion("Enabled", activo));
+                anotaciones.add(anotacion("StackTrace", pila));
+
+                Class<?> descriptor = Class.forName("jdk.jfr.ValueDescriptor");
+                List<Object> valores = new ArrayList<>();
+                for (Campo c : campos) {
+                    List<Object> deCampo = new ArrayList<>();
+                    deCampo.add(anotacion("Label", c.etiqueta));
+                    if (c.bytes) {
+                        deCampo.add(anotacion("DataAmount", "BYTES"));
+                    }
+                    valores.add(descriptor.getConstructor(Class.class, String.class, List.class)
+                            .newInstance(c.tipo, c.nombre, deCampo));
+                }
+
+                Class<?> fabrica = Class.forName("jdk.jfr.EventFactory");
+                Object f = fabrica.getMethod("create", List.class, List.class)
+                        .invoke(null, anotaciones, valores);
+                nuevo = MethodHandles.publicLookup()
+                        .findVirtual(fabrica, "newEvent",
+                                MethodType.methodType(Class.forName("jdk.jfr.Event")))
+                        .bindTo(f);
+                return nuevo;
+            } catch (ReflectiveOperationException ex) {
+                throw new IllegalStateException("No se puede definir el evento " + nombre, ex);
+            }
+        }
+
+        private static Object anotacion(String tipo, Object valor) throws ReflectiveOperationException {
+            Class<?> anotacion = Class.forName("jdk.jfr." + tipo);
+            return Class.forName("jdk.jfr.AnnotationElement")
+                    .getConstructor(Class.class, Object.class)
+                    .newInstance(anotacion, valor);
+        }
+    }
+
+    /**
+     * Campo de un {@link Tipo}, en la posición que usa {@link Evento#set}.
+     */
+    private static final class Campo {
+
+        final Class<?> tipo;
+        final String nombre;
+        final String etiqueta;
+        final boolean bytes;
+
+        Campo(Class<?> tipo, String nombre, String etiqueta, boolean bytes) {
+            this.tipo = tipo;
+            this.nombre = nombre;
+            this.etiqueta = etiqueta;
+            this.bytes = bytes;
+        }
+    }
+
+    private static Campo campo(Class<?> tipo, String nombre, String etiqueta, boolean bytes) {
+        return new Campo(tipo, nombre, etiqueta, bytes);
+    }
+
+    private static RuntimeException propaga(Throwable ex) {
+        if (ex instanceof RuntimeException) {
+            return (RuntimeException) ex;
+        }
+        if (ex instanceof Error) {
+            throw (Error) ex;
+        }
+        return new IllegalStateException(ex);
+    }
+}
@@ -0,0 +1,359 @@
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Vuelca un fichero de empleados en CSV o JSON Lines para otros sistemas.
+ *
+ * Uso: {@code java ExportadorEmpleados [-json] [-campos c1,c2,...]
+ * [-fecha aaaa-mm-dd] [-o salida] [fichero]}. Por defecto se lee FICHE.DAT
+ * y se escribe CSV en la salida estándar con todos los campos salvo el
+ * identificador; los campos calculados (antigüedad, trienios, complementos
+ * y sueldo) se calculan a la fecha indicada o a hoy.
+ *
+ * Los empleados se recorren con un {@link CursorEmpleado}, sin
+ * materializarlos, y cada línea se escribe directamente en el array de una
+ * {@link SalidaBytes}: no se crean objetos por empleado en los formatos de
+ * longitud fija. Los importes se escriben en euros con dos decimales y
+ * punto decimal, y las fechas como {@code aaaa-mm-dd}.
+ */
+public final class ExportadorEmpleados {
+
+    /**
+     * Formato de salida.
+     */
+    public enum Formato {
+        /**
+         * Valores separados por comas con una línea de cabecera. El nombre
+         * va entre comillas si contiene comas o comillas.
+         */
+        CSV,
+        /**
+         * Un objeto JSON por línea, sin cabecera.
+         */
+        JSONL
+    }
+
+    /**
+     * Columnas que se pueden exportar.
+     */
+    public enum Campo {
+        ID("id"),
+        NOMBRE("nombre"),
+        SEXO("sexo"),
+        SALARIO("salario"),
+        FECHA_INGRESO("fecha_ingreso"),
+        TIPO("tipo"),
+        PROVINCIA("provincia"),
+        ANTIGUEDAD("antiguedad"),
+        TRIENIOS("trienios"),
+        COMPLEMENTOS("complementos"),
+        SUELDO("sueldo");
+
+        private final String nombre;
+
+        Campo(String nombre) {
+            this.nombre = nombre;
+        }
+
+        /**
+         * Nombre de la columna en la cabecera CSV y en JSON.
+         *
+         * @return nombre de la columna
+         */
+        public String getNombre() {
+            return nombre;
+        }
+
+        /**
+         * Devuelve el campo con ese nombre de columna.
+         *
+         * @param nombre nombre de la columna, sin distinguir mayúsculas
+         * @return el campo
+         * @throws IllegalArgumentException si no hay ningún campo con ese
+         * nombre
+         */
+        public static Campo fromNombre(String nombre) {
+            for (Campo c : values()) {
+                if (c.nombre.equalsIgnoreCase(nombre.trim())) {
+                    return c;
+                }
+            }
+            throw new IllegalArgumentException("Campo desconocido: " + nombre);
+        }
+    }
+
+    /**
+     * Campos que se exportan si no se indican otros: todos salvo el
+     * identificador, que los ficheros v1 no tienen.
+     */
+    public static final List<Campo> CAMPOS_POR_DEFECTO = Collections.unmodifiableList(
+            new ArrayList<>(EnumSet.range(Campo.NOMBRE, Campo.SUELDO)));
+
+    /**
+     * Tamaño del array de la salida.
+     */
+    private static final int TAM_BUFFER = 1 << 16;
+    /**
+     * Sitio para el nombre con todos sus caracteres escapados.
+     */
+    private static final int MAX_NOMBRE_ESCAPADO = 6 * 30 + 2;
+
+    private ExportadorEmpleados() {
+    }
+
+    public static void main(String[] args) {
+        Formato formato = Formato.CSV;
+        List<Campo> campos = CAMPOS_POR_DEFECTO;
+        LocalDate fecha = LocalDate.now();
+        String salida = null;
+        String fichero = "FICHE.DAT";
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-json":
+                        formato = Formato.JSONL;
+                        break;
+                    case "-campos":
+                        campos = new ArrayList<>();
+                        for (String c : valor(args, ++i).split(",")) {
+                            campos.add(Campo.fromNombre(c));
+                        }
+                        break;
+                    case "-fecha":
+                        fecha = LocalDate.parse(valor(args, ++i));
+                        break;
+                    case "-o":
+                        salida = valor(args, ++i);
+                        break;
+                    default:
+                        if (args[i].startsWith("-")) {
+                            throw new IllegalArgumentException("Opción desconocida: " + args[i]);
+                        }
+                        fichero = args[i];
+                }
+            }
+        } catch (IllegalArgumentException | DateTimeParseException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Uso: java ExportadorEmpleados [-json] [-campos c1,c2,...]"
+                    + " [-fecha aaaa-mm-dd] [-o salida] [fichero]");
+            System.err.println("Campos: " + Arrays.toString(Campo.values()).toLowerCase());
+            return;
+        }
+
+        EmpleadoDAO dao = new EmpleadoDAO();
+        try (FicheroMapeado f = dao.abreMapeado(fichero)) {
+            long n;
+            if (salida == null) {
+                n = exporta(f, campos, formato, System.out, fecha);
+            } else {
+                try (FileOutputStream out = new FileOutputStream(salida)) {
+                    n = exporta(f, campos, formato, out, fecha);
+                }
+            }
+            if (salida != null) {
+                System.err.println("Exportados " + n + " empleados a " + salida + ".");
+            }
+        } catch (IOException | IllegalArgumentException | ArithmeticException ex) {
+            System.err.println("Error exportando empleados: " + ex.getMessage());
+        } catch (UncheckedIOException ex) {
+            System.err.println("Error exportando empleados: " + ex.getCause().getMessage());
+        }
+    }
+
+    private static String valor(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Falta el valor de " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    /**
+     * Escribe todos los empleados de un fichero. El flujo se vacía pero no
+     * se cierra.
+     *
+     * @param f fichero proyectado
+     * @param campos columnas, en orden
+     * @param formato formato de salida
+     * @param out flujo de salida
+     * @param fecha día al que se calculan antigüedad, trienios,
+     * complementos y sueldo
+     * @return número de empleados escritos
+     * @throws IOException si no se puede leer algún registro o escribir
+     * @throws IllegalArgumentException si no hay campos o se pide el
+     * identificador de un fichero v1
+     * @throws ArithmeticException si el salario de un registro v1 tiene más
+     * de dos decimales
+     */
+    public static long exporta(FicheroMapeado f, List<Campo> campos, Formato formato,
+            OutputStream out, LocalDate fecha) throws IOException {
+        if (campos.isEmpty()) {
+            throw new IllegalArgumentException("No hay campos que exportar.");
+        }
+        if (campos.contains(Campo.ID) && !f.getFormato().esFijo()) {
+            throw new IllegalArgumentException("Los registros v1 no tienen identificador.");
+        }
+        Campo[] columnas = campos.toArray(new Campo[0]);
+        boolean json = formato == Formato.JSONL;
+        // Lo que precede a cada valor: separador y, en JSON, el nombre
+        String[] prefijos = new String[columnas.length];
+        for (int i = 0; i < columnas.length; i++) {
+            if (json) {
+                prefijos[i] = (i == 0 ? "{" : ",") + "\"" + columnas[i].getNombre() + "\":";
+            } else {
+                prefijos[i] = i == 0 ? "" : ",";
+            }
+        }
+        String finLinea = json ? "}\n" : "\n";
+        int hoy = (int) fecha.toEpochDay();
+
+        SalidaBytes s = new SalidaBytes(out, TAM_BUFFER);
+        if (!json) {
+            for (int i = 0; i < columnas.length; i++) {
+                s.ascii(prefijos[i]).ascii(columnas[i].getNombre());
+            }
+            s.ascii(finLinea);
+        }
+
+        char[] nombre = new char[30];
+        char[] escapado = new char[MAX_NOMBRE_ESCAPADO];
+        long n = 0;
+        CursorEmpleado c = f.cursor();
+        while (c.siguiente()) {
+            for (int i = 0; i < columnas.length; i++) {
+                s.ascii(prefijos[i]);
+                switch (columnas[i]) {
+                    case ID:
+                        s.entero(c.getId());
+                        break;
+                    case NOMBRE:
+                        int longitud = c.copiaNombre(nombre);
+                        s.texto(escapado, json ? escapaJson(nombre, longitud, escapado)
+                                : escapaCsv(nombre, longitud, escapado));
+                        break;
+                    case SEXO:
+                        cadena(s, c.getSexo().name(), json);
+                        break;
+                    case SALARIO:
+                        s.importe(c.getSalarioCentimos(), '.');
+                        break;
+                    case FECHA_INGRESO:
+                        if (json) {
+                            s.ascii('"').fecha(c.getFechaIngresoDiaEpoch()).ascii('"');
+                        } else {
+                            s.fecha(c.getFechaIngresoDiaEpoch());
+                        }
+                        break;
+                    case TIPO:
+                        cadena(s, c.getTipoEmpleado().name(), json);
+                        break;
+                    case PROVINCIA:
+                        cadena(s, c.getProvincia().name(), json);
+                        break;
+                    case ANTIGUEDAD:
+                        s.entero(Fechas.anios(c.getFechaIngresoDiaEpoch(), hoy));
+                        break;
+                    case TRIENIOS:
+                        s.entero(Fechas.anios(c.getFechaIngresoDiaEpoch(), hoy) / 3);
+                        break;
+                    case COMPLEMENTOS:
+                        s.importe(Nomina.aCentimos(complementos(c, hoy)), '.');
+                        break;
+                    case SUELDO:
+                        s.importe(Nomina.aCentimos(Nomina.sueldo(c, hoy)), '.');
+                        break;
+                    default:
+                        throw new AssertionError(columnas[i]);
+                }
+            }
+            s.ascii(finLinea);
+            n++;
+        }
+        s.flush();
+        return n;
+    }
+
+    private static long complementos(CursorEmpleado c, int hoy) {
+        int trienios = Fechas.anios(c.getFechaIngresoDiaEpoch(), hoy) / 3;
+        return Nomina.complementos(trienios, c.getSalarioCentimos(), c.getCodigoProvincia(),
+                c.getCodigoSexo() == Sexo.HOMBRE.getCodigo());
+    }
+
+    /**
+     * Escribe un nombre de constante, entre comillas en JSON.
+     */
+    private static void cadena(SalidaBytes s, String valor, boolean json) throws IOException {
+        if (json) {
+            s.ascii('"').ascii(valor).ascii('"');
+        } else {
+            s.ascii(valor);
+        }
+    }
+
+    /**
+     * Copia el nombre en {@code destino} como cadena JSON, entre comillas.
+     *
+     * @return número de caracteres escritos
+     */
+    private static int escapaJson(char[] nombre, int longitud, char[] destino) {
+        int k = 0;
+        destino[k++] = '"';
+        for (int i = 0; i < longitud; i++) {
+            char ch = nombre[i];
+            if (ch == '"' || ch == '\\') {
+                destino[k++] = '\\';
+                destino[k++] = ch;
+            } else if (ch < 0x20) {
+                destino[k++] = '\\';
+                destino[k++] = 'u';
+                destino[k++] = '0';
+                destino[k++] = '0';
+                destino[k++] = Character.forDigit(ch >> 4, 16);
+                destino[k++] = Character.forDigit(ch & 0xF, 16);
+            } else {
+                destino[k++] = ch;
+            }
+        }
+        destino[k++] = '"';
+        return k;
+    }
+
+    /**
+     * Copia el nombre en {@code destino} como campo CSV, entre comillas
+     * solo si contiene comas, comillas o saltos de línea.
+     *
+     * @return número de caracteres escritos
+     */
+    private static int escapaCsv(char[] nombre, int longitud, char[] destino) {
+        boolean comillas = false;
+        for (int i = 0; i < longitud && !comillas; i++) {
+            char ch = nombre[i];
+            comillas = ch == ',' || ch == '"' || ch == '\n' || ch == '\r';
+        }
+        if (!comillas) {
+            System.arraycopy(nombre, 0, destino, 0, longitud);
+            return longitud;
+        }
+        int k = 0;
+        destino[k++] = '"';
+        for (int i = 0; i < longitud; i++) {
+            if (nombre[i] == '"') {
+                destino[k++] = '"';
+            }
+            destino[k++] = nombre[i];
+        }
+        destino[k++] = '"';
+        return k;
+    }
+}
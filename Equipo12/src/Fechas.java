@@ -0,0 +1,83 @@
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Conversiones entre {@link Date} y días desde la época (1970-01-01) en la
+ * zona horaria del sistema, que es la que usa {@link java.util.GregorianCalendar}
+ * al calcular la antigüedad.
+ */
+public final class Fechas {
+
+    private Fechas() {
+    }
+
+    /**
+     * Devuelve el día de calendario de una fecha como días desde la época.
+     *
+     * @param fecha fecha a convertir
+     * @return días desde 1970-01-01
+     */
+    public static int aDiaEpoch(Date fecha) {
+        return (int) fecha.toInstant().atZone(ZoneId.systemDefault())
+                .toLocalDate().toEpochDay();
+    }
+
+    /**
+     * Devuelve el día actual como días desde la época.
+     *
+     * @return días desde 1970-01-01 de hoy
+     */
+    public static int hoy() {
+        return (int) LocalDate.now().toEpochDay();
+    }
+
+    /**
+     * Años cumplidos entre dos días, con el mismo criterio que
+     * {@link Empleado#getAntiguedad()}: se resta un año si en {@code hasta}
+     * aún no se ha llegado al mes y día de {@code desde}. No crea objetos.
+     *
+     * @param desde días desde 1970-01-01 del día inicial
+     * @param hasta días desde 1970-01-01 del día final
+     * @return años cumplidos (negativo si {@code hasta} es anterior)
+     */
+    public static int anios(int desde, int hasta) {
+        int a = civil(desde);
+        int b = civil(hasta);
+        int anios = (b >> 9) - (a >> 9);
+        if ((b & 0x1FF) < (a & 0x1FF)) {
+            anios--;
+        }
+        return anios;
+    }
+
+    /**
+     * Año, mes y día de un día desde la época, empaquetados como
+     * {@code año << 9 | mes << 5 | día} (algoritmo de H. Hinnant).
+     */
+    static int civil(int diaEpoch) {
+        long z = diaEpoch + 719468L;
+        long era = Math.floorDiv(z, 146097);
+        int doe = (int) (z - era * 146097);
+        int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        int mp = (5 * doy + 2) / 153;
+        int dia = doy - (153 * mp + 2) / 5 + 1;
+        int mes = mp < 10 ? mp + 3 : mp - 9;
+        int anio = (int) (yoe + era * 400) + (mes <= 2 ? 1 : 0);
+        return anio << 9 | mes << 5 | dia;
+    }
+
+    /**
+     * Devuelve el comienzo del día indicado en la zona horaria del sistema.
+     *
+     * @param diaEpoch días desde 1970-01-01
+     * @return la fecha correspondiente a las 00:00 de ese día
+     */
+    public static Date deDiaEpoch(int diaEpoch) {
+        return Date.from(LocalDate.ofEpochDay(diaEpoch)
+                .atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+}
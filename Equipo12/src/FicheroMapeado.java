@@ -0,0 +1,462 @@
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Fichero de empleados proyectado en memoria con {@link FileChannel#map}.
+ *
+ * El fichero se proyecta en segmentos de {@link #TAM_SEGMENTO} bytes que se
+ * solapan {@link #SOLAPE} bytes con el siguiente, de modo que cualquier
+ * registro que empiece en un segmento cabe entero en él aunque el fichero
+ * pase de 2 GB. Los registros se recorren con un {@link CursorEmpleado}
+ * reutilizable que no crea objetos por registro.
+ *
+ * En los ficheros v3 con modificaciones ({@link FormatoFichero#MODIFICADO})
+ * se resuelve al abrir la última versión de cada empleado, y los cursores
+ * saltan las versiones sustituidas y las bajas. En v5 el
+ * {@link DiccionarioNombres} no se lee hasta que se pide el primer nombre.
+ *
+ * En los ficheros comprimidos ({@link FormatoFichero#COMPRIMIDO}) las
+ * posiciones son las que tendrían los registros sin comprimir, y cada
+ * cursor descomprime los bloques que recorre (ver
+ * {@link BloquesComprimidos}).
+ *
+ * Solo se proyecta el tamaño que tenía el fichero al abrirlo. Las
+ * proyecciones se liberan cuando el recolector reclama este objeto; cerrar
+ * solo libera el canal.
+ */
+public class FicheroMapeado implements Closeable {
+
+    /**
+     * Tamaño de cada segmento proyectado.
+     */
+    static final int TAM_SEGMENTO = 1 << 30;
+    /**
+     * Solape entre segmentos: mayor que el registro v1 más largo posible.
+     */
+    static final int SOLAPE = 1 << 17;
+
+    private final String fichero;
+    private final FileChannel canal;
+    private final FormatoFichero formato;
+    private final long tamano;
+    private final MappedByteBuffer[] segmentos;
+    /**
+     * Índice de los bloques de un fichero comprimido, null si no lo está.
+     */
+    private final BloquesComprimidos bloques;
+    /**
+     * Registros vigentes por número de registro, o null si lo son todos.
+     */
+    private final BitSet vivos;
+    /**
+     * Número de registro de la última modificación o baja de cada
+     * identificador que tenga alguna, o null si no hay.
+     */
+    private final Map<Long, Integer> ultimas;
+    /**
+     * Posición de la última modificación o baja, -1 si no hay.
+     */
+    private final long ultimaModificacion;
+    /**
+     * Diccionario de nombres de v5, que se lee la primera vez que se pide
+     * un nombre.
+     */
+    private volatile DiccionarioNombres nombres;
+
+    /**
+     * Proyecta el fichero. Usar {@link EmpleadoDAO#abreMapeado}.
+     *
+     * @param fichero ruta del fichero
+     * @throws IOException si no se puede abrir o la cabecera está dañada
+     */
+    FicheroMapeado(String fichero) throws IOException {
+        this.fichero = fichero;
+        this.canal = new RandomAccessFile(fichero, "r").getChannel();
+        Metricas.apertura(false);
+        try {
+            FormatoFichero f = FormatoFichero.detecta(canal);
+            this.formato = f == null ? FormatoFichero.ACTUAL : f;
+            long fisico = f == null ? 0 : canal.size();
+
+            int n = (int) ((fisico + TAM_SEGMENTO - 1) / TAM_SEGMENTO);
+            this.segmentos = new MappedByteBuffer[n];
+            for (int i = 0; i < n; i++) {
+                long inicio = (long) i * TAM_SEGMENTO;
+                long longitud = Math.min(fisico - inicio, (long) TAM_SEGMENTO + SOLAPE);
+                segmentos[i] = canal.map(FileChannel.MapMode.READ_ONLY, inicio, longitud);
+            }
+
+            short banderas = formato.esVersionado() && fisico >= FormatoFichero.TAM_CABECERA
+                    ? segmentos[0].getShort(FormatoFichero.OFF_BANDERAS)
+                    : 0;
+            if ((banderas & FormatoFichero.COMPRIMIDO) != 0) {
+                this.bloques = BloquesComprimidos.lee(fichero, canal, formato);
+                this.tamano = formato.posicion(bloques.getRegistros());
+            } else {
+                this.bloques = null;
+                // Un último registro a medio escribir por una caída no se lee:
+                // el fichero acaba en el último registro completo y válido
+                this.tamano = formato.esFijo() && fisico > 0
+                        ? RegistroFijo.finValido(canal, formato, fisico, -1)
+                        : fisico;
+            }
+
+            if ((banderas & FormatoFichero.MODIFICADO) != 0) {
+                this.vivos = new BitSet();
+                this.ultimas = new HashMap<>();
+                this.ultimaModificacion = resuelveVersiones(vivos, ultimas);
+            } else {
+                this.vivos = null;
+                this.ultimas = null;
+                this.ultimaModificacion = -1;
+            }
+        } catch (IOException | RuntimeException ex) {
+            canal.close();
+            throw ex;
+        }
+    }
+
+    public String getFichero() {
+        return fichero;
+    }
+
+    public FormatoFichero getFormato() {
+        return formato;
+    }
+
+    /**
+     * Devuelve el tamaño proyectado del fichero; en los comprimidos, el que
+     * tendría sin comprimir. En los formatos de longitud fija no incluye un
+     * último registro incompleto o dañado por una caída, que la siguiente
+     * sesión de escritura descarta.
+     *
+     * @return bytes proyectados
+     */
+    public long getTamano() {
+        return tamano;
+    }
+
+    /**
+     * Indica si el fichero está comprimido por bloques.
+     *
+     * @return true si tiene la bandera {@link FormatoFichero#COMPRIMIDO}
+     */
+    public boolean estaComprimido() {
+        return bloques != null;
+    }
+
+    /**
+     * Registros de cada bloque comprimido: los recorridos en paralelo
+     * reparten el fichero en múltiplos de este número para no descomprimir
+     * dos veces el mismo bloque.
+     *
+     * @return registros por bloque, 1 si el fichero no está comprimido
+     */
+    public int getRegistrosPorBloque() {
+        return bloques == null ? 1 : bloques.getRegistrosPorBloque();
+    }
+
+    /**
+     * Posición del primer registro.
+     *
+     * @return desplazamiento en bytes tras la cabecera
+     */
+    public long getInicioDatos() {
+        return tamano == 0 ? 0 : formato.getTamCabecera();
+    }
+
+    /**
+     * Devuelve el número de registros completos. Solo para formatos de
+     * longitud fija.
+     *
+     * @return número de registros
+     * @throws IllegalStateException si el formato es de longitud variable
+     */
+    public long getNumRegistros() {
+        if (!formato.esFijo()) {
+            throw new IllegalStateException("El formato v1 no permite contar registros sin recorrerlos.");
+        }
+        return (tamano - getInicioDatos()) / formato.getTamRegistro();
+    }
+
+    /**
+     * Devuelve el número de empleados vigentes: los registros menos las
+     * versiones sustituidas y las bajas. Solo para formatos de longitud
+     * fija.
+     *
+     * @return número de empleados
+     * @throws IllegalStateException si el formato es de longitud variable
+     */
+    public long getNumEmpleados() {
+        return vivos == null ? getNumRegistros() : vivos.cardinality();
+    }
+
+    /**
+     * Devuelve el número de registros que eliminaría una compactación: las
+     * versiones sustituidas y las bajas, menos la baja del mayor
+     * identificador, que se conserva (ver {@link EmpleadoDAO#compacta}).
+     *
+     * @return registros obsoletos
+     * @throws IOException si no se puede descomprimir algún bloque
+     */
+    public long getNumObsoletos() throws IOException {
+        if (vivos == null) {
+            return 0;
+        }
+        long max = -1;
+        long maxVigente = -1;
+        long registros = getNumRegistros();
+        Acceso acceso = acceso(true);
+        for (int i = 0; i < registros; i++) {
+            long pos = getInicioDatos() + (long) i * formato.getTamRegistro();
+            long id = acceso.buffer(pos).getLong(acceso.base() + formato.getOffId());
+            max = Math.max(max, id);
+            if (vivos.get(i)) {
+                maxVigente = Math.max(maxVigente, id);
+            }
+        }
+        return registros - getNumEmpleados() - (max > maxVigente ? 1 : 0);
+    }
+
+    /**
+     * Indica si el fichero contiene modificaciones o bajas.
+     *
+     * @return true si hay registros que no están vigentes
+     */
+    public boolean tieneModificaciones() {
+        return vivos != null;
+    }
+
+    /**
+     * Posición de la última modificación o baja del fichero. Un resultado
+     * calculado hasta una posición anterior no tiene en cuenta que alguno
+     * de sus registros ha dejado de estar vigente.
+     *
+     * @return posición del registro, o -1 si no hay
+     */
+    public long getUltimaModificacion() {
+        return ultimaModificacion;
+    }
+
+    /**
+     * Devuelve un cursor situado antes del primer registro.
+     *
+     * @return cursor sobre todo el fichero
+     */
+    public CursorEmpleado cursor() {
+        return new CursorEmpleado(this, getInicioDatos(), tamano, true);
+    }
+
+    /**
+     * Devuelve un cursor sobre los registros que empiezan en
+     * {@code [desde, hasta)}. {@code desde} debe ser el comienzo de un
+     * registro.
+     *
+     * @param desde posición del primer registro
+     * @param hasta posición a partir de la cual no empieza ningún registro
+     * del rango
+     * @return cursor sobre el rango
+     */
+    public CursorEmpleado cursor(long desde, long hasta) {
+        return cursor(desde, hasta, false);
+    }
+
+    /**
+     * Devuelve un cursor sobre un rango que, si se pide, descomprime por
+     * adelantado el bloque siguiente al que recorre. Conviene en los
+     * recorridos secuenciales largos; en los paralelos ya se descomprimen
+     * varios bloques a la vez.
+     */
+    CursorEmpleado cursor(long desde, long hasta, boolean anticipa) {
+        if (desde < getInicioDatos() || hasta > tamano || desde > hasta) {
+            throw new IndexOutOfBoundsException("Rango inválido: [" + desde + ", " + hasta + ")");
+        }
+        return new CursorEmpleado(this, desde, hasta, anticipa);
+    }
+
+    /**
+     * Segmento que contiene el registro que empieza en {@code posicion}.
+     * Solo en los ficheros sin comprimir; en todos vale para leer la
+     * cabecera.
+     */
+    MappedByteBuffer segmento(long posicion) {
+        return segmentos[(int) (posicion / TAM_SEGMENTO)];
+    }
+
+    /**
+     * Crea un acceso a los registros de longitud fija para un solo hilo.
+     *
+     * @param anticipa si descomprime por adelantado el bloque siguiente
+     * @return el acceso
+     */
+    Acceso acceso(boolean anticipa) {
+        return new Acceso(bloques == null ? null : bloques.lector(anticipa));
+    }
+
+    /**
+     * Diccionario de nombres de un fichero v5.
+     *
+     * @return el diccionario
+     * @throws IOException si falta o no se puede leer
+     */
+    DiccionarioNombres nombres() throws IOException {
+        DiccionarioNombres d = nombres;
+        if (d == null) {
+            synchronized (this) {
+                d = nombres;
+                if (d == null) {
+                    d = DiccionarioNombres.lee(DiccionarioNombres.ficheroDe(fichero),
+                            segmento(0).getShort(FormatoFichero.OFF_DICCIONARIO));
+                    nombres = d;
+                }
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Indica si el registro que empieza en {@code posicion} es la versión
+     * vigente de un empleado.
+     */
+    boolean esVigente(long posicion) {
+        return vivos == null
+                || vivos.get((int) ((posicion - getInicioDatos()) / formato.getTamRegistro()));
+    }
+
+    /**
+     * Posición de la última modificación o baja de un identificador.
+     *
+     * @return la posición, o -1 si el identificador no tiene
+     */
+    long ultimaVersion(long id) {
+        Integer i = ultimas == null ? null : ultimas.get(id);
+        return i == null ? -1 : getInicioDatos() + (long) i * formato.getTamRegistro();
+    }
+
+    /**
+     * Marca en {@code vivos} la última versión de cada empleado que no esté
+     * de baja. Las altas siempre preceden a las modificaciones y bajas de su
+     * identificador, así que basta con recordar la última modificación o
+     * baja de cada identificador que tenga alguna; el resto de las altas
+     * están vigentes.
+     *
+     * @return posición de la última modificación o baja, -1 si no hay
+     */
+    private long resuelveVersiones(BitSet vivos, Map<Long, Integer> ultima) throws IOException {
+        long registros = getNumRegistros();
+        int tam = formato.getTamRegistro();
+        long inicio = getInicioDatos();
+
+        CRC32 crc = formato.tieneSumaControl() ? new CRC32() : null;
+        Acceso acceso = acceso(true);
+        ByteBuffer actual = null;
+        ByteBuffer vista = null;
+        long ultimaPosicion = -1;
+        for (int i = 0; i < registros; i++) {
+            long pos = inicio + (long) i * tam;
+            ByteBuffer seg = acceso.buffer(pos);
+            int base = acceso.base();
+            if (crc != null) {
+                // Una operación o identificador dañados cambiarían qué versión vale
+                if (seg != actual) {
+                    actual = seg;
+                    vista = seg.duplicate();
+                }
+                if (!RegistroFijo.verifica(formato, vista, base, crc)) {
+                    throw new IOException("Registro dañado en la posición " + pos + " de " + fichero);
+                }
+            }
+            byte op = seg.get(base + formato.getOffOperacion());
+            if (op == RegistroFijo.MODIFICACION || op == RegistroFijo.BAJA) {
+                ultima.put(seg.getLong(base + formato.getOffId()), i);
+                ultimaPosicion = pos;
+            } else if (op != RegistroFijo.ALTA) {
+                throw new IOException("Operación desconocida en la posición " + pos
+                        + " de " + fichero + ": " + op);
+            }
+        }
+
+        long[] modificados = new long[ultima.size()];
+        int n = 0;
+        for (long id : ultima.keySet()) {
+            modificados[n++] = id;
+        }
+        Arrays.sort(modificados);
+
+        acceso = acceso(true);
+        for (int i = 0; i < registros; i++) {
+            long pos = inicio + (long) i * tam;
+            ByteBuffer seg = acceso.buffer(pos);
+            int base = acceso.base();
+            long id = seg.getLong(base + formato.getOffId());
+            byte op = seg.get(base + formato.getOffOperacion());
+            boolean vigente = op == RegistroFijo.ALTA
+                    ? Arrays.binarySearch(modificados, id) < 0
+                    : op == RegistroFijo.MODIFICACION && ultima.get(id) == i;
+            if (vigente) {
+                vivos.set(i);
+            }
+        }
+        return ultimaPosicion;
+    }
+
+    @Override
+    public void close() throws IOException {
+        canal.close();
+    }
+
+    /**
+     * Acceso a los registros de longitud fija desde un solo hilo: en los
+     * ficheros sin comprimir, a su segmento proyectado; en los comprimidos,
+     * al bloque descomprimido que los contiene, que se guarda hasta que se
+     * pide un registro de otro.
+     */
+    final class Acceso {
+
+        private final BloquesComprimidos.Lector lector;
+        private int base;
+
+        private Acceso(BloquesComprimidos.Lector lector) {
+            this.lector = lector;
+        }
+
+        /**
+         * Buffer que contiene el registro que empieza en {@code posicion},
+         * que sigue siendo válido hasta la siguiente llamada.
+         *
+         * @param posicion posición del registro
+         * @return el buffer; el registro empieza en {@link #base()}
+         * @throws IOException si no se puede descomprimir su bloque
+         */
+        ByteBuffer buffer(long posicion) throws IOException {
+            if (lector == null) {
+                base = (int) (posicion % TAM_SEGMENTO);
+                return segmento(posicion);
+            }
+            long registro = (posicion - getInicioDatos()) / formato.getTamRegistro();
+            int porBloque = bloques.getRegistrosPorBloque();
+            base = (int) (registro % porBloque) * formato.getTamRegistro();
+            return lector.bloque((int) (registro / porBloque));
+        }
+
+        /**
+         * Posición en el último buffer devuelto del registro pedido.
+         *
+         * @return desplazamiento dentro del buffer
+         */
+        int base() {
+            return base;
+        }
+    }
+}
@@ -0,0 +1,404 @@
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Versiones del formato del fichero de empleados.
+ *
+ * Los ficheros v1 no tienen cabecera y empiezan directamente por el primer
+ * registro, cuyo primer byte es siempre 0 (longitud del nombre en
+ * {@code writeUTF}, como mucho 90 bytes). A partir de v2 el fichero empieza
+ * por una cabecera de {@link #TAM_CABECERA} bytes:
+ *
+ * <pre>
+ *  0  int    MAGIA ("FICH")
+ *  4  short  versión
+ *  6  short  tamaño de registro
+ *  8  short  banderas ({@link #MODIFICADO}, {@link #COMPRIMIDO})
+ * 10  short  en v5, identificador del {@link DiccionarioNombres}; 0 en el resto
+ * 12  int    generación: número de compactaciones
+ * </pre>
+ *
+ * En v1 y v2 los registros solo se añaden. En v3 cada registro lleva el
+ * identificador del empleado y una operación (alta, modificación o baja),
+ * y vale la última versión de cada identificador; ver
+ * {@link EmpleadoDAO#compacta}. v4 añade a cada registro una suma de
+ * control.
+ *
+ * v5 es v4 con el nombre guardado una sola vez en el
+ * {@link DiccionarioNombres} del fichero: cada registro lleva solo su
+ * número, así que ocupa 40 bytes en lugar de 96 y los recorridos que no
+ * piden el nombre no lo leen. Los ficheros nuevos se siguen creando en v4;
+ * a v5 se llega con {@code java ConversorFichero -nombres}.
+ *
+ * Los ficheros v3 o posteriores se pueden guardar comprimidos por bloques
+ * para archivarlos ({@link #COMPRIMIDO}, ver {@link BloquesComprimidos}):
+ * se leen igual que los demás, pero no admiten escrituras.
+ */
+public enum FormatoFichero {
+
+    /**
+     * Formato original: registros de longitud variable sin cabecera.
+     */
+    V1((short) 1, 0, -1, -1, -1, -1),
+    /**
+     * Registros de longitud fija tras una cabecera (ver {@link RegistroFijo}).
+     */
+    V2((short) 2, 16, RegistroFijo.TAM_REGISTRO, -1, -1, -1),
+    /**
+     * Registros de longitud fija con identificador y operación, que admiten
+     * modificaciones y bajas.
+     */
+    V3((short) 3, 16, RegistroFijo.TAM_REGISTRO_VERSIONADO, RegistroFijo.OFF_ID,
+            RegistroFijo.OFF_OPERACION, -1),
+    /**
+     * Registros v3 con suma de control.
+     */
+    V4((short) 4, 16, RegistroFijo.TAM_REGISTRO_VERIFICADO, RegistroFijo.OFF_ID,
+            RegistroFijo.OFF_OPERACION, RegistroFijo.OFF_SUMA),
+    /**
+     * Registros v4 con el nombre en el diccionario del fichero.
+     */
+    V5((short) 5, 16, RegistroFijo.TAM_REGISTRO_COMPACTO, RegistroFijo.OFF_ID_COMPACTO,
+            RegistroFijo.OFF_OPERACION_COMPACTO, RegistroFijo.OFF_SUMA_COMPACTO);
+
+    /**
+     * Número mágico de la cabecera: los bytes ASCII "FICH".
+     */
+    public static final int MAGIA = 0x46494348;
+    /**
+     * Tamaño de la cabecera de los formatos con cabecera.
+     */
+    public static final int TAM_CABECERA = 16;
+    /**
+     * Posición de las banderas en la cabecera.
+     */
+    public static final int OFF_BANDERAS = 8;
+    /**
+     * Posición del identificador del diccionario de nombres en la cabecera.
+     */
+    public static final int OFF_DICCIONARIO = 10;
+    /**
+     * Posición de la generación en la cabecera.
+     */
+    public static final int OFF_GENERACION = 12;
+    /**
+     * Bandera que indica que el fichero contiene modificaciones o bajas y
+     * hay que resolver la última versión de cada empleado al leerlo.
+     */
+    public static final short MODIFICADO = 1;
+    /**
+     * Bandera que indica que los registros están comprimidos por bloques
+     * tras la cabecera.
+     */
+    public static final short COMPRIMIDO = 2;
+    /**
+     * Formato con el que se crean los ficheros nuevos.
+     */
+    public static final FormatoFichero ACTUAL = V4;
+
+    private final short version;
+    private final int tamCabecera;
+    private final int tamRegistro;
+    private final int offId;
+    private final int offOperacion;
+    private final int offSuma;
+
+    FormatoFichero(short version, int tamCabecera, int tamRegistro, int offId, int offOperacion,
+            int offSuma) {
+        this.version = version;
+        this.tamCabecera = tamCabecera;
+        this.tamRegistro = tamRegistro;
+        this.offId = offId;
+        this.offOperacion = offOperacion;
+        this.offSuma = offSuma;
+    }
+
+    public short getVersion() {
+        return version;
+    }
+
+    /**
+     * Devuelve el tamaño de la cabecera, 0 si el formato no tiene.
+     *
+     * @return bytes de cabecera
+     */
+    public int getTamCabecera() {
+        return tamCabecera;
+    }
+
+    /**
+     * Devuelve el tamaño de cada registro, -1 si es variable.
+     *
+     * @return bytes por registro
+     */
+    public int getTamRegistro() {
+        return tamRegistro;
+    }
+
+    /**
+     * Posición del identificador dentro del registro, -1 si no lo lleva.
+     *
+     * @return desplazamiento desde el inicio del registro
+     */
+    public int getOffId() {
+        return offId;
+    }
+
+    /**
+     * Posición de la operación dentro del registro, -1 si no la lleva.
+     *
+     * @return desplazamiento desde el inicio del registro
+     */
+    public int getOffOperacion() {
+        return offOperacion;
+    }
+
+    /**
+     * Posición de la suma de control dentro del registro, -1 si no la
+     * lleva.
+     *
+     * @return desplazamiento desde el inicio del registro
+     */
+    public int getOffSuma() {
+        return offSuma;
+    }
+
+    /**
+     * Indica si los registros tienen longitud fija.
+     *
+     * @return true si se puede calcular la posición de cada registro
+     */
+    public boolean esFijo() {
+        return tamRegistro > 0;
+    }
+
+    /**
+     * Indica si los registros llevan identificador y operación.
+     *
+     * @return true si el formato admite modificaciones y bajas
+     */
+    public boolean esVersionado() {
+        return version >= 3;
+    }
+
+    /**
+     * Indica si los registros llevan suma de control.
+     *
+     * @return true si se pueden detectar registros dañados o a medio
+     * escribir
+     */
+    public boolean tieneSumaControl() {
+        return version >= 4;
+    }
+
+    /**
+     * Indica si los nombres están en el {@link DiccionarioNombres} del
+     * fichero en lugar de en cada registro.
+     *
+     * @return true si el registro solo lleva el número del nombre
+     */
+    public boolean nombresEnDiccionario() {
+        return version >= 5;
+    }
+
+    /**
+     * Posición en el fichero del registro {@code indice}. Solo para
+     * formatos de longitud fija.
+     *
+     * @param indice número de registro (desde 0)
+     * @return desplazamiento en bytes
+     */
+    public long posicion(long indice) {
+        return tamCabecera + indice * tamRegistro;
+    }
+
+    /**
+     * Escribe la cabecera de este formato en la posición actual del buffer.
+     *
+     * @param b buffer destino con al menos {@link #TAM_CABECERA} bytes libres
+     */
+    public void escribeCabecera(ByteBuffer b) {
+        escribeCabecera(b, (short) 0, 0);
+    }
+
+    /**
+     * Escribe la cabecera de este formato con las banderas y la generación
+     * indicadas.
+     *
+     * @param b buffer destino con al menos {@link #TAM_CABECERA} bytes libres
+     * @param banderas banderas de la cabecera
+     * @param generacion número de compactaciones
+     */
+    public void escribeCabecera(ByteBuffer b, short banderas, int generacion) {
+        escribeCabecera(b, banderas, generacion, (short) 0);
+    }
+
+    /**
+     * Escribe la cabecera de este formato con las banderas, la generación
+     * y el identificador del diccionario indicados.
+     *
+     * @param b buffer destino con al menos {@link #TAM_CABECERA} bytes libres
+     * @param banderas banderas de la cabecera
+     * @param generacion número de compactaciones
+     * @param diccionario identificador del diccionario de nombres en v5
+     */
+    public void escribeCabecera(ByteBuffer b, short banderas, int generacion, short diccionario) {
+        if (tamCabecera == 0) {
+            return;
+        }
+        b.putInt(MAGIA);
+        b.putShort(version);
+        b.putShort((short) tamRegistro);
+        b.putShort(banderas);
+        b.putShort(nombresEnDiccionario() ? diccionario : 0);
+        b.putInt(generacion);
+    }
+
+    /**
+     * Obtiene el formato a partir de su número de versión.
+     *
+     * @param version versión de la cabecera
+     * @return el formato correspondiente
+     * @throws IllegalArgumentException si la versión no es conocida
+     */
+    public static FormatoFichero fromVersion(short version) {
+        for (FormatoFichero f : values()) {
+            if (f.version == version) {
+                return f;
+            }
+        }
+        throw new IllegalArgumentException("Versión de fichero desconocida: " + version);
+    }
+
+    /**
+     * Detecta el formato de un fichero abierto leyendo su inicio. No mueve
+     * la posición del canal.
+     *
+     * @param ch canal abierto para lectura
+     * @return el formato, o null si el fichero está vacío
+     * @throws IOException si la cabecera está dañada o no se puede leer
+     */
+    public static FormatoFichero detecta(FileChannel ch) throws IOException {
+        if (ch.size() == 0) {
+            return null;
+        }
+        if (ch.size() < 8) {
+            return V1;
+        }
+        ByteBuffer b = ByteBuffer.allocate(8);
+        while (b.hasRemaining()) {
+            if (ch.read(b, b.position()) < 0) {
+                break;
+            }
+        }
+        b.flip();
+        if (b.getInt() != MAGIA) {
+            return V1;
+        }
+        FormatoFichero f;
+        try {
+            f = fromVersion(b.getShort());
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+        if (b.getShort() != (short) f.tamRegistro) {
+            throw new IOException("Cabecera dañada: tamaño de registro incorrecto.");
+        }
+        return f;
+    }
+
+    /**
+     * Lee las banderas de la cabecera de un fichero abierto, cuyo formato
+     * debe tener cabecera. No mueve la posición del canal.
+     *
+     * @param ch canal abierto para lectura
+     * @return las banderas, 0 si el fichero es más corto que la cabecera
+     * @throws IOException si no se puede leer
+     */
+    public static short banderas(FileChannel ch) throws IOException {
+        if (ch.size() < TAM_CABECERA) {
+            return 0;
+        }
+        ByteBuffer b = ByteBuffer.allocate(2);
+        while (b.hasRemaining()) {
+            if (ch.read(b, OFF_BANDERAS + b.position()) < 0) {
+                break;
+            }
+        }
+        return b.getShort(0);
+    }
+
+    /**
+     * Lee el identificador del diccionario de nombres de la cabecera de un
+     * fichero abierto, cuyo formato debe tener cabecera. No mueve la
+     * posición del canal.
+     *
+     * @param ch canal abierto para lectura
+     * @return el identificador, 0 si el fichero es más corto que la cabecera
+     * @throws IOException si no se puede leer
+     */
+    public static short diccionario(FileChannel ch) throws IOException {
+        if (ch.size() < TAM_CABECERA) {
+            return 0;
+        }
+        ByteBuffer b = ByteBuffer.allocate(2);
+        while (b.hasRemaining()) {
+            if (ch.read(b, OFF_DICCIONARIO + b.position()) < 0) {
+                break;
+            }
+        }
+        return b.getShort(0);
+    }
+
+    /**
+     * Indica si un fichero abierto está comprimido por bloques. No mueve la
+     * posición del canal.
+     *
+     * @param ch canal abierto para lectura
+     * @return true si es v3 o posterior y tiene la bandera
+     * {@link #COMPRIMIDO}
+     * @throws IOException si la cabecera está dañada o no se puede leer
+     */
+    public static boolean comprimido(FileChannel ch) throws IOException {
+        FormatoFichero f = detecta(ch);
+        return f != null && f.esVersionado() && (banderas(ch) & COMPRIMIDO) != 0;
+    }
+
+    /**
+     * Indica si un fichero está comprimido por bloques.
+     *
+     * @param fichero ruta del fichero
+     * @return true si existe y está comprimido
+     * @throws IOException si la cabecera está dañada o no se puede leer
+     */
+    public static boolean comprimido(Path fichero) throws IOException {
+        if (!Files.exists(fichero)) {
+            return false;
+        }
+        try (FileChannel ch = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            return comprimido(ch);
+        }
+    }
+
+    /**
+     * Detecta el formato de un fichero.
+     *
+     * @param fichero ruta del fichero
+     * @return el formato, o null si el fichero no existe o está vacío
+     * @throws IOException si la cabecera está dañada o no se puede leer
+     */
+    public static FormatoFichero detecta(Path fichero) throws IOException {
+        if (!Files.exists(fichero)) {
+            return null;
+        }
+        try (FileChannel ch = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            return detecta(ch);
+        }
+    }
+}
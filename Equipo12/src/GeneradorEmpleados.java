@@ -0,0 +1,761 @@
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Genera ficheros de empleados sintéticos para probar los informes con
+ * volúmenes grandes.
+ *
+ * Uso: {@code java GeneradorEmpleados registros [-semilla n]
+ * [-provincias sesgo] [-hombres proporción] [-tipos c,f,d]
+ * [-salario min-max] [-ingreso aaaa-mm-dd:aaaa-mm-dd] [-fecha aaaa-mm-dd]
+ * [fichero]}. El fichero (por defecto FICHE.DAT) se sustituye por uno en
+ * formato {@link FormatoFichero#ACTUAL} con los empleados generados.
+ *
+ * Con la misma semilla y los mismos parámetros el fichero es idéntico byte
+ * a byte, se genere con los hilos que se genere. Las provincias siguen una
+ * ley de Zipf con el exponente indicado sobre el orden de
+ * {@link Provincia} (0 es uniforme); los tipos de empleado se eligen con
+ * los pesos indicados en el orden de {@link TipoEmpleado}; el salario y la
+ * fecha de ingreso son uniformes en sus intervalos. Los nombres combinan un
+ * nombre y dos apellidos, cortados a 30 caracteres.
+ *
+ * Los registros se codifican directamente por bloques en paralelo, sin
+ * crear objetos {@link Empleado}, y se escriben en orden. Junto al fichero
+ * se deja un {@link Manifiesto} con los parámetros y los resultados que
+ * deben dar los informes a la fecha de referencia.
+ */
+public final class GeneradorEmpleados {
+
+    public static final long SEMILLA_POR_DEFECTO = 12;
+    /**
+     * Años de la fecha de ingreso más antigua por defecto, contados hacia
+     * atrás desde la fecha de referencia.
+     */
+    public static final int ANIOS_INGRESO_POR_DEFECTO = 40;
+
+    /**
+     * Registros por bloque de generación (1,5 MiB en v4).
+     */
+    private static final int REGISTROS_POR_BLOQUE = 1 << 14;
+    /**
+     * Bloques en vuelo por hilo del pool, como en
+     * {@link ImportadorEmpleados}.
+     */
+    private static final int BLOQUES_POR_HILO = 2;
+    private static final long SALARIO_MAXIMO = 999_999;
+
+    private static final char[][] NOMBRES = partes("Ana", "José", "María", "Juan", "Carmen",
+            "Antonio", "Dolores", "Francisco", "Lucía", "Manuel", "Rocío", "Jesús", "Pilar",
+            "María del Carmen", "José Antonio", "Inmaculada", "Fernando", "Macarena", "Álvaro",
+            "Íñigo", "Concepción", "Juan Luis", "Ricardo", "Esperanza");
+    private static final char[][] APELLIDOS = partes("García", "Fernández", "González",
+            "Rodríguez", "López", "Martínez", "Sánchez", "Pérez", "Gómez", "Martín", "Jiménez",
+            "Ruiz", "Hernández", "Díaz", "Moreno", "Muñoz", "Álvarez", "Romero", "Núñez", "Ortega",
+            "Peña", "Castaño", "Ibáñez", "Gil de Miguel", "Boza", "Villar",
+            "Fernández de Córdoba", "Ponce de León");
+
+    private long semilla = SEMILLA_POR_DEFECTO;
+    private double sesgoProvincias;
+    private double proporcionHombres = 0.5;
+    private double[] pesosTipos;
+    private long salarioMinimo;
+    private long salarioMaximo = SALARIO_MAXIMO;
+    private int fecha;
+    private int ingresoDesde;
+    private int ingresoHasta;
+
+    /**
+     * Generador con la semilla por defecto, provincias y tipos uniformes,
+     * la mitad de hombres, salarios entre 0 y 9999,99 € e ingresos en los
+     * últimos {@link #ANIOS_INGRESO_POR_DEFECTO} años.
+     */
+    public GeneradorEmpleados() {
+        pesosTipos = new double[TipoEmpleado.values().length];
+        Arrays.fill(pesosTipos, 1);
+        fecha = Fechas.hoy();
+        ingresoHasta = fecha;
+        ingresoDesde = (int) LocalDate.ofEpochDay(fecha).minusYears(ANIOS_INGRESO_POR_DEFECTO)
+                .toEpochDay();
+    }
+
+    public static void main(String[] args) {
+        GeneradorEmpleados g = new GeneradorEmpleados();
+        long registros = -1;
+        String fichero = "FICHE.DAT";
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "-semilla":
+                        g.setSemilla(Long.parseLong(valor(args, ++i)));
+                        break;
+                    case "-provincias":
+                        g.setSesgoProvincias(Double.parseDouble(valor(args, ++i)));
+                        break;
+                    case "-hombres":
+                        g.setProporcionHombres(Double.parseDouble(valor(args, ++i)));
+                        break;
+                    case "-tipos":
+                        String[] pesos = valor(args, ++i).split(",");
+                        double[] p = new double[pesos.length];
+                        for (int k = 0; k < pesos.length; k++) {
+                            p[k] = Double.parseDouble(pesos[k].trim());
+                        }
+                        g.setPesosTipos(p);
+                        break;
+                    case "-salario":
+                        String[] salario = intervalo(valor(args, ++i), '-');
+                        g.setSalario(new BigDecimal(salario[0]), new BigDecimal(salario[1]));
+                        break;
+                    case "-ingreso":
+                        String[] ingreso = intervalo(valor(args, ++i), ':');
+                        g.setIngreso(LocalDate.parse(ingreso[0]), LocalDate.parse(ingreso[1]));
+                        break;
+                    case "-fecha":
+                        g.setFecha(LocalDate.parse(valor(args, ++i)));
+                        break;
+                    default:
+                        if (args[i].startsWith("-")) {
+                            throw new IllegalArgumentException("Opción desconocida: " + args[i]);
+                        }
+                        if (registros < 0) {
+                            registros = Long.parseLong(args[i]);
+                        } else {
+                            fichero = args[i];
+                        }
+                }
+            }
+            if (registros < 0) {
+                throw new IllegalArgumentException("Falta el número de registros.");
+            }
+        } catch (IllegalArgumentException | DateTimeException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println("Uso: java GeneradorEmpleados registros [-semilla n]"
+                    + " [-provincias sesgo] [-hombres proporción] [-tipos c,f,d]"
+                    + " [-salario min-max] [-ingreso aaaa-mm-dd:aaaa-mm-dd] [-fecha aaaa-mm-dd]"
+                    + " [fichero]");
+            return;
+        }
+
+        try {
+            long inicio = System.nanoTime();
+            Manifiesto m = g.genera(fichero, registros);
+            double segundos = (System.nanoTime() - inicio) / 1e9;
+            double megas = FormatoFichero.ACTUAL.posicion(registros) / (1024.0 * 1024.0);
+            System.out.printf("Generados %d empleados en %s (%.1f MiB, %.1f s, %.1f MiB/s).%n",
+                    m.getRegistros(), fichero, megas, segundos, megas / Math.max(segundos, 1e-9));
+            System.out.println("Manifiesto en " + Manifiesto.ficheroDe(fichero) + ".");
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println("Error generando empleados: " + ex.getMessage());
+        }
+    }
+
+    private static String valor(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Falta el valor de " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    private static String[] intervalo(String s, char separador) {
+        int i = s.indexOf(separador);
+        if (i <= 0 || i == s.length() - 1) {
+            throw new IllegalArgumentException("Intervalo inválido: " + s);
+        }
+        return new String[]{s.substring(0, i).trim(), s.substring(i + 1).trim()};
+    }
+
+    /**
+     * @param semilla semilla de la que sale todo el fichero
+     * @return este generador
+     */
+    public GeneradorEmpleados setSemilla(long semilla) {
+        this.semilla = semilla;
+        return this;
+    }
+
+    /**
+     * @param sesgo exponente de la ley de Zipf de las provincias: 0 las
+     * reparte por igual y cuanto mayor es más empleados van a las primeras
+     * @return este generador
+     */
+    public GeneradorEmpleados setSesgoProvincias(double sesgo) {
+        if (!(sesgo >= 0) || Double.isInfinite(sesgo)) {
+            throw new IllegalArgumentException("El sesgo de provincias debe ser 0 o positivo.");
+        }
+        this.sesgoProvincias = sesgo;
+        return this;
+    }
+
+    /**
+     * @param proporcion fracción de hombres, entre 0 y 1
+     * @return este generador
+     */
+    public GeneradorEmpleados setProporcionHombres(double proporcion) {
+        if (!(proporcion >= 0 && proporcion <= 1)) {
+            throw new IllegalArgumentException("La proporción de hombres debe estar entre 0 y 1.");
+        }
+        this.proporcionHombres = proporcion;
+        return this;
+    }
+
+    /**
+     * @param pesos peso relativo de cada tipo de empleado, en el orden de
+     * {@link TipoEmpleado#values()}
+     * @return este generador
+     */
+    public GeneradorEmpleados setPesosTipos(double... pesos) {
+        if (pesos.length != TipoEmpleado.values().length) {
+            throw new IllegalArgumentException("Hacen falta " + TipoEmpleado.values().length
+                    + " pesos de tipo de empleado.");
+        }
+        double total = 0;
+        for (double p : pesos) {
+            if (!(p >= 0) || Double.isInfinite(p)) {
+                throw new IllegalArgumentException("Peso de tipo de empleado inválido: " + p);
+            }
+            total += p;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("Algún tipo de empleado debe tener peso.");
+        }
+        this.pesosTipos = pesos.clone();
+        return this;
+    }
+
+    /**
+     * @param minimo salario base mínimo, con dos decimales como mucho
+     * @param maximo salario base máximo, como mucho 9999,99
+     * @return este generador
+     */
+    public GeneradorEmpleados setSalario(BigDecimal minimo, BigDecimal maximo) {
+        long min = RegistroFijo.centimos(minimo);
+        long max = RegistroFijo.centimos(maximo);
+        if (min < 0 || max > SALARIO_MAXIMO || min > max) {
+            throw new IllegalArgumentException("Salario fuera de rango (0–9999.99): "
+                    + minimo.toPlainString() + "-" + maximo.toPlainString());
+        }
+        this.salarioMinimo = min;
+        this.salarioMaximo = max;
+        return this;
+    }
+
+    /**
+     * @param desde primera fecha de ingreso posible
+     * @param hasta última fecha de ingreso posible
+     * @return este generador
+     */
+    public GeneradorEmpleados setIngreso(LocalDate desde, LocalDate hasta) {
+        if (desde.isAfter(hasta)) {
+            throw new IllegalArgumentException("El intervalo de ingreso está al revés.");
+        }
+        this.ingresoDesde = Math.toIntExact(desde.toEpochDay());
+        this.ingresoHasta = Math.toIntExact(hasta.toEpochDay());
+        return this;
+    }
+
+    /**
+     * Fecha a la que se calculan la antigüedad y el sueldo del manifiesto.
+     * No cambia el intervalo de ingreso.
+     *
+     * @param fecha fecha de referencia
+     * @return este generador
+     */
+    public GeneradorEmpleados setFecha(LocalDate fecha) {
+        this.fecha = Math.toIntExact(fecha.toEpochDay());
+        return this;
+    }
+
+    /**
+     * Genera el fichero en el pool común.
+     *
+     * @param fichero ruta del fichero, que se sustituye
+     * @param registros número de empleados
+     * @return el manifiesto, ya escrito junto al fichero
+     * @throws IOException si falla la escritura
+     */
+    public Manifiesto genera(String fichero, long registros) throws IOException {
+        return genera(fichero, registros, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Genera el fichero codificando los bloques en el pool indicado. Se
+     * escribe en un temporal que sustituye al fichero al terminar, con la
+     * generación siguiente a la suya para que no sirvan sus puntos de
+     * control, y se borran sus columnas.
+     *
+     * @param fichero ruta del fichero, que se sustituye
+     * @param registros número de empleados
+     * @param pool pool donde se codifican los bloques
+     * @return el manifiesto, ya escrito junto al fichero
+     * @throws IOException si falla la escritura
+     */
+    public Manifiesto genera(String fichero, long registros, ForkJoinPool pool)
+            throws IOException {
+        if (fichero == null || fichero.trim().isEmpty()) {
+            throw new IllegalArgumentException("Ruta de fichero inválida.");
+        }
+        if (registros < 0) {
+            throw new IllegalArgumentException("El número de registros no puede ser negativo.");
+        }
+        String ruta = fichero.trim();
+        Path destino = Paths.get(ruta).toAbsolutePath();
+        Path tmp = destino.resolveSibling(destino.getFileName() + ".generando");
+        double[] provincias = acumulados(zipf(Provincia.values().length, sesgoProvincias));
+        double[] tipos = acumulados(pesosTipos);
+        Totales totales = new Totales();
+        int enVuelo = Math.max(1, pool.getParallelism() * BLOQUES_POR_HILO);
+        Deque<CompletableFuture<Bloque>> pendientes = new ArrayDeque<>();
+
+        BloqueoEscritura bloqueo = BloqueoEscritura.adquiere(ruta);
+        try {
+            ByteBuffer cabecera = ByteBuffer.allocate(FormatoFichero.TAM_CABECERA);
+            FormatoFichero.ACTUAL.escribeCabecera(cabecera, (short) 0, generacionSiguiente(destino));
+            cabecera.flip();
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                escribeTodo(ch, cabecera);
+                // Las semillas de los bloques salen en orden de una sola
+                // secuencia: el resultado no depende del paralelismo
+                SplittableRandom semillas = new SplittableRandom(semilla);
+                for (long primero = 0; primero < registros; primero += REGISTROS_POR_BLOQUE) {
+                    long id = primero;
+                    int n = (int) Math.min(REGISTROS_POR_BLOQUE, registros - primero);
+                    long s = semillas.nextLong();
+                    pendientes.add(CompletableFuture.supplyAsync(
+                            () -> bloque(new SplittableRandom(s), id, n, provincias, tipos), pool));
+                    if (pendientes.size() >= enVuelo) {
+                        escribe(espera(pendientes.poll()), ch, totales);
+                    }
+                }
+                while (!pendientes.isEmpty()) {
+                    escribe(espera(pendientes.poll()), ch, totales);
+                }
+                ch.force(false);
+            } finally {
+                for (CompletableFuture<Bloque> p : pendientes) {
+                    p.cancel(false);
+                }
+            }
+            Files.move(tmp, destino, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            Path columnas = EscritorColumnar.directorioDe(ruta);
+            if (Files.isDirectory(columnas)) {
+                EscritorColumnar.borra(columnas);
+                Files.deleteIfExists(columnas);
+            }
+        } finally {
+            try {
+                Files.deleteIfExists(tmp);
+            } finally {
+                bloqueo.close();
+            }
+        }
+
+        Manifiesto m = manifiesto(registros, totales);
+        m.escribe(Manifiesto.ficheroDe(ruta));
+        return m;
+    }
+
+    private static int generacionSiguiente(Path fichero) throws IOException {
+        if (!Files.exists(fichero)) {
+            return 0;
+        }
+        try (FileChannel ch = FileChannel.open(fichero, StandardOpenOption.READ)) {
+            FormatoFichero f = FormatoFichero.detecta(ch);
+            if (f == null || f.getTamCabecera() == 0) {
+                return 0;
+            }
+            ByteBuffer b = ByteBuffer.allocate(4);
+            while (b.hasRemaining()) {
+                if (ch.read(b, FormatoFichero.OFF_GENERACION + b.position()) < 0) {
+                    return 0;
+                }
+            }
+            return b.getInt(0) + 1;
+        }
+    }
+
+    private static void escribeTodo(FileChannel ch, ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            ch.write(b);
+        }
+    }
+
+    private static void escribe(Bloque b, FileChannel ch, Totales totales) throws IOException {
+        escribeTodo(ch, b.datos);
+        totales.combina(b.totales);
+    }
+
+    private static Bloque espera(CompletableFuture<Bloque> f) {
+        try {
+            return f.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Codifica {@code n} registros v4 consecutivos a partir del
+     * identificador {@code primerId} y acumula sus totales.
+     */
+    private Bloque bloque(SplittableRandom r, long primerId, int n, double[] provincias,
+            double[] tipos) {
+        int tam = FormatoFichero.ACTUAL.getTamRegistro();
+        ByteBuffer b = ByteBuffer.allocate(n * tam);
+        CRC32 crc = new CRC32();
+        Totales t = new Totales();
+        Provincia[] todasProvincias = Provincia.values();
+        TipoEmpleado[] todosTipos = TipoEmpleado.values();
+        char[] nombre = new char[RegistroFijo.MAX_NOMBRE];
+        long rangoSalario = salarioMaximo - salarioMinimo + 1;
+        int rangoIngreso = ingresoHasta - ingresoDesde + 1;
+
+        for (int i = 0; i < n; i++) {
+            int base = i * tam;
+            Provincia provincia = todasProvincias[elige(provincias, r.nextDouble())];
+            boolean hombre = r.nextDouble() < proporcionHombres;
+            TipoEmpleado tipo = todosTipos[elige(tipos, r.nextDouble())];
+            long salario = salarioMinimo + r.nextLong(rangoSalario);
+            int ingreso = ingresoDesde + r.nextInt(rangoIngreso);
+            int longitud = nombre(r, nombre);
+
+            b.putLong(base + RegistroFijo.OFF_SALARIO, salario);
+            b.putInt(base + RegistroFijo.OFF_FECHA, ingreso);
+            b.put(base + RegistroFijo.OFF_PROVINCIA, provincia.getCodigo());
+            b.put(base + RegistroFijo.OFF_SEXO,
+                    (byte) (hombre ? Sexo.HOMBRE : Sexo.MUJER).getCodigo());
+            b.put(base + RegistroFijo.OFF_TIPO, (byte) tipo.getCodigo());
+            b.put(base + RegistroFijo.OFF_LONG_NOMBRE, (byte) longitud);
+            // El resto del nombre y el relleno ya están a cero
+            for (int k = 0; k < longitud; k++) {
+                b.putChar(base + RegistroFijo.OFF_NOMBRE + 2 * k, nombre[k]);
+            }
+            b.putLong(base + RegistroFijo.OFF_ID, primerId + i);
+            b.put(base + RegistroFijo.OFF_OPERACION, RegistroFijo.ALTA);
+            RegistroFijo.sella(FormatoFichero.ACTUAL, b, base, crc);
+
+            t.provincias[provincia.ordinal()]++;
+            t.sexos[hombre ? Sexo.HOMBRE.ordinal() : Sexo.MUJER.ordinal()]++;
+            t.tipos[tipo.ordinal()]++;
+            t.salarios += salario;
+            if (Fechas.anios(ingreso, fecha) >= Reductores.ANIOS_VETERANO) {
+                t.veteranos++;
+            }
+            t.sueldo(Nomina.sueldo(salario, ingreso, provincia.getCodigo(), hombre, fecha));
+        }
+        b.clear();
+        return new Bloque(b, t);
+    }
+
+    /**
+     * Escribe en {@code destino} un nombre y dos apellidos, cortado a
+     * {@link RegistroFijo#MAX_NOMBRE} caracteres y sin espacios al final.
+     *
+     * @return longitud del nombre
+     */
+    private static int nombre(SplittableRandom r, char[] destino) {
+        int k = copia(NOMBRES[r.nextInt(NOMBRES.length)], destino, 0);
+        k = copia(APELLIDOS[r.nextInt(APELLIDOS.length)], destino, k);
+        k = copia(APELLIDOS[r.nextInt(APELLIDOS.length)], destino, k);
+        while (destino[k - 1] == ' ') {
+            k--;
+        }
+        return k;
+    }
+
+    private static int copia(char[] parte, char[] destino, int k) {
+        if (k > 0 && k < destino.length) {
+            destino[k++] = ' ';
+        }
+        int n = Math.min(parte.length, destino.length - k);
+        System.arraycopy(parte, 0, destino, k, n);
+        return k + n;
+    }
+
+    private static char[][] partes(String... partes) {
+        char[][] c = new char[partes.length][];
+        for (int i = 0; i < partes.length; i++) {
+            c[i] = partes[i].toCharArray();
+        }
+        return c;
+    }
+
+    private static double[] zipf(int n, double exponente) {
+        double[] pesos = new double[n];
+        for (int i = 0; i < n; i++) {
+            pesos[i] = 1 / Math.pow(i + 1, exponente);
+        }
+        return pesos;
+    }
+
+    /**
+     * Probabilidades acumuladas de unos pesos; la última es 1.
+     */
+    private static double[] acumulados(double[] pesos) {
+        double total = 0;
+        for (double p : pesos) {
+            total += p;
+        }
+        double[] acumulados = new double[pesos.length];
+        double suma = 0;
+        for (int i = 0; i < pesos.length; i++) {
+            suma += pesos[i];
+            acumulados[i] = suma / total;
+        }
+        acumulados[pesos.length - 1] = 1;
+        return acumulados;
+    }
+
+    private static int elige(double[] acumulados, double u) {
+        int i = 0;
+        while (u >= acumulados[i] && i < acumulados.length - 1) {
+            i++;
+        }
+        return i;
+    }
+
+    private Manifiesto manifiesto(long registros, Totales t) {
+        Map<String, String> v = new LinkedHashMap<>();
+        v.put("registros", Long.toString(registros));
+        v.put("semilla", Long.toString(semilla));
+        v.put("fecha", LocalDate.ofEpochDay(fecha).toString());
+        v.put("provincias.sesgo", Double.toString(sesgoProvincias));
+        v.put("hombres.proporcion", Double.toString(proporcionHombres));
+        StringBuilder pesos = new StringBuilder();
+        for (double p : pesosTipos) {
+            pesos.append(pesos.length() == 0 ? "" : ",").append(p);
+        }
+        v.put("tipos.pesos", pesos.toString());
+        v.put("salario.minimo", BigDecimal.valueOf(salarioMinimo, 2).toPlainString());
+        v.put("salario.maximo", BigDecimal.valueOf(salarioMaximo, 2).toPlainString());
+        v.put("ingreso.desde", LocalDate.ofEpochDay(ingresoDesde).toString());
+        v.put("ingreso.hasta", LocalDate.ofEpochDay(ingresoHasta).toString());
+        for (Provincia p : Provincia.values()) {
+            v.put("provincia." + p.name(), Long.toString(t.provincias[p.ordinal()]));
+        }
+        for (Sexo s : Sexo.values()) {
+            v.put("sexo." + s.name(), Long.toString(t.sexos[s.ordinal()]));
+        }
+        for (TipoEmpleado tipo : TipoEmpleado.values()) {
+            v.put("tipo." + tipo.name(), Long.toString(t.tipos[tipo.ordinal()]));
+        }
+        v.put("salario.total", BigDecimal.valueOf(t.salarios, 2).toPlainString());
+        v.put("veteranos", Long.toString(t.veteranos));
+        if (registros > 0) {
+            v.put("sueldo.maximo", Nomina.aEuros(t.maxSueldo).toPlainString());
+        }
+        v.put("sueldo.maximo.empleados", Long.toString(t.numMaxSueldo));
+        return new Manifiesto(v);
+    }
+
+    private static final class Bloque {
+
+        final ByteBuffer datos;
+        final Totales totales;
+
+        Bloque(ByteBuffer datos, Totales totales) {
+            this.datos = datos;
+            this.totales = totales;
+        }
+    }
+
+    /**
+     * Totales de los empleados generados, de un bloque o de todo el fichero.
+     */
+    private static final class Totales {
+
+        final long[] provincias = new long[Provincia.values().length];
+        final long[] sexos = new long[Sexo.values().length];
+        final long[] tipos = new long[TipoEmpleado.values().length];
+        long salarios;
+        long veteranos;
+        long maxSueldo = -1;
+        long numMaxSueldo;
+
+        void sueldo(long milesimas) {
+            if (milesimas > maxSueldo) {
+                maxSueldo = milesimas;
+                numMaxSueldo = 1;
+            } else if (milesimas == maxSueldo) {
+                numMaxSueldo++;
+            }
+        }
+
+        void combina(Totales t) {
+            for (int i = 0; i < provincias.length; i++) {
+                provincias[i] += t.provincias[i];
+            }
+            for (int i = 0; i < sexos.length; i++) {
+                sexos[i] += t.sexos[i];
+            }
+            for (int i = 0; i < tipos.length; i++) {
+                tipos[i] += t.tipos[i];
+            }
+            salarios += t.salarios;
+            veteranos += t.veteranos;
+            if (t.maxSueldo > maxSueldo) {
+                maxSueldo = t.maxSueldo;
+                numMaxSueldo = t.numMaxSueldo;
+            } else if (t.maxSueldo == maxSueldo) {
+                numMaxSueldo += t.numMaxSueldo;
+            }
+        }
+    }
+
+    /**
+     * Parámetros de un fichero generado y resultados esperados a su fecha
+     * de referencia: conteos por provincia, sexo y tipo, salario total,
+     * veteranos (como en {@link MainB}) y sueldo máximo con el número de
+     * empleados que lo cobran (como en {@link MainD}).
+     *
+     * Se guarda como texto {@code clave=valor}, una por línea.
+     */
+    public static final class Manifiesto {
+
+        private final Map<String, String> valores;
+
+        private Manifiesto(Map<String, String> valores) {
+            this.valores = valores;
+        }
+
+        /**
+         * Manifiesto de un fichero de empleados.
+         *
+         * @param fichero ruta del fichero de empleados
+         * @return la ruta {@code <fichero>.manifiesto}
+         */
+        public static Path ficheroDe(String fichero) {
+            return Paths.get(fichero + ".manifiesto");
+        }
+
+        /**
+         * Lee un manifiesto. Se ignoran las líneas en blanco y las que
+         * empiezan por '#'.
+         *
+         * @param ruta ruta del manifiesto
+         * @return el manifiesto
+         * @throws IOException si falla la lectura o alguna línea no es
+         * {@code clave=valor}
+         */
+        public static Manifiesto lee(Path ruta) throws IOException {
+            Map<String, String> v = new LinkedHashMap<>();
+            for (String linea : Files.readAllLines(ruta, StandardCharsets.UTF_8)) {
+                if (linea.trim().isEmpty() || linea.startsWith("#")) {
+                    continue;
+                }
+                int i = linea.indexOf('=');
+                if (i <= 0) {
+                    throw new IOException("Línea de manifiesto inválida: " + linea);
+                }
+                v.put(linea.substring(0, i), linea.substring(i + 1));
+            }
+            return new Manifiesto(v);
+        }
+
+        /**
+         * @param ruta ruta donde se escribe, que se sustituye
+         * @throws IOException si falla la escritura
+         */
+        public void escribe(Path ruta) throws IOException {
+            try (BufferedWriter out = Files.newBufferedWriter(ruta, StandardCharsets.UTF_8)) {
+                out.write("# Manifiesto de GeneradorEmpleados");
+                out.newLine();
+                for (Map.Entry<String, String> e : valores.entrySet()) {
+                    out.write(e.getKey() + "=" + e.getValue());
+                    out.newLine();
+                }
+            }
+        }
+
+        /**
+         * @param clave clave del manifiesto
+         * @return su valor, o null si no está
+         */
+        public String get(String clave) {
+            return valores.get(clave);
+        }
+
+        private long entero(String clave) {
+            String v = valores.get(clave);
+            return v == null ? 0 : Long.parseLong(v);
+        }
+
+        public long getRegistros() {
+            return entero("registros");
+        }
+
+        /**
+         * @return fecha a la que se calcularon antigüedad y sueldos
+         */
+        public LocalDate getFecha() {
+            return LocalDate.parse(valores.get("fecha"));
+        }
+
+        public long getConteo(Provincia p) {
+            return entero("provincia." + p.name());
+        }
+
+        public long getConteo(Sexo s) {
+            return entero("sexo." + s.name());
+        }
+
+        public long getConteo(TipoEmpleado t) {
+            return entero("tipo." + t.name());
+        }
+
+        /**
+         * @return empleados con al menos {@link Reductores#ANIOS_VETERANO}
+         * años de antigüedad
+         */
+        public long getVeteranos() {
+            return entero("veteranos");
+        }
+
+        /**
+         * @return sueldo máximo en euros, o null si no hay empleados
+         */
+        public BigDecimal getSueldoMaximo() {
+            String v = valores.get("sueldo.maximo");
+            return v == null ? null : new BigDecimal(v);
+        }
+
+        /**
+         * @return empleados que cobran el sueldo máximo
+         */
+        public long getEmpleadosSueldoMaximo() {
+            return entero("sueldo.maximo.empleados");
+        }
+
+        @Override
+        public String toString() {
+            return valores.toString();
+        }
+    }
+}
@@ -0,0 +1,381 @@
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Carga empleados desde un fichero CSV o TSV, sin preguntar campo a campo
+ * como {@link MainA}.
+ *
+ * Uso: {@code java ImportadorEmpleados origen [fichero [rechazos]]}. Cada
+ * línea tiene seis campos: nombre, sexo, salario base, fecha de ingreso
+ * ({@code aaaa-mm-dd} o {@code dd/mm/aaaa}), tipo de empleado y provincia.
+ * El separador es el tabulador, el punto y coma o la coma, según cuál
+ * aparezca en la primera línea; con los dos primeros el salario puede
+ * llevar coma decimal. Los campos pueden ir entre comillas dobles. Si la
+ * primera línea empieza por "nombre" se toma como cabecera.
+ *
+ * Las líneas se leen por bloques que se validan en paralelo en el pool
+ * común con las mismas reglas que {@link MainA}, y los empleados válidos se
+ * escriben en el fichero (por defecto FICHE.DAT) en el orden del origen con
+ * una sola sesión de escritura. Las líneas no válidas van al fichero de
+ * rechazos (por defecto {@code <origen>.rechazos}) como
+ * {@code línea<TAB>motivo<TAB>texto} y no interrumpen la carga.
+ */
+public final class ImportadorEmpleados {
+
+    /**
+     * Líneas por bloque de validación.
+     */
+    private static final int LINEAS_POR_BLOQUE = 4096;
+    /**
+     * Bloques en vuelo por hilo del pool, para que la lectura no se adelante
+     * demasiado a la escritura.
+     */
+    private static final int BLOQUES_POR_HILO = 2;
+    private static final int NUM_CAMPOS = 6;
+
+    private ImportadorEmpleados() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Uso: java ImportadorEmpleados origen [fichero [rechazos]]");
+            return;
+        }
+        String origen = args[0];
+        String fichero = args.length > 1 ? args[1] : "FICHE.DAT";
+        String rechazos = args.length > 2 ? args[2] : origen + ".rechazos";
+
+        try {
+            long inicio = System.nanoTime();
+            Resultado r = importa(origen, fichero, rechazos);
+            long ms = (System.nanoTime() - inicio) / 1000000;
+            System.out.println("Importados " + r.getImportados() + " empleados en " + fichero
+                    + " (" + ms + " ms).");
+            if (r.getRechazados() > 0) {
+                System.out.println(r.getRechazados() + " líneas rechazadas, ver " + rechazos + ".");
+            }
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println("Error importando empleados: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Importa un fichero CSV o TSV en un fichero de empleados.
+     *
+     * @param origen ruta del CSV
+     * @param fichero ruta del fichero de empleados, al que se añaden
+     * @param rechazos ruta donde se escriben las líneas no válidas; solo se
+     * crea si hay alguna
+     * @return empleados importados y líneas rechazadas
+     * @throws IOException si falla la lectura o la escritura
+     */
+    public static Resultado importa(String origen, String fichero, String rechazos)
+            throws IOException {
+        return importa(origen, fichero, rechazos, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Importa un fichero CSV o TSV validando las líneas en el pool indicado.
+     *
+     * @param origen ruta del CSV
+     * @param fichero ruta del fichero de empleados, al que se añaden
+     * @param rechazos ruta donde se escriben las líneas no válidas
+     * @param pool pool donde se validan los bloques
+     * @return empleados importados y líneas rechazadas
+     * @throws IOException si falla la lectura o la escritura
+     */
+    public static Resultado importa(String origen, String fichero, String rechazos,
+            ForkJoinPool pool) throws IOException {
+        if (origen == null || origen.trim().isEmpty()) {
+            throw new IllegalArgumentException("Ruta de origen inválida.");
+        }
+        Path salidaRechazos = Paths.get(rechazos);
+        Files.deleteIfExists(salidaRechazos);
+
+        Resultado r = new Resultado();
+        int enVuelo = Math.max(1, pool.getParallelism() * BLOQUES_POR_HILO);
+        Deque<CompletableFuture<Bloque>> pendientes = new ArrayDeque<>();
+        BufferedWriter outRechazos = null;
+
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(origen), StandardCharsets.UTF_8);
+                EscritorEmpleados escritor = new EmpleadoDAO().abreEscritor(fichero)) {
+            String linea = in.readLine();
+            long numLinea = 1;
+            if (linea != null && linea.startsWith("\uFEFF")) {
+                linea = linea.substring(1);
+            }
+            char separador = separador(linea);
+            if (linea != null && esCabecera(linea, separador)) {
+                linea = in.readLine();
+                numLinea++;
+            }
+
+            while (linea != null) {
+                List<String> lineas = new ArrayList<>(LINEAS_POR_BLOQUE);
+                long primera = numLinea;
+                while (linea != null && lineas.size() < LINEAS_POR_BLOQUE) {
+                    lineas.add(linea);
+                    linea = in.readLine();
+                    numLinea++;
+                }
+                pendientes.add(CompletableFuture.supplyAsync(
+                        () -> valida(lineas, primera, separador), pool));
+                if (pendientes.size() >= enVuelo) {
+                    outRechazos = escribe(espera(pendientes.poll()), escritor, salidaRechazos,
+                            outRechazos, r);
+                }
+            }
+            while (!pendientes.isEmpty()) {
+                outRechazos = escribe(espera(pendientes.poll()), escritor, salidaRechazos,
+                        outRechazos, r);
+            }
+        } finally {
+            for (CompletableFuture<Bloque> p : pendientes) {
+                p.cancel(false);
+            }
+            if (outRechazos != null) {
+                outRechazos.close();
+            }
+        }
+        return r;
+    }
+
+    /**
+     * Escribe en orden los empleados y rechazos de un bloque.
+     *
+     * @return el escritor de rechazos, abierto al primer rechazo
+     */
+    private static BufferedWriter escribe(Bloque b, EscritorEmpleados escritor,
+            Path salidaRechazos, BufferedWriter outRechazos, Resultado r) throws IOException {
+        for (Empleado e : b.empleados) {
+            escritor.escribe(e);
+        }
+        r.importados += b.empleados.size();
+        if (!b.rechazos.isEmpty()) {
+            if (outRechazos == null) {
+                outRechazos = Files.newBufferedWriter(salidaRechazos, StandardCharsets.UTF_8);
+            }
+            for (String rechazo : b.rechazos) {
+                outRechazos.write(rechazo);
+                outRechazos.newLine();
+            }
+            r.rechazados += b.rechazos.size();
+        }
+        return outRechazos;
+    }
+
+    private static Bloque espera(CompletableFuture<Bloque> f) {
+        try {
+            return f.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Valida un bloque de líneas. Las líneas en blanco se ignoran.
+     */
+    private static Bloque valida(List<String> lineas, long primera, char separador) {
+        Bloque b = new Bloque(lineas.size());
+        List<String> campos = new ArrayList<>(NUM_CAMPOS);
+        long n = primera;
+        for (String linea : lineas) {
+            if (!linea.trim().isEmpty()) {
+                try {
+                    b.empleados.add(parsea(linea, separador, campos));
+                } catch (IllegalArgumentException ex) {
+                    b.rechazos.add(n + "\t" + ex.getMessage() + "\t" + linea);
+                }
+            }
+            n++;
+        }
+        return b;
+    }
+
+    /**
+     * Construye el empleado de una línea.
+     *
+     * @throws IllegalArgumentException si algún campo no es válido
+     */
+    static Empleado parsea(String linea, char separador, List<String> campos) {
+        divide(linea, separador, campos);
+        if (campos.size() != NUM_CAMPOS) {
+            throw new IllegalArgumentException("Se esperaban " + NUM_CAMPOS + " campos y hay "
+                    + campos.size() + ".");
+        }
+
+        Sexo sexo = Sexo.fromInput(campos.get(1));
+
+        String texto = campos.get(2).trim();
+        if (separador != ',') {
+            texto = texto.replace(',', '.');
+        }
+        BigDecimal salarioBase;
+        try {
+            salarioBase = new BigDecimal(texto);
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Salario inválido: " + campos.get(2));
+        }
+        // El fichero guarda el salario en céntimos
+        if (salarioBase.stripTrailingZeros().scale() > 2) {
+            throw new IllegalArgumentException("Salario inválido. Máximo dos decimales.");
+        }
+
+        int dia = dia(campos.get(3).trim());
+        TipoEmpleado tipo = TipoEmpleado.fromInput(campos.get(4));
+        Provincia provincia = Provincia.fromInput(campos.get(5));
+
+        return new Empleado(campos.get(0), sexo, salarioBase, Fechas.deDiaEpoch(dia), tipo,
+                provincia);
+    }
+
+    /**
+     * Lee una fecha {@code aaaa-mm-dd} o {@code dd/mm/aaaa} como días desde
+     * la época.
+     */
+    private static int dia(String s) {
+        String[] partes;
+        int anio;
+        int mes;
+        int dia;
+        try {
+            if (s.indexOf('-') > 0) {
+                partes = s.split("-", -1);
+                if (partes.length != 3) {
+                    throw new IllegalArgumentException("Fecha inválida: " + s);
+                }
+                anio = Integer.parseInt(partes[0]);
+                mes = Integer.parseInt(partes[1]);
+                dia = Integer.parseInt(partes[2]);
+            } else {
+                partes = s.split("/", -1);
+                if (partes.length != 3) {
+                    throw new IllegalArgumentException("Fecha inválida: " + s);
+                }
+                dia = Integer.parseInt(partes[0]);
+                mes = Integer.parseInt(partes[1]);
+                anio = Integer.parseInt(partes[2]);
+            }
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Fecha inválida. Formato numérico incorrecto: " + s);
+        }
+        try {
+            return (int) LocalDate.of(anio, mes, dia).toEpochDay();
+        } catch (DateTimeException ex) {
+            throw new IllegalArgumentException("Fecha no válida: " + s);
+        }
+    }
+
+    /**
+     * Separa los campos de una línea. Un campo entre comillas dobles puede
+     * contener el separador, y {@code ""} dentro de él es una comilla.
+     */
+    private static void divide(String linea, char separador, List<String> campos) {
+        campos.clear();
+        StringBuilder campo = new StringBuilder();
+        boolean entreComillas = false;
+        int i = 0;
+        int n = linea.length();
+        while (i < n) {
+            char c = linea.charAt(i++);
+            if (entreComillas) {
+                if (c != '"') {
+                    campo.append(c);
+                } else if (i < n && linea.charAt(i) == '"') {
+                    campo.append('"');
+                    i++;
+                } else {
+                    entreComillas = false;
+                }
+            } else if (c == separador) {
+                campos.add(campo.toString());
+                campo.setLength(0);
+            } else if (c == '"' && campo.toString().trim().isEmpty()) {
+                campo.setLength(0);
+                entreComillas = true;
+            } else {
+                campo.append(c);
+            }
+        }
+        if (entreComillas) {
+            throw new IllegalArgumentException("Comillas sin cerrar.");
+        }
+        campos.add(campo.toString());
+    }
+
+    /**
+     * Elige el separador según la primera línea: tabulador, punto y coma o
+     * coma, en ese orden.
+     */
+    private static char separador(String primera) {
+        if (primera == null || primera.indexOf('\t') >= 0) {
+            return '\t';
+        }
+        return primera.indexOf(';') >= 0 ? ';' : ',';
+    }
+
+    private static boolean esCabecera(String linea, char separador) {
+        int fin = linea.indexOf(separador);
+        String primero = (fin < 0 ? linea : linea.substring(0, fin)).trim();
+        if (primero.startsWith("\"")) {
+            primero = primero.substring(1);
+        }
+        return primero.toLowerCase().startsWith("nombre");
+    }
+
+    /**
+     * Empleados válidos y rechazos de un bloque, en el orden del origen.
+     */
+    private static final class Bloque {
+
+        private final List<Empleado> empleados;
+        private final List<String> rechazos = new ArrayList<>();
+
+        Bloque(int lineas) {
+            empleados = new ArrayList<>(lineas);
+        }
+    }
+
+    /**
+     * Resumen de una importación.
+     */
+    public static final class Resultado {
+
+        private long importados;
+        private long rechazados;
+
+        /**
+         * @return empleados escritos en el fichero
+         */
+        public long getImportados() {
+            return importados;
+        }
+
+        /**
+         * @return líneas escritas en el fichero de rechazos
+         */
+        public long getRechazados() {
+            return rechazados;
+        }
+    }
+}
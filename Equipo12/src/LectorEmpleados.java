@@ -0,0 +1,116 @@
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Lectura secuencial de un fichero de empleados en cualquiera de los
+ * formatos de {@link FormatoFichero}, que se detecta al abrirlo.
+ *
+ * Los ficheros v3 se leen a través de un {@link FicheroMapeado}, que
+ * resuelve la última versión de cada empleado en el momento de abrirlo.
+ */
+public class LectorEmpleados implements Closeable {
+
+    private static final int TAM_BUFFER = 64 * 1024;
+
+    private final EmpleadoDAO dao;
+    private final FormatoFichero formato;
+    private final DataInputStream in;
+    private final byte[] registro;
+    private final ByteBuffer buffer;
+    private final FicheroMapeado mapeado;
+    private final CursorEmpleado cursor;
+
+    /**
+     * Abre el fichero y detecta su formato. Usar
+     * {@link EmpleadoDAO#abreLector}.
+     *
+     * @param dao DAO que decodifica los registros v1
+     * @param fichero ruta del fichero
+     * @throws IOException si no se puede abrir o la cabecera está dañada
+     */
+    LectorEmpleados(EmpleadoDAO dao, String fichero) throws IOException {
+        FileInputStream fis = new FileInputStream(fichero);
+        try {
+            FormatoFichero f = FormatoFichero.detecta(fis.getChannel());
+            this.formato = f == null ? FormatoFichero.ACTUAL : f;
+            if (f != null && f.esVersionado()) {
+                this.mapeado = new FicheroMapeado(fichero);
+                this.cursor = mapeado.cursor();
+                this.in = null;
+                fis.close();
+            } else {
+                this.mapeado = null;
+                this.cursor = null;
+                this.in = new DataInputStream(new BufferedInputStream(fis, TAM_BUFFER));
+                Metricas.apertura(false);
+                if (f != null) {
+                    in.skipBytes(formato.getTamCabecera());
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            fis.close();
+            throw ex;
+        }
+        this.dao = dao;
+        this.registro = formato.esFijo() && cursor == null ? new byte[formato.getTamRegistro()] : null;
+        this.buffer = registro != null ? ByteBuffer.wrap(registro) : null;
+    }
+
+    /**
+     * Devuelve el formato del fichero.
+     *
+     * @return formato detectado ({@link FormatoFichero#ACTUAL} si está
+     * vacío)
+     */
+    public FormatoFichero getFormato() {
+        return formato;
+    }
+
+    /**
+     * Lee el siguiente empleado.
+     *
+     * @return el empleado, o null al llegar al final del fichero o a un
+     * último registro incompleto, que la siguiente sesión de escritura
+     * descarta
+     * @throws IOException si falla la lectura o un registro está dañado
+     */
+    public Empleado lee() throws IOException {
+        if (cursor != null) {
+            return cursor.siguiente() ? cursor.materializa() : null;
+        }
+        if (!formato.esFijo()) {
+            try {
+                return dao.leeEmpleado(in);
+            } catch (EOFException ex) {
+                return null;
+            }
+        }
+
+        int leidos = 0;
+        while (leidos < registro.length) {
+            int n = in.read(registro, leidos, registro.length - leidos);
+            if (n < 0) {
+                return null;
+            }
+            leidos += n;
+        }
+        Metricas.leidos(1, registro.length);
+        return RegistroFijo.decodifica(buffer, 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mapeado != null) {
+            mapeado.close();
+        } else {
+            in.close();
+        }
+    }
+}
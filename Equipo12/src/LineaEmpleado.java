@@ -0,0 +1,78 @@
+
+import java.io.IOException;
+import java.time.LocalDate;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Línea resumida de un empleado de los listados de {@link MainB},
+ * {@link MainD} y {@link Clasificacion}: nombre, sexo, salario base,
+ * complementos, sueldo, fecha de ingreso, tipo y provincia, separados por
+ * "; ".
+ *
+ * Desde un {@link CursorEmpleado} se escribe sin materializar el empleado.
+ */
+final class LineaEmpleado {
+
+    private static final String FORMATO = "%s; %c; %.2f; %.2f; %.2f; %s; %s; %s%n";
+
+    private final PlantillaInforme plantilla = PlantillaInforme.compila(FORMATO);
+    private final char[] nombre = new char[30];
+    private final LocalDate hoy;
+    private final int diaHoy;
+
+    /**
+     * @param hoy día al que se calculan complementos y sueldo
+     */
+    LineaEmpleado(LocalDate hoy) {
+        this.hoy = hoy;
+        this.diaHoy = (int) hoy.toEpochDay();
+    }
+
+    /**
+     * Escribe el empleado del cursor.
+     */
+    void escribe(CursorEmpleado c) throws IOException {
+        long salario;
+        try {
+            salario = c.getSalarioCentimos();
+        } catch (ArithmeticException ex) {
+            // Salario v1 con más de dos decimales: se calcula como antes
+            escribe(c.materializa());
+            return;
+        }
+        int dia = c.getFechaIngresoDiaEpoch();
+        long complementos = Nomina.complementos(Fechas.anios(dia, diaHoy) / 3, salario,
+                c.getCodigoProvincia(), c.getCodigoSexo() == Sexo.HOMBRE.getCodigo());
+        plantilla.texto(nombre, c.copiaNombre(nombre))
+                .caracter(c.getCodigoSexo())
+                .centimos(salario)
+                .milesimas(complementos)
+                .milesimas(salario * 10 + complementos)
+                .fecha(dia)
+                .texto(c.getTipoEmpleado().toString())
+                .texto(c.getProvincia().toString())
+                .fin();
+    }
+
+    /**
+     * Escribe un empleado ya materializado.
+     */
+    void escribe(Empleado e) throws IOException {
+        plantilla.texto(e.getNombre())
+                .caracter(e.getSexo().getCodigo())
+                .importe(e.getSalarioBase())
+                .importe(e.getComplementos(hoy))
+                .importe(e.getSueldo(hoy))
+                .fecha(Fechas.aDiaEpoch(e.getFechaIngreso()))
+                .texto(e.getTipoEmpleado().toString())
+                .texto(e.getProvincia().toString())
+                .fin();
+    }
+
+    /**
+     * Pasa a la salida estándar las líneas pendientes.
+     */
+    void flush() throws IOException {
+        plantilla.flush();
+    }
+}
@@ -74,6 +74,11 @@ public class MainA {
 
                     try {
                         salarioBase = new BigDecimal(input);
+                        // El fichero guarda el salario en céntimos
+                        if (salarioBase.stripTrailingZeros().scale() > 2) {
+                            System.out.println("Salario inválido. Máximo dos decimales.");
+                            continue;
+                        }
                         break;
                     } catch (NumberFormatException e) {
                         System.out.println("Salario inválido.");
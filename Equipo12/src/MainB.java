@@ -1,52 +1,57 @@
 
-import java.io.DataInputStream;
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 
 /* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
 public class MainB {
 
     public static void main(String[] args) {
+        long inicio = System.nanoTime();
         System.out.println("Consulta de empleados veteranos.");
-        int total = 0;
+        long total = 0;
         int veteranos = 0;
         int pageSize = 5;
-        int printed = 0;
 
         EmpleadoDAO dao = new EmpleadoDAO();
-        SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy");
+        // Una sola fecha para todo el informe
+        LocalDate hoy = LocalDate.now();
 
-        try (DataInputStream in = new DataInputStream(
-                new BufferedInputStream(new FileInputStream("FICHE.DAT")));
+        try (FicheroMapeado f = dao.abreMapeado("FICHE.DAT");
                 BufferedReader br = new BufferedReader(new InputStreamReader(System.in))) {
 
-            Empleado e;
-            while ((e = dao.leeEmpleado(in)) != null) {
-                total++;
-                if (e.getAntiguedad() >= 10) {
-                    veteranos++;
+            // Total y veteranos en una sola pasada. Si el punto de control de
+            // estas consultas sigue vigente hoy, solo se recorre lo añadido
+            EventosJfr.FaseInforme fase = EventosJfr.iniciaFase("MainB", "veteranos");
+            Consulta empleados = new Consulta("empleados");
+            Consulta conAntiguedad = new Consulta("veteranos")
+                    .filtra(Consulta.Campo.ANTIGUEDAD, Consulta.Comparacion.MAYOR_O_IGUAL,
+                            Reductores.ANIOS_VETERANO)
+                    .listaRegistros();
+            ResultadoConsulta[] r = MotorConsultas.procesa(f, hoy, empleados, conAntiguedad);
+            total = r[0].getTotal();
+            EventosJfr.terminaFase(fase);
+
+            LineaEmpleado linea = new LineaEmpleado(hoy);
+            fase = EventosJfr.iniciaFase("MainB", "listado");
+            try {
+                for (long posicion : r[1].getRegistros(null)) {
+                    CursorEmpleado c = f.cursor(posicion, f.getTamano());
+                    c.siguiente();
+
                     // Mostrar línea resumida por empleado
-                    System.out.printf(
-                            "%s; %c; %.2f; %.2f; %.2f; %s; %s; %s%n",
-                            e.getNombre(),
-                            e.getSexo().getCodigo(),
-                            e.getSalarioBase().doubleValue(),
-                            e.getComplementos().doubleValue(),
-                            e.getSueldo().doubleValue(),
-                            sdf.format(e.getFechaIngreso()),
-                            e.getTipoEmpleado(),
-                            e.getProvincia());
+                    linea.escribe(c);
 
-                    printed++;
-                    if (printed % pageSize == 0) {
+                    if (++veteranos % pageSize == 0) {
+                        linea.flush();
                         System.out.print("Pulse Enter para continuar...");
                         br.readLine(); // pausa hasta ENTER
                     }
                 }
+            } finally {
+                linea.flush();
+                EventosJfr.terminaFase(fase);
             }
         } catch (IOException ex) {
             System.err.println("Error leyendo empleados: " + ex.getMessage());
@@ -60,5 +65,6 @@ public class MainB {
         } else {
             System.out.println("No hay empleados en el fichero.");
         }
+        Metricas.informe("MainB", System.nanoTime() - inicio);
     }
 }
@@ -1,29 +1,42 @@
 
-import java.io.DataInputStream;
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.time.LocalDate;
 
 /* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
 public class MainC {
 
     public static void main(String[] args) {
+        long inicio = System.nanoTime();
 
         EmpleadoDAO dao = new EmpleadoDAO();
+        LocalDate hoy = LocalDate.now();
 
         System.out.println("Listado de empleados con nombre y sueldo total.");
-        try (DataInputStream in = new DataInputStream(
-                new BufferedInputStream(new FileInputStream("FICHE.DAT")))) {
+        try (FicheroMapeado f = dao.abreMapeado("FICHE.DAT")) {
 
-            Empleado e;
-            while ((e = dao.leeEmpleado(in)) != null) {
-                // Usamos directamente getSueldo() ya implementado en Empleado
-                System.out.printf("Nombre: %-30s | Sueldo: %.2f €%n",
-                        e.getNombre(), e.getSueldo().doubleValue());
+            PlantillaInforme linea = PlantillaInforme.compila("Nombre: %-30s | Sueldo: %.2f €%n");
+            char[] nombre = new char[30];
+            int dia = (int) hoy.toEpochDay();
+            EventosJfr.FaseInforme fase = EventosJfr.iniciaFase("MainC", "listado");
+            try {
+                MotorConsultas.recorre(f, hoy, new Consulta("empleados"), c -> {
+                    linea.texto(nombre, c.copiaNombre(nombre));
+                    try {
+                        // Sueldo en milésimas, como Empleado.getSueldo()
+                        linea.milesimas(Nomina.sueldo(c, dia));
+                    } catch (ArithmeticException ex) {
+                        linea.importe(c.materializa().getSueldo(hoy));
+                    }
+                    linea.fin();
+                });
+            } finally {
+                linea.flush();
+                EventosJfr.terminaFase(fase);
             }
 
         } catch (IOException ioex) {
             ioex.printStackTrace(System.err);
         }
+        Metricas.informe("MainC", System.nanoTime() - inicio);
     }
 }
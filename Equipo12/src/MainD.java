@@ -1,62 +1,71 @@
 
-import java.io.DataInputStream;
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.List;
-import java.util.ArrayList;
-import java.text.SimpleDateFormat;
 import java.math.BigDecimal;
+import java.time.LocalDate;
 
 /* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
 public class MainD {
 
     public static void main(String[] args) {
+        long inicio = System.nanoTime();
 
         EmpleadoDAO dao = new EmpleadoDAO();
-        SimpleDateFormat sdf = new SimpleDateFormat("dd/MM/yyyy");
+        // Una sola fecha para todo el informe
+        LocalDate hoy = LocalDate.now();
 
-        BigDecimal maxSueldo = BigDecimal.ZERO;
-        List<Empleado> mejorPagados = new ArrayList<>();
+        Reductores.MejorPagados resultado = new Reductores.MejorPagados();
 
-        try (DataInputStream in = new DataInputStream(
-                new BufferedInputStream(new FileInputStream("FICHE.DAT")))) {
+        try (FicheroMapeado f = dao.abreMapeado("FICHE.DAT")) {
 
-            Empleado e;
-            while ((e = dao.leeEmpleado(in)) != null) {
-                BigDecimal sueldo = e.getSueldo();
-                int cmp = sueldo.compareTo(maxSueldo);
-
-                if (cmp > 0) {
-                    maxSueldo = sueldo;
-                    mejorPagados.clear();
-                    mejorPagados.add(e);
-                } else if (cmp == 0) {
-                    mejorPagados.add(e);
+            EventosJfr.FaseInforme fase = EventosJfr.iniciaFase("MainD", "estadisticas");
+            Estadisticas est = dao.estadisticas(f, hoy);
+            EventosJfr.terminaFase(fase);
+            fase = EventosJfr.iniciaFase("MainD", "mejorPagados");
+            if (est.isMaxCalculable()) {
+                resultado = est.mejorPagados(f);
+            } else {
+                // Salarios con más de dos decimales: la consulta usa los que
+                // hagan falta. El máximo parte de cero, como el original
+                Consulta mejores = new Consulta("mejorPagados")
+                        .filtra(Consulta.Campo.SUELDO, Consulta.Comparacion.MAYOR_O_IGUAL, 0)
+                        .listaMaximos(Consulta.Campo.SUELDO);
+                ResultadoConsulta r = MotorConsultas.procesa(f, hoy, mejores)[0];
+                if (r.getTotal() > 0) {
+                    BigDecimal max = r.aEuros(r.getMaximo(null));
+                    for (long posicion : r.getRegistrosMaximo(null)) {
+                        CursorEmpleado c = f.cursor(posicion, f.getTamano());
+                        c.siguiente();
+                        resultado.acumula(max, c.materializa());
+                    }
                 }
             }
+            EventosJfr.terminaFase(fase);
 
         } catch (IOException ioex) {
             ioex.printStackTrace(System.err);
         }
 
+        BigDecimal maxSueldo = resultado.getMaxSueldo();
+        List<Empleado> mejorPagados = resultado.getEmpleados();
+
         if (mejorPagados.isEmpty()) {
             System.out.println("No hay empleados en el fichero.");
         } else {
+            EventosJfr.FaseInforme fase = EventosJfr.iniciaFase("MainD", "listado");
             System.out.printf("Sueldo máximo: %.2f €%n", maxSueldo.doubleValue());
             System.out.println("Empleado(s) con sueldo superior:");
-            for (Empleado e : mejorPagados) {
-                System.out.printf(
-                        "%s; %c; %.2f; %.2f; %.2f; %s; %s; %s%n",
-                        e.getNombre(),
-                        e.getSexo().getCodigo(),
-                        e.getSalarioBase().doubleValue(),
-                        e.getComplementos().doubleValue(),
-                        e.getSueldo().doubleValue(),
-                        sdf.format(e.getFechaIngreso()),
-                        e.getTipoEmpleado(),
-                        e.getProvincia());
+            LineaEmpleado linea = new LineaEmpleado(hoy);
+            try {
+                for (Empleado e : mejorPagados) {
+                    linea.escribe(e);
+                }
+                linea.flush();
+            } catch (IOException ioex) {
+                ioex.printStackTrace(System.err);
             }
+            EventosJfr.terminaFase(fase);
         }
+        Metricas.informe("MainD", System.nanoTime() - inicio);
     }
 }
@@ -1,7 +1,4 @@
 
-import java.io.DataInputStream;
-import java.io.FileInputStream;
-import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.util.Map;
 import java.util.EnumMap;
@@ -10,21 +7,20 @@ import java.util.EnumMap;
 public class MainE {
 
     public static void main(String[] args) {
+        long inicio = System.nanoTime();
         EmpleadoDAO dao = new EmpleadoDAO();
 
         Map<Provincia, Integer> conteo = new EnumMap<>(Provincia.class);
         int max = 0;
 
-        try (DataInputStream in = new DataInputStream(
-                new BufferedInputStream(new FileInputStream("FICHE.DAT")))) {
+        try (FicheroMapeado f = dao.abreMapeado("FICHE.DAT")) {
 
-            Empleado e;
-            while ((e = dao.leeEmpleado(in)) != null) {
-                Provincia p = e.getProvincia();
-                int nuevoConteo = conteo.containsKey(p) ? conteo.get(p) + 1 : 1;
-                conteo.put(p, nuevoConteo);
-                if (nuevoConteo > max) {
-                    max = nuevoConteo;
+            EventosJfr.FaseInforme fase = EventosJfr.iniciaFase("MainE", "estadisticas");
+            conteo = dao.estadisticas(f, null).getConteoProvincias();
+            EventosJfr.terminaFase(fase);
+            for (int n : conteo.values()) {
+                if (n > max) {
+                    max = n;
                 }
             }
 
@@ -32,6 +28,7 @@ public class MainE {
             System.err.println("Error leyendo empleados: " + ex.getMessage());
         }
 
+        EventosJfr.FaseInforme fase = EventosJfr.iniciaFase("MainE", "listado");
         if (conteo.isEmpty()) {
             System.out.println("No hay empleados en el fichero.");
         } else {
@@ -42,5 +39,7 @@ public class MainE {
                 }
             }
         }
+        EventosJfr.terminaFase(fase);
+        Metricas.informe("MainE", System.nanoTime() - inicio);
     }
 }
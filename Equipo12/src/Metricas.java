@@ -0,0 +1,365 @@
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Métricas de la capa de datos y de los informes, comunes a toda la JVM:
+ * registros y bytes leídos y escritos, lotes escritos y su latencia,
+ * tiempo de decodificación, empleados rechazados por {@link Empleado},
+ * ficheros abiertos, duración de los escaneos y de cada informe.
+ *
+ * Los contadores son {@link LongAdder} y los histogramas, intervalos
+ * potencia de dos de {@code LongAdder}: sumar no bloquea ni compite entre
+ * hilos, así que las métricas están siempre activas. Los cursores acumulan
+ * en local y publican como mucho cada {@link #PUBLICACION_CURSOR}
+ * registros.
+ *
+ * Con {@code -Dequipo12.metricas.jmx=true} se registran como MBean
+ * {@value #NOMBRE_JMX} (ver {@link MetricasMBean}), y con
+ * {@code -Dequipo12.metricas.volcado=s} se escriben en la salida de error
+ * cada {@code s} segundos y al terminar. Sin esas propiedades no se arranca
+ * JMX ni ningún hilo.
+ */
+public final class Metricas implements MetricasMBean {
+
+    public static final String PROPIEDAD_JMX = "equipo12.metricas.jmx";
+    public static final String PROPIEDAD_VOLCADO = "equipo12.metricas.volcado";
+    public static final String NOMBRE_JMX = "Equipo12:type=Metricas";
+    /**
+     * Registros que cuenta un cursor antes de publicarlos.
+     */
+    static final int PUBLICACION_CURSOR = 4096;
+
+    private static final Metricas INSTANCIA = new Metricas();
+
+    private final LongAdder registrosLeidos = new LongAdder();
+    private final LongAdder bytesLeidos = new LongAdder();
+    private final LongAdder registrosEscritos = new LongAdder();
+    private final LongAdder bytesEscritos = new LongAdder();
+    private final Histograma lotes = new Histograma();
+    private final Histograma decodificacion = new Histograma();
+    private final LongAdder rechazados = new LongAdder();
+    private final LongAdder aperturasLectura = new LongAdder();
+    private final LongAdder aperturasEscritura = new LongAdder();
+    private final Histograma escaneos = new Histograma();
+    private final ConcurrentMap<String, Histograma> informes = new ConcurrentHashMap<>();
+
+    static {
+        if (Boolean.getBoolean(PROPIEDAD_JMX)) {
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(INSTANCIA, new ObjectName(NOMBRE_JMX));
+            } catch (JMException ex) {
+                System.err.println("No se pudieron publicar las métricas por JMX: " + ex);
+            }
+        }
+        long periodo = Long.getLong(PROPIEDAD_VOLCADO, 0L);
+        if (periodo > 0) {
+            ScheduledExecutorService temporizador = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "Volcado de métricas");
+                t.setDaemon(true);
+                return t;
+            });
+            temporizador.scheduleAtFixedRate(() -> vuelca(System.err), periodo, periodo,
+                    TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> vuelca(System.err),
+                    "Volcado final de métricas"));
+        }
+    }
+
+    private Metricas() {
+    }
+
+    /**
+     * @return las métricas de esta JVM
+     */
+    public static Metricas get() {
+        return INSTANCIA;
+    }
+
+    static void leidos(long registros, long bytes) {
+        INSTANCIA.registrosLeidos.add(registros);
+        INSTANCIA.bytesLeidos.add(bytes);
+    }
+
+    /**
+     * Anota un lote escrito y lo que tardó en llegar al fichero.
+     */
+    static void lote(long registros, long bytes, long nanos) {
+        INSTANCIA.registrosEscritos.add(registros);
+        INSTANCIA.bytesEscritos.add(bytes);
+        INSTANCIA.lotes.registra(nanos);
+    }
+
+    /**
+     * Anota lo que se tardó en construir un {@link Empleado} a partir de un
+     * registro.
+     */
+    static void decodificacion(long nanos) {
+        INSTANCIA.decodificacion.registra(nanos);
+    }
+
+    static void rechazo() {
+        INSTANCIA.rechazados.increment();
+    }
+
+    static void apertura(boolean escritura) {
+        (escritura ? INSTANCIA.aperturasEscritura : INSTANCIA.aperturasLectura).increment();
+    }
+
+    static void escaneo(long nanos) {
+        INSTANCIA.escaneos.registra(nanos);
+    }
+
+    /**
+     * Anota la duración de una ejecución de un informe.
+     *
+     * @param nombre nombre del informe
+     * @param nanos duración en nanosegundos
+     */
+    public static void informe(String nombre, long nanos) {
+        Histograma h = INSTANCIA.informes.get(nombre);
+        if (h == null) {
+            h = INSTANCIA.informes.computeIfAbsent(nombre, k -> new Histograma());
+        }
+        h.registra(nanos);
+    }
+
+    /**
+     * Escribe el volcado de las métricas.
+     *
+     * @param out flujo destino
+     */
+    public static void vuelca(PrintStream out) {
+        out.print(INSTANCIA.volcado());
+        out.flush();
+    }
+
+    @Override
+    public long getRegistrosLeidos() {
+        return registrosLeidos.sum();
+    }
+
+    @Override
+    public long getBytesLeidos() {
+        return bytesLeidos.sum();
+    }
+
+    @Override
+    public long getRegistrosEscritos() {
+        return registrosEscritos.sum();
+    }
+
+    @Override
+    public long getBytesEscritos() {
+        return bytesEscritos.sum();
+    }
+
+    @Override
+    public long getLotesEscritos() {
+        return lotes.getCuenta();
+    }
+
+    @Override
+    public long getLatenciaMediaLote() {
+        return lotes.getMedia() / 1000;
+    }
+
+    @Override
+    public long getLatenciaP99Lote() {
+        return lotes.percentil(0.99) / 1000;
+    }
+
+    @Override
+    public long getLatenciaMaximaLote() {
+        return lotes.getMaximo() / 1000;
+    }
+
+    @Override
+    public long getDecodificaciones() {
+        return decodificacion.getCuenta();
+    }
+
+    @Override
+    public long getDecodificacionMediaNanos() {
+        return decodificacion.getMedia();
+    }
+
+    @Override
+    public long getEmpleadosRechazados() {
+        return rechazados.sum();
+    }
+
+    @Override
+    public long getAperturasLectura() {
+        return aperturasLectura.sum();
+    }
+
+    @Override
+    public long getAperturasEscritura() {
+        return aperturasEscritura.sum();
+    }
+
+    @Override
+    public long getEscaneos() {
+        return escaneos.getCuenta();
+    }
+
+    @Override
+    public long getDuracionMediaEscaneo() {
+        return escaneos.getMedia() / 1000;
+    }
+
+    @Override
+    public long getDuracionP99Escaneo() {
+        return escaneos.percentil(0.99) / 1000;
+    }
+
+    @Override
+    public long getDuracionMaximaEscaneo() {
+        return escaneos.getMaximo() / 1000;
+    }
+
+    /**
+     * Devuelve una línea {@code clave valor} por métrica tras una línea con
+     * la fecha. Los histogramas dan cuenta, media, p50, p99 y máximo en
+     * microsegundos, salvo la decodificación, en nanosegundos.
+     *
+     * @return el volcado
+     */
+    @Override
+    public String volcado() {
+        StringBuilder s = new StringBuilder();
+        s.append("# Métricas ")
+                .append(LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME))
+                .append(System.lineSeparator());
+        linea(s, "registros.leidos", getRegistrosLeidos());
+        linea(s, "bytes.leidos", getBytesLeidos());
+        linea(s, "registros.escritos", getRegistrosEscritos());
+        linea(s, "bytes.escritos", getBytesEscritos());
+        linea(s, "lotes.latencia.us", lotes.resumen(1000));
+        linea(s, "decodificacion.ns", decodificacion.resumen(1));
+        linea(s, "empleados.rechazados", getEmpleadosRechazados());
+        linea(s, "aperturas.lectura", getAperturasLectura());
+        linea(s, "aperturas.escritura", getAperturasEscritura());
+        linea(s, "escaneos.duracion.us", escaneos.resumen(1000));
+        for (Map.Entry<String, Histograma> e : new TreeMap<>(informes).entrySet()) {
+            linea(s, "informe." + e.getKey() + ".duracion.us", e.getValue().resumen(1000));
+        }
+        return s.toString();
+    }
+
+    private static void linea(StringBuilder s, String clave, Object valor) {
+        s.append(clave).append(' ').append(valor).append(System.lineSeparator());
+    }
+
+    @Override
+    public void reinicia() {
+        registrosLeidos.reset();
+        bytesLeidos.reset();
+        registrosEscritos.reset();
+        bytesEscritos.reset();
+        lotes.reinicia();
+        decodificacion.reinicia();
+        rechazados.reset();
+        aperturasLectura.reset();
+        aperturasEscritura.reset();
+        escaneos.reinicia();
+        informes.clear();
+    }
+
+    /**
+     * Histograma de duraciones en nanosegundos con un intervalo por potencia
+     * de dos: el valor {@code v} cae en el intervalo {@code [2^i, 2^(i+1))}.
+     */
+    static final class Histograma {
+
+        private final LongAdder[] intervalos = new LongAdder[64];
+        private final LongAdder suma = new LongAdder();
+        private final LongAccumulator maximo = new LongAccumulator(Math::max, 0);
+
+        Histograma() {
+            for (int i = 0; i < intervalos.length; i++) {
+                intervalos[i] = new LongAdder();
+            }
+        }
+
+        void registra(long nanos) {
+            long v = Math.max(nanos, 0);
+            intervalos[63 - Long.numberOfLeadingZeros(v | 1)].increment();
+            suma.add(v);
+            maximo.accumulate(v);
+        }
+
+        long getCuenta() {
+            long n = 0;
+            for (LongAdder a : intervalos) {
+                n += a.sum();
+            }
+            return n;
+        }
+
+        long getMedia() {
+            long n = getCuenta();
+            return n == 0 ? 0 : suma.sum() / n;
+        }
+
+        long getMaximo() {
+            return maximo.get();
+        }
+
+        /**
+         * @param p fracción entre 0 y 1
+         * @return límite superior del intervalo donde cae el percentil, sin
+         * pasar del máximo
+         */
+        long percentil(double p) {
+            long[] cuentas = new long[intervalos.length];
+            long n = 0;
+            for (int i = 0; i < cuentas.length; i++) {
+                cuentas[i] = intervalos[i].sum();
+                n += cuentas[i];
+            }
+            if (n == 0) {
+                return 0;
+            }
+            long objetivo = (long) Math.ceil(p * n);
+            long acumulado = 0;
+            for (int i = 0; i < cuentas.length; i++) {
+                acumulado += cuentas[i];
+                if (acumulado >= objetivo) {
+                    return i >= 62 ? getMaximo() : Math.min((2L << i) - 1, getMaximo());
+                }
+            }
+            return getMaximo();
+        }
+
+        String resumen(long unidad) {
+            return "n=" + getCuenta() + " media=" + getMedia() / unidad
+                    + " p50=" + percentil(0.5) / unidad + " p99=" + percentil(0.99) / unidad
+                    + " max=" + getMaximo() / unidad;
+        }
+
+        void reinicia() {
+            for (LongAdder a : intervalos) {
+                a.reset();
+            }
+            suma.reset();
+            maximo.reset();
+        }
+    }
+}
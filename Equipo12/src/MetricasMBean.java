@@ -0,0 +1,56 @@
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Interfaz JMX de {@link Metricas}. Los tiempos van en microsegundos y los
+ * percentiles son el límite superior de su intervalo del histograma.
+ */
+public interface MetricasMBean {
+
+    long getRegistrosLeidos();
+
+    long getBytesLeidos();
+
+    long getRegistrosEscritos();
+
+    long getBytesEscritos();
+
+    long getLotesEscritos();
+
+    long getLatenciaMediaLote();
+
+    long getLatenciaP99Lote();
+
+    long getLatenciaMaximaLote();
+
+    long getDecodificaciones();
+
+    /**
+     * @return tiempo medio de construir un {@link Empleado} a partir de un
+     * registro, en nanosegundos
+     */
+    long getDecodificacionMediaNanos();
+
+    long getEmpleadosRechazados();
+
+    long getAperturasLectura();
+
+    long getAperturasEscritura();
+
+    long getEscaneos();
+
+    long getDuracionMediaEscaneo();
+
+    long getDuracionP99Escaneo();
+
+    long getDuracionMaximaEscaneo();
+
+    /**
+     * @return todas las métricas en el formato del volcado periódico
+     */
+    String volcado();
+
+    /**
+     * Pone a cero todas las métricas.
+     */
+    void reinicia();
+}
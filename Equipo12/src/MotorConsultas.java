@@ -0,0 +1,554 @@
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.zip.CRC32;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Evalúa {@link Consulta}s sobre un fichero de empleados.
+ *
+ * Todas las consultas de una llamada se resuelven en una sola pasada, en
+ * paralelo con {@link EscanerParalelo} o continuando desde un
+ * {@link PuntoControl}, de modo que un informe nuevo se escribe como una
+ * consulta más y no como otro bucle sobre el fichero. Los valores de cada
+ * registro (sueldo, antigüedad...) se calculan una vez y solo si alguna
+ * consulta los usa.
+ *
+ * Como el sueldo máximo de {@link Estadisticas}, el resultado guardado de
+ * una consulta que depende de la fecha vale hasta el primer día en que
+ * algún empleado cambia de resultado: cuando cumple los años o el trienio
+ * con los que pasa a cumplir o a incumplir un filtro, o cambia el valor de
+ * un agregado. Las consultas sin campos dependientes de la fecha valen
+ * siempre.
+ *
+ * Los importes se acumulan en milésimas. Si un salario v1 tiene más
+ * decimales, la pasada se repite con los decimales que necesita, y el
+ * punto de control lo recuerda para no repetirla la próxima vez; los
+ * filtros se comparan de forma exacta en cualquier caso.
+ */
+public final class MotorConsultas {
+
+    /**
+     * Años por encima de los que un filtro de antigüedad no cambia en
+     * ninguna fecha representable.
+     */
+    private static final long ANIOS_MAXIMOS = 10_000;
+    /**
+     * Puntos de control de consultas que se conservan junto a cada fichero.
+     */
+    private static final int MAX_PUNTOS_CONTROL = 16;
+
+    /**
+     * Acción sobre cada registro de {@link #recorre}.
+     */
+    @FunctionalInterface
+    public interface Visitante {
+
+        /**
+         * @param c cursor situado en un registro que pasa los filtros; no
+         * se debe guardar
+         * @throws IOException si el registro no se puede leer
+         */
+        void visita(CursorEmpleado c) throws IOException;
+    }
+
+    private MotorConsultas() {
+    }
+
+    /**
+     * Evalúa las consultas en una pasada en paralelo por el fichero.
+     *
+     * @param f fichero proyectado
+     * @param fecha fecha de referencia de la antigüedad
+     * @param consultas consultas a evaluar
+     * @return un resultado por consulta, en el mismo orden
+     * @throws IOException si algún registro no se puede leer
+     * @throws ArithmeticException si una consulta usa importes y alguno no
+     * cabe en un {@code long} con los decimales de su salario
+     */
+    public static ResultadoConsulta[] evalua(FicheroMapeado f, LocalDate fecha, Consulta... consultas)
+            throws IOException {
+        return evalua(f, fecha, consultas, false);
+    }
+
+    /**
+     * Como {@link #evalua}, continuando desde el punto de control de esas
+     * mismas consultas y guardando el nuevo. Junto al fichero se conservan
+     * los puntos de control de las {@value #MAX_PUNTOS_CONTROL} últimas
+     * definiciones usadas; los demás se borran.
+     *
+     * @param f fichero proyectado
+     * @param fecha fecha de referencia de la antigüedad
+     * @param consultas consultas a evaluar
+     * @return un resultado por consulta, en el mismo orden
+     * @throws IOException si algún registro no se puede leer
+     * @throws ArithmeticException si una consulta usa importes y alguno no
+     * cabe en un {@code long} con los decimales de su salario
+     */
+    public static ResultadoConsulta[] procesa(FicheroMapeado f, LocalDate fecha, Consulta... consultas)
+            throws IOException {
+        return evalua(f, fecha, consultas, true);
+    }
+
+    private static ResultadoConsulta[] evalua(FicheroMapeado f, LocalDate fecha, Consulta[] consultas,
+            boolean continua) throws IOException {
+        int escala = Nomina.ESCALA;
+        while (true) {
+            ReductorPersistente<Pasada> r = reductor(fecha, escala, consultas);
+            try {
+                if (!continua) {
+                    return EscanerParalelo.escanea(f, r).resultados;
+                }
+                ResultadoConsulta[] resultados = PuntoControl.procesa(f, r).resultados;
+                try {
+                    PuntoControl.poda(f.getFichero(), MotorConsultas::esExtension,
+                            r.getExtension(), MAX_PUNTOS_CONTROL);
+                } catch (IOException ex) {
+                    // Solo se pierde espacio: se intentará en la siguiente
+                }
+                return resultados;
+            } catch (EscalaInsuficiente ex) {
+                escala = ex.escala;
+            }
+        }
+    }
+
+    /**
+     * Indica si una extensión es la de un punto de control de consultas.
+     */
+    private static boolean esExtension(String extension) {
+        return extension.matches("q[0-9a-f]{8}");
+    }
+
+    /**
+     * Recorre en orden del fichero los registros que pasan los filtros de
+     * la consulta, sin acumular nada. Su agrupación y agregados no se usan.
+     *
+     * @param f fichero proyectado
+     * @param fecha fecha de referencia de la antigüedad
+     * @param consulta consulta cuyos filtros se aplican
+     * @param v acción sobre cada registro
+     * @return número de registros visitados
+     * @throws IOException si algún registro no se puede leer o lo lanza la
+     * acción
+     */
+    public static long recorre(FicheroMapeado f, LocalDate fecha, Consulta consulta, Visitante v)
+            throws IOException {
+        Fila fila = new Fila((int) fecha.toEpochDay(), Nomina.ESCALA);
+        CursorEmpleado c = f.cursor();
+        long visitados = 0;
+        while (c.siguiente()) {
+            fila.situa(c);
+            if (pasaFiltros(consulta, fila, c, false)) {
+                v.visita(c);
+                visitados++;
+            }
+        }
+        return visitados;
+    }
+
+    /**
+     * Reductor que evalúa las consultas. Su extensión de punto de control
+     * depende de la definición de todas ellas.
+     *
+     * @param fecha fecha de referencia de la antigüedad
+     * @param escala decimales de los importes
+     * @param consultas consultas a evaluar
+     * @return el reductor; lanza {@link EscalaInsuficiente} si algún salario
+     * necesita más decimales
+     */
+    static ReductorPersistente<Pasada> reductor(LocalDate fecha, int escala, Consulta... consultas) {
+        if (consultas.length == 0) {
+            throw new IllegalArgumentException("No hay consultas que evaluar.");
+        }
+        int hoy = (int) fecha.toEpochDay();
+        String definicion = definicion(consultas);
+        CRC32 crc = new CRC32();
+        crc.update(definicion.getBytes(StandardCharsets.UTF_8));
+        String extension = String.format("q%08x", crc.getValue());
+        String prefijoEscala = definicion + "escala ";
+
+        return new ReductorPersistente<Pasada>() {
+            @Override
+            public Pasada crea() {
+                return new Pasada(consultas, hoy, escala);
+            }
+
+            @Override
+            public void acumula(Pasada parcial, CursorEmpleado c) throws IOException {
+                parcial.fila.situa(c);
+                for (int i = 0; i < consultas.length; i++) {
+                    MotorConsultas.acumula(consultas[i], parcial.resultados[i], parcial.fila, c);
+                }
+            }
+
+            @Override
+            public Pasada combina(Pasada izquierda, Pasada derecha) {
+                for (int i = 0; i < consultas.length; i++) {
+                    izquierda.resultados[i].combina(derecha.resultados[i]);
+                }
+                return izquierda;
+            }
+
+            @Override
+            public String getExtension() {
+                return extension;
+            }
+
+            @Override
+            public void guarda(Pasada p, DataOutput out) throws IOException {
+                out.writeUTF(prefijoEscala + escala);
+                for (ResultadoConsulta r : p.resultados) {
+                    r.guarda(out);
+                }
+            }
+
+            @Override
+            public Pasada carga(DataInput in) throws IOException {
+                Pasada p = new Pasada(consultas, hoy, escala);
+                String guardada = in.readUTF();
+                int escalaGuardada = -1;
+                if (guardada.startsWith(prefijoEscala)) {
+                    try {
+                        escalaGuardada = Integer.parseInt(guardada.substring(prefijoEscala.length()));
+                    } catch (NumberFormatException ex) {
+                        // Queda como ajena
+                    }
+                }
+                if (escalaGuardada > escala) {
+                    // Ya se sabe que hacen falta más decimales
+                    throw new EscalaInsuficiente(escalaGuardada);
+                }
+                if (escalaGuardada != escala) {
+                    // Otras consultas con la misma extensión: no vale
+                    p.ajena = true;
+                    return p;
+                }
+                for (int i = 0; i < consultas.length; i++) {
+                    p.resultados[i] = ResultadoConsulta.carga(consultas[i], escala, in);
+                }
+                return p;
+            }
+
+            @Override
+            public boolean vigente(Pasada p) {
+                if (p.ajena) {
+                    return false;
+                }
+                for (ResultadoConsulta r : p.resultados) {
+                    if (!r.vigente(hoy)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Resultado parcial de {@link #reductor}: el de cada consulta y los
+     * valores del registro actual.
+     */
+    static final class Pasada {
+
+        final ResultadoConsulta[] resultados;
+        private final Fila fila;
+        /**
+         * Cargada de un punto de control de otras consultas.
+         */
+        private boolean ajena;
+
+        private Pasada(Consulta[] consultas, int hoy, int escala) {
+            resultados = new ResultadoConsulta[consultas.length];
+            for (int i = 0; i < consultas.length; i++) {
+                resultados[i] = new ResultadoConsulta(consultas[i], hoy, escala);
+            }
+            fila = new Fila(hoy, escala);
+        }
+    }
+
+    /**
+     * Un importe necesita más decimales que los de la pasada: se repite con
+     * {@link #escala}.
+     */
+    static final class EscalaInsuficiente extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        final int escala;
+
+        EscalaInsuficiente(int escala) {
+            super("Hacen falta " + escala + " decimales.", null, false, false);
+            this.escala = escala;
+        }
+    }
+
+    /**
+     * Añade el registro del cursor al resultado de una consulta si pasa sus
+     * filtros, y reduce la vigencia del resultado si el registro puede
+     * cambiarlo en otra fecha.
+     */
+    private static void acumula(Consulta q, ResultadoConsulta r, Fila fila, CursorEmpleado c)
+            throws IOException {
+        // Los filtros que no dependen de la fecha descartan para siempre
+        if (!pasaFiltros(q, fila, c, true)) {
+            return;
+        }
+        Consulta.Campo[] campos = q.camposFiltro;
+        int fallos = 0;
+        for (int i = 0; i < campos.length; i++) {
+            if (campos[i].dependeDeFecha() && !fila.cumple(q, i)) {
+                fallos++;
+            }
+        }
+        if (fallos > 0) {
+            // Solo empieza a pasar cuando han cambiado todos los que fallan
+            int cambio = Integer.MIN_VALUE;
+            for (int i = 0; i < campos.length; i++) {
+                if (campos[i].dependeDeFecha() && !fila.cumple(q, i)) {
+                    cambio = Math.max(cambio, cambioFiltro(fila, q, i, r.validoHasta));
+                }
+            }
+            r.caduca(cambio);
+            return;
+        }
+        for (int i = 0; i < campos.length; i++) {
+            if (campos[i].dependeDeFecha()) {
+                r.caduca(cambioFiltro(fila, q, i, r.validoHasta));
+            }
+        }
+
+        int g = q.getAgrupacion().indice(c);
+        long[][] agregados = r.agregados;
+        for (int a = 0; a < agregados.length; a++) {
+            Consulta.Campo campo = q.camposAgregado[a];
+            if (campo == null) {
+                continue;
+            }
+            long v = fila.acumulable(campo);
+            switch (q.funciones[a]) {
+                case MINIMO:
+                    agregados[a][g] = Math.min(agregados[a][g], v);
+                    break;
+                case MAXIMO:
+                    agregados[a][g] = Math.max(agregados[a][g], v);
+                    break;
+                default:
+                    agregados[a][g] += v;
+            }
+            if (campo.dependeDeFecha()) {
+                r.caduca(cambioValor(fila, campo, r.validoHasta));
+            }
+        }
+        if (q.isListaRegistros()) {
+            r.anadeRegistro(g, c.getPosicion());
+        }
+        Consulta.Campo maximo = q.getCampoMaximo();
+        if (maximo != null) {
+            r.ofreceMaximo(g, fila.acumulable(maximo), c.getPosicion());
+            if (maximo.dependeDeFecha()) {
+                r.caduca(cambioValor(fila, maximo, r.validoHasta));
+            }
+        }
+        r.conteos[g]++;
+    }
+
+    /**
+     * Aplica los filtros de pertenencia y los de campo.
+     *
+     * @param soloFijos true para aplicar solo los campos que no dependen de
+     * la fecha
+     */
+    private static boolean pasaFiltros(Consulta q, Fila fila, CursorEmpleado c, boolean soloFijos) {
+        for (int i = 0; i < q.mascaras.length; i++) {
+            if ((q.mascaras[i] >>> q.agrupacionesFiltro[i].indice(c) & 1) == 0) {
+                return false;
+            }
+        }
+        for (int i = 0; i < q.camposFiltro.length; i++) {
+            if ((!soloFijos || !q.camposFiltro[i].dependeDeFecha()) && !fila.cumple(q, i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Primer día posterior en que puede cambiar el resultado de un filtro
+     * que depende de la fecha.
+     */
+    private static int cambioFiltro(Fila fila, Consulta q, int i, int limite) {
+        Consulta.Campo campo = q.camposFiltro[i];
+        if (campo != Consulta.Campo.ANTIGUEDAD && campo != Consulta.Campo.TRIENIOS) {
+            return cambioValor(fila, campo, limite);
+        }
+        if (fila.anios() < 0) {
+            return fila.hoy + 1;
+        }
+        // El resultado solo es distinto a un lado y otro de la referencia y
+        // en ella, así que cambia al llegar a ella o al pasarla
+        Consulta.Comparacion cmp = q.comparaciones[i];
+        long ref = q.referencias[i];
+        long v = fila.valor(campo);
+        boolean cumple = cmp.cumple(v, ref);
+        long paso = campo == Consulta.Campo.TRIENIOS ? 3 : 1;
+        for (long k = ref; k <= ref + 1 && k <= ANIOS_MAXIMOS / paso; k++) {
+            if (k > v && cmp.cumple(k, ref) != cumple) {
+                return aniversario(fila, (int) (k * paso), limite);
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Primer día posterior en que puede cambiar el valor de un campo.
+     */
+    private static int cambioValor(Fila fila, Consulta.Campo campo, int limite) {
+        int anios = fila.anios();
+        if (anios < 0) {
+            return fila.hoy + 1;
+        }
+        return aniversario(fila, campo == Consulta.Campo.ANTIGUEDAD ? anios + 1 : (anios / 3 + 1) * 3,
+                limite);
+    }
+
+    /**
+     * Día en que el empleado cumple esos años, si no es antes de
+     * {@code limite}; en ese caso devuelve {@link Integer#MAX_VALUE} sin
+     * calcular la fecha, porque no reduce la vigencia.
+     */
+    private static int aniversario(Fila fila, int anios, int limite) {
+        int ingreso = fila.c.getFechaIngresoDiaEpoch();
+        // Cada año tiene al menos 365 días, menos el 29 de febrero llevado al 28
+        if (ingreso + 365L * anios - 1 >= limite) {
+            return Integer.MAX_VALUE;
+        }
+        // plusYears lleva el 29 de febrero al 28: se adelanta
+        int llega = (int) LocalDate.ofEpochDay(ingreso).plusYears(anios).toEpochDay();
+        return Math.max(fila.hoy + 1, llega);
+    }
+
+    private static String definicion(Consulta[] consultas) {
+        StringBuilder sb = new StringBuilder();
+        for (Consulta q : consultas) {
+            sb.append(q).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Valores del registro actual, calculados la primera vez que se piden.
+     * Los importes van con los decimales de la pasada, o con más si el
+     * salario los necesita.
+     */
+    private static final class Fila {
+
+        private final int hoy;
+        private final int escala;
+        private final long[] valores = new long[Consulta.Campo.values().length];
+        private CursorEmpleado c;
+        /**
+         * Bit por ordinal de los campos ya calculados.
+         */
+        private int calculados;
+        /**
+         * Decimales de los importes del registro actual.
+         */
+        private int escalaFila;
+
+        Fila(int hoy, int escala) {
+            this.hoy = hoy;
+            this.escala = escala;
+        }
+
+        void situa(CursorEmpleado c) {
+            this.c = c;
+            calculados = 0;
+            escalaFila = escala;
+        }
+
+        /**
+         * Aplica el filtro {@code i} de la consulta. La referencia de un
+         * importe va en milésimas y el valor puede tener más decimales.
+         */
+        boolean cumple(Consulta q, int i) {
+            Consulta.Campo campo = q.camposFiltro[i];
+            long v = valor(campo);
+            if (!campo.esImporte() || escalaFila == Nomina.ESCALA) {
+                return q.comparaciones[i].cumple(v, q.referencias[i]);
+            }
+            long unidad = Nomina.unidad(escalaFila - Nomina.ESCALA);
+            long milesimas = Math.floorDiv(v, unidad);
+            int orden = milesimas == q.referencias[i] && Math.floorMod(v, unidad) != 0
+                    ? 1
+                    : Long.compare(milesimas, q.referencias[i]);
+            return q.comparaciones[i].cumple(orden);
+        }
+
+        /**
+         * Valor de un campo que se suma o se compara con los de otros
+         * registros, así que debe ir con los decimales de la pasada.
+         */
+        long acumulable(Consulta.Campo campo) {
+            long v = valor(campo);
+            if (campo.esImporte() && escalaFila != escala) {
+                throw new EscalaInsuficiente(escalaFila);
+            }
+            return v;
+        }
+
+        int anios() {
+            return (int) valor(Consulta.Campo.ANTIGUEDAD);
+        }
+
+        long valor(Consulta.Campo campo) {
+            int i = campo.ordinal();
+            if ((calculados & 1 << i) == 0) {
+                valores[i] = calcula(campo);
+                calculados |= 1 << i;
+            }
+            return valores[i];
+        }
+
+        private long calcula(Consulta.Campo campo) {
+            switch (campo) {
+                case SALARIO_BASE:
+                    return salario();
+                case SUELDO:
+                    long salario = valor(Consulta.Campo.SALARIO_BASE);
+                    if (escalaFila == Nomina.ESCALA) {
+                        return Nomina.sueldo(c, hoy);
+                    }
+                    return Nomina.sueldo(salario, escalaFila, c.getFechaIngresoDiaEpoch(),
+                            c.getCodigoProvincia(), c.getCodigoSexo() == Sexo.HOMBRE.getCodigo(), hoy);
+                case COMPLEMENTOS:
+                    return valor(Consulta.Campo.SUELDO) - valor(Consulta.Campo.SALARIO_BASE);
+                case ANTIGUEDAD:
+                    return Fechas.anios(c.getFechaIngresoDiaEpoch(), hoy);
+                case TRIENIOS:
+                    return anios() / 3;
+                default:
+                    return c.getFechaIngresoDiaEpoch();
+            }
+        }
+
+        /**
+         * Salario base con los decimales de la fila, que sube a los del
+         * salario si no caben (el 10 % de destino necesita uno más).
+         */
+        private long salario() {
+            if (escalaFila == Nomina.ESCALA) {
+                try {
+                    return c.getSalarioCentimos() * 10;
+                } catch (ArithmeticException ex) {
+                    // Más decimales que los céntimos
+                }
+            }
+            escalaFila = Math.max(escalaFila, c.getDecimalesSalario() + 1);
+            return c.getSalario(escalaFila);
+        }
+    }
+}
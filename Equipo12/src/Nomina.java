@@ -0,0 +1,200 @@
+
+import java.math.BigDecimal;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Cálculo de la nómina en aritmética entera, sin crear objetos.
+ *
+ * Los importes se expresan en milésimas de euro: el 10 % de un salario en
+ * céntimos es exacto en milésimas, así que los resultados coinciden con los
+ * {@link BigDecimal} de {@link Empleado#getComplementos()} y
+ * {@link Empleado#getSueldo()} sin ningún redondeo. Solo al mostrar un
+ * importe se redondea a céntimos ({@link #aCentimos}), igual que
+ * {@code %.2f}.
+ *
+ * {@link VerificaNomina} comprueba la equivalencia con el cálculo original.
+ */
+public final class Nomina {
+
+    /**
+     * Complemento por trienio: 24 €.
+     */
+    public static final long COMPLEMENTO_TRIENIO = 24_000;
+    /**
+     * Complemento por sexo masculino: 120 €.
+     */
+    public static final long COMPLEMENTO_HOMBRE = 120_000;
+    /**
+     * Decimales de las milésimas.
+     */
+    public static final int ESCALA = 3;
+    /**
+     * Milésimas por céntimo.
+     */
+    private static final int MILESIMAS_CENTIMO = 10;
+
+    private Nomina() {
+    }
+
+    /**
+     * Indica si la provincia da derecho al complemento de destino especial
+     * (Jaén, Huelva o Almería).
+     *
+     * @param codigoProvincia código de la provincia
+     * @return true si hay complemento de destino
+     */
+    public static boolean destinoEspecial(byte codigoProvincia) {
+        return codigoProvincia == Provincia.JAEN.getCodigo()
+                || codigoProvincia == Provincia.HUELVA.getCodigo()
+                || codigoProvincia == Provincia.ALMERIA.getCodigo();
+    }
+
+    /**
+     * Calcula los complementos en milésimas de euro.
+     *
+     * @param trienios trienios de antigüedad
+     * @param salarioCentimos salario base en céntimos
+     * @param codigoProvincia código de la provincia
+     * @param hombre si el empleado es hombre
+     * @return complementos en milésimas
+     */
+    public static long complementos(int trienios, long salarioCentimos, byte codigoProvincia,
+            boolean hombre) {
+        long c = trienios * COMPLEMENTO_TRIENIO;
+        if (destinoEspecial(codigoProvincia)) {
+            // 10 % de n céntimos son n milésimas
+            c += salarioCentimos;
+        }
+        if (hombre) {
+            c += COMPLEMENTO_HOMBRE;
+        }
+        return c;
+    }
+
+    /**
+     * Calcula el sueldo (salario base más complementos) en milésimas.
+     *
+     * @param salarioCentimos salario base en céntimos
+     * @param diaIngreso día de ingreso en días desde 1970-01-01
+     * @param codigoProvincia código de la provincia
+     * @param hombre si el empleado es hombre
+     * @param hoy día de referencia de la antigüedad
+     * @return sueldo en milésimas
+     */
+    public static long sueldo(long salarioCentimos, int diaIngreso, byte codigoProvincia,
+            boolean hombre, int hoy) {
+        int trienios = Fechas.anios(diaIngreso, hoy) / 3;
+        return salarioCentimos * MILESIMAS_CENTIMO
+                + complementos(trienios, salarioCentimos, codigoProvincia, hombre);
+    }
+
+    /**
+     * Calcula el sueldo con más decimales que las milésimas, para los
+     * salarios v1 que no caben en céntimos. Es el mismo cálculo que
+     * {@link #sueldo(long, int, byte, boolean, int)} en unidades de
+     * 10<sup>-escala</sup> euros.
+     *
+     * @param salario salario base en esas unidades; el 10 % solo es exacto
+     * si tiene como mucho {@code escala - 1} decimales
+     * @param escala decimales de la unidad, al menos {@link #ESCALA}
+     * @param diaIngreso día de ingreso en días desde 1970-01-01
+     * @param codigoProvincia código de la provincia
+     * @param hombre si el empleado es hombre
+     * @param hoy día de referencia de la antigüedad
+     * @return sueldo en esas unidades
+     * @throws ArithmeticException si el 10 % del salario no es exacto en la
+     * escala o el sueldo no cabe en un {@code long}
+     */
+    public static long sueldo(long salario, int escala, int diaIngreso, byte codigoProvincia,
+            boolean hombre, int hoy) {
+        long factor = unidad(escala - ESCALA);
+        int trienios = Fechas.anios(diaIngreso, hoy) / 3;
+        long sueldo = Math.addExact(salario,
+                Math.multiplyExact(Math.multiplyExact((long) trienios, COMPLEMENTO_TRIENIO), factor));
+        if (destinoEspecial(codigoProvincia)) {
+            if (salario % 10 != 0) {
+                throw new ArithmeticException("Complemento de destino no exacto con " + escala
+                        + " decimales.");
+            }
+            sueldo = Math.addExact(sueldo, salario / 10);
+        }
+        if (hombre) {
+            sueldo = Math.addExact(sueldo, Math.multiplyExact(COMPLEMENTO_HOMBRE, factor));
+        }
+        return sueldo;
+    }
+
+    /**
+     * Potencia de diez.
+     *
+     * @param decimales exponente, no negativo
+     * @return 10<sup>decimales</sup>
+     * @throws ArithmeticException si no cabe en un {@code long}
+     */
+    public static long unidad(int decimales) {
+        long u = 1;
+        for (int i = 0; i < decimales; i++) {
+            u = Math.multiplyExact(u, 10);
+        }
+        return u;
+    }
+
+    /**
+     * Calcula el sueldo del empleado del cursor en milésimas.
+     *
+     * @param c cursor posicionado en un empleado
+     * @param hoy día de referencia de la antigüedad
+     * @return sueldo en milésimas
+     * @throws ArithmeticException si el salario tiene más de dos decimales
+     */
+    public static long sueldo(CursorEmpleado c, int hoy) {
+        EventosJfr.CalculoNomina evento = EventosJfr.muestraNomina();
+        long sueldo = sueldo(c.getSalarioCentimos(), c.getFechaIngresoDiaEpoch(),
+                c.getCodigoProvincia(), c.getCodigoSexo() == Sexo.HOMBRE.getCodigo(), hoy);
+        if (evento != null) {
+            EventosJfr.terminaNomina(evento, false,
+                    Fechas.anios(c.getFechaIngresoDiaEpoch(), hoy) / 3);
+        }
+        return sueldo;
+    }
+
+    /**
+     * Convierte un importe en milésimas al {@link BigDecimal} exacto.
+     *
+     * @param milesimas importe en milésimas
+     * @return el importe en euros, con escala 3
+     */
+    public static BigDecimal aEuros(long milesimas) {
+        return BigDecimal.valueOf(milesimas, 3);
+    }
+
+    /**
+     * Convierte un importe en milésimas al {@link BigDecimal} exacto con la
+     * escala indicada.
+     *
+     * @param milesimas importe en milésimas
+     * @param escala decimales del resultado
+     * @return el importe en euros
+     * @throws ArithmeticException si el importe no cabe en esa escala sin
+     * redondear
+     */
+    public static BigDecimal aEuros(long milesimas, int escala) {
+        return BigDecimal.valueOf(milesimas, ESCALA).setScale(escala);
+    }
+
+    /**
+     * Redondea un importe en milésimas a céntimos, con la mitad hacia
+     * arriba como {@code %.2f}.
+     *
+     * @param milesimas importe en milésimas
+     * @return el importe en céntimos
+     */
+    public static long aCentimos(long milesimas) {
+        long q = Math.floorDiv(milesimas, MILESIMAS_CENTIMO);
+        long r = Math.floorMod(milesimas, MILESIMAS_CENTIMO);
+        if (milesimas >= 0 ? r >= 5 : r > 5) {
+            q++;
+        }
+        return q;
+    }
+}
@@ -0,0 +1,385 @@
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.text.DecimalFormatSymbols;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Locale;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Formato de las líneas de un listado, analizado una sola vez.
+ *
+ * Se compila a partir de una cadena de {@link java.util.Formatter} con
+ * conversiones {@code %s}, {@code %c}, {@code %d} y {@code %.2f}, con
+ * ancho y el indicador {@code -} opcionales, además de {@code %n} y
+ * {@code %%}. Cada línea se escribe dando sus campos en orden con los
+ * métodos de este objeto y terminándola con {@link #fin()}. El texto fijo
+ * se codifica al compilar y los valores se escriben directamente en una
+ * {@link SalidaBytes}: los importes a partir de céntimos o milésimas y las
+ * fechas a partir del día desde la época, sin crear objetos.
+ *
+ * El resultado es el mismo que con {@link java.io.PrintStream#printf} y
+ * {@link SimpleDateFormat} {@code dd/MM/yyyy} en la configuración regional
+ * y la codificación de la salida. Si la configuración regional no usa
+ * cifras ASCII o calendario gregoriano, esos campos se formatean como
+ * antes.
+ *
+ * Las líneas se acumulan en un array y llegan al flujo al llenarse o al
+ * llamar a {@link #flush()}, que hay que hacer antes de escribir por otro
+ * medio en el mismo flujo.
+ */
+public final class PlantillaInforme implements Flushable {
+
+    private static final int TAM_BUFFER = 1 << 16;
+    /**
+     * 1582-10-15: antes, {@link GregorianCalendar} usa el calendario
+     * juliano.
+     */
+    private static final int PRIMER_DIA_GREGORIANO = -141427;
+
+    private final SalidaBytes salida;
+    /**
+     * Texto fijo ya codificado antes de cada campo y tras el último.
+     */
+    private final byte[][] literales;
+    private final char[] conversiones;
+    private final int[] anchos;
+    private final boolean[] izquierda;
+    /**
+     * Especificación original de cada campo, para formatearlo con
+     * {@link String#format} cuando no se puede hacer directamente.
+     */
+    private final String[] especificaciones;
+    private final Locale locale;
+    private final char separadorDecimal;
+    private final boolean cifrasAscii;
+    private final boolean gregoriano;
+    private SimpleDateFormat formatoFecha;
+    private final char[] par = new char[1];
+    /**
+     * Campo que toca escribir en la línea actual.
+     */
+    private int campo;
+
+    private PlantillaInforme(SalidaBytes salida, List<byte[]> literales, List<String> especificaciones,
+            Locale locale) {
+        this.salida = salida;
+        this.literales = literales.toArray(new byte[0][]);
+        int n = especificaciones.size();
+        this.especificaciones = especificaciones.toArray(new String[0]);
+        this.conversiones = new char[n];
+        this.anchos = new int[n];
+        this.izquierda = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            String e = this.especificaciones[i];
+            conversiones[i] = e.charAt(e.length() - 1);
+            int desde = 1;
+            if (e.charAt(desde) == '-') {
+                izquierda[i] = true;
+                desde++;
+            }
+            int hasta = desde;
+            while (Character.isDigit(e.charAt(hasta))) {
+                hasta++;
+            }
+            anchos[i] = hasta > desde ? Integer.parseInt(e.substring(desde, hasta)) : 0;
+        }
+        this.locale = locale;
+        DecimalFormatSymbols simbolos = DecimalFormatSymbols.getInstance(locale);
+        this.separadorDecimal = simbolos.getDecimalSeparator();
+        this.cifrasAscii = simbolos.getZeroDigit() == '0' && separadorDecimal < 0x80;
+        this.gregoriano = "gregory".equals(Calendar.getInstance(locale).getCalendarType());
+    }
+
+    /**
+     * Compila una plantilla que escribe en {@link System#out} con su
+     * codificación y la configuración regional por defecto, como
+     * {@code System.out.printf}.
+     *
+     * @param formato cadena de formato
+     * @return la plantilla
+     * @throws IllegalArgumentException si el formato tiene conversiones no
+     * admitidas
+     */
+    public static PlantillaInforme compila(String formato) {
+        return compila(formato, System.out, SalidaBytes.codificacionSalida(),
+                Locale.getDefault(Locale.Category.FORMAT));
+    }
+
+    /**
+     * Compila una plantilla.
+     *
+     * @param formato cadena de formato
+     * @param out flujo donde se escriben las líneas, que no se cierra
+     * @param codificacion codificación del texto, compatible con ASCII
+     * @param locale configuración regional de números y fechas
+     * @return la plantilla
+     * @throws IllegalArgumentException si el formato tiene conversiones no
+     * admitidas o la codificación no es compatible con ASCII
+     */
+    public static PlantillaInforme compila(String formato, OutputStream out, Charset codificacion,
+            Locale locale) {
+        List<byte[]> literales = new ArrayList<>();
+        List<String> especificaciones = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < formato.length()) {
+            char c = formato.charAt(i++);
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+            int inicio = i - 1;
+            if (i < formato.length() && formato.charAt(i) == '-') {
+                i++;
+            }
+            while (i < formato.length() && Character.isDigit(formato.charAt(i))) {
+                i++;
+            }
+            if (formato.startsWith(".2f", i)) {
+                i += 2;
+            }
+            if (i >= formato.length()) {
+                throw new IllegalArgumentException("Formato incompleto: " + formato);
+            }
+            String e = formato.substring(inicio, ++i);
+            char conversion = e.charAt(e.length() - 1);
+            if (e.length() == 2 && (conversion == 'n' || conversion == '%')) {
+                literal.append(conversion == 'n' ? System.lineSeparator() : "%");
+            } else if (conversion == 's' || conversion == 'c' || conversion == 'd'
+                    || (conversion == 'f' && e.endsWith(".2f"))) {
+                if (e.startsWith("%-") && !Character.isDigit(e.charAt(2))) {
+                    throw new IllegalArgumentException("Falta el ancho en " + e);
+                }
+                literales.add(literal.toString().getBytes(codificacion));
+                literal.setLength(0);
+                especificaciones.add(e);
+            } else {
+                throw new IllegalArgumentException("Conversión no admitida: " + e);
+            }
+        }
+        literales.add(literal.toString().getBytes(codificacion));
+        return new PlantillaInforme(new SalidaBytes(out, TAM_BUFFER, codificacion), literales,
+                especificaciones, locale);
+    }
+
+    /**
+     * Escribe un campo {@code %s}.
+     *
+     * @param s valor del campo
+     * @return esta plantilla
+     * @throws IOException si falla la escritura
+     */
+    public PlantillaInforme texto(String s) throws IOException {
+        if (s == null) {
+            s = "null";
+        }
+        int i = empieza('s', s.length());
+        salida.texto(s);
+        return termina(i, s.length());
+    }
+
+    /**
+     * Escribe un campo {@code %s} con los primeros caracteres de un array.
+     *
+     * @param c caracteres
+     * @param longitud número de caracteres
+     * @return esta plantilla
+     * @throws IOException si falla la escritura
+     */
+    public PlantillaInforme texto(char[] c, int longitud) throws IOException {
+        int i = empieza('s', longitud);
+        salida.texto(c, longitud);
+        return termina(i, longitud);
+    }
+
+    /**
+     * Escribe un campo {@code %c}.
+     *
+     * @param c valor del campo
+     * @return esta plantilla
+     * @throws IOException si falla la escritura
+     */
+    public PlantillaInforme caracter(char c) throws IOException {
+        int i = empieza('c', 1);
+        par[0] = c;
+        salida.texto(par, 1);
+        return termina(i, 1);
+    }
+
+    /**
+     * Escribe un campo {@code %d}.
+     *
+     * @param v valor del campo
+     * @return esta plantilla
+     * @throws IOException si falla la escritura
+     */
+    public PlantillaInforme entero(long v) throws IOException {
+        if (!cifrasAscii) {
+            return formateado('d', v);
+        }
+        int longitud = cifras(v);
+        int i = empieza('d', longitud);
+        salida.entero(v);
+        return termina(i, longitud);
+    }
+
+    /**
+     * Escribe un campo {@code %.2f} con un importe en céntimos.
+     *
+     * @param centimos importe en céntimos
+     * @return esta plantilla
+     * @throws IOException si falla la escritura
+     */
+    public PlantillaInforme centimos(long centimos) throws IOException {
+        if (!cifrasAscii) {
+            return formateado('f', centimos / 100.0);
+        }
+        int longitud = (centimos < 0 ? 1 : 0) + cifras(Math.abs(centimos / 100)) + 3;
+        int i = empieza('f', longitud);
+        salida.importe(centimos, separadorDecimal);
+        return termina(i, longitud);
+    }
+
+    /**
+     * Escribe un campo {@code %.2f} con un importe en milésimas, redondeado
+     * a céntimos como {@link Nomina#aCentimos}.
+     *
+     * @param milesimas importe en milésimas
+     * @return esta plantilla
+     * @throws IOException si falla la escritura
+     */
+    public PlantillaInforme milesimas(long milesimas) throws IOException {
+        if (!cifrasAscii) {
+            return formateado('f', milesimas / 1000.0);
+        }
+        return centimos(Nomina.aCentimos(milesimas));
+    }
+
+    /**
+     * Escribe un campo {@code %.2f} con un importe, igual que
+     * {@code %.2f} de su {@code doubleValue()}. Con hasta tres decimales no
+     * pasa por {@code double}.
+     *
+     * @param v importe
+     * @return esta plantilla
+     * @throws IOException si falla la escritura
+     */
+    public PlantillaInforme importe(BigDecimal v) throws IOException {
+        if (v.scale() >= 0 && v.scale() <= 3 && v.unscaledValue().bitLength() < 53) {
+            long milesimas = v.unscaledValue().longValue();
+            for (int s = v.scale(); s < 3; s++) {
+                milesimas *= 10;
+            }
+            return milesimas(milesimas);
+        }
+        return formateado('f', v.doubleValue());
+    }
+
+    /**
+     * Escribe un campo {@code %s} con una fecha {@code dd/MM/yyyy}.
+     *
+     * @param diaEpoch días desde 1970-01-01
+     * @return esta plantilla
+     * @throws IOException si falla la escritura
+     */
+    public PlantillaInforme fecha(int diaEpoch) throws IOException {
+        if (!cifrasAscii || !gregoriano || diaEpoch < PRIMER_DIA_GREGORIANO) {
+            if (formatoFecha == null) {
+                formatoFecha = new SimpleDateFormat("dd/MM/yyyy", locale);
+            }
+            return texto(formatoFecha.format(Fechas.deDiaEpoch(diaEpoch)));
+        }
+        int c = Fechas.civil(diaEpoch);
+        int anio = c >> 9;
+        int longitud = 6 + Math.max(4, cifras(anio));
+        int i = empieza('s', longitud);
+        salida.entero(c & 0x1F, 2).ascii('/').entero(c >> 5 & 0xF, 2).ascii('/').entero(anio, 4);
+        return termina(i, longitud);
+    }
+
+    /**
+     * Termina la línea con el texto fijo que sigue al último campo.
+     *
+     * @throws IOException si falla la escritura
+     * @throws IllegalStateException si faltan campos
+     */
+    public void fin() throws IOException {
+        if (campo != conversiones.length) {
+            throw new IllegalStateException("Faltan campos: se han escrito " + campo + " de "
+                    + conversiones.length + ".");
+        }
+        salida.bytes(literales[campo]);
+        campo = 0;
+    }
+
+    /**
+     * Pasa al flujo las líneas acumuladas y lo vacía.
+     *
+     * @throws IOException si falla la escritura
+     */
+    @Override
+    public void flush() throws IOException {
+        salida.flush();
+    }
+
+    /**
+     * Escribe el texto fijo anterior al campo siguiente y, si se alinea a
+     * la derecha, el relleno.
+     *
+     * @return índice del campo
+     */
+    private int empieza(char conversion, int longitud) throws IOException {
+        compruebaCampo(conversion);
+        salida.bytes(literales[campo]);
+        if (!izquierda[campo] && anchos[campo] > longitud) {
+            salida.espacios(anchos[campo] - longitud);
+        }
+        return campo;
+    }
+
+    private void compruebaCampo(char conversion) {
+        if (campo >= conversiones.length) {
+            throw new IllegalStateException("La plantilla solo tiene " + conversiones.length
+                    + " campos.");
+        }
+        if (conversiones[campo] != conversion) {
+            throw new IllegalStateException("El campo " + (campo + 1) + " es "
+                    + especificaciones[campo] + ", no %" + conversion + ".");
+        }
+    }
+
+    private PlantillaInforme termina(int i, int longitud) throws IOException {
+        if (izquierda[i] && anchos[i] > longitud) {
+            salida.espacios(anchos[i] - longitud);
+        }
+        campo++;
+        return this;
+    }
+
+    /**
+     * Escribe un campo con {@link String#format}, relleno incluido.
+     */
+    private PlantillaInforme formateado(char conversion, Object valor) throws IOException {
+        compruebaCampo(conversion);
+        String s = String.format(locale, especificaciones[campo], valor);
+        int i = empieza(conversion, s.length());
+        salida.texto(s);
+        return termina(i, s.length());
+    }
+
+    private static int cifras(long v) {
+        int n = v < 0 ? 2 : 1;
+        for (long r = Math.abs(v / 10); r != 0; r /= 10) {
+            n++;
+        }
+        return n;
+    }
+}
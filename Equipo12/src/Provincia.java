@@ -34,6 +34,11 @@ public enum Provincia {
      * Provincia de Sevilla (código 8).
      */
     SEVILLA((byte) 8, "Sevilla");
+    /**
+     * Acepta en {@link #fromInput(String)} el nombre o sus prefijos de dos
+     * letras o más.
+     */
+    private static final ResolutorEntrada<Provincia> RESOLUTOR = resolutor();
     /**
      * Código numérico de la provincia.
      */
@@ -82,98 +87,23 @@ public enum Provincia {
      * provincia
      */
     public static Provincia fromCodigo(byte codigo) {
-        for (Provincia p : values()) {
-            if (p.codigo == codigo) {
-                return p;
-            }
+        Provincia p = RESOLUTOR.deCodigo(codigo);
+        if (p != null) {
+            return p;
         }
         throw new IllegalArgumentException("Código de provincia inválido: " + codigo);
     }
 
     public static Provincia fromInput(String input) {
-        if (input == null) {
-            throw new IllegalArgumentException("Provincia inválida");
-        }
-
-        String s = normalizar(input);
-
-        switch (s) {
-
-            // ALMERÍA
-            case "AL":
-            case "ALM":
-            case "ALME":
-            case "ALMER":
-            case "ALMERI":
-            case "ALMERIA":
-                return ALMERIA;
-
-            // CÁDIZ
-            case "CA":
-            case "CAD":
-            case "CADI":
-            case "CADIZ":
-                return CADIZ;
-
-            // CÓRDOBA
-            case "CO":
-            case "COR":
-            case "CORD":
-            case "CORDO":
-            case "CORDOB":
-            case "CORDOBA":
-                return CORDOBA;
-
-            // GRANADA
-            case "GR":
-            case "GRA":
-            case "GRAN":
-            case "GRANA":
-            case "GRANAD":
-            case "GRANADA":
-                return GRANADA;
-
-            // HUELVA
-            case "HU":
-            case "HUE":
-            case "HUEL":
-            case "HUELV":
-            case "HUELVA":
-                return HUELVA;
-
-            // JAÉN
-            case "JA":
-            case "JAE":
-            case "JAEN":
-                return JAEN;
-
-            // MÁLAGA
-            case "MA":
-            case "MAL":
-            case "MALA":
-            case "MALAG":
-            case "MALAGA":
-                return MALAGA;
-
-            // SEVILLA
-            case "SE":
-            case "SEV":
-            case "SEVI":
-            case "SEVIL":
-            case "SEVILL":
-            case "SEVILLA":
-                return SEVILLA;
-
-            default:
-                throw new IllegalArgumentException("Provincia inválida: " + input);
-        }
+        return RESOLUTOR.resuelve(input);
     }
 
-    private static String normalizar(String input) {
-        String s = input.trim().toUpperCase();
-        s = s.replace("Á", "A").replace("É", "E")
-                .replace("Í", "I").replace("Ó", "O")
-                .replace("Ú", "U");
-        return s.replaceAll("\\s+", " ");
+    private static ResolutorEntrada<Provincia> resolutor() {
+        ResolutorEntrada<Provincia> r
+                = new ResolutorEntrada<>(values(), p -> p.codigo, "Provincia inválida");
+        for (Provincia p : values()) {
+            r.prefijos(p, p.nombre, 2);
+        }
+        return r;
     }
 }
@@ -0,0 +1,289 @@
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Resultado de una pasada sobre un fichero de empleados guardado junto con
+ * la posición hasta la que se procesó.
+ *
+ * Como el fichero solo crece por el final, la siguiente pasada parte del
+ * resultado guardado y solo recorre los registros añadidos después, con un
+ * coste proporcional a lo nuevo. El punto de control deja de valer si el
+ * fichero es más corto que la posición guardada, si su cabecera (los
+ * primeros {@link FormatoFichero#TAM_CABECERA} bytes, que cambian al marcarlo
+ * como modificado o compactarlo) ha cambiado, si después de la posición hay
+ * modificaciones o bajas que dejan sin vigencia registros ya procesados, o
+ * si el reductor lo da por caducado; entonces se recorre el fichero entero.
+ *
+ * @param <A> tipo del resultado
+ */
+public final class PuntoControl<A> {
+
+    /**
+     * "PCTL" en ASCII.
+     */
+    private static final int MAGIA = 0x5043544C;
+    private static final short VERSION = 1;
+
+    private final long posicion;
+    private final A resultado;
+
+    private PuntoControl(long posicion, A resultado) {
+        this.posicion = posicion;
+        this.resultado = resultado;
+    }
+
+    /**
+     * Posición del fichero hasta la que llega el resultado.
+     *
+     * @return comienzo del primer registro no procesado
+     */
+    public long getPosicion() {
+        return posicion;
+    }
+
+    public A getResultado() {
+        return resultado;
+    }
+
+    /**
+     * Ruta del punto de control de un fichero.
+     *
+     * @param fichero ruta del fichero de empleados
+     * @param extension extensión del punto de control
+     * @return la ruta {@code <fichero>.<extension>}
+     */
+    public static Path ficheroDe(String fichero, String extension) {
+        return Paths.get(fichero + "." + extension);
+    }
+
+    /**
+     * Aplica el reductor al fichero continuando desde su punto de control,
+     * y guarda el nuevo punto de control al final del fichero.
+     *
+     * @param <A> tipo del resultado
+     * @param f fichero proyectado
+     * @param r reductor
+     * @return el resultado de todo el fichero
+     * @throws IOException si algún registro no se puede leer
+     */
+    public static <A> A procesa(FicheroMapeado f, ReductorPersistente<A> r) throws IOException {
+        PuntoControl<A> pc = lee(f.getFichero(), r);
+        A resultado;
+        if (pc == null || !pc.valePara(f) || f.getUltimaModificacion() >= pc.posicion) {
+            resultado = EscanerParalelo.escanea(f, r);
+        } else if (pc.posicion == f.getTamano()) {
+            return pc.resultado;
+        } else {
+            resultado = r.combina(pc.resultado, EscanerParalelo.escanea(f, r, pc.posicion));
+        }
+
+        try {
+            guarda(f.getFichero(), r, f.getTamano(), resultado);
+        } catch (IOException ex) {
+            // Es solo una caché: si no se puede guardar se recalcula otra vez
+        }
+        return resultado;
+    }
+
+    /**
+     * Lee el punto de control de un fichero si existe, corresponde a su
+     * cabecera actual, no pasa de su final y el reductor lo da por vigente.
+     *
+     * @param <A> tipo del resultado
+     * @param fichero ruta del fichero de empleados
+     * @param r reductor que lo escribió
+     * @return el punto de control, o null si no existe o no vale
+     * @throws IOException si falla la lectura
+     */
+    static <A> PuntoControl<A> lee(String fichero, ReductorPersistente<A> r) throws IOException {
+        byte[] cabecera;
+        long tamano;
+        try (FileChannel ch = FileChannel.open(Paths.get(fichero), StandardOpenOption.READ)) {
+            // En los comprimidos las posiciones son las de los registros
+            tamano = FormatoFichero.comprimido(ch)
+                    ? BloquesComprimidos.tamanoDatos(ch, FormatoFichero.detecta(ch))
+                    : ch.size();
+            cabecera = cabecera(ch);
+        } catch (NoSuchFileException ex) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(ficheroDe(fichero, r.getExtension()))))) {
+            if (in.readInt() != MAGIA || in.readShort() != VERSION
+                    || !in.readUTF().equals(r.getExtension())) {
+                return null;
+            }
+            long posicion = in.readLong();
+            byte[] guardada = new byte[in.readUnsignedShort()];
+            in.readFully(guardada);
+            if (posicion > tamano || !Arrays.equals(guardada, cabecera)) {
+                return null;
+            }
+            A resultado = r.carga(in);
+            return r.vigente(resultado) ? new PuntoControl<>(posicion, resultado) : null;
+        } catch (NoSuchFileException | EOFException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Guarda un punto de control reemplazando el anterior de forma atómica.
+     *
+     * @param <A> tipo del resultado
+     * @param fichero ruta del fichero de empleados
+     * @param r reductor que calculó el resultado
+     * @param posicion posición hasta la que llega el resultado
+     * @param resultado resultado a guardar
+     * @throws IOException si falla la lectura de la cabecera o la escritura
+     */
+    static <A> void guarda(String fichero, ReductorPersistente<A> r, long posicion, A resultado)
+            throws IOException {
+        byte[] cabecera;
+        try (FileChannel ch = FileChannel.open(Paths.get(fichero), StandardOpenOption.READ)) {
+            cabecera = cabecera(ch);
+        }
+
+        Path destino = ficheroDe(fichero, r.getExtension()).toAbsolutePath();
+        // Un temporal propio en el mismo directorio, para que dos procesos
+        // que guardan a la vez no escriban en el mismo y el cambio de nombre
+        // sea atómico
+        Path tmp = Files.createTempFile(destino.getParent(), destino.getFileName().toString(),
+                ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIA);
+                out.writeShort(VERSION);
+                out.writeUTF(r.getExtension());
+                out.writeLong(posicion);
+                out.writeShort(cabecera.length);
+                out.write(cabecera);
+                r.guarda(resultado, out);
+            }
+            Files.move(tmp, destino, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Limita los puntos de control de una familia de extensiones, como los
+     * de las consultas, que se crean uno por definición y si no se
+     * acumularían junto al fichero. Borra los que ya no corresponden a la
+     * cabecera actual del fichero (tras compactarlo, convertirlo o marcarlo
+     * como modificado) y, si aún quedan más de {@code maximo}, los escritos
+     * o usados hace más tiempo. El de {@code actual} se conserva y se marca
+     * como recién usado.
+     *
+     * @param fichero ruta del fichero de empleados
+     * @param familia extensiones de la familia, sin el punto
+     * @param actual extensión del punto de control que se acaba de usar
+     * @param maximo puntos de control de la familia que se conservan
+     * @throws IOException si falla la lectura del fichero o del directorio
+     */
+    static void poda(String fichero, Predicate<String> familia, String actual, int maximo)
+            throws IOException {
+        byte[] cabecera;
+        try (FileChannel ch = FileChannel.open(Paths.get(fichero), StandardOpenOption.READ)) {
+            cabecera = cabecera(ch);
+        }
+        Path propio = ficheroDe(fichero, actual).toAbsolutePath();
+        if (Files.exists(propio)) {
+            Files.setLastModifiedTime(propio, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+
+        String base = Paths.get(fichero).getFileName() + ".";
+        List<Path> vigentes = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(propio.getParent(), p -> {
+            String nombre = p.getFileName().toString();
+            return nombre.startsWith(base) && familia.test(nombre.substring(base.length()))
+                    && !p.equals(propio);
+        })) {
+            for (Path p : ds) {
+                if (correspondeA(p, cabecera)) {
+                    vigentes.add(p);
+                } else {
+                    Files.deleteIfExists(p);
+                }
+            }
+        }
+        if (vigentes.size() < maximo) {
+            return;
+        }
+        // Las fechas se leen antes de ordenar para que no cambien a medias
+        Map<Path, FileTime> usos = new HashMap<>();
+        for (Path p : vigentes) {
+            usos.put(p, Files.getLastModifiedTime(p));
+        }
+        vigentes.sort(Comparator.comparing(usos::get, Comparator.reverseOrder()));
+        for (Path p : vigentes.subList(Math.max(0, maximo - 1), vigentes.size())) {
+            Files.deleteIfExists(p);
+        }
+    }
+
+    /**
+     * Indica si un punto de control se guardó con la cabecera dada.
+     */
+    private static boolean correspondeA(Path p, byte[] cabecera) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(p)))) {
+            if (in.readInt() != MAGIA || in.readShort() != VERSION) {
+                return false;
+            }
+            in.readUTF();
+            in.readLong();
+            byte[] guardada = new byte[in.readUnsignedShort()];
+            in.readFully(guardada);
+            return Arrays.equals(guardada, cabecera);
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Comprueba que la posición es el comienzo de un registro del fichero.
+     */
+    private boolean valePara(FicheroMapeado f) {
+        FormatoFichero formato = f.getFormato();
+        if (posicion < f.getInicioDatos()) {
+            return false;
+        }
+        return !formato.esFijo()
+                || (posicion - f.getInicioDatos()) % formato.getTamRegistro() == 0;
+    }
+
+    private static byte[] cabecera(FileChannel ch) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate((int) Math.min(ch.size(), FormatoFichero.TAM_CABECERA));
+        while (b.hasRemaining()) {
+            if (ch.read(b, b.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        return b.array();
+    }
+}
@@ -0,0 +1,45 @@
+
+import java.io.IOException;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Agregación que {@link EscanerParalelo} aplica a los registros de un
+ * fichero.
+ *
+ * Cada tramo del fichero se acumula en un resultado parcial propio creado
+ * con {@link #crea()}, y los parciales se combinan después en el orden en
+ * que aparecen sus tramos en el fichero. Para que el resultado no dependa
+ * del reparto en tramos, {@code combina} debe ser asociativa y respetar ese
+ * orden (por ejemplo, al concatenar empates).
+ *
+ * @param <A> tipo del resultado parcial
+ */
+public interface Reductor<A> {
+
+    /**
+     * Crea un resultado parcial vacío.
+     *
+     * @return parcial sin registros
+     */
+    A crea();
+
+    /**
+     * Añade el registro actual del cursor al parcial. El cursor es
+     * reutilizable: no se debe guardar, solo leer sus valores o
+     * materializarlo.
+     *
+     * @param parcial resultado parcial del tramo
+     * @param c cursor situado en un registro
+     * @throws IOException si el registro no se puede leer
+     */
+    void acumula(A parcial, CursorEmpleado c) throws IOException;
+
+    /**
+     * Combina dos parciales de tramos consecutivos.
+     *
+     * @param izquierda parcial del tramo anterior
+     * @param derecha parcial del tramo siguiente
+     * @return el parcial de ambos tramos (puede ser uno de los dos)
+     */
+    A combina(A izquierda, A derecha);
+}
@@ -0,0 +1,52 @@
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * {@link Reductor} cuyo resultado se puede guardar en un
+ * {@link PuntoControl} para continuar la pasada en la siguiente ejecución.
+ *
+ * @param <A> tipo del resultado parcial
+ */
+public interface ReductorPersistente<A> extends Reductor<A> {
+
+    /**
+     * Extensión del fichero del punto de control, que se guarda como
+     * {@code <fichero>.<extension>}. Identifica también el tipo de resultado.
+     *
+     * @return extensión sin el punto
+     */
+    String getExtension();
+
+    /**
+     * Escribe un resultado.
+     *
+     * @param parcial resultado a guardar
+     * @param out destino
+     * @throws IOException si falla la escritura
+     */
+    void guarda(A parcial, DataOutput out) throws IOException;
+
+    /**
+     * Lee un resultado escrito con {@link #guarda}.
+     *
+     * @param in origen
+     * @return el resultado
+     * @throws IOException si falla la lectura o los datos están dañados
+     */
+    A carga(DataInput in) throws IOException;
+
+    /**
+     * Indica si un resultado guardado sigue valiendo para esta pasada, por
+     * ejemplo porque depende de la fecha y esta ha cambiado. Si no vale se
+     * recorre el fichero entero.
+     *
+     * @param parcial resultado guardado
+     * @return true si se puede continuar a partir de él
+     */
+    default boolean vigente(A parcial) {
+        return true;
+    }
+}
@@ -0,0 +1,135 @@
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Reductores de los informes para {@link EscanerParalelo}.
+ */
+public final class Reductores {
+
+    /**
+     * Años de antigüedad a partir de los cuales un empleado es veterano.
+     */
+    public static final int ANIOS_VETERANO = 10;
+
+    private Reductores() {
+    }
+
+    /**
+     * Los {@code n} empleados con mayor o menor valor de una clave, en
+     * total o por grupo (ver {@link Clasificacion}). Solo se construye un
+     * empleado por registro en los salarios v1 con más de dos decimales.
+     *
+     * @param clave valor por el que se ordenan
+     * @param agrupacion grupos de la clasificación
+     * @param n empleados por grupo
+     * @param mayores true para los de mayor valor, false para los de menor
+     * @param fecha fecha de referencia de la antigüedad
+     * @return reductor de clasificación
+     */
+    public static Reductor<Clasificacion> clasificacion(Clasificacion.Clave clave,
+            Clasificacion.Agrupacion agrupacion, int n, boolean mayores, LocalDate fecha) {
+        // Valida los parámetros antes de recorrer nada
+        new Clasificacion(clave, agrupacion, n, mayores, fecha);
+        return new Reductor<Clasificacion>() {
+            @Override
+            public Clasificacion crea() {
+                return new Clasificacion(clave, agrupacion, n, mayores, fecha);
+            }
+
+            @Override
+            public void acumula(Clasificacion parcial, CursorEmpleado c) throws IOException {
+                parcial.acumula(c);
+            }
+
+            @Override
+            public Clasificacion combina(Clasificacion izquierda, Clasificacion derecha) {
+                izquierda.combina(derecha);
+                return izquierda;
+            }
+        };
+    }
+
+    /**
+     * Sueldo máximo y empleados que lo cobran, en orden del fichero. Parte
+     * de un máximo de cero, como el informe original.
+     */
+    public static final class MejorPagados {
+
+        /**
+         * Sueldo máximo en milésimas, si {@link #maxExacto} es null.
+         */
+        private long maxMilesimas;
+        /**
+         * Sueldo máximo cuando no cabe en milésimas.
+         */
+        private BigDecimal maxExacto;
+        private final List<Empleado> empleados = new ArrayList<>();
+
+        public BigDecimal getMaxSueldo() {
+            return maxExacto != null ? maxExacto : Nomina.aEuros(maxMilesimas);
+        }
+
+        /**
+         * Empleados con el sueldo máximo, en orden del fichero.
+         *
+         * @return lista de empleados
+         */
+        public List<Empleado> getEmpleados() {
+            return empleados;
+        }
+
+        /**
+         * Compara un sueldo en milésimas con el máximo actual.
+         */
+        int compara(long milesimas) {
+            return maxExacto == null
+                    ? Long.compare(milesimas, maxMilesimas)
+                    : Nomina.aEuros(milesimas).compareTo(maxExacto);
+        }
+
+        /**
+         * Acumula un empleado cuyo sueldo en milésimas ya se ha calculado.
+         */
+        void acumula(long milesimas, Empleado e) {
+            int cmp = compara(milesimas);
+
+            if (cmp > 0) {
+                maxMilesimas = milesimas;
+                maxExacto = null;
+                empleados.clear();
+                empleados.add(e);
+            } else if (cmp == 0) {
+                empleados.add(e);
+            }
+        }
+
+        /**
+         * Acumula un empleado cuyo sueldo no cabe en milésimas.
+         */
+        void acumula(BigDecimal sueldo, Empleado e) {
+            int cmp = sueldo.compareTo(getMaxSueldo());
+
+            if (cmp > 0) {
+                fijaMaximo(sueldo);
+                empleados.clear();
+                empleados.add(e);
+            } else if (cmp == 0) {
+                empleados.add(e);
+            }
+        }
+
+        private void fijaMaximo(BigDecimal sueldo) {
+            if (sueldo.stripTrailingZeros().scale() <= 3) {
+                maxMilesimas = sueldo.movePointRight(3).longValueExact();
+                maxExacto = null;
+            } else {
+                maxExacto = sueldo;
+            }
+        }
+    }
+}
@@ -0,0 +1,347 @@
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Disposición de los registros de longitud fija (formatos v2 a v5).
+ *
+ * <pre>
+ *  0  long     salario base en céntimos
+ *  8  int      fecha de ingreso (días desde 1970-01-01)
+ * 12  byte     código de provincia
+ * 13  byte     código de sexo
+ * 14  byte     código de tipo de empleado
+ * 15  byte     longitud del nombre
+ * 16  char[30] nombre, completado con ceros
+ * </pre>
+ *
+ * Los registros v3 añaden a continuación:
+ *
+ * <pre>
+ * 76  long     identificador del empleado
+ * 84  byte     operación ({@link #ALTA}, {@link #MODIFICACION} o {@link #BAJA})
+ * 85  byte[3]  relleno hasta múltiplo de 8
+ * </pre>
+ *
+ * En las bajas solo son significativos el identificador y la operación.
+ * Los registros v4 añaden además una suma de control para detectar los
+ * registros a medio escribir tras una caída:
+ *
+ * <pre>
+ * 88  int      CRC32 de los bytes 0 a 87
+ * 92  byte[4]  relleno hasta múltiplo de 8
+ * </pre>
+ *
+ * Los registros v5 son los v4 con el nombre sustituido por su número en el
+ * {@link DiccionarioNombres} del fichero:
+ *
+ * <pre>
+ *  0  byte[15] como en v2
+ * 15  byte     reservado
+ * 16  int      número del nombre en el diccionario
+ * 20  byte[4]  relleno
+ * 24  long     identificador del empleado
+ * 32  byte     operación
+ * 33  byte[3]  relleno
+ * 36  int      CRC32 de los bytes 0 a 35
+ * </pre>
+ */
+public final class RegistroFijo {
+
+    public static final int OFF_SALARIO = 0;
+    public static final int OFF_FECHA = 8;
+    public static final int OFF_PROVINCIA = 12;
+    public static final int OFF_SEXO = 13;
+    public static final int OFF_TIPO = 14;
+    public static final int OFF_LONG_NOMBRE = 15;
+    public static final int OFF_NOMBRE = 16;
+    /**
+     * Número máximo de caracteres del nombre, el mismo que exige
+     * {@link Empleado}.
+     */
+    public static final int MAX_NOMBRE = 30;
+    public static final int TAM_REGISTRO = OFF_NOMBRE + 2 * MAX_NOMBRE;
+    public static final int OFF_ID = TAM_REGISTRO;
+    public static final int OFF_OPERACION = OFF_ID + 8;
+    public static final int TAM_REGISTRO_VERSIONADO = 88;
+    public static final int OFF_SUMA = TAM_REGISTRO_VERSIONADO;
+    public static final int TAM_REGISTRO_VERIFICADO = 96;
+    public static final int OFF_NUM_NOMBRE = 16;
+    public static final int OFF_ID_COMPACTO = 24;
+    public static final int OFF_OPERACION_COMPACTO = OFF_ID_COMPACTO + 8;
+    public static final int OFF_SUMA_COMPACTO = 36;
+    public static final int TAM_REGISTRO_COMPACTO = 40;
+
+    /**
+     * Primera versión de un empleado.
+     */
+    public static final byte ALTA = 0;
+    /**
+     * Nueva versión de un empleado existente que sustituye a la anterior.
+     */
+    public static final byte MODIFICACION = 1;
+    /**
+     * Marca de borrado: el empleado deja de existir.
+     */
+    public static final byte BAJA = 2;
+
+    private RegistroFijo() {
+    }
+
+    /**
+     * Codifica un empleado en la posición actual del buffer, avanzándola
+     * {@link #TAM_REGISTRO} bytes.
+     *
+     * @param e empleado a codificar
+     * @param b buffer destino
+     * @throws IllegalArgumentException si el salario tiene más de dos
+     * decimales
+     */
+    public static void codifica(Empleado e, ByteBuffer b) {
+        String nombre = e.getNombre();
+        int base = b.position();
+
+        b.putLong(base + OFF_SALARIO, centimos(e.getSalarioBase()));
+        b.putInt(base + OFF_FECHA, Fechas.aDiaEpoch(e.getFechaIngreso()));
+        b.put(base + OFF_PROVINCIA, e.getProvincia().getCodigo());
+        b.put(base + OFF_SEXO, (byte) e.getSexo().getCodigo());
+        b.put(base + OFF_TIPO, (byte) e.getTipoEmpleado().getCodigo());
+        b.put(base + OFF_LONG_NOMBRE, (byte) nombre.length());
+        for (int i = 0; i < MAX_NOMBRE; i++) {
+            b.putChar(base + OFF_NOMBRE + 2 * i, i < nombre.length() ? nombre.charAt(i) : '\0');
+        }
+        b.position(base + TAM_REGISTRO);
+    }
+
+    /**
+     * Codifica un registro v3 en la posición actual del buffer, avanzándola
+     * {@link #TAM_REGISTRO_VERSIONADO} bytes.
+     *
+     * @param e empleado a codificar, o null en las bajas
+     * @param id identificador del empleado
+     * @param operacion {@link #ALTA}, {@link #MODIFICACION} o {@link #BAJA}
+     * @param b buffer destino
+     * @throws IllegalArgumentException si el salario tiene más de dos
+     * decimales
+     */
+    public static void codifica(Empleado e, long id, byte operacion, ByteBuffer b) {
+        int base = b.position();
+        if (e != null) {
+            codifica(e, b);
+        } else {
+            for (int i = 0; i < TAM_REGISTRO; i++) {
+                b.put(base + i, (byte) 0);
+            }
+        }
+        b.putLong(base + OFF_ID, id);
+        b.put(base + OFF_OPERACION, operacion);
+        for (int i = OFF_OPERACION + 1; i < TAM_REGISTRO_VERSIONADO; i++) {
+            b.put(base + i, (byte) 0);
+        }
+        b.position(base + TAM_REGISTRO_VERSIONADO);
+    }
+
+    /**
+     * Codifica un registro v5 en la posición actual del buffer, avanzándola
+     * {@link #OFF_SUMA_COMPACTO} bytes.
+     *
+     * @param e empleado a codificar, o null en las bajas
+     * @param nombre número de su nombre en el diccionario (0 en las bajas)
+     * @param id identificador del empleado
+     * @param operacion {@link #ALTA}, {@link #MODIFICACION} o {@link #BAJA}
+     * @param b buffer destino
+     * @throws IllegalArgumentException si el salario tiene más de dos
+     * decimales
+     */
+    public static void codificaCompacto(Empleado e, int nombre, long id, byte operacion,
+            ByteBuffer b) {
+        int base = b.position();
+        for (int i = 0; i < OFF_SUMA_COMPACTO; i++) {
+            b.put(base + i, (byte) 0);
+        }
+        if (e != null) {
+            b.putLong(base + OFF_SALARIO, centimos(e.getSalarioBase()));
+            b.putInt(base + OFF_FECHA, Fechas.aDiaEpoch(e.getFechaIngreso()));
+            b.put(base + OFF_PROVINCIA, e.getProvincia().getCodigo());
+            b.put(base + OFF_SEXO, (byte) e.getSexo().getCodigo());
+            b.put(base + OFF_TIPO, (byte) e.getTipoEmpleado().getCodigo());
+            b.putInt(base + OFF_NUM_NOMBRE, nombre);
+        }
+        b.putLong(base + OFF_ID_COMPACTO, id);
+        b.put(base + OFF_OPERACION_COMPACTO, operacion);
+        b.position(base + OFF_SUMA_COMPACTO);
+    }
+
+    /**
+     * Escribe la suma de control de un registro v4 o v5 ya codificado y
+     * pone a cero el relleno final.
+     *
+     * @param f formato del registro
+     * @param vista buffer con el registro; se modifican su posición y su
+     * límite
+     * @param base posición del registro
+     * @param crc calculador reutilizable
+     */
+    public static void sella(FormatoFichero f, ByteBuffer vista, int base, CRC32 crc) {
+        int off = f.getOffSuma();
+        vista.putInt(base + off, suma(vista, base, off, crc));
+        for (int i = off + 4; i < f.getTamRegistro(); i++) {
+            vista.put(base + i, (byte) 0);
+        }
+    }
+
+    /**
+     * Comprueba la suma de control de un registro v4 o v5.
+     *
+     * @param f formato del registro
+     * @param vista buffer con el registro; se modifican su posición y su
+     * límite
+     * @param base posición del registro
+     * @param crc calculador reutilizable
+     * @return true si el registro está completo y sin alterar
+     */
+    public static boolean verifica(FormatoFichero f, ByteBuffer vista, int base, CRC32 crc) {
+        int off = f.getOffSuma();
+        return vista.getInt(base + off) == suma(vista, base, off, crc);
+    }
+
+    /**
+     * Fin del último registro completo de un fichero de longitud fija sin
+     * comprimir. Descarta el resto que no llega a un registro y, en v4 y v5,
+     * los registros finales que no coinciden con su suma de control o cuyo
+     * nombre no llegó al diccionario. Solo lee esos registros finales y el
+     * primero válido, así que no depende del tamaño del fichero.
+     *
+     * @param ch canal del fichero
+     * @param f formato del fichero
+     * @param tamano bytes del fichero, al menos los de la cabecera
+     * @param nombres entradas del diccionario en v5, o -1 para no comprobar
+     * los nombres
+     * @return posición siguiente al último registro válido
+     * @throws IOException si falla la lectura
+     */
+    static long finValido(FileChannel ch, FormatoFichero f, long tamano, int nombres)
+            throws IOException {
+        long registros = (tamano - f.getTamCabecera()) / f.getTamRegistro();
+        if (f.tieneSumaControl()) {
+            ByteBuffer b = ByteBuffer.allocate(f.getTamRegistro());
+            CRC32 crc = new CRC32();
+            boolean conNombres = nombres >= 0 && f.nombresEnDiccionario();
+            while (registros > 0) {
+                b.clear();
+                while (b.hasRemaining()) {
+                    if (ch.read(b, f.posicion(registros - 1) + b.position()) < 0) {
+                        throw new EOFException();
+                    }
+                }
+                if (verifica(f, b, 0, crc) && (!conNombres
+                        || b.get(f.getOffOperacion()) == BAJA
+                        || b.getInt(OFF_NUM_NOMBRE) < nombres)) {
+                    break;
+                }
+                registros--;
+            }
+        }
+        return f.posicion(registros);
+    }
+
+    private static int suma(ByteBuffer vista, int base, int offSuma, CRC32 crc) {
+        vista.limit(base + offSuma).position(base);
+        crc.reset();
+        crc.update(vista);
+        vista.limit(vista.capacity());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Lee el nombre del registro que empieza en la posición absoluta
+     * {@code base} del buffer.
+     *
+     * @param f formato del registro
+     * @param b buffer origen
+     * @param base posición del registro
+     * @param nombres diccionario del fichero en v5; en otros formatos no se
+     * usa
+     * @return el nombre
+     * @throws IOException si el diccionario no tiene el nombre
+     */
+    public static String nombre(FormatoFichero f, ByteBuffer b, int base,
+            DiccionarioNombres nombres) throws IOException {
+        if (f.nombresEnDiccionario()) {
+            return nombres.nombre(b.getInt(base + OFF_NUM_NOMBRE));
+        }
+        return nombreEnLinea(b, base);
+    }
+
+    private static String nombreEnLinea(ByteBuffer b, int base) {
+        int longitud = b.get(base + OFF_LONG_NOMBRE);
+        char[] nombre = new char[longitud];
+        for (int i = 0; i < longitud; i++) {
+            nombre[i] = b.getChar(base + OFF_NOMBRE + 2 * i);
+        }
+        return new String(nombre);
+    }
+
+    /**
+     * Decodifica el registro v2, v3 o v4 que empieza en la posición
+     * absoluta {@code base} del buffer, sin modificar su posición.
+     *
+     * @param b buffer origen
+     * @param base posición del registro
+     * @return el empleado
+     */
+    public static Empleado decodifica(ByteBuffer b, int base) {
+        long inicio = System.nanoTime();
+        return decodifica(b, base, nombreEnLinea(b, base), inicio);
+    }
+
+    /**
+     * Decodifica el registro del formato indicado que empieza en la
+     * posición absoluta {@code base} del buffer, sin modificar su posición.
+     *
+     * @param f formato del registro
+     * @param b buffer origen
+     * @param base posición del registro
+     * @param nombres diccionario del fichero en v5, o null en otros formatos
+     * @return el empleado
+     * @throws IOException si el diccionario no tiene el nombre
+     */
+    public static Empleado decodifica(FormatoFichero f, ByteBuffer b, int base,
+            DiccionarioNombres nombres) throws IOException {
+        long inicio = System.nanoTime();
+        return decodifica(b, base, nombre(f, b, base, nombres), inicio);
+    }
+
+    private static Empleado decodifica(ByteBuffer b, int base, String nombre, long inicio) {
+        Empleado e = new Empleado(
+                nombre,
+                Sexo.fromCodigo((char) b.get(base + OFF_SEXO)),
+                BigDecimal.valueOf(b.getLong(base + OFF_SALARIO), 2),
+                Fechas.deDiaEpoch(b.getInt(base + OFF_FECHA)),
+                TipoEmpleado.fromCodigo((char) b.get(base + OFF_TIPO)),
+                Provincia.fromCodigo(b.get(base + OFF_PROVINCIA)));
+        Metricas.decodificacion(System.nanoTime() - inicio);
+        return e;
+    }
+
+    /**
+     * Convierte un salario a céntimos.
+     *
+     * @param salario importe en euros
+     * @return el importe en céntimos
+     * @throws IllegalArgumentException si tiene más de dos decimales
+     */
+    public static long centimos(BigDecimal salario) {
+        try {
+            return salario.movePointRight(2).longValueExact();
+        } catch (ArithmeticException ex) {
+            throw new IllegalArgumentException(
+                    "El salario no puede tener más de dos decimales: " + salario.toPlainString());
+        }
+    }
+}
@@ -0,0 +1,311 @@
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.ToIntFunction;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Traduce a una constante de una enumeración lo que escribe el usuario
+ * ({@link Sexo}, {@link TipoEmpleado}, {@link Provincia}) y su código del
+ * fichero.
+ *
+ * Las formas aceptadas se declaran como palabras de las que vale cualquier
+ * prefijo a partir de una longitud mínima, y se guardan en un trie con una
+ * letra por arista. La entrada se recorre carácter a carácter, pasando a
+ * mayúsculas, quitando las tildes, ignorando los espacios de los extremos y
+ * juntando los de en medio, sin crear cadenas intermedias. Las mayúsculas
+ * son las de {@link String#toUpperCase()} con el idioma por defecto: si un
+ * carácter no es una letra de una en una (como {@code ß} o {@code ﬁ}, que
+ * dan dos) o el idioma tiene reglas propias (turco, azerí, lituano), se
+ * pasa a mayúsculas el resto de la entrada de una vez. Un prefijo que
+ * no se acepta pero que empieza palabras de valores distintos se rechaza
+ * indicando cuáles.
+ *
+ * Los códigos se buscan en una tabla indexada por el propio código.
+ *
+ * Cada enumeración crea el suyo al inicializarse y después no cambia.
+ */
+final class ResolutorEntrada<E extends Enum<E>> {
+
+    /**
+     * Aristas por nodo: el espacio y las letras de la A a la Z.
+     */
+    private static final int SIMBOLOS = 27;
+    private static final int NINGUNO = -1;
+
+    /**
+     * Último idioma por defecto visto y si tiene mayúsculas propias (ver
+     * {@link #mayusculasPropias}), para no mirarlo en cada entrada.
+     */
+    private static volatile Idioma idioma = new Idioma(Locale.ROOT);
+
+    private final E[] valores;
+    private final E[] porCodigo;
+    private final String error;
+
+    /**
+     * Hijos de cada nodo, {@link #SIMBOLOS} por nodo; 0 es "no hay", ya que
+     * la raíz no es hija de nadie.
+     */
+    private int[] hijos = new int[SIMBOLOS * 16];
+    /**
+     * Ordinal del valor aceptado en cada nodo, o {@link #NINGUNO}.
+     */
+    private int[] aceptado = new int[16];
+    /**
+     * Ordinales de los valores con alguna palabra que pasa por cada nodo,
+     * como bits.
+     */
+    private long[] alcanzables = new long[16];
+    private int nodos = 1;
+
+    /**
+     * @param valores constantes de la enumeración, como mucho 64
+     * @param codigo código de cada constante, entre 0 y 65535
+     * @param error comienzo de los mensajes de entrada inválida, por ejemplo
+     * "Sexo inválido"
+     */
+    ResolutorEntrada(E[] valores, ToIntFunction<E> codigo, String error) {
+        if (valores.length > Long.SIZE) {
+            throw new IllegalArgumentException("Demasiados valores: " + valores.length);
+        }
+        this.valores = valores;
+        this.error = error;
+        int max = 0;
+        for (E v : valores) {
+            max = Math.max(max, codigo.applyAsInt(v));
+        }
+        porCodigo = Arrays.copyOf(valores, max + 1);
+        Arrays.fill(porCodigo, null);
+        for (E v : valores) {
+            porCodigo[codigo.applyAsInt(v)] = v;
+        }
+        aceptado[0] = NINGUNO;
+    }
+
+    /**
+     * Acepta como {@code valor} los prefijos de {@code palabra} de al menos
+     * {@code minimo} caracteres, sin contar los espacios de los extremos.
+     * Para aceptar solo la palabra completa se da su longitud.
+     *
+     * @param valor valor al que se traducen
+     * @param palabra palabra completa, con o sin tildes
+     * @param minimo longitud del prefijo más corto que se acepta
+     * @return este resolutor
+     * @throws IllegalStateException si un mismo prefijo se acepta como dos
+     * valores distintos
+     */
+    ResolutorEntrada<E> prefijos(E valor, String palabra, int minimo) {
+        int fin = fin(palabra);
+        int nodo = 0;
+        int longitud = 0;
+        boolean espacio = false;
+        alcanzables[0] |= 1L << valor.ordinal();
+        for (int i = inicio(palabra); i < fin; i++) {
+            int s = simbolo(palabra.charAt(i));
+            if (s == 0) {
+                if (espacio) {
+                    continue;
+                }
+                espacio = true;
+            } else if (s < 0) {
+                throw new IllegalArgumentException("Carácter no admitido en " + palabra);
+            } else {
+                espacio = false;
+            }
+            nodo = hijo(nodo, s);
+            alcanzables[nodo] |= 1L << valor.ordinal();
+            if (++longitud >= minimo) {
+                if (aceptado[nodo] != NINGUNO && aceptado[nodo] != valor.ordinal()) {
+                    throw new IllegalStateException(palabra.substring(0, i + 1) + " ya es "
+                            + valores[aceptado[nodo]]);
+                }
+                aceptado[nodo] = valor.ordinal();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Traduce una entrada del usuario.
+     *
+     * @param input texto escrito
+     * @return el valor que corresponde
+     * @throws IllegalArgumentException si no corresponde a ninguno, o si es
+     * un prefijo de palabras de varios valores
+     */
+    E resuelve(String input) {
+        if (input == null) {
+            throw new IllegalArgumentException(error);
+        }
+        int inicio = inicio(input);
+        int fin = fin(input);
+        Locale porDefecto = Locale.getDefault();
+        Idioma i = idioma;
+        if (i.locale != porDefecto) {
+            i = new Idioma(porDefecto);
+            idioma = i;
+        }
+        if (i.mayusculasPropias) {
+            String texto = input.substring(inicio, fin).toUpperCase();
+            return recorre(input, texto, 0, texto.length(), 0, false, true);
+        }
+        return recorre(input, input, inicio, fin, 0, false, false);
+    }
+
+    /**
+     * Sigue el trie desde {@code nodo} con los caracteres de {@code texto}
+     * entre {@code desde} y {@code hasta}. Si aún no se ha
+     * {@code plegado} y un carácter no es de ninguna arista, se pasa a
+     * mayúsculas lo que queda y se sigue con eso.
+     */
+    private E recorre(String input, String texto, int desde, int hasta, int nodo,
+            boolean espacio, boolean plegado) {
+        for (int i = desde; i < hasta; i++) {
+            char c = texto.charAt(i);
+            int s;
+            if (esEspacio(c)) {
+                if (espacio) {
+                    continue;
+                }
+                espacio = true;
+                s = 0;
+            } else {
+                s = simbolo(c);
+                if (s < 0 && !plegado && c >= 0x80) {
+                    String resto = texto.substring(i, hasta).toUpperCase();
+                    return recorre(input, resto, 0, resto.length(), nodo, espacio, true);
+                }
+                espacio = false;
+                if (s <= 0) {
+                    throw new IllegalArgumentException(error + ": " + input);
+                }
+            }
+            nodo = hijos[nodo * SIMBOLOS + s];
+            if (nodo == 0) {
+                throw new IllegalArgumentException(error + ": " + input);
+            }
+        }
+        if (aceptado[nodo] != NINGUNO) {
+            return valores[aceptado[nodo]];
+        }
+        if (nodo != 0 && Long.bitCount(alcanzables[nodo]) > 1) {
+            throw new IllegalArgumentException(error + ": " + input + " puede ser "
+                    + candidatos(alcanzables[nodo]));
+        }
+        throw new IllegalArgumentException(error + ": " + input);
+    }
+
+    /**
+     * @param codigo código del fichero
+     * @return el valor con ese código, o null si no hay ninguno
+     */
+    E deCodigo(int codigo) {
+        return codigo >= 0 && codigo < porCodigo.length ? porCodigo[codigo] : null;
+    }
+
+    private String candidatos(long bits) {
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < valores.length; i++) {
+            if ((bits & 1L << i) != 0) {
+                if (s.length() > 0) {
+                    s.append(Long.bitCount(bits >>> i) == 1 ? " o " : ", ");
+                }
+                s.append(valores[i]);
+            }
+        }
+        return s.toString();
+    }
+
+    private int hijo(int nodo, int simbolo) {
+        int h = hijos[nodo * SIMBOLOS + simbolo];
+        if (h == 0) {
+            if (nodos == aceptado.length) {
+                hijos = Arrays.copyOf(hijos, hijos.length * 2);
+                aceptado = Arrays.copyOf(aceptado, aceptado.length * 2);
+                alcanzables = Arrays.copyOf(alcanzables, alcanzables.length * 2);
+            }
+            h = nodos++;
+            aceptado[h] = NINGUNO;
+            hijos[nodo * SIMBOLOS + simbolo] = h;
+        }
+        return h;
+    }
+
+    /**
+     * Arista de un carácter: 0 para un espacio, de 1 a 26 para una letra,
+     * en mayúscula o minúscula y con o sin tilde, y -1 para el resto.
+     */
+    private static int simbolo(char c) {
+        if (esEspacio(c)) {
+            return 0;
+        }
+        char m = Character.toUpperCase(c);
+        switch (m) {
+            case 'Á':
+                m = 'A';
+                break;
+            case 'É':
+                m = 'E';
+                break;
+            case 'Í':
+                m = 'I';
+                break;
+            case 'Ó':
+                m = 'O';
+                break;
+            case 'Ú':
+                m = 'U';
+                break;
+            default:
+                break;
+        }
+        return m >= 'A' && m <= 'Z' ? m - 'A' + 1 : -1;
+    }
+
+    /**
+     * Idiomas en los que {@link String#toUpperCase(Locale)} depende del
+     * contexto o cambia letras ASCII, como la i turca.
+     */
+    private static boolean mayusculasPropias(Locale idioma) {
+        String l = idioma.getLanguage();
+        return l.equals("tr") || l.equals("az") || l.equals("lt");
+    }
+
+    private static final class Idioma {
+
+        final Locale locale;
+        final boolean mayusculasPropias;
+
+        Idioma(Locale locale) {
+            this.locale = locale;
+            this.mayusculasPropias = mayusculasPropias(locale);
+        }
+    }
+
+    /**
+     * Los mismos que {@code \s} en una expresión regular.
+     */
+    private static boolean esEspacio(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Como {@link String#trim()}.
+     */
+    private static int inicio(String s) {
+        int i = 0;
+        while (i < s.length() && s.charAt(i) <= ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static int fin(String s) {
+        int i = s.length();
+        while (i > 0 && s.charAt(i - 1) <= ' ') {
+            i--;
+        }
+        return i;
+    }
+}
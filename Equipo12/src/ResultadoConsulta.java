@@ -0,0 +1,399 @@
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Resultado de una {@link Consulta} evaluada por {@link MotorConsultas}.
+ *
+ * Cada grupo ocupa la posición de su ordinal en arrays de {@code long}:
+ * conteos, un array por agregado, y las posiciones de los registros y de
+ * los máximos si la consulta las pide. Así acumular un registro no crea
+ * objetos ni busca en mapas, y los resultados parciales de los tramos se
+ * combinan sumando arrays y concatenando posiciones en orden del fichero.
+ */
+public final class ResultadoConsulta {
+
+    private final Consulta consulta;
+    private final Enum<?>[] grupos;
+    private final int escala;
+
+    final long[] conteos;
+    /**
+     * Suma, mínimo o máximo de cada agregado por grupo; la media guarda la
+     * suma.
+     */
+    final long[][] agregados;
+
+    private final long[][] registros;
+    private final int[] numRegistros;
+
+    private final long[] maximos;
+    private final long[][] posicionesMaximo;
+    private final int[] numMaximos;
+
+    int diaCalculo;
+    /**
+     * Primer día, excluido, en que el resultado puede cambiar por la
+     * antigüedad de algún empleado.
+     */
+    int validoHasta = Integer.MAX_VALUE;
+
+    ResultadoConsulta(Consulta consulta, int diaCalculo, int escala) {
+        this.consulta = consulta;
+        this.diaCalculo = diaCalculo;
+        this.escala = escala;
+        this.grupos = consulta.getAgrupacion().grupos();
+        int n = grupos.length;
+        conteos = new long[n];
+        agregados = new long[consulta.getNumAgregados()][n];
+        for (int a = 0; a < agregados.length; a++) {
+            if (consulta.funciones[a] == Consulta.Funcion.MINIMO) {
+                Arrays.fill(agregados[a], Long.MAX_VALUE);
+            } else if (consulta.funciones[a] == Consulta.Funcion.MAXIMO) {
+                Arrays.fill(agregados[a], Long.MIN_VALUE);
+            }
+        }
+        if (consulta.isListaRegistros()) {
+            registros = new long[n][16];
+            numRegistros = new int[n];
+        } else {
+            registros = null;
+            numRegistros = null;
+        }
+        if (consulta.getCampoMaximo() != null) {
+            maximos = new long[n];
+            posicionesMaximo = new long[n][4];
+            numMaximos = new int[n];
+        } else {
+            maximos = null;
+            posicionesMaximo = null;
+            numMaximos = null;
+        }
+    }
+
+    public Consulta getConsulta() {
+        return consulta;
+    }
+
+    /**
+     * Decimales de los importes del resultado: {@link Nomina#ESCALA}, es
+     * decir, milésimas, salvo que algún salario v1 tenga más decimales.
+     *
+     * @return decimales de la unidad de los importes
+     */
+    public int getEscala() {
+        return escala;
+    }
+
+    /**
+     * Convierte un importe del resultado a euros.
+     *
+     * @param importe valor de un campo de importe, en la unidad de
+     * {@link #getEscala}
+     * @return el importe exacto
+     */
+    public BigDecimal aEuros(long importe) {
+        return BigDecimal.valueOf(importe, escala);
+    }
+
+    /**
+     * Grupos con algún empleado, en orden de ordinal.
+     *
+     * @return provincias, tipos o sexos; sin agrupación, un único null si
+     * hay empleados
+     */
+    public List<Enum<?>> getGrupos() {
+        List<Enum<?>> conEmpleados = new ArrayList<>();
+        for (int g = 0; g < grupos.length; g++) {
+            if (conteos[g] > 0) {
+                conEmpleados.add(grupos[g]);
+            }
+        }
+        return conEmpleados;
+    }
+
+    /**
+     * Número de empleados de un grupo que pasan los filtros.
+     *
+     * @param grupo provincia, tipo o sexo según la agrupación; null sin ella
+     * @return el conteo
+     */
+    public long getConteo(Enum<?> grupo) {
+        return conteos[indice(grupo)];
+    }
+
+    /**
+     * Número de empleados que pasan los filtros en todos los grupos.
+     *
+     * @return el conteo total
+     */
+    public long getTotal() {
+        long total = 0;
+        for (long n : conteos) {
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Valor de un agregado en un grupo.
+     *
+     * @param agregado número de orden del agregado en la consulta
+     * @param grupo provincia, tipo o sexo según la agrupación; null sin ella
+     * @return el valor en las unidades del campo; los importes, con los
+     * decimales de {@link #getEscala}
+     * @throws IllegalStateException si es mínimo, máximo o media de un
+     * grupo sin empleados
+     */
+    public long getValor(int agregado, Enum<?> grupo) {
+        int g = indice(grupo);
+        long n = conteos[g];
+        Consulta.Funcion funcion = consulta.funciones[agregado];
+        if (funcion == Consulta.Funcion.CONTEO) {
+            return n;
+        }
+        if (n == 0 && funcion != Consulta.Funcion.SUMA) {
+            throw new IllegalStateException("Grupo sin empleados: " + grupo);
+        }
+        long v = agregados[agregado][g];
+        if (funcion != Consulta.Funcion.MEDIA) {
+            return v;
+        }
+        long q = Math.floorDiv(v, n);
+        return 2 * Math.floorMod(v, n) >= n ? q + 1 : q;
+    }
+
+    /**
+     * Posiciones en el fichero de los empleados de un grupo que pasan los
+     * filtros, en orden del fichero.
+     *
+     * @param grupo provincia, tipo o sexo según la agrupación; null sin ella
+     * @return posiciones de registro
+     * @throws IllegalStateException si la consulta no lista registros
+     */
+    public long[] getRegistros(Enum<?> grupo) {
+        if (registros == null) {
+            throw new IllegalStateException("La consulta " + consulta.getNombre()
+                    + " no lista registros.");
+        }
+        int g = indice(grupo);
+        return Arrays.copyOf(registros[g], numRegistros[g]);
+    }
+
+    /**
+     * Máximo del campo de {@link Consulta#listaMaximos} en un grupo.
+     *
+     * @param grupo provincia, tipo o sexo según la agrupación; null sin ella
+     * @return el máximo en las unidades del campo; los importes, con los
+     * decimales de {@link #getEscala}
+     * @throws IllegalStateException si la consulta no busca máximos o el
+     * grupo no tiene empleados
+     */
+    public long getMaximo(Enum<?> grupo) {
+        int g = indiceMaximo(grupo);
+        if (conteos[g] == 0) {
+            throw new IllegalStateException("Grupo sin empleados: " + grupo);
+        }
+        return maximos[g];
+    }
+
+    /**
+     * Posiciones de los empleados de un grupo que alcanzan el máximo, en
+     * orden del fichero.
+     *
+     * @param grupo provincia, tipo o sexo según la agrupación; null sin ella
+     * @return posiciones de registro
+     * @throws IllegalStateException si la consulta no busca máximos
+     */
+    public long[] getRegistrosMaximo(Enum<?> grupo) {
+        int g = indiceMaximo(grupo);
+        return Arrays.copyOf(posicionesMaximo[g], numMaximos[g]);
+    }
+
+    /**
+     * Indica si el resultado sigue valiendo en otra fecha.
+     *
+     * @param dia día de la consulta
+     * @return true si ningún empleado cambia de resultado hasta ese día
+     */
+    boolean vigente(int dia) {
+        return !consulta.dependeDeFecha() || (dia >= diaCalculo && dia < validoHasta);
+    }
+
+    /**
+     * Reduce la vigencia hasta el día indicado, excluido.
+     */
+    void caduca(int dia) {
+        if (dia < validoHasta) {
+            validoHasta = dia;
+        }
+    }
+
+    void anadeRegistro(int g, long posicion) {
+        if (numRegistros[g] == registros[g].length) {
+            registros[g] = Arrays.copyOf(registros[g], numRegistros[g] * 2);
+        }
+        registros[g][numRegistros[g]++] = posicion;
+    }
+
+    /**
+     * Tiene en cuenta el valor de un empleado para el máximo de su grupo.
+     * Se llama antes de contarlo en {@link #conteos}.
+     */
+    void ofreceMaximo(int g, long valor, long posicion) {
+        if (conteos[g] == 0 || valor > maximos[g]) {
+            maximos[g] = valor;
+            numMaximos[g] = 0;
+        } else if (valor < maximos[g]) {
+            return;
+        }
+        anadeMaximo(g, posicion);
+    }
+
+    private void anadeMaximo(int g, long posicion) {
+        if (numMaximos[g] == posicionesMaximo[g].length) {
+            posicionesMaximo[g] = Arrays.copyOf(posicionesMaximo[g], numMaximos[g] * 2);
+        }
+        posicionesMaximo[g][numMaximos[g]++] = posicion;
+    }
+
+    /**
+     * Añade el resultado del tramo siguiente del fichero.
+     */
+    void combina(ResultadoConsulta derecha) {
+        diaCalculo = Math.max(diaCalculo, derecha.diaCalculo);
+        caduca(derecha.validoHasta);
+        for (int g = 0; g < grupos.length; g++) {
+            if (derecha.conteos[g] == 0) {
+                continue;
+            }
+            for (int a = 0; a < agregados.length; a++) {
+                long d = derecha.agregados[a][g];
+                switch (consulta.funciones[a]) {
+                    case MINIMO:
+                        agregados[a][g] = Math.min(agregados[a][g], d);
+                        break;
+                    case MAXIMO:
+                        agregados[a][g] = Math.max(agregados[a][g], d);
+                        break;
+                    default:
+                        agregados[a][g] += d;
+                }
+            }
+            if (registros != null) {
+                for (int i = 0; i < derecha.numRegistros[g]; i++) {
+                    anadeRegistro(g, derecha.registros[g][i]);
+                }
+            }
+            if (maximos != null) {
+                // Los empates se concatenan: primero los del tramo anterior
+                if (conteos[g] == 0 || derecha.maximos[g] > maximos[g]) {
+                    maximos[g] = derecha.maximos[g];
+                    numMaximos[g] = 0;
+                }
+                if (derecha.maximos[g] == maximos[g]) {
+                    for (int i = 0; i < derecha.numMaximos[g]; i++) {
+                        anadeMaximo(g, derecha.posicionesMaximo[g][i]);
+                    }
+                }
+            }
+            conteos[g] += derecha.conteos[g];
+        }
+    }
+
+    void guarda(DataOutput out) throws IOException {
+        out.writeInt(diaCalculo);
+        out.writeInt(validoHasta);
+        out.writeInt(grupos.length);
+        out.writeInt(agregados.length);
+        for (int g = 0; g < grupos.length; g++) {
+            out.writeLong(conteos[g]);
+            for (long[] agregado : agregados) {
+                out.writeLong(agregado[g]);
+            }
+            if (registros != null) {
+                out.writeInt(numRegistros[g]);
+                for (int i = 0; i < numRegistros[g]; i++) {
+                    out.writeLong(registros[g][i]);
+                }
+            }
+            if (maximos != null) {
+                out.writeLong(maximos[g]);
+                out.writeInt(numMaximos[g]);
+                for (int i = 0; i < numMaximos[g]; i++) {
+                    out.writeLong(posicionesMaximo[g][i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lee un resultado escrito con {@link #guarda} para la misma consulta y
+     * escala.
+     */
+    static ResultadoConsulta carga(Consulta consulta, int escala, DataInput in) throws IOException {
+        ResultadoConsulta r = new ResultadoConsulta(consulta, in.readInt(), escala);
+        r.validoHasta = in.readInt();
+        if (in.readInt() != r.grupos.length || in.readInt() != r.agregados.length) {
+            throw new IOException("Punto de control dañado.");
+        }
+        for (int g = 0; g < r.grupos.length; g++) {
+            r.conteos[g] = in.readLong();
+            if (r.conteos[g] < 0) {
+                throw new IOException("Punto de control dañado.");
+            }
+            for (long[] agregado : r.agregados) {
+                agregado[g] = in.readLong();
+            }
+            if (r.registros != null) {
+                int n = leeNumero(in, r.conteos[g]);
+                r.registros[g] = new long[Math.max(16, n)];
+                for (int i = 0; i < n; i++) {
+                    r.registros[g][i] = in.readLong();
+                }
+                r.numRegistros[g] = n;
+            }
+            if (r.maximos != null) {
+                r.maximos[g] = in.readLong();
+                int n = leeNumero(in, r.conteos[g]);
+                r.posicionesMaximo[g] = new long[Math.max(4, n)];
+                for (int i = 0; i < n; i++) {
+                    r.posicionesMaximo[g][i] = in.readLong();
+                }
+                r.numMaximos[g] = n;
+            }
+        }
+        return r;
+    }
+
+    private static int leeNumero(DataInput in, long maximo) throws IOException {
+        int n = in.readInt();
+        if (n < 0 || n > maximo) {
+            throw new IOException("Punto de control dañado.");
+        }
+        return n;
+    }
+
+    private int indiceMaximo(Enum<?> grupo) {
+        if (maximos == null) {
+            throw new IllegalStateException("La consulta " + consulta.getNombre()
+                    + " no busca máximos.");
+        }
+        return indice(grupo);
+    }
+
+    private int indice(Enum<?> grupo) {
+        int i = grupo == null ? 0 : grupo.ordinal();
+        if (i >= grupos.length || grupos[i] != grupo) {
+            throw new IllegalArgumentException("Grupo " + grupo + " ajeno a la agrupación "
+                    + consulta.getAgrupacion().getNombre());
+        }
+        return i;
+    }
+}
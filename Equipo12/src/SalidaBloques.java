@@ -0,0 +1,182 @@
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Flujo que escribe un fichero comprimido (ver {@link BloquesComprimidos}):
+ * la cabecera pasa tal cual, los registros se agrupan en bloques que se
+ * comprimen en paralelo y se escriben en orden, y {@link #termina()}
+ * añade el índice y la cola.
+ */
+final class SalidaBloques extends OutputStream {
+
+    private final OutputStream destino;
+    private final int tamCabecera;
+    private final int tamRegistro;
+    private final int porBloque;
+    private final CodecBloques codec;
+    /**
+     * Bloques comprimiéndose, como mucho {@link #maxEnVuelo}.
+     */
+    private final ArrayDeque<Future<byte[]>> enVuelo = new ArrayDeque<>();
+    private final int maxEnVuelo;
+
+    private byte[] bloque;
+    private int llenos;
+    private long escritos;
+    private long registros;
+    private long[] posiciones = new long[64];
+    private int bloques;
+    private boolean terminado;
+
+    /**
+     * @param destino flujo del fichero, que queda a cargo de este
+     * @param formato formato de los registros
+     * @param codec codec de los bloques
+     * @param registrosPorBloque registros de cada bloque salvo el último
+     */
+    SalidaBloques(OutputStream destino, FormatoFichero formato, CodecBloques codec,
+            int registrosPorBloque) {
+        if (registrosPorBloque < 1
+                || (long) registrosPorBloque * formato.getTamRegistro() > BloquesComprimidos.MAX_BLOQUE) {
+            throw new IllegalArgumentException("Registros por bloque inválidos: " + registrosPorBloque);
+        }
+        this.destino = destino;
+        this.tamCabecera = formato.getTamCabecera();
+        this.tamRegistro = formato.getTamRegistro();
+        this.porBloque = registrosPorBloque;
+        this.codec = codec;
+        this.maxEnVuelo = 2 * Runtime.getRuntime().availableProcessors();
+        this.bloque = new byte[registrosPorBloque * tamRegistro];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (terminado) {
+            throw new IOException("Fichero comprimido ya terminado.");
+        }
+        if (escritos < tamCabecera) {
+            int n = (int) Math.min(len, tamCabecera - escritos);
+            destino.write(b, off, n);
+            escritos += n;
+            off += n;
+            len -= n;
+        }
+        while (len > 0) {
+            int n = Math.min(len, bloque.length - llenos);
+            System.arraycopy(b, off, bloque, llenos, n);
+            llenos += n;
+            off += n;
+            len -= n;
+            if (llenos == bloque.length) {
+                emite();
+            }
+        }
+    }
+
+    /**
+     * Escribe el último bloque, el índice y la cola, y vuelca el destino.
+     * Después ya no se puede escribir.
+     *
+     * @throws IOException si falla la escritura o quedan bytes que no
+     * llegan a un registro
+     */
+    void termina() throws IOException {
+        if (terminado) {
+            return;
+        }
+        if (llenos % tamRegistro != 0 || escritos < tamCabecera) {
+            throw new IOException("Registro incompleto al final del fichero comprimido.");
+        }
+        if (llenos > 0) {
+            emite();
+        }
+        while (!enVuelo.isEmpty()) {
+            escribePrimero();
+        }
+        terminado = true;
+        long posIndice = escritos;
+        ByteBuffer b = ByteBuffer.allocate(16 * bloques + BloquesComprimidos.TAM_COLA);
+        for (int i = 0; i < bloques; i++) {
+            b.putLong((long) i * porBloque);
+            b.putLong(posiciones[i]);
+        }
+        b.putLong(posIndice);
+        b.putLong(registros);
+        b.putInt(bloques);
+        b.putInt(porBloque);
+        b.put(codec.getCodigo());
+        b.put(new byte[3]);
+        b.putInt(BloquesComprimidos.MAGIA);
+        destino.write(b.array());
+        escritos += b.capacity();
+        destino.flush();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        destino.flush();
+    }
+
+    /**
+     * Cierra el destino. Si no se ha llamado a {@link #termina()} el
+     * fichero queda incompleto.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> f : enVuelo) {
+            f.cancel(false);
+        }
+        destino.close();
+    }
+
+    /**
+     * Manda a comprimir el bloque lleno y empieza otro.
+     */
+    private void emite() throws IOException {
+        byte[] datos = bloque;
+        int longitud = llenos;
+        registros += longitud / tamRegistro;
+        enVuelo.add(BloquesComprimidos.HILOS.submit(() -> codec.comprime(datos, longitud)));
+        bloque = new byte[bloque.length];
+        llenos = 0;
+        if (enVuelo.size() >= maxEnVuelo) {
+            escribePrimero();
+        }
+    }
+
+    private void escribePrimero() throws IOException {
+        byte[] comprimido;
+        try {
+            comprimido = enVuelo.peek().get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrumpido comprimiendo un bloque.");
+        } catch (ExecutionException ex) {
+            Throwable causa = ex.getCause();
+            if (causa instanceof RuntimeException) {
+                throw (RuntimeException) causa;
+            }
+            throw new IOException(causa);
+        }
+        enVuelo.remove();
+        if (bloques == posiciones.length) {
+            posiciones = Arrays.copyOf(posiciones, bloques * 2);
+        }
+        posiciones[bloques++] = escritos;
+        destino.write(comprimido);
+        escritos += comprimido.length;
+    }
+}
@@ -0,0 +1,301 @@
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Salida de texto sobre un array de bytes reutilizable, para listados
+ * grandes.
+ *
+ * Los números, importes y fechas se escriben cifra a cifra en el array,
+ * sin pasar por {@link String#format}, {@link java.math.BigDecimal} ni
+ * {@link java.text.SimpleDateFormat}, y el array solo se vuelca al flujo
+ * cuando se llena o al llamar a {@link #vuelca()}. La salida nunca cierra
+ * el flujo, que puede ser {@link System#out}.
+ *
+ * El texto se codifica en UTF-8 a mano. Con otra codificación, que debe
+ * coincidir con ASCII en los primeros 128 caracteres, los demás caracteres
+ * se codifican uno a uno con un {@link CharsetEncoder} que sustituye los
+ * que no puede representar, como hace {@link java.io.PrintStream}.
+ */
+final class SalidaBytes implements Flushable {
+
+    private final OutputStream out;
+    private final byte[] buf;
+    private int n;
+    /**
+     * Cifras de un número, de la última a la primera.
+     */
+    private final byte[] cifras = new byte[20];
+    /**
+     * Codificador de los caracteres no ASCII, null en UTF-8.
+     */
+    private final CharsetEncoder codificador;
+    private final char[] par = new char[2];
+
+    SalidaBytes(OutputStream out, int capacidad) {
+        this(out, capacidad, StandardCharsets.UTF_8);
+    }
+
+    SalidaBytes(OutputStream out, int capacidad, Charset codificacion) {
+        if (capacidad < 64) {
+            throw new IllegalArgumentException("Capacidad demasiado pequeña: " + capacidad);
+        }
+        if (!"09azAZ;-.,% ".equals(new String("09azAZ;-.,% ".getBytes(codificacion),
+                StandardCharsets.ISO_8859_1))) {
+            throw new IllegalArgumentException("Codificación no compatible con ASCII: " + codificacion);
+        }
+        this.out = out;
+        this.buf = new byte[capacidad];
+        this.codificador = codificacion.equals(StandardCharsets.UTF_8) ? null
+                : codificacion.newEncoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Devuelve la codificación con la que {@link System#out} escribe el
+     * texto.
+     *
+     * @return la codificación de la salida estándar
+     */
+    static Charset codificacionSalida() {
+        for (String propiedad : new String[]{"stdout.encoding", "sun.stdout.encoding"}) {
+            String nombre = System.getProperty(propiedad);
+            if (nombre != null && Charset.isSupported(nombre)) {
+                return Charset.forName(nombre);
+            }
+        }
+        return Charset.defaultCharset();
+    }
+
+    /**
+     * Se asegura de que caben {@code bytes} más en el array.
+     */
+    private void reserva(int bytes) throws IOException {
+        if (n + bytes > buf.length) {
+            out.write(buf, 0, n);
+            n = 0;
+        }
+    }
+
+    /**
+     * Escribe un byte (un carácter ASCII).
+     */
+    SalidaBytes ascii(char c) throws IOException {
+        reserva(1);
+        buf[n++] = (byte) c;
+        return this;
+    }
+
+    /**
+     * Escribe una cadena que solo tiene caracteres ASCII, como los nombres
+     * de columnas y los separadores.
+     */
+    SalidaBytes ascii(String s) throws IOException {
+        int longitud = s.length();
+        for (int i = 0; i < longitud; i += buf.length) {
+            int trozo = Math.min(buf.length, longitud - i);
+            reserva(trozo);
+            for (int j = 0; j < trozo; j++) {
+                buf[n++] = (byte) s.charAt(i + j);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Escribe una cadena cualquiera en UTF-8.
+     */
+    SalidaBytes texto(String s) throws IOException {
+        int longitud = s.length();
+        for (int i = 0; i < longitud; i++) {
+            caracter(s.charAt(i), i + 1 < longitud ? s.charAt(i + 1) : 0);
+            if (Character.isHighSurrogate(s.charAt(i)) && i + 1 < longitud
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                i++;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Escribe {@code longitud} caracteres de un array en UTF-8.
+     */
+    SalidaBytes texto(char[] c, int longitud) throws IOException {
+        for (int i = 0; i < longitud; i++) {
+            caracter(c[i], i + 1 < longitud ? c[i + 1] : 0);
+            if (Character.isHighSurrogate(c[i]) && i + 1 < longitud
+                    && Character.isLowSurrogate(c[i + 1])) {
+                i++;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Escribe un carácter en UTF-8. Si es la primera mitad de un par
+     * sustituto se escribe el par completo con {@code siguiente}; una
+     * mitad suelta se escribe como '?', igual que hace {@link String#getBytes}.
+     */
+    private void caracter(char c, char siguiente) throws IOException {
+        reserva(4);
+        if (c >= 0x80 && codificador != null) {
+            codifica(c, siguiente);
+        } else if (c < 0x80) {
+            buf[n++] = (byte) c;
+        } else if (c < 0x800) {
+            buf[n++] = (byte) (0xC0 | c >> 6);
+            buf[n++] = (byte) (0x80 | c & 0x3F);
+        } else if (Character.isSurrogate(c)) {
+            if (Character.isHighSurrogate(c) && Character.isLowSurrogate(siguiente)) {
+                int p = Character.toCodePoint(c, siguiente);
+                buf[n++] = (byte) (0xF0 | p >> 18);
+                buf[n++] = (byte) (0x80 | p >> 12 & 0x3F);
+                buf[n++] = (byte) (0x80 | p >> 6 & 0x3F);
+                buf[n++] = (byte) (0x80 | p & 0x3F);
+            } else {
+                buf[n++] = '?';
+            }
+        } else {
+            buf[n++] = (byte) (0xE0 | c >> 12);
+            buf[n++] = (byte) (0x80 | c >> 6 & 0x3F);
+            buf[n++] = (byte) (0x80 | c & 0x3F);
+        }
+    }
+
+    private void codifica(char c, char siguiente) throws IOException {
+        par[0] = c;
+        par[1] = siguiente;
+        int longitud = Character.isHighSurrogate(c) && Character.isLowSurrogate(siguiente) ? 2 : 1;
+        reserva((int) Math.ceil(codificador.maxBytesPerChar() * longitud));
+        ByteBuffer destino = ByteBuffer.wrap(buf, n, buf.length - n);
+        codificador.reset();
+        codificador.encode(CharBuffer.wrap(par, 0, longitud), destino, true);
+        codificador.flush(destino);
+        n = destino.position();
+    }
+
+    /**
+     * Escribe bytes ya codificados.
+     */
+    SalidaBytes bytes(byte[] b) throws IOException {
+        if (b.length > buf.length) {
+            vuelca();
+            out.write(b);
+            return this;
+        }
+        reserva(b.length);
+        System.arraycopy(b, 0, buf, n, b.length);
+        n += b.length;
+        return this;
+    }
+
+    /**
+     * Escribe {@code cuantos} espacios.
+     */
+    SalidaBytes espacios(int cuantos) throws IOException {
+        for (int i = 0; i < cuantos; i++) {
+            ascii(' ');
+        }
+        return this;
+    }
+
+    /**
+     * Escribe un entero en decimal.
+     */
+    SalidaBytes entero(long v) throws IOException {
+        reserva(20);
+        if (v < 0) {
+            if (v == Long.MIN_VALUE) {
+                return ascii(Long.toString(v));
+            }
+            buf[n++] = '-';
+            v = -v;
+        }
+        int k = 0;
+        do {
+            cifras[k++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        while (k > 0) {
+            buf[n++] = cifras[--k];
+        }
+        return this;
+    }
+
+    /**
+     * Escribe un entero en decimal con al menos {@code ancho} cifras,
+     * completando con ceros a la izquierda.
+     */
+    SalidaBytes entero(long v, int ancho) throws IOException {
+        if (v < 0) {
+            ascii('-');
+            v = -v;
+        }
+        reserva(Math.max(ancho, 19));
+        int k = 0;
+        do {
+            cifras[k++] = (byte) ('0' + v % 10);
+            v /= 10;
+        } while (v != 0);
+        for (int i = k; i < ancho; i++) {
+            buf[n++] = '0';
+        }
+        while (k > 0) {
+            buf[n++] = cifras[--k];
+        }
+        return this;
+    }
+
+    /**
+     * Escribe un importe en céntimos con dos decimales, como {@code %.2f}.
+     */
+    SalidaBytes importe(long centimos, char separadorDecimal) throws IOException {
+        if (centimos < 0) {
+            ascii('-');
+            centimos = -centimos;
+        }
+        entero(centimos / 100);
+        ascii(separadorDecimal);
+        return entero(centimos % 100, 2);
+    }
+
+    /**
+     * Escribe un día desde la época como {@code aaaa-mm-dd}.
+     */
+    SalidaBytes fecha(int diaEpoch) throws IOException {
+        int c = Fechas.civil(diaEpoch);
+        entero(c >> 9, 4);
+        ascii('-');
+        entero(c >> 5 & 0xF, 2);
+        ascii('-');
+        return entero(c & 0x1F, 2);
+    }
+
+    /**
+     * Pasa al flujo lo acumulado en el array y vacía el flujo.
+     */
+    @Override
+    public void flush() throws IOException {
+        vuelca();
+        out.flush();
+    }
+
+    /**
+     * Pasa al flujo lo acumulado en el array.
+     */
+    void vuelca() throws IOException {
+        if (n > 0) {
+            out.write(buf, 0, n);
+            n = 0;
+        }
+    }
+}
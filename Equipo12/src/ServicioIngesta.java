@@ -0,0 +1,375 @@
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Recibe empleados de muchos hilos a la vez y los escribe en el fichero
+ * desde un único hilo, por lotes.
+ *
+ * Los hilos que envían dejan cada empleado en una cola acotada y, si está
+ * llena, esperan a que haya sitio. El hilo escritor toma de la cola todo lo
+ * que haya acumulado (hasta el tamaño máximo de lote), lo escribe con un
+ * {@link EscritorEmpleados} y lo vuelca una sola vez; entonces completa el
+ * {@link CompletableFuture} de cada envío con el identificador asignado.
+ * Con {@link Durabilidad#LOTE} eso significa que el registro ya está en
+ * disco, y mientras se fuerza un lote se va acumulando el siguiente.
+ *
+ * Si falla una escritura, o el hilo escritor recibe cualquier otra
+ * excepción, el servicio queda fallido: los futuros del lote y los de lo
+ * que quede en la cola se completan con el error, y se rechazan los envíos
+ * nuevos.
+ *
+ * El servicio tiene la sesión de escritura abierta hasta que se cierra, así
+ * que otras escrituras sobre el mismo fichero esperan. Usar
+ * {@link EmpleadoDAO#abreIngesta}.
+ */
+public class ServicioIngesta implements Closeable {
+
+    /**
+     * Marca que el hilo escritor recibe al cerrar el servicio.
+     */
+    private static final Envio FIN = new Envio(null);
+
+    private final EscritorEmpleados escritor;
+    private final BlockingQueue<Envio> cola;
+    private final int tamanoMaxLote;
+    private final Thread hilo;
+    /**
+     * Los envíos comparten el bloqueo de lectura; el cierre toma el de
+     * escritura para que nada entre en la cola detrás de {@link #FIN}.
+     */
+    private final ReadWriteLock cierre = new ReentrantReadWriteLock();
+    private boolean cerrado;
+
+    private final AtomicLong registros = new AtomicLong();
+    private final AtomicLong lotes = new AtomicLong();
+    private final AtomicLong latenciaTotal = new AtomicLong();
+    private final AtomicLong latenciaMaxima = new AtomicLong();
+    private volatile int ultimoLote;
+    /**
+     * Error de escritura, o inesperado del hilo escritor, tras el cual se
+     * rechazan los envíos.
+     */
+    private volatile IOException error;
+
+    /**
+     * Arranca el hilo escritor. Usar {@link EmpleadoDAO#abreIngesta}.
+     *
+     * @param escritor sesión de escritura, cuyo lote debe ser mayor que
+     * {@code tamanoMaxLote} para que solo se vuelque al final de cada lote
+     * @param capacidad número de envíos que caben en la cola
+     * @param tamanoMaxLote número máximo de registros por volcado
+     */
+    ServicioIngesta(EscritorEmpleados escritor, int capacidad, int tamanoMaxLote) {
+        if (capacidad < 1) {
+            throw new IllegalArgumentException("Capacidad de cola inválida: " + capacidad);
+        }
+        if (tamanoMaxLote < 1) {
+            throw new IllegalArgumentException("Tamaño de lote inválido: " + tamanoMaxLote);
+        }
+        this.escritor = escritor;
+        this.cola = new ArrayBlockingQueue<>(capacidad);
+        this.tamanoMaxLote = tamanoMaxLote;
+        this.hilo = new Thread(this::escribeLotes, "Ingesta de empleados");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    /**
+     * Envía un empleado para escribirlo, esperando si la cola está llena.
+     *
+     * @param e empleado a escribir
+     * @return futuro que se completa con el identificador del empleado
+     * cuando está escrito, o con la excepción que lo impidió
+     * @throws InterruptedException si se interrumpe la espera
+     * @throws IllegalStateException si el servicio está cerrado o falló
+     */
+    public CompletableFuture<Long> envia(Empleado e) throws InterruptedException {
+        return envia(e, -1, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Envía un empleado para escribirlo, esperando como mucho
+     * {@code espera} a que haya sitio en la cola.
+     *
+     * @param e empleado a escribir
+     * @param espera tiempo máximo de espera
+     * @param unidad unidad de {@code espera}
+     * @return futuro que se completa con el identificador del empleado, o
+     * null si la cola siguió llena todo ese tiempo
+     * @throws InterruptedException si se interrumpe la espera
+     * @throws IllegalStateException si el servicio está cerrado o falló
+     */
+    public CompletableFuture<Long> envia(Empleado e, long espera, TimeUnit unidad)
+            throws InterruptedException {
+        if (e == null) {
+            throw new IllegalArgumentException("Empleado no puede ser nulo.");
+        }
+        Envio envio = new Envio(e);
+        cierre.readLock().lock();
+        try {
+            if (cerrado) {
+                throw new IllegalStateException("El servicio de ingesta está cerrado.");
+            }
+            if (error != null) {
+                throw new IllegalStateException("El servicio de ingesta falló: " + error.getMessage(), error);
+            }
+            if (espera < 0) {
+                cola.put(envio);
+            } else if (!cola.offer(envio, espera, unidad)) {
+                return null;
+            }
+        } finally {
+            cierre.readLock().unlock();
+        }
+        return envio.futuro;
+    }
+
+    /**
+     * Devuelve el número de envíos en la cola que aún no ha tomado el hilo
+     * escritor.
+     *
+     * @return envíos en espera
+     */
+    public int getProfundidadCola() {
+        return cola.size();
+    }
+
+    /**
+     * Devuelve el número de envíos que caben en la cola.
+     *
+     * @return capacidad de la cola
+     */
+    public int getCapacidadCola() {
+        return cola.size() + cola.remainingCapacity();
+    }
+
+    /**
+     * Devuelve el número de empleados escritos.
+     *
+     * @return registros escritos
+     */
+    public long getRegistrosEscritos() {
+        return registros.get();
+    }
+
+    /**
+     * Devuelve el número de volcados hechos.
+     *
+     * @return lotes escritos
+     */
+    public long getLotesEscritos() {
+        return lotes.get();
+    }
+
+    /**
+     * Devuelve el número de registros del último lote.
+     *
+     * @return tamaño del último lote
+     */
+    public int getTamanoUltimoLote() {
+        return ultimoLote;
+    }
+
+    /**
+     * Devuelve el número medio de registros por lote.
+     *
+     * @return tamaño medio de lote, 0 si aún no se ha escrito ninguno
+     */
+    public double getTamanoMedioLote() {
+        long l = lotes.get();
+        return l == 0 ? 0 : (double) registros.get() / l;
+    }
+
+    /**
+     * Devuelve el tiempo medio desde que se envía un empleado hasta que
+     * está escrito.
+     *
+     * @return latencia media en microsegundos
+     */
+    public long getLatenciaMedia() {
+        long r = registros.get();
+        return r == 0 ? 0 : latenciaTotal.get() / r / 1000;
+    }
+
+    /**
+     * Devuelve el mayor tiempo desde que se envió un empleado hasta que
+     * estuvo escrito.
+     *
+     * @return latencia máxima en microsegundos
+     */
+    public long getLatenciaMaxima() {
+        return latenciaMaxima.get() / 1000;
+    }
+
+    /**
+     * Deja de aceptar envíos, escribe los que quedan en la cola y cierra el
+     * fichero.
+     *
+     * @throws IOException si falló alguna escritura o el cierre
+     */
+    @Override
+    public void close() throws IOException {
+        cierre.writeLock().lock();
+        try {
+            if (cerrado) {
+                return;
+            }
+            cerrado = true;
+            ponUninterrumpible(FIN);
+        } finally {
+            cierre.writeLock().unlock();
+        }
+
+        boolean interrumpido = false;
+        while (hilo.isAlive()) {
+            try {
+                hilo.join();
+            } catch (InterruptedException ex) {
+                interrumpido = true;
+            }
+        }
+        if (interrumpido) {
+            Thread.currentThread().interrupt();
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Ingesta: " + registros.get() + " registros en " + lotes.get() + " lotes, "
+                + cola.size() + " en cola";
+    }
+
+    private void ponUninterrumpible(Envio envio) {
+        boolean interrumpido = false;
+        while (true) {
+            try {
+                cola.put(envio);
+                break;
+            } catch (InterruptedException ex) {
+                interrumpido = true;
+            }
+        }
+        if (interrumpido) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Bucle del hilo escritor.
+     */
+    private void escribeLotes() {
+        List<Envio> lote = new ArrayList<>(tamanoMaxLote);
+        boolean fin = false;
+        while (!fin) {
+            try {
+                lote.add(cola.take());
+            } catch (InterruptedException ex) {
+                // Solo se termina al recibir FIN, para no perder envíos
+                continue;
+            }
+            cola.drainTo(lote, tamanoMaxLote - 1);
+            if (lote.get(lote.size() - 1) == FIN) {
+                lote.remove(lote.size() - 1);
+                fin = true;
+            }
+            if (!lote.isEmpty()) {
+                escribe(lote);
+            }
+            lote.clear();
+        }
+
+        try {
+            escritor.close();
+        } catch (Throwable ex) {
+            falla(Collections.<Envio>emptyList(), ex);
+        }
+    }
+
+    /**
+     * Escribe y vuelca un lote, y completa sus futuros.
+     */
+    private void escribe(List<Envio> lote) {
+        if (error != null) {
+            for (Envio envio : lote) {
+                envio.futuro.completeExceptionally(error);
+            }
+            return;
+        }
+
+        int escritos = 0;
+        try {
+            for (Envio envio : lote) {
+                try {
+                    envio.id = escritor.escribe(envio.empleado);
+                    escritos++;
+                } catch (IllegalArgumentException ex) {
+                    // Empleado no representable: se rechaza solo este
+                    envio.futuro.completeExceptionally(ex);
+                    envio.empleado = null;
+                }
+            }
+            escritor.vuelca();
+        } catch (Throwable ex) {
+            // Sin esto el hilo terminaría y los futuros no se completarían
+            falla(lote, ex);
+            return;
+        }
+
+        long ahora = System.nanoTime();
+        for (Envio envio : lote) {
+            if (envio.empleado != null) {
+                long latencia = ahora - envio.enviado;
+                latenciaTotal.addAndGet(latencia);
+                latenciaMaxima.accumulateAndGet(latencia, Math::max);
+                envio.futuro.complete(envio.id);
+            }
+        }
+        registros.addAndGet(escritos);
+        lotes.incrementAndGet();
+        ultimoLote = escritos;
+    }
+
+    /**
+     * Deja el servicio fallido y completa con el error los futuros del lote
+     * que aún no lo estén.
+     */
+    private void falla(List<Envio> lote, Throwable ex) {
+        if (error == null) {
+            error = ex instanceof IOException ? (IOException) ex
+                    : new IOException("Error inesperado en el hilo de ingesta: " + ex, ex);
+        }
+        for (Envio envio : lote) {
+            envio.futuro.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * Un empleado en la cola con su futuro.
+     */
+    private static final class Envio {
+
+        private Empleado empleado;
+        private long id;
+        private final long enviado = System.nanoTime();
+        private final CompletableFuture<Long> futuro = new CompletableFuture<>();
+
+        Envio(Empleado empleado) {
+            this.empleado = empleado;
+        }
+    }
+}
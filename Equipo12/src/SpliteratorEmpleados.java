@@ -0,0 +1,139 @@
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * {@link Spliterator} sobre los registros de un {@link FicheroMapeado}.
+ *
+ * En los formatos de longitud fija conoce el número exacto de registros
+ * ({@link #SIZED}, salvo si hay modificaciones o bajas que saltar) y se
+ * divide por la mitad del rango de posiciones, de modo que cada trozo se
+ * recorre en paralelo con su propio cursor. En v1 los
+ * registros solo se pueden localizar leyendo los anteriores, así que se
+ * divide en lotes crecientes ya decodificados, como
+ * {@link Spliterators.AbstractSpliterator}.
+ *
+ * El fin del fichero se detecta por posición y un registro incompleto al
+ * final no se devuelve; un registro dañado produce una
+ * {@link UncheckedIOException}.
+ */
+final class SpliteratorEmpleados implements Spliterator<Empleado> {
+
+    /**
+     * Por debajo de este número de registros no se divide.
+     */
+    private static final int MIN_DIVISION = 1024;
+    private static final int LOTE_MAX = 1 << 25;
+
+    private final FicheroMapeado fichero;
+    private final int tamRegistro;
+    private long desde;
+    private final long hasta;
+    private CursorEmpleado cursor;
+    private int lote;
+
+    SpliteratorEmpleados(FicheroMapeado fichero) {
+        this(fichero, fichero.getInicioDatos(), fichero.getFormato().esFijo()
+                ? fichero.getInicioDatos() + fichero.getNumRegistros() * fichero.getFormato().getTamRegistro()
+                : fichero.getTamano());
+    }
+
+    private SpliteratorEmpleados(FicheroMapeado fichero, long desde, long hasta) {
+        this.fichero = fichero;
+        this.tamRegistro = fichero.getFormato().getTamRegistro();
+        this.desde = desde;
+        this.hasta = hasta;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Empleado> accion) {
+        try {
+            CursorEmpleado c = cursor();
+            if (!c.siguiente()) {
+                return false;
+            }
+            if (tamRegistro > 0) {
+                desde = c.getPosicion() + tamRegistro;
+            }
+            accion.accept(c.materializa());
+            return true;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Empleado> accion) {
+        try {
+            CursorEmpleado c = cursor();
+            while (c.siguiente()) {
+                if (tamRegistro > 0) {
+                    desde = c.getPosicion() + tamRegistro;
+                }
+                accion.accept(c.materializa());
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    @Override
+    public Spliterator<Empleado> trySplit() {
+        if (tamRegistro > 0) {
+            long registros = (hasta - desde) / tamRegistro;
+            if (registros < 2 * MIN_DIVISION) {
+                return null;
+            }
+            long mitad = desde + (registros / 2) * tamRegistro;
+            // En los comprimidos, al comienzo de un bloque si se puede
+            long enBloque = (mitad - fichero.getInicioDatos()) / tamRegistro
+                    % fichero.getRegistrosPorBloque();
+            if (mitad - enBloque * tamRegistro > desde) {
+                mitad -= enBloque * tamRegistro;
+            }
+            SpliteratorEmpleados prefijo = new SpliteratorEmpleados(fichero, desde, mitad);
+            desde = mitad;
+            cursor = null;
+            return prefijo;
+        }
+
+        // v1: se decodifica un lote por delante y se entrega como array
+        lote = Math.min(LOTE_MAX, lote + MIN_DIVISION);
+        Empleado[] empleados = new Empleado[lote];
+        int n = 0;
+        try {
+            CursorEmpleado c = cursor();
+            while (n < lote && c.siguiente()) {
+                empleados[n++] = c.materializa();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return n == 0 ? null : Spliterators.spliterator(empleados, 0, n, ORDERED | NONNULL | IMMUTABLE);
+    }
+
+    @Override
+    public long estimateSize() {
+        if (tamRegistro > 0) {
+            return (hasta - desde) / tamRegistro;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        int c = ORDERED | NONNULL | IMMUTABLE;
+        return tamRegistro > 0 && !fichero.tieneModificaciones() ? c | SIZED | SUBSIZED : c;
+    }
+
+    private CursorEmpleado cursor() {
+        if (cursor == null) {
+            cursor = fichero.cursor(desde, hasta);
+        }
+        return cursor;
+    }
+}
@@ -0,0 +1,206 @@
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.Set;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Columnas de empleados cargadas en memoria desde el almacenamiento
+ * columnar (ver {@link EscritorColumnar}).
+ *
+ * Solo se leen del disco las columnas pedidas; los accesores de una columna
+ * no cargada lanzan {@link IllegalStateException}. Los valores se indexan
+ * por número de empleado en el orden de FICHE.DAT.
+ */
+public final class TablaColumnar {
+
+    private static final int TAM_LECTURA = 1 << 20;
+
+    private final int registros;
+    private final Set<Columna> cargadas;
+
+    byte[] provincias;
+    byte[] sexos;
+    byte[] tipos;
+    long[] salarios;
+    int[] fechas;
+    long[] finNombres;
+    byte[] nombres;
+
+    private TablaColumnar(int registros, Set<Columna> cargadas) {
+        this.registros = registros;
+        this.cargadas = cargadas;
+    }
+
+    /**
+     * Carga las columnas indicadas de un directorio de columnas. Usar
+     * {@link EmpleadoDAO#cargaColumnas}.
+     *
+     * @param directorio directorio de columnas
+     * @param columnas columnas a cargar
+     * @return la tabla con esas columnas
+     * @throws IOException si falta alguna columna o no se puede leer
+     */
+    static TablaColumnar carga(Path directorio, Set<Columna> columnas) throws IOException {
+        long n = EscritorColumnar.leeRegistros(directorio);
+        if (n > Integer.MAX_VALUE - 8) {
+            throw new IOException("Demasiados empleados para cargar en memoria: " + n);
+        }
+        int r = (int) n;
+        TablaColumnar t = new TablaColumnar(r, columnas.isEmpty()
+                ? EnumSet.noneOf(Columna.class) : EnumSet.copyOf(columnas));
+
+        for (Columna c : t.cargadas) {
+            switch (c) {
+                case PROVINCIA:
+                    t.provincias = new byte[r];
+                    lee(directorio.resolve(c.getFichero()), t.provincias, null, null);
+                    break;
+                case SEXO:
+                    t.sexos = new byte[(int) c.longitud(r)];
+                    lee(directorio.resolve(c.getFichero()), t.sexos, null, null);
+                    break;
+                case TIPO:
+                    t.tipos = new byte[r];
+                    lee(directorio.resolve(c.getFichero()), t.tipos, null, null);
+                    break;
+                case SALARIO:
+                    t.salarios = new long[r];
+                    lee(directorio.resolve(c.getFichero()), null, t.salarios, null);
+                    break;
+                case FECHA:
+                    t.fechas = new int[r];
+                    lee(directorio.resolve(c.getFichero()), null, null, t.fechas);
+                    break;
+                case NOMBRE:
+                    t.finNombres = new long[r];
+                    lee(directorio.resolve(c.getFichero()), null, t.finNombres, null);
+                    long heap = r == 0 ? 0 : t.finNombres[r - 1];
+                    if (heap > Integer.MAX_VALUE - 8) {
+                        throw new IOException("Nombres demasiado grandes para cargar en memoria.");
+                    }
+                    t.nombres = new byte[(int) heap];
+                    lee(directorio.resolve(EscritorColumnar.FICHERO_NOMBRES), t.nombres, null, null);
+                    break;
+                default:
+                    throw new AssertionError(c);
+            }
+        }
+        return t;
+    }
+
+    public int getRegistros() {
+        return registros;
+    }
+
+    public boolean estaCargada(Columna c) {
+        return cargadas.contains(c);
+    }
+
+    public byte getCodigoProvincia(int i) {
+        compruebaCargada(provincias, Columna.PROVINCIA);
+        return provincias[i];
+    }
+
+    public Provincia getProvincia(int i) {
+        return Provincia.fromCodigo(getCodigoProvincia(i));
+    }
+
+    public Sexo getSexo(int i) {
+        compruebaCargada(sexos, Columna.SEXO);
+        compruebaIndice(i);
+        return Sexo.values()[(sexos[i >>> 3] >>> (i & 7)) & 1];
+    }
+
+    public char getCodigoTipo(int i) {
+        compruebaCargada(tipos, Columna.TIPO);
+        return (char) tipos[i];
+    }
+
+    public TipoEmpleado getTipoEmpleado(int i) {
+        return TipoEmpleado.fromCodigo(getCodigoTipo(i));
+    }
+
+    public long getSalarioCentimos(int i) {
+        compruebaCargada(salarios, Columna.SALARIO);
+        return salarios[i];
+    }
+
+    public int getFechaIngresoDiaEpoch(int i) {
+        compruebaCargada(fechas, Columna.FECHA);
+        return fechas[i];
+    }
+
+    public String getNombre(int i) {
+        compruebaCargada(nombres, Columna.NOMBRE);
+        int desde = i == 0 ? 0 : (int) finNombres[i - 1];
+        return new String(nombres, desde, (int) finNombres[i] - desde, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Construye el empleado {@code i}. Requiere todas las columnas.
+     *
+     * @param i número de empleado
+     * @return un empleado nuevo
+     */
+    public Empleado materializa(int i) {
+        return new Empleado(
+                getNombre(i),
+                getSexo(i),
+                BigDecimal.valueOf(getSalarioCentimos(i), 2),
+                Fechas.deDiaEpoch(getFechaIngresoDiaEpoch(i)),
+                getTipoEmpleado(i),
+                getProvincia(i));
+    }
+
+    private void compruebaCargada(Object columna, Columna c) {
+        if (columna == null) {
+            throw new IllegalStateException("Columna no cargada: " + c);
+        }
+    }
+
+    private void compruebaIndice(int i) {
+        if (i < 0 || i >= registros) {
+            throw new IndexOutOfBoundsException("Empleado inexistente: " + i);
+        }
+    }
+
+    /**
+     * Lee el principio de un fichero de columna en el único array no nulo.
+     */
+    private static void lee(Path p, byte[] bytes, long[] longs, int[] ints) throws IOException {
+        int ancho = bytes != null ? 1 : longs != null ? 8 : 4;
+        long total = (long) ancho * (bytes != null ? bytes.length : longs != null ? longs.length : ints.length);
+
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            if (ch.size() < total) {
+                throw new IOException("Columna incompleta: " + p);
+            }
+            ByteBuffer b = ByteBuffer.allocateDirect(TAM_LECTURA);
+            long pos = 0;
+            int i = 0;
+            while (pos < total) {
+                b.clear();
+                b.limit((int) Math.min(b.capacity(), total - pos));
+                EscritorColumnar.leeCompleto(ch, b, pos);
+                b.flip();
+                pos += b.remaining();
+                int n = b.remaining() / ancho;
+                if (bytes != null) {
+                    b.get(bytes, i, n);
+                } else if (longs != null) {
+                    b.asLongBuffer().get(longs, i, n);
+                } else {
+                    b.asIntBuffer().get(ints, i, n);
+                }
+                i += n;
+            }
+        }
+    }
+}
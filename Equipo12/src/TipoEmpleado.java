@@ -14,6 +14,20 @@ public enum TipoEmpleado {
      * Empleado a domicilio (código 'D').
      */
     DOMICILIO('D', "A domicilio");
+    /**
+     * Formas aceptadas en {@link #fromInput(String)}: "CO" es a comisión
+     * aunque también empiece "contrato".
+     */
+    private static final ResolutorEntrada<TipoEmpleado> RESOLUTOR
+            = new ResolutorEntrada<>(values(), t -> t.codigo, "Tipo inválido")
+                    .prefijos(COMISION, "COMISION", 1)
+                    .prefijos(COMISION, "COMISIONES", 10)
+                    .prefijos(COMISION, "A COMISION", 10)
+                    .prefijos(FIJO, "FIJO", 1)
+                    .prefijos(FIJO, "CONTRATO", 8)
+                    .prefijos(FIJO, "CONTRATO FIJO", 13)
+                    .prefijos(DOMICILIO, "DOMICILIO", 1)
+                    .prefijos(DOMICILIO, "A DOMICILIO", 11);
     /**
      * Código asociado al tipo de empleado.
      */
@@ -62,67 +76,14 @@ public enum TipoEmpleado {
      * tipo válido
      */
     public static TipoEmpleado fromCodigo(char codigo) {
-        for (TipoEmpleado t : values()) {
-            if (t.codigo == codigo) {
-                return t;
-            }
+        TipoEmpleado t = RESOLUTOR.deCodigo(codigo);
+        if (t != null) {
+            return t;
         }
         throw new IllegalArgumentException("Código de tipo inválido: " + codigo);
     }
 
     public static TipoEmpleado fromInput(String input) {
-        if (input == null) {
-            throw new IllegalArgumentException("Tipo inválido");
-        }
-
-        String s = normalizar(input);
-
-        switch (s) {
-
-            // COMISIÓN
-            case "C":
-            case "CO":
-            case "COM":
-            case "COMI":
-            case "COMIS":
-            case "COMISI":
-            case "COMISION":
-            case "A COMISION":
-            case "COMISIONES":
-                return TipoEmpleado.COMISION;
-
-            // FIJO
-            case "F":
-            case "FI":
-            case "FIJ":
-            case "FIJO":
-            case "CONTRATO":
-            case "CONTRATO FIJO":
-                return TipoEmpleado.FIJO;
-
-            // DOMICILIO
-            case "D":
-            case "DO":
-            case "DOM":
-            case "DOMI":
-            case "DOMIC":
-            case "DOMICI":
-            case "DOMICIL":
-            case "DOMICILI":
-            case "DOMICILIO":
-            case "A DOMICILIO":
-                return TipoEmpleado.DOMICILIO;
-
-            default:
-                throw new IllegalArgumentException("Tipo inválido: " + input);
-        }
-    }
-
-    private static String normalizar(String input) {
-        String s = input.trim().toUpperCase();
-        s = s.replace("Á", "A").replace("É", "E")
-                .replace("Í", "I").replace("Ó", "O")
-                .replace("Ú", "U");
-        return s.replaceAll("\\s+", " ");
+        return RESOLUTOR.resuelve(input);
     }
 }
@@ -0,0 +1,188 @@
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.GregorianCalendar;
+
+/* Equipo 12: Juan Luis Gil de Miguel, Ricardo Boza Villar */
+/**
+ * Comprueba que {@link Nomina} da los mismos importes que el cálculo
+ * original con {@link BigDecimal}.
+ *
+ * Uso: {@code java VerificaNomina [fichero]} compara cada empleado del
+ * fichero (por defecto FICHE.DAT), tanto desde {@link Empleado} como desde
+ * el cursor. {@code java VerificaNomina -exhaustivo} recorre todos los
+ * salarios posibles (0 a 9999.99) con cada combinación de provincia y sexo,
+ * y la antigüedad de todas las fechas de ingreso entre 1900 y 2100.
+ *
+ * Además del valor exacto se compara el texto {@code %.2f}, que es lo que
+ * muestran los informes, y la escala de los importes de {@link Empleado},
+ * que debe ser la del cálculo original. Termina con código 1 si encuentra
+ * diferencias.
+ */
+public class VerificaNomina {
+
+    private static final int MAX_ERRORES = 10;
+
+    private static long comprobados;
+    private static int errores;
+
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("-exhaustivo")) {
+            exhaustivo();
+        } else {
+            try {
+                fichero(args.length > 0 ? args[0] : "FICHE.DAT");
+            } catch (IOException ex) {
+                System.err.println("Error leyendo empleados: " + ex.getMessage());
+                System.exit(2);
+            }
+        }
+
+        System.out.println("Comprobados: " + comprobados + ". Diferencias: " + errores + ".");
+        if (errores > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void fichero(String fichero) throws IOException {
+        EmpleadoDAO dao = new EmpleadoDAO();
+        LocalDate fecha = LocalDate.now();
+        int hoy = (int) fecha.toEpochDay();
+
+        try (LectorEmpleados in = dao.abreLector(fichero)) {
+            Empleado e;
+            while ((e = in.lee()) != null) {
+                GregorianCalendar ingreso = new GregorianCalendar();
+                ingreso.setTime(e.getFechaIngreso());
+                int esperada = antiguedad(ingreso, calendario(hoy));
+                if (esperada != e.getAntiguedad(fecha)) {
+                    error(e.getNombre() + " (antigüedad)", esperada, e.getAntiguedad(fecha));
+                }
+                BigDecimal complementos = e.getComplementosExactos(esperada / 3);
+                comparaIgual(e.getNombre() + " (complementos)", complementos,
+                        e.getComplementos(fecha));
+                comparaIgual(e.getNombre() + " (sueldo)",
+                        e.getSalarioBase().add(complementos), e.getSueldo(fecha));
+            }
+        }
+
+        try (FicheroMapeado f = dao.abreMapeado(fichero)) {
+            CursorEmpleado c = f.cursor();
+            while (c.siguiente()) {
+                Empleado e = c.materializa();
+                compara(e.getNombre() + " (cursor)", e.getSalarioBase().add(
+                        e.getComplementosExactos(e.getTrienios(fecha))),
+                        Nomina.aEuros(Nomina.sueldo(c, hoy)));
+            }
+        }
+    }
+
+    private static void exhaustivo() {
+        int[] trienios = {0, 1, 13};
+        for (long centimos = 0; centimos <= 999_999; centimos++) {
+            BigDecimal salario = BigDecimal.valueOf(centimos, 2);
+            for (Provincia p : new Provincia[]{Provincia.SEVILLA, Provincia.JAEN}) {
+                for (Sexo s : Sexo.values()) {
+                    for (int t : trienios) {
+                        BigDecimal esperado = salario.add(complementos(t, salario, p, s));
+                        long sueldo = centimos * 10 + Nomina.complementos(t, centimos,
+                                p.getCodigo(), s == Sexo.HOMBRE);
+                        compara(salario + " " + p + " " + s + " " + t, esperado, Nomina.aEuros(sueldo));
+                        if (t == 0) {
+                            comparaTexto(salario + " " + p + " " + s, esperado, sueldo);
+                        }
+                    }
+                }
+            }
+        }
+
+        int desde = (int) LocalDate.of(1900, 1, 1).toEpochDay();
+        int hasta = (int) LocalDate.of(2100, 12, 31).toEpochDay();
+        int[] hoys = {
+            (int) LocalDate.of(2024, 2, 29).toEpochDay(),
+            (int) LocalDate.of(2025, 2, 28).toEpochDay(),
+            (int) LocalDate.of(2025, 3, 1).toEpochDay(),
+            (int) LocalDate.of(2025, 12, 31).toEpochDay(),
+            Fechas.hoy()
+        };
+        for (int hoy : hoys) {
+            GregorianCalendar h = calendario(hoy);
+            for (int d = desde; d <= hasta; d++) {
+                int esperado = antiguedad(calendario(d), h);
+                int anios = Fechas.anios(d, hoy);
+                comprobados++;
+                if (anios != esperado) {
+                    error(LocalDate.ofEpochDay(d) + " a "
+                            + LocalDate.ofEpochDay(hoy), esperado, anios);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reglas de {@link Empleado#getComplementos()} con {@link BigDecimal}.
+     */
+    private static BigDecimal complementos(int trienios, BigDecimal salario, Provincia p, Sexo s) {
+        BigDecimal c = BigDecimal.valueOf(trienios).multiply(BigDecimal.valueOf(24));
+        if (p == Provincia.JAEN || p == Provincia.HUELVA || p == Provincia.ALMERIA) {
+            c = c.add(salario.multiply(new BigDecimal("0.10")));
+        }
+        if (s == Sexo.HOMBRE) {
+            c = c.add(BigDecimal.valueOf(120));
+        }
+        return c;
+    }
+
+    /**
+     * Reglas de {@link Empleado#getAntiguedad()} con días arbitrarios.
+     */
+    private static int antiguedad(GregorianCalendar ingreso, GregorianCalendar hoy) {
+        int antiguedad = hoy.get(GregorianCalendar.YEAR) - ingreso.get(GregorianCalendar.YEAR);
+        if (hoy.get(GregorianCalendar.MONTH) < ingreso.get(GregorianCalendar.MONTH)
+                || (hoy.get(GregorianCalendar.MONTH) == ingreso.get(GregorianCalendar.MONTH)
+                && hoy.get(GregorianCalendar.DAY_OF_MONTH) < ingreso.get(GregorianCalendar.DAY_OF_MONTH))) {
+            antiguedad--;
+        }
+        return antiguedad;
+    }
+
+    private static GregorianCalendar calendario(int diaEpoch) {
+        GregorianCalendar c = new GregorianCalendar();
+        c.setTime(Fechas.deDiaEpoch(diaEpoch));
+        return c;
+    }
+
+    private static void compara(String caso, BigDecimal esperado, BigDecimal obtenido) {
+        comprobados++;
+        if (esperado.compareTo(obtenido) != 0) {
+            error(caso, esperado, obtenido);
+        }
+    }
+
+    /**
+     * Compara también la escala, para que {@link Empleado} devuelva los
+     * mismos {@link BigDecimal} que antes.
+     */
+    private static void comparaIgual(String caso, BigDecimal esperado, BigDecimal obtenido) {
+        comprobados++;
+        if (!esperado.equals(obtenido)) {
+            error(caso, esperado, obtenido);
+        }
+    }
+
+    private static void comparaTexto(String caso, BigDecimal esperado, long milesimas) {
+        String a = String.format("%.2f", esperado.doubleValue());
+        String b = String.format("%.2f", BigDecimal.valueOf(Nomina.aCentimos(milesimas), 2));
+        comprobados++;
+        if (!a.equals(b)) {
+            error(caso + " (%.2f)", a, b);
+        }
+    }
+
+    private static void error(String caso, Object esperado, Object obtenido) {
+        if (++errores <= MAX_ERRORES) {
+            System.out.println(caso + ": esperado " + esperado + ", obtenido " + obtenido);
+        }
+    }
+}